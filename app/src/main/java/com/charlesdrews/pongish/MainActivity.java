@@ -1,5 +1,6 @@
 package com.charlesdrews.pongish;
 
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Build;
@@ -10,6 +11,7 @@ import android.text.Html;
 import android.text.Spannable;
 import android.text.Spanned;
 import android.view.View;
+import android.widget.Button;
 
 import com.charlesdrews.pongish.game.PongActivity;
 import com.charlesdrews.pongish.game.objects.GameObjects;
@@ -17,6 +19,10 @@ import com.charlesdrews.pongish.game.objects.GameObjects;
 public class MainActivity extends AppCompatActivity implements View.OnClickListener {
 
     public static final String VERSION_UPDATE_DIALOG_SHOWN_KEY = "v1.1_dialog_shown";
+    public static final String DIFFICULTY_KEY = "difficulty";
+
+    private int mDifficulty;
+    private Button mDifficultyButton;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -27,9 +33,17 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         findViewById(R.id.one_player_right_game_button).setOnClickListener(this);
         findViewById(R.id.one_player_left_game_button).setOnClickListener(this);
         findViewById(R.id.demo_mode_button).setOnClickListener(this);
+        findViewById(R.id.chaos_mode_button).setOnClickListener(this);
 
-        // Show version update dialog, but only if it hasn't already been shown.
         SharedPreferences prefs = getPreferences(MODE_PRIVATE);
+
+        // Restore the last selected difficulty.
+        mDifficulty = prefs.getInt(DIFFICULTY_KEY, GameObjects.Scene.DIFFICULTY_MEDIUM);
+        mDifficultyButton = (Button) findViewById(R.id.difficulty_button);
+        mDifficultyButton.setOnClickListener(this);
+        updateDifficultyButtonText();
+
+        // Show version update dialog, but only if it hasn't already been shown.
         boolean versionUpdateDialogShown = prefs.getBoolean(VERSION_UPDATE_DIALOG_SHOWN_KEY, false);
 
         if (!versionUpdateDialogShown) {
@@ -44,7 +58,20 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     @Override
     public void onClick(View view) {
 
+        // Chaos mode asks for a target ball count first, then starts the game itself.
+        if (view.getId() == R.id.chaos_mode_button) {
+            launchChaosModeDialog();
+            return;
+        }
+
+        // The difficulty button cycles through the difficulty levels.
+        if (view.getId() == R.id.difficulty_button) {
+            cycleDifficulty();
+            return;
+        }
+
         Intent intent = new Intent(MainActivity.this, PongActivity.class);
+        intent.putExtra(PongActivity.DIFFICULTY_KEY, mDifficulty);
 
         switch (view.getId()) {
 
@@ -71,6 +98,50 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         startActivity(intent);
     }
 
+    private void cycleDifficulty() {
+        String[] names = getResources().getStringArray(R.array.difficulty_names);
+        mDifficulty = (mDifficulty + 1) % names.length;
+        updateDifficultyButtonText();
+
+        SharedPreferences.Editor editor = getPreferences(MODE_PRIVATE).edit();
+        editor.putInt(DIFFICULTY_KEY, mDifficulty);
+        editor.apply();
+    }
+
+    private void updateDifficultyButtonText() {
+        String[] names = getResources().getStringArray(R.array.difficulty_names);
+        mDifficultyButton.setText(String.format(getString(R.string.difficulty_button),
+                names[mDifficulty]));
+    }
+
+    private void launchChaosModeDialog() {
+        final int[] targetBallCounts =
+                getResources().getIntArray(R.array.chaos_mode_target_ball_counts);
+
+        String[] labels = new String[targetBallCounts.length];
+        for (int i = 0; i < targetBallCounts.length; i++) {
+            labels[i] = String.format(getString(R.string.chaos_mode_ball_count_option),
+                    targetBallCounts[i]);
+        }
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.chaos_mode_dialog_title)
+                .setItems(labels, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int which) {
+
+                        // Computer plays both sides so every run of the benchmark is comparable.
+                        Intent intent = new Intent(MainActivity.this, PongActivity.class);
+                        intent.putExtra(PongActivity.COMPUTER_CONTROLLED_PADDLE_KEY,
+                                GameObjects.Scene.BOTH_PADDLES);
+                        intent.putExtra(PongActivity.CHAOS_MODE_TARGET_BALL_COUNT_KEY,
+                                targetBallCounts[which]);
+                        startActivity(intent);
+                    }
+                })
+                .show();
+    }
+
     private void launchVersionUpdateDialog() {
         String title = String.format(getString(R.string.version_update_dialog_title),
                 getString(R.string.version));
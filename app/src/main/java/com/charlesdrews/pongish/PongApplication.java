@@ -0,0 +1,49 @@
+package com.charlesdrews.pongish;
+
+import android.app.Application;
+import android.util.Log;
+
+import com.charlesdrews.pongish.game.objects.AiPolicyTable;
+import com.charlesdrews.pongish.game.objects.GameObjects;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Load resources shared by every game once, when the app starts.
+ */
+public class PongApplication extends Application {
+
+    private static final String TAG = "PongApplication";
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        loadAiPolicyTable(GameObjects.Scene.DIFFICULTY_EASY, R.raw.ai_policy_easy);
+        loadAiPolicyTable(GameObjects.Scene.DIFFICULTY_MEDIUM, R.raw.ai_policy_medium);
+        loadAiPolicyTable(GameObjects.Scene.DIFFICULTY_HARD, R.raw.ai_policy_hard);
+    }
+
+    /**
+     * Read a policy table from the raw resources and register it for the given difficulty. If
+     * it can't be read, the computer falls back to chasing its target at full speed.
+     */
+    private void loadAiPolicyTable(int difficulty, int resourceId) {
+        InputStream in = getResources().openRawResource(resourceId);
+        try {
+            AiPolicyTable.register(difficulty, AiPolicyTable.read(in));
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Unable to load AI policy table for difficulty " + difficulty, e);
+        }
+        finally {
+            try {
+                in.close();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Unable to close AI policy table resource", e);
+            }
+        }
+    }
+}
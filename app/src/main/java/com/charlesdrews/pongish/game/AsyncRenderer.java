@@ -0,0 +1,194 @@
+package com.charlesdrews.pongish.game;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Feeds another Renderer from its own thread, so a slow consumer (a recorder, a second display)
+ * can never hold up the game loop. Each frame's render command buffer is copied into one of a
+ * fixed number of spare buffers and queued; if the consumer has fallen so far behind that none
+ * are free, the frame is dropped for this consumer instead of waiting.
+ *
+ * Only whole frames from drawCommandBuffer() are passed along. The individual draw___() calls,
+ * like the countdown, are on-screen only and are ignored here.
+ */
+public class AsyncRenderer implements GameEngine.Renderer {
+
+    // ===================================== Constants ==========================================
+
+    private static final String TAG = "AsyncRenderer";
+
+
+    // ================================= Member variables =======================================
+
+    private final GameEngine.Renderer mTarget;
+    private final BlockingQueue<RenderCommandBuffer> mFreeBuffers, mQueuedFrames;
+    private final AtomicInteger mDroppedFrames = new AtomicInteger();
+    private Thread mThread;
+
+    // The copy of the frame being drawn, between beginDrawing() and commitDrawing().
+    private RenderCommandBuffer mPendingFrame;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param target is the Renderer to draw frames with, on this renderer's thread.
+     * @param maxQueuedFrames is how many frames may wait for the target before frames are
+     *                        dropped.
+     */
+    public AsyncRenderer(@NonNull final GameEngine.Renderer target, final int maxQueuedFrames) {
+        mTarget = target;
+        mFreeBuffers = new ArrayBlockingQueue<>(maxQueuedFrames);
+        mQueuedFrames = new ArrayBlockingQueue<>(maxQueuedFrames);
+        for (int i = 0; i < maxQueuedFrames; i++) {
+            mFreeBuffers.add(new RenderCommandBuffer());
+        }
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Start the thread that draws queued frames with the target.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drawQueuedFrames();
+            }
+        }, TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stop the drawing thread. Frames still queued are dropped.
+     */
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mThread.interrupt();
+        try {
+            mThread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+
+        RenderCommandBuffer frame;
+        while ((frame = mQueuedFrames.poll()) != null) {
+            mFreeBuffers.add(frame);
+        }
+    }
+
+    public GameEngine.Renderer getTarget() {
+        return mTarget;
+    }
+
+    /**
+     * @return how many frames were dropped because the target couldn't keep up.
+     */
+    public int getDroppedFrameCount() {
+        return mDroppedFrames.get();
+    }
+
+
+    // ============================ GameEngine.Renderer methods =================================
+
+    @Override
+    public void setRenderScale(float scale) {
+        // The target draws at whatever resolution it was set up with.
+    }
+
+    @Override
+    public void setDirtyRegion(float left, float top, float right, float bottom) {
+        // The target always gets whole frames.
+    }
+
+    @Override
+    public boolean beginDrawing() {
+        mPendingFrame = null;
+        return true;
+    }
+
+    @Override
+    public void commitDrawing() {
+        if (mPendingFrame != null) {
+            mQueuedFrames.add(mPendingFrame);
+            mPendingFrame = null;
+        }
+    }
+
+    @Override
+    public void drawCommandBuffer(@NonNull RenderCommandBuffer buffer) {
+        RenderCommandBuffer frame = mFreeBuffers.poll();
+        if (frame == null) {
+            mDroppedFrames.incrementAndGet();
+            return;
+        }
+        frame.copyFrom(buffer);
+        mPendingFrame = frame;
+    }
+
+    @Override
+    public void drawBackground(int color) {}
+
+    @Override
+    public void drawVerticalLine(float x, float topY, float bottomY, int color, boolean dashed) {}
+
+    @Override
+    public void drawScore(@NonNull String scoreText, float x, float topY, float textSize,
+                          int color, boolean rightAlign) {}
+
+    @Override
+    public void drawCircle(float centerX, float centerY, float radius, int color) {}
+
+    @Override
+    public void drawCircleBatch(@NonNull float[] centers, int offset, int count, float radius,
+                                int color) {}
+
+    @Override
+    public void drawRect(float leftX, float topY, float rightX, float bottomY, int color) {}
+
+    @Override
+    public void drawCountDown(@NonNull String countDownText, float textSize, int textColor,
+                              int backgroundColor) {}
+
+    @Override
+    public void drawFramesPerSecond(@NonNull String fpsText, float x, float y, float textSize,
+                                    int color) {}
+
+
+    // ================================== Helper methods ========================================
+
+    private void drawQueuedFrames() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                RenderCommandBuffer frame = mQueuedFrames.take();
+                try {
+                    if (mTarget.beginDrawing()) {
+                        mTarget.drawCommandBuffer(frame);
+                        mTarget.commitDrawing();
+                    }
+                }
+                finally {
+                    mFreeBuffers.add(frame);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Log.v(TAG, "Stopped drawing queued frames");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.charlesdrews.pongish.game;
+
+import com.charlesdrews.pongish.game.objects.GameObjects;
+
+/**
+ * Maps board units, which the scene and everything it records are in, onto a view's pixels. The
+ * board is scaled uniformly to fit between room for the players' thumbs at either side of the
+ * view, and centered, so the same scene draws correctly at any size or orientation.
+ *
+ * Only positions and sizes from the scene are mapped; line widths and dash lengths stay in
+ * pixels. Immutable, so a renderer can swap in a new one without locking.
+ */
+public final class BoardTransform {
+
+    // ===================================== Constants ==========================================
+
+    public static final float HORIZONTAL_THUMB_MARGIN_AS_PERCENT_OF_VIEW_WIDTH = 0.11f;
+
+
+    // ================================= Member variables =======================================
+
+    private final int mViewWidth, mViewHeight;
+    private final float mScale;
+    private final float mOffsetX, mOffsetY;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param viewWidth is the width of the view to draw in, in pixels.
+     * @param viewHeight is the height of the view to draw in, in pixels.
+     */
+    public BoardTransform(final int viewWidth, final int viewHeight) {
+        mViewWidth = viewWidth;
+        mViewHeight = viewHeight;
+
+        float availableWidth =
+                viewWidth * (1f - 2f * HORIZONTAL_THUMB_MARGIN_AS_PERCENT_OF_VIEW_WIDTH);
+        mScale = Math.max(Float.MIN_VALUE, Math.min(
+                availableWidth / GameObjects.Scene.BOARD_WIDTH,
+                viewHeight / GameObjects.Scene.BOARD_HEIGHT));
+
+        mOffsetX = (viewWidth - GameObjects.Scene.BOARD_WIDTH * mScale) / 2f;
+        mOffsetY = (viewHeight - GameObjects.Scene.BOARD_HEIGHT * mScale) / 2f;
+    }
+
+
+    // ================================== Public methods ========================================
+
+    public int getViewWidth() {
+        return mViewWidth;
+    }
+
+    public int getViewHeight() {
+        return mViewHeight;
+    }
+
+    /**
+     * @return the number of pixels in one board unit.
+     */
+    public float getScale() {
+        return mScale;
+    }
+
+    public float toViewX(final float boardX) {
+        return mOffsetX + boardX * mScale;
+    }
+
+    public float toViewY(final float boardY) {
+        return mOffsetY + boardY * mScale;
+    }
+
+    /**
+     * @return the length in pixels, e.g. of a radius or a text size.
+     */
+    public float toViewLength(final float boardLength) {
+        return boardLength * mScale;
+    }
+
+    /**
+     * @return the length in board units, e.g. of a drag across the view.
+     */
+    public float toBoardLength(final float viewLength) {
+        return viewLength / mScale;
+    }
+}
@@ -0,0 +1,213 @@
+package com.charlesdrews.pongish.game;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.charlesdrews.pongish.game.objects.GameObjects;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps a snapshot of the scene from every recent update in a fixed-size ring outside the Java
+ * heap, so that when something goes wrong - a long stall, or a crash on the game thread - the
+ * last minute or so of play can be written to a file and replayed.
+ *
+ * Every update gets a slot of the same size, so recording is a single write into the next slot
+ * with no allocation. Only the first few balls are kept, since the rest are bonus balls.
+ *
+ * A dump file starts with a header of little endian ints: MAGIC, FORMAT_VERSION, the slot size,
+ * the number of slots that follow, and the most balls per slot. Each slot, oldest first, holds
+ * the update's sequence number (long), the update's length in milliseconds (int), and then the
+ * snapshot written by GameObjects.Scene.writeSnapshot().
+ */
+public class FlightRecorder {
+
+    // ===================================== Constants ==========================================
+
+    private static final String TAG = "FlightRecorder";
+
+    public static final int MAGIC = 0x50465231; // "PFR1"
+    public static final int FORMAT_VERSION = 1;
+
+    // The normal ball plus a few bonus balls.
+    public static final int MAX_BALLS_PER_SLOT = 8;
+
+    private static final int SLOT_HEADER_BYTES = 12;
+    private static final int SLOT_BYTES = SLOT_HEADER_BYTES +
+            GameObjects.Scene.SNAPSHOT_BASE_BYTES +
+            MAX_BALLS_PER_SLOT * GameObjects.Scene.SNAPSHOT_BYTES_PER_BALL;
+    private static final int FILE_HEADER_BYTES = 20;
+
+    private static final String FILE_NAME_TEMPLATE = "flight_%d_%s.pfr";
+    private static final int MAX_DUMP_FILES = 5;
+
+
+    // ================================= Member variables =======================================
+
+    private final int mSlotCount;
+    private final ByteBuffer mRing;
+    private long mSequence = 0L;
+
+    private final File mDirectory;
+
+    // The ring is copied here to be written out, so the game thread can carry on recording.
+    private final byte[] mDumpBytes;
+    private final AtomicBoolean mDumpInProgress = new AtomicBoolean(false);
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param slotCount is the number of updates to keep.
+     * @param directory is where to write dumps. Created if needed.
+     */
+    public FlightRecorder(final int slotCount, @NonNull final File directory) {
+        mSlotCount = slotCount;
+        mRing = ByteBuffer.allocateDirect(slotCount * SLOT_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        mDirectory = directory;
+        mDumpBytes = new byte[FILE_HEADER_BYTES + slotCount * SLOT_BYTES];
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Record the scene as it is after an update. Call on the game thread only.
+     *
+     * @param scene is the scene that was just updated.
+     * @param millisSinceLastUpdate is the length of the update.
+     */
+    public void recordUpdate(@NonNull final GameObjects.Scene scene,
+                             final long millisSinceLastUpdate) {
+        int start = (int) (mSequence % mSlotCount) * SLOT_BYTES;
+        mRing.limit(start + SLOT_BYTES);
+        mRing.position(start);
+        mRing.putLong(mSequence);
+        mRing.putInt((int) millisSinceLastUpdate);
+        scene.writeSnapshot(mRing, MAX_BALLS_PER_SLOT);
+        mSequence++;
+    }
+
+    /**
+     * Write the recorded updates to a new file in the background. Call on the game thread only.
+     * Does nothing if the last dump is still being written.
+     *
+     * @param reason is a short word for why, e.g. "slow", which goes in the file name.
+     */
+    public void dumpInBackground(@NonNull final String reason) {
+        if (!mDumpInProgress.compareAndSet(false, true)) {
+            return;
+        }
+        final int length = copyRing();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeDump(reason, length);
+                }
+                finally {
+                    mDumpInProgress.set(false);
+                }
+            }
+        }, TAG).start();
+    }
+
+    /**
+     * Write the recorded updates to a new file before returning, e.g. when the game thread is
+     * about to die. Call on the game thread only.
+     *
+     * @param reason is a short word for why, e.g. "crash", which goes in the file name.
+     */
+    public void dumpNow(@NonNull final String reason) {
+
+        // A background dump may be using the copy, so wait for it rather than overwrite it.
+        while (!mDumpInProgress.compareAndSet(false, true)) {
+            Thread.yield();
+        }
+        try {
+            writeDump(reason, copyRing());
+        }
+        finally {
+            mDumpInProgress.set(false);
+        }
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    /**
+     * Copy the header and the recorded slots, oldest first, into the dump bytes.
+     *
+     * @return the number of bytes copied.
+     */
+    private int copyRing() {
+        int slots = (int) Math.min(mSequence, mSlotCount);
+        int oldest = (int) ((mSequence - slots) % mSlotCount);
+
+        ByteBuffer header = ByteBuffer.wrap(mDumpBytes).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.putInt(SLOT_BYTES);
+        header.putInt(slots);
+        header.putInt(MAX_BALLS_PER_SLOT);
+
+        // The oldest slots run to the end of the ring, then wrap around to the start.
+        int firstPartSlots = Math.min(slots, mSlotCount - oldest);
+        mRing.limit(mRing.capacity());
+        mRing.position(oldest * SLOT_BYTES);
+        mRing.get(mDumpBytes, FILE_HEADER_BYTES, firstPartSlots * SLOT_BYTES);
+        mRing.position(0);
+        mRing.get(mDumpBytes, FILE_HEADER_BYTES + firstPartSlots * SLOT_BYTES,
+                (slots - firstPartSlots) * SLOT_BYTES);
+
+        return FILE_HEADER_BYTES + slots * SLOT_BYTES;
+    }
+
+    private void writeDump(final String reason, final int length) {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Unable to create " + mDirectory);
+            return;
+        }
+        deleteOldDumps();
+
+        File file = new File(mDirectory, String.format(Locale.US, FILE_NAME_TEMPLATE,
+                System.currentTimeMillis(), reason));
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(mDumpBytes, 0, length);
+            }
+            finally {
+                out.close();
+            }
+            Log.i(TAG, "Wrote flight recording to " + file);
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Unable to write flight recording to " + file, e);
+        }
+    }
+
+    /**
+     * Make room for one more dump. File names start with the time, so they sort oldest first.
+     */
+    private void deleteOldDumps() {
+        String[] names = mDirectory.list();
+        if (names == null || names.length < MAX_DUMP_FILES) {
+            return;
+        }
+        Arrays.sort(names);
+        for (int i = 0; i <= names.length - MAX_DUMP_FILES; i++) {
+            if (!new File(mDirectory, names[i]).delete()) {
+                Log.w(TAG, "Unable to delete old flight recording " + names[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.charlesdrews.pongish.game;
+
+import java.util.Locale;
+
+/**
+ * Track live performance stats for the game loop: ticks per second, average update and draw time,
+ * and an estimate of the allocation rate. Stats are averaged over a short window, and the text to
+ * display is only rebuilt when a window closes, so that drawing the stats doesn't itself show up
+ * as a steady stream of allocations.
+ */
+public class FrameStats {
+
+    // ===================================== Constants ==========================================
+
+    private static final long WINDOW_IN_NANOS = 500_000_000L;
+    private static final float NANOS_PER_MILLI = 1_000_000f;
+
+    private static final String BALL_COUNT_TEMPLATE = "Balls: %d";
+    private static final String TICKS_PER_SECOND_TEMPLATE = "TPS: %d";
+    private static final String UPDATE_TIME_TEMPLATE = "Update: %.2f ms";
+    private static final String DRAW_TIME_TEMPLATE = "Draw: %.2f ms";
+    private static final String ALLOCATION_RATE_TEMPLATE = "Alloc: %d KB/s";
+
+
+    // ================================= Member variables =======================================
+
+    private final Runtime mRuntime = Runtime.getRuntime();
+    private final String[] mLines = { "", "", "", "", "" };
+
+    private long mWindowStartNanos = 0L;
+    private int mWindowTicks = 0;
+    private long mWindowUpdateNanos = 0L, mWindowDrawNanos = 0L;
+    private long mWindowAllocatedBytes = 0L;
+    private long mLastUsedHeapBytes = 0L;
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Forget any partially filled window, e.g. after the game loop was paused.
+     */
+    public void reset() {
+        mWindowStartNanos = 0L;
+        mWindowTicks = 0;
+        mWindowUpdateNanos = 0L;
+        mWindowDrawNanos = 0L;
+        mWindowAllocatedBytes = 0L;
+        mLastUsedHeapBytes = 0L;
+    }
+
+    /**
+     * Record the timings of one tick of the game loop.
+     *
+     * @param updateNanos is the time spent updating the scene.
+     * @param drawNanos is the time spent drawing the frame.
+     * @param ballCount is the number of balls currently in the scene.
+     */
+    public void recordTick(final long updateNanos, final long drawNanos, final int ballCount) {
+        long now = System.nanoTime();
+        if (mWindowStartNanos == 0L) {
+            mWindowStartNanos = now;
+        }
+
+        mWindowTicks++;
+        mWindowUpdateNanos += updateNanos;
+        mWindowDrawNanos += drawNanos;
+
+        // The heap only shrinks when the GC runs, so count growth as allocation and skip drops.
+        long usedHeapBytes = mRuntime.totalMemory() - mRuntime.freeMemory();
+        if (mLastUsedHeapBytes != 0L && usedHeapBytes > mLastUsedHeapBytes) {
+            mWindowAllocatedBytes += usedHeapBytes - mLastUsedHeapBytes;
+        }
+        mLastUsedHeapBytes = usedHeapBytes;
+
+        long windowNanos = now - mWindowStartNanos;
+        if (windowNanos >= WINDOW_IN_NANOS) {
+            float windowSeconds = windowNanos / 1_000_000_000f;
+
+            mLines[0] = String.format(Locale.getDefault(), BALL_COUNT_TEMPLATE, ballCount);
+            mLines[1] = String.format(Locale.getDefault(), TICKS_PER_SECOND_TEMPLATE,
+                    Math.round(mWindowTicks / windowSeconds));
+            mLines[2] = String.format(Locale.getDefault(), UPDATE_TIME_TEMPLATE,
+                    mWindowUpdateNanos / NANOS_PER_MILLI / mWindowTicks);
+            mLines[3] = String.format(Locale.getDefault(), DRAW_TIME_TEMPLATE,
+                    mWindowDrawNanos / NANOS_PER_MILLI / mWindowTicks);
+            mLines[4] = String.format(Locale.getDefault(), ALLOCATION_RATE_TEMPLATE,
+                    Math.round(mWindowAllocatedBytes / 1024f / windowSeconds));
+
+            mWindowStartNanos = now;
+            mWindowTicks = 0;
+            mWindowUpdateNanos = 0L;
+            mWindowDrawNanos = 0L;
+            mWindowAllocatedBytes = 0L;
+        }
+    }
+
+    /**
+     * @return the lines of text to display, as of the most recently completed window.
+     */
+    public String[] getLines() {
+        return mLines;
+    }
+}
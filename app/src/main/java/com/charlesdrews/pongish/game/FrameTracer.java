@@ -0,0 +1,176 @@
+package com.charlesdrews.pongish.game;
+
+import android.os.Build;
+import android.os.Trace;
+import android.support.annotation.NonNull;
+
+import com.charlesdrews.pongish.game.objects.GameObjects;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Records the start and end of each section of work on the game thread into fixed-size arrays,
+ * and writes them out as a Chrome trace-event JSON file, which chrome://tracing or Perfetto can
+ * show as a timeline. Off by default; while off, each call is a field read and a counter update.
+ *
+ * Once full, the oldest events are overwritten, so the file always covers the most recent stretch
+ * of play. While on, sections are also passed to android.os.Trace, so they show up in systrace.
+ */
+public class FrameTracer implements GameObjects.Tracer {
+
+    // ===================================== Constants ==========================================
+
+    // Sections nested deeper than this are counted, but not recorded.
+    private static final int MAX_DEPTH = 32;
+
+    // Everything is drawn on the game thread, so the trace only has the one process and thread.
+    private static final int PROCESS_ID = 1;
+    private static final int THREAD_ID = 1;
+    private static final String THREAD_NAME = "Game thread";
+
+
+    // ================================= Member variables =======================================
+
+    private volatile boolean mEnabled = false;
+    private final long mStartNanos = System.nanoTime();
+
+    // Ring of recorded events. The name is null for the end of a section.
+    private final String[] mNames;
+    private final long[] mTimestampNanos;
+    private long mEventCount = 0L;
+
+    // Whether each open section was recorded, so its end is recorded to match, even if tracing
+    // was turned on or off in between.
+    private final boolean[] mOpenSectionRecorded = new boolean[MAX_DEPTH];
+    private int mDepth = 0;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param capacity is the number of events to keep. Each section is two events.
+     */
+    public FrameTracer(final int capacity) {
+        mNames = new String[capacity];
+        mTimestampNanos = new long[capacity];
+    }
+
+
+    // ================================== Public methods ========================================
+
+    public void setEnabled(final boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Write the recorded events to the given file, as Chrome trace-event JSON.
+     *
+     * @param file is the file to write, replacing any existing file.
+     */
+    public void writeTrace(@NonNull final File file) throws IOException {
+        String[] names;
+        long[] timestamps;
+        int count, first;
+        synchronized (this) {
+            count = (int) Math.min(mEventCount, mNames.length);
+            first = (int) ((mEventCount - count) % mNames.length);
+            names = mNames.clone();
+            timestamps = mTimestampNanos.clone();
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8"));
+        try {
+            writer.write("{\"traceEvents\":[\n");
+            writer.write(String.format(Locale.US,
+                    "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":%d,\"tid\":%d," +
+                            "\"args\":{\"name\":\"%s\"}}", PROCESS_ID, THREAD_ID, THREAD_NAME));
+
+            // The oldest events may be the ends of sections whose starts were overwritten.
+            int depth = 0;
+            for (int i = 0; i < count; i++) {
+                int index = (first + i) % names.length;
+                boolean begin = names[index] != null;
+                if (begin) {
+                    depth++;
+                }
+                else if (depth > 0) {
+                    depth--;
+                }
+                else {
+                    continue;
+                }
+
+                double micros = (timestamps[index] - mStartNanos) / 1_000d;
+                if (begin) {
+                    writer.write(String.format(Locale.US,
+                            ",\n{\"name\":\"%s\",\"ph\":\"B\",\"ts\":%.3f,\"pid\":%d,\"tid\":%d}",
+                            names[index], micros, PROCESS_ID, THREAD_ID));
+                }
+                else {
+                    writer.write(String.format(Locale.US,
+                            ",\n{\"ph\":\"E\",\"ts\":%.3f,\"pid\":%d,\"tid\":%d}",
+                            micros, PROCESS_ID, THREAD_ID));
+                }
+            }
+            writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+
+    // ============================= GameObjects.Tracer methods =================================
+
+    @Override
+    public void beginSection(@NonNull final String name) {
+        boolean record = mEnabled && mDepth < MAX_DEPTH;
+        if (mDepth < MAX_DEPTH) {
+            mOpenSectionRecorded[mDepth] = record;
+        }
+        mDepth++;
+
+        if (record) {
+            recordEvent(name);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Trace.beginSection(name);
+            }
+        }
+    }
+
+    @Override
+    public void endSection() {
+        if (mDepth == 0) {
+            return;
+        }
+        mDepth--;
+
+        if (mDepth < MAX_DEPTH && mOpenSectionRecorded[mDepth]) {
+            recordEvent(null);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                Trace.endSection();
+            }
+        }
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private synchronized void recordEvent(final String name) {
+        int index = (int) (mEventCount % mNames.length);
+        mNames[index] = name;
+        mTimestampNanos[index] = System.nanoTime();
+        mEventCount++;
+    }
+}
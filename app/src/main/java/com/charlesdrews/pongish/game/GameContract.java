@@ -4,6 +4,11 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import com.charlesdrews.pongish.game.net.Transport;
+
+import java.io.File;
+import java.io.IOException;
+
 /**
  * Contracts for the view, view's activity, and presenter
  *
@@ -90,11 +95,6 @@ public interface GameContract {
          */
         void unbindRenderer();
 
-        /**
-         * Set the dimensions of the game board when the SurfaceView is changed.
-         */
-        void setGameBoardDimensions(final int width, final int height);
-
         /**
          * Save all necessary game state data to the provided bundle.
          *
@@ -126,21 +126,70 @@ public interface GameContract {
         void onPauseButtonClick();
 
         /**
-         * Quit current game, reset game state, then start a new game.
+         * Quit current game, reset game state, then start a new game. Does nothing in a
+         * networked match, since the other player's game would carry on.
          */
         void onRestartButtonClick();
 
         /**
-         * Communicate the change in left paddle position to the PongScene.
+         * Play against another device instead of on this one. Call before the game view is
+         * ready. Both devices must use the same board size and match seed.
+         *
+         * @param transport connects to the other device. Closed in onActivityDestroy().
+         * @param localPaddle is the paddle this device's player controls, Scene.LEFT_PADDLE (0)
+         *                    or Scene.RIGHT_PADDLE (1).
+         * @param matchSeed must be the same on both devices.
+         */
+        void setNetplay(@NonNull final Transport transport, final int localPaddle,
+                        final long matchSeed);
+
+        /**
+         * Stream the game to any spectators who connect to the given UDP port, until the activity
+         * is destroyed.
+         *
+         * @param port is the port spectators connect to.
+         */
+        void startSpectatorStream(final int port) throws IOException;
+
+        /**
+         * Release anything held for the life of the activity, e.g. a network connection.
+         */
+        void onActivityDestroy();
+
+        /**
+         * Start writing the game's performance metrics to files in the given directory at a
+         * fixed interval, in the background.
+         *
+         * @param directory is where to write the metrics files.
+         */
+        void startMetricsExport(@NonNull final File directory);
+
+        /**
+         * Stop writing performance metrics, after writing one last snapshot.
+         */
+        void stopMetricsExport();
+
+        /**
+         * Keep a flight recording of recent play, to be written to the given directory if a
+         * frame stalls or the game crashes.
+         *
+         * @param directory is where to write flight recordings.
+         */
+        void setFlightRecorderDirectory(@NonNull final File directory);
+
+        /**
+         * Communicate the change in left paddle position to the left paddle's controller.
          *
-         * @param deltaY the change in position requested by the user since the last event.
+         * @param deltaY the change in position requested by the user since the last event, in
+         *               board units.
          */
         void onLeftSidePointerMove(float deltaY);
 
         /**
-         * Communicate the change in right paddle position to the PongScene.
+         * Communicate the change in right paddle position to the right paddle's controller.
          *
-         * @param deltaY the change in position requested by the user since the last event.
+         * @param deltaY the change in position requested by the user since the last event, in
+         *               board units.
          */
         void onRightSidePointerMove(float deltaY);
     }
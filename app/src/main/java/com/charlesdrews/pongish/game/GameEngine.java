@@ -1,9 +1,15 @@
 package com.charlesdrews.pongish.game;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
+import com.charlesdrews.pongish.game.metrics.MetricsRegistry;
+import com.charlesdrews.pongish.game.net.SpectatorBroadcaster;
 import com.charlesdrews.pongish.game.objects.GameObjects;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * Contracts for the game engine and the game renderer
  *
@@ -28,6 +34,22 @@ public interface GameEngine {
          */
         void unbindRenderer();
 
+        /**
+         * Also send every frame to the given Renderer, e.g. a recorder or a second display. The
+         * frame is recorded once and copied to each sink, and each sink draws on its own thread,
+         * so a slow sink drops frames rather than slowing down the bound Renderer.
+         *
+         * @param sink is the extra Renderer to send frames to.
+         */
+        void addRenderSink(@NonNull Renderer sink);
+
+        /**
+         * Stop sending frames to a Renderer added with addRenderSink().
+         *
+         * @param sink is the Renderer to remove.
+         */
+        void removeRenderSink(@NonNull Renderer sink);
+
         /**
          * Set the PongScene object upon which the Engine will act.
          *
@@ -43,6 +65,90 @@ public interface GameEngine {
          */
         long getLastFrameRenderTimeInMillis();
 
+        /**
+         * Show or hide the live stats overlay: ball count, ticks per second, update and draw
+         * times, and allocation rate.
+         *
+         * @param enabled indicates whether the stats should be drawn on each frame.
+         */
+        void setStatsOverlayEnabled(boolean enabled);
+
+        /**
+         * Turn dirty-region rendering on or off. When on, frames only redraw the part of the
+         * screen the scene reports as changed, if the Renderer supports it. The region is a single
+         * box, so it's only smaller than the screen when what moved is close together.
+         *
+         * @param enabled indicates whether to pass the scene's dirty region to the Renderer.
+         */
+        void setDirtyRegionRenderingEnabled(boolean enabled);
+
+        /**
+         * Draw frames at a fraction of the screen's resolution, and let the display scale them
+         * up. The scene doesn't depend on the resolution. Turns off automatic render scaling.
+         *
+         * @param scale is the fraction of full resolution to draw at, e.g. 0.5f, or 1f for full.
+         */
+        void setRenderScale(float scale);
+
+        /**
+         * Turn automatic render scaling on or off. When on, the render scale steps down whenever
+         * frames take too long to draw, and back up when there's time to spare.
+         *
+         * @param enabled indicates whether the Engine should choose the render scale.
+         */
+        void setAutoRenderScaleEnabled(boolean enabled);
+
+        /**
+         * Update the scene in fixed-length ticks, independent of the frame rate. Each frame runs
+         * as many ticks as real time calls for, then draws the balls and paddles blended between
+         * the last two ticks, so motion stays smooth on displays faster than the tick rate.
+         *
+         * @param tickInMillis is the length of each tick, or 0 to update once per frame by the
+         *                     last frame's duration instead (the default).
+         */
+        void setSimulationTickInMillis(long tickInMillis);
+
+        /**
+         * Turn tracing on or off. While on, the Engine records when each phase of each frame
+         * starts and ends - the update and its phases, building the render list, and locking,
+         * drawing, and posting the frame - and passes them to android.os.Trace as well.
+         *
+         * @param enabled indicates whether to record the phases of each frame.
+         */
+        void setTracingEnabled(boolean enabled);
+
+        /**
+         * Write the most recently traced phases to a file, as Chrome trace-event JSON.
+         *
+         * @param file is the file to write, replacing any existing file.
+         */
+        void writeTrace(@NonNull File file) throws IOException;
+
+        /**
+         * Keep a flight recording: a snapshot of the scene after every update, for about the last
+         * minute. It's written to a file in the given directory whenever a frame takes too long,
+         * or if the game thread crashes.
+         *
+         * @param directory is where to write recordings, or null to stop recording.
+         */
+        void setFlightRecorderDirectory(@Nullable File directory);
+
+        /**
+         * Stream the scene to spectators after every update.
+         *
+         * @param broadcaster sends the scene to spectators, or null to stop streaming.
+         */
+        void setSpectatorBroadcaster(@Nullable SpectatorBroadcaster broadcaster);
+
+        /**
+         * Retrieve the Engine's metrics: frame times, lock failures, ball count, and points
+         * scored. Others, like input latency, can be added to the same registry.
+         *
+         * @return the registry the Engine records its metrics in.
+         */
+        @NonNull
+        MetricsRegistry getMetricsRegistry();
+
         /**
          * Create a new thread and initiate the run() method and its update/draw loop on the thread.
          */
@@ -67,9 +173,33 @@ public interface GameEngine {
 
     /**
      * Provides the functionality to draw game objects to the screen.
+     *
+     * Coordinates and sizes passed to a Renderer, including text sizes, are in board units (see
+     * GameObjects.Scene.BOARD_WIDTH). The Renderer maps them onto its screen, e.g. with a
+     * BoardTransform, so nothing upstream depends on the screen's size.
      */
     interface Renderer {
 
+        /**
+         * Limit the next frame to the given region of the board. Only affects the next call to
+         * beginDrawing(); frames begun without calling this first are redrawn in full. The
+         * Renderer may redraw more than this, e.g. if the surface changed since the last frame.
+         *
+         * @param left is the x coordinate of the region's left edge.
+         * @param top is the y coordinate of the region's top edge.
+         * @param right is the x coordinate of the region's right edge.
+         * @param bottom is the y coordinate of the region's bottom edge.
+         */
+        void setDirtyRegion(float left, float top, float right, float bottom);
+
+        /**
+         * Draw at a fraction of the screen's resolution from now on. Coordinates passed to the
+         * draw___() methods are still in board units.
+         *
+         * @param scale is the fraction of full resolution to draw at, or 1f for full.
+         */
+        void setRenderScale(float scale);
+
         /**
          * MUST be called before any of the draw___() methods for a given frame of animation
          *
@@ -120,11 +250,24 @@ public interface GameEngine {
          *
          * @param centerX is the x coordinate of the circle's center.
          * @param centerY is the y coordinate of the circle's center.
-         * @param radius of the circle in pixels
+         * @param radius of the circle.
          * @param color of the circle as an int
          */
         void drawCircle(float centerX, float centerY, float radius, int color);
 
+        /**
+         * Draw many circles of the same radius and color in one call.
+         * beginDrawing MUST be called prior, and commitDrawing() MUST be called after.
+         *
+         * @param centers holds each circle's center x and y coordinates, one after the other.
+         * @param offset is the index in centers of the first circle's center x.
+         * @param count is the number of circles.
+         * @param radius of every circle.
+         * @param color of every circle as an int.
+         */
+        void drawCircleBatch(@NonNull float[] centers, int offset, int count, float radius,
+                             int color);
+
         /**
          * Draw a rectangle in the game area.
          * beginDrawing MUST be called prior, and commitDrawing() MUST be called after.
@@ -137,6 +280,14 @@ public interface GameEngine {
          */
         void drawRect(float leftX, float topY, float rightX, float bottomY, int color);
 
+        /**
+         * Draw every command in the buffer, in order, in a single pass.
+         * beginDrawing MUST be called prior, and commitDrawing() MUST be called after.
+         *
+         * @param buffer holds the frame's draw commands.
+         */
+        void drawCommandBuffer(@NonNull RenderCommandBuffer buffer);
+
         /**
          * Draw a countdown number in the center of the screen.
          *
@@ -155,7 +306,7 @@ public interface GameEngine {
          * @param fpsText a String of the FPS text
          * @param x coordinate of the top-left text corner
          * @param y coordinate of the top-left text corner
-         * @param textSize in pixels
+         * @param textSize is the height of the text.
          * @param color of the text as an int
          */
         void drawFramesPerSecond(@NonNull String fpsText, float x, float y, float textSize,
@@ -0,0 +1,183 @@
+package com.charlesdrews.pongish.game;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+
+/**
+ * The digits 0-9 drawn once, at one text size, into a single alpha-only bitmap. Numbers are then
+ * drawn by copying each digit's cell, which skips the font shaping and glyph rasterization that
+ * Canvas.drawText() does on every call. Since the bitmap only holds coverage, the digits take the
+ * color of the Paint they're drawn with.
+ *
+ * The layout of the last few numbers drawn is kept, keyed by the String instance, so a score that
+ * hasn't changed (and so is still the same String) isn't measured again.
+ */
+public class GlyphAtlas {
+
+    // ===================================== Constants ==========================================
+
+    private static final int DIGIT_COUNT = 10;
+    private static final int LAYOUT_CACHE_SIZE = 4;
+
+    // Room around each cell so neighboring digits never bleed into each other.
+    private static final int CELL_PADDING = 1;
+
+
+    // ================================= Member variables =======================================
+
+    private final float mTextSize;
+    private final Bitmap mBitmap;
+    private final Rect[] mCells = new Rect[DIGIT_COUNT];
+    private final float[] mAdvances = new float[DIGIT_COUNT];
+    private final int mAscent, mDescent;
+
+    // Reused for each digit drawn, to avoid allocating while drawing.
+    private final Rect mDestination = new Rect();
+
+    // Most recently laid out numbers and their widths, replaced round robin.
+    private final String[] mLayoutTexts = new String[LAYOUT_CACHE_SIZE];
+    private final float[] mLayoutWidths = new float[LAYOUT_CACHE_SIZE];
+    private int mNextLayout = 0;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * Rasterize the digits 0-9 at the given text size.
+     *
+     * @param textSize is the text size the digits will be drawn at.
+     */
+    public GlyphAtlas(final float textSize) {
+        mTextSize = textSize;
+
+        Paint paint = new Paint();
+        paint.setTextSize(textSize);
+        paint.setTextAlign(Paint.Align.LEFT);
+
+        // Ascent is negative, as it's measured up from the baseline.
+        mAscent = (int) Math.floor(paint.ascent());
+        mDescent = (int) Math.ceil(paint.descent());
+        int cellHeight = mDescent - mAscent + 2 * CELL_PADDING;
+
+        // Lay the digits out side by side, each in a cell as wide as its advance.
+        char[] digit = new char[1];
+        int x = 0;
+        for (int i = 0; i < DIGIT_COUNT; i++) {
+            digit[0] = (char) ('0' + i);
+            mAdvances[i] = paint.measureText(digit, 0, 1);
+            int cellWidth = (int) Math.ceil(mAdvances[i]) + 2 * CELL_PADDING;
+            mCells[i] = new Rect(x, 0, x + cellWidth, cellHeight);
+            x += cellWidth;
+        }
+
+        mBitmap = Bitmap.createBitmap(Math.max(x, 1), cellHeight, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(mBitmap);
+        for (int i = 0; i < DIGIT_COUNT; i++) {
+            digit[0] = (char) ('0' + i);
+            canvas.drawText(digit, 0, 1, mCells[i].left + CELL_PADDING,
+                    CELL_PADDING - mAscent, paint);
+        }
+    }
+
+
+    // ================================== Public methods ========================================
+
+    public float getTextSize() {
+        return mTextSize;
+    }
+
+    /**
+     * @return the distance from the baseline to the top of the tallest digit, as a negative
+     *         number, like Paint.ascent().
+     */
+    public float ascent() {
+        return mAscent;
+    }
+
+    /**
+     * @return the distance from the baseline to the bottom of the lowest digit, like
+     *         Paint.descent().
+     */
+    public float descent() {
+        return mDescent;
+    }
+
+    /**
+     * @return true if the text is made up only of digits, so the atlas can draw it.
+     */
+    public static boolean canDraw(@NonNull final String text) {
+        if (text.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param text must be digits only, as checked by canDraw().
+     * @return the width of the text, like Paint.measureText().
+     */
+    public float measureText(@NonNull final String text) {
+        for (int i = 0; i < LAYOUT_CACHE_SIZE; i++) {
+            if (mLayoutTexts[i] == text) {
+                return mLayoutWidths[i];
+            }
+        }
+
+        float width = 0f;
+        for (int i = 0; i < text.length(); i++) {
+            width += mAdvances[text.charAt(i) - '0'];
+        }
+
+        mLayoutTexts[mNextLayout] = text;
+        mLayoutWidths[mNextLayout] = width;
+        mNextLayout = (mNextLayout + 1) % LAYOUT_CACHE_SIZE;
+        return width;
+    }
+
+    /**
+     * Draw a number, like Canvas.drawText(), in the Paint's color.
+     *
+     * @param text must be digits only, as checked by canDraw().
+     * @param x is the left edge of the text if align is Paint.Align.LEFT, its center if
+     *          Paint.Align.CENTER, or its right edge if Paint.Align.RIGHT.
+     * @param baselineY is the y coordinate of the text's baseline.
+     */
+    public void drawText(@NonNull final Canvas canvas, @NonNull final String text, final float x,
+                         final float baselineY, @NonNull final Paint.Align align,
+                         @NonNull final Paint paint) {
+
+        float leftX = x;
+        if (align != Paint.Align.LEFT) {
+            float width = measureText(text);
+            leftX -= (align == Paint.Align.RIGHT) ? width : width / 2f;
+        }
+
+        // Whole pixels keep the copied glyphs as sharp as the originals.
+        int top = Math.round(baselineY) + mAscent - CELL_PADDING;
+        float penX = leftX;
+        for (int i = 0; i < text.length(); i++) {
+            int d = text.charAt(i) - '0';
+            Rect cell = mCells[d];
+            int left = Math.round(penX) - CELL_PADDING;
+            mDestination.set(left, top, left + cell.width(), top + cell.height());
+            canvas.drawBitmap(mBitmap, cell, mDestination, paint);
+            penX += mAdvances[d];
+        }
+    }
+
+    /**
+     * Free the bitmap. The atlas can't be used after this.
+     */
+    public void recycle() {
+        mBitmap.recycle();
+    }
+}
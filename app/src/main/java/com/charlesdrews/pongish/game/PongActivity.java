@@ -2,16 +2,41 @@ package com.charlesdrews.pongish.game;
 
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
 
 import com.charlesdrews.pongish.R;
+import com.charlesdrews.pongish.game.net.UdpTransport;
 import com.charlesdrews.pongish.game.objects.GameObjects;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
 public class PongActivity extends AppCompatActivity implements GameContract.ViewActivity,
         View.OnClickListener {
 
+    private static final String TAG = "PongActivity";
+
     public static final String COMPUTER_CONTROLLED_PADDLE_KEY = "computer_controlled_paddle_key";
+    public static final String CHAOS_MODE_TARGET_BALL_COUNT_KEY =
+            "chaos_mode_target_ball_count_key";
+    public static final String DIFFICULTY_KEY = "difficulty_key";
+
+    // For a match against another device on the local network. The remote address must be an IP
+    // address, not a host name, since it's used on the main thread.
+    public static final String NETPLAY_REMOTE_ADDRESS_KEY = "netplay_remote_address_key";
+    public static final String NETPLAY_REMOTE_PORT_KEY = "netplay_remote_port_key";
+    public static final String NETPLAY_LOCAL_PORT_KEY = "netplay_local_port_key";
+    public static final String NETPLAY_LOCAL_PADDLE_KEY = "netplay_local_paddle_key";
+    public static final String NETPLAY_MATCH_SEED_KEY = "netplay_match_seed_key";
+
+    // The UDP port to stream the game to spectators on, if any.
+    public static final String SPECTATOR_PORT_KEY = "spectator_port_key";
+
+    private static final String METRICS_DIRECTORY_NAME = "metrics";
+    private static final String FLIGHT_RECORDINGS_DIRECTORY_NAME = "flight_recordings";
 
 
     // ==================================== Member variables =====================================
@@ -36,9 +61,16 @@ public class PongActivity extends AppCompatActivity implements GameContract.View
         mSavedGameState = savedInstanceState;
 
         // Instantiate the presenter and give it a reference to this ViewActivity.
-        mPresenter = new PongPresenter(getIntent()
-                .getIntExtra(COMPUTER_CONTROLLED_PADDLE_KEY, GameObjects.Scene.NEITHER_PADDLE));
+        mPresenter = new PongPresenter(
+                getIntent().getIntExtra(COMPUTER_CONTROLLED_PADDLE_KEY,
+                        GameObjects.Scene.NEITHER_PADDLE),
+                getIntent().getIntExtra(CHAOS_MODE_TARGET_BALL_COUNT_KEY, 0),
+                getIntent().getIntExtra(DIFFICULTY_KEY, GameObjects.Scene.DIFFICULTY_MEDIUM));
         mPresenter.bindViewActivity(this);
+        mPresenter.setFlightRecorderDirectory(
+                new File(getFilesDir(), FLIGHT_RECORDINGS_DIRECTORY_NAME));
+        setUpNetplay();
+        setUpSpectatorStream();
 
         // Give the presenter a reference to the game view, which is pulling double duty as
         // both GameContract.View and as GameEngine.Renderer.
@@ -70,6 +102,8 @@ public class PongActivity extends AppCompatActivity implements GameContract.View
             mBindingsEstablished = true;
         }
 
+        mPresenter.startMetricsExport(new File(getFilesDir(), METRICS_DIRECTORY_NAME));
+
         // If GameView is already setup, notify presenter.
         // Otherwise, GameView will notify presenter when it's ready.
         if (mGameView.isGameViewReady()) {
@@ -82,6 +116,7 @@ public class PongActivity extends AppCompatActivity implements GameContract.View
         super.onPause();
 
         mPresenter.onActivityPause();
+        mPresenter.stopMetricsExport();
 
         mPresenter.unbindViewActivity();
         mPresenter.unbindRenderer();
@@ -89,6 +124,12 @@ public class PongActivity extends AppCompatActivity implements GameContract.View
         mBindingsEstablished = false;
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mPresenter.onActivityDestroy();
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
 
@@ -144,4 +185,50 @@ public class PongActivity extends AppCompatActivity implements GameContract.View
             }
         }
     }
+
+
+    // ==================================== Helper methods =======================================
+
+    /**
+     * If the intent asks for a match against another device, connect to it. Otherwise, or if the
+     * connection can't be made, play on this device.
+     */
+    private void setUpNetplay() {
+        String remoteAddress = getIntent().getStringExtra(NETPLAY_REMOTE_ADDRESS_KEY);
+        if (remoteAddress == null) {
+            return;
+        }
+
+        try {
+            UdpTransport transport = new UdpTransport(
+                    getIntent().getIntExtra(NETPLAY_LOCAL_PORT_KEY, 0),
+                    new InetSocketAddress(remoteAddress,
+                            getIntent().getIntExtra(NETPLAY_REMOTE_PORT_KEY, 0)));
+            mPresenter.setNetplay(transport,
+                    getIntent().getIntExtra(NETPLAY_LOCAL_PADDLE_KEY,
+                            GameObjects.Scene.LEFT_PADDLE),
+                    getIntent().getLongExtra(NETPLAY_MATCH_SEED_KEY, 0L));
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Unable to connect to " + remoteAddress + "; playing locally instead", e);
+        }
+    }
+
+    /**
+     * If the intent asks for it, stream the game to spectators. If the port can't be opened,
+     * play without.
+     */
+    private void setUpSpectatorStream() {
+        int port = getIntent().getIntExtra(SPECTATOR_PORT_KEY, 0);
+        if (port == 0) {
+            return;
+        }
+
+        try {
+            mPresenter.startSpectatorStream(port);
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Unable to stream to spectators on port " + port, e);
+        }
+    }
 }
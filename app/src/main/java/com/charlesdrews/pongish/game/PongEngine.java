@@ -2,10 +2,15 @@ package com.charlesdrews.pongish.game;
 
 import android.graphics.Color;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.charlesdrews.pongish.game.metrics.MetricsRegistry;
+import com.charlesdrews.pongish.game.net.SpectatorBroadcaster;
 import com.charlesdrews.pongish.game.objects.GameObjects;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Locale;
 
 /**
@@ -18,20 +23,55 @@ public class PongEngine implements GameEngine.Engine {
     // ==================================== Constants ============================================
     private static final String TAG = "PongEngine";
 
+    // Text sizes and positions are in board units, like everything else the Renderer is given.
     private static final int COUNTDOWN_NUMBER_OF_SECONDS = 3;
     private static final int COUNTDOWN_TEXT_COLOR = Color.WHITE;
-    private static final float COUNTDOWN_TEXT_SIZE = 150f;
+    private static final float COUNTDOWN_TEXT_SIZE = 0.14f;
 
     private static final String FPS_TEMPLATE = "FPS: %d";
     private static final int FPS_TEXT_COLOR = Color.WHITE;
-    private static final float FPS_TEXT_SIZE = 40f;
-    private static final float FPS_X_COORDINATE = 40f;
-    private static final float FPS_Y_COORDINATE = 80f;
+    private static final float FPS_TEXT_SIZE = 0.037f;
+    private static final float FPS_X_COORDINATE = 0.037f;
+    private static final float FPS_Y_COORDINATE = 0.074f;
+    private static final float STATS_LINE_SPACING = FPS_TEXT_SIZE * 1.25f;
+
+    private static final float AUTO_RENDER_SCALE_MIN = 0.5f;
+
+    // After a stall (e.g. a GC pause), don't try to catch up on more than this much game time.
+    private static final long MAX_CATCH_UP_IN_NANOS = 250_000_000L;
+
+    // Frames each render sink may fall behind before it starts dropping them.
+    private static final int MAX_QUEUED_SINK_FRAMES = 3;
+
+    // Enough for several seconds of frames, at about 20 events per frame.
+    private static final int TRACE_CAPACITY = 65_536;
+
+    // Names of the frame phases, as they appear in traces. The scene names its own phases.
+    private static final String TRACE_UPDATE = "update";
+    private static final String TRACE_BUILD_RENDER_LIST = "buildRenderList";
+    private static final String TRACE_RENDER_SINKS = "renderSinks";
+    private static final String TRACE_LOCK = "lock";
+    private static final String TRACE_DRAW = "draw";
+    private static final String TRACE_POST = "post";
+
+    // About a minute of updates at the usual 16 ms tick.
+    private static final int FLIGHT_RECORDER_SLOTS = 4_096;
+
+    // Frames slower than this get the flight recording written out, at most once a minute.
+    private static final long SLOW_FRAME_DUMP_THRESHOLD_IN_MILLIS = 100L;
+    private static final long MIN_MILLIS_BETWEEN_SLOW_FRAME_DUMPS = 60_000L;
+
+    // Frame time buckets, in microseconds: around 120, 60, 30, and 15 fps, then stalls.
+    private static final long[] FRAME_TIME_BUCKETS_IN_MICROS =
+            { 8_333L, 16_667L, 33_333L, 66_667L, 100_000L, 250_000L, 1_000_000L };
 
 
     // ================================== Member variables =====================================
 
     private GameEngine.Renderer mRenderer;
+
+    // Replaced, never modified, so the game thread can loop over it without locking.
+    private volatile AsyncRenderer[] mRenderSinks = new AsyncRenderer[0];
     private GameObjects.Scene mScene;
 
     private Thread mGameThread;
@@ -39,6 +79,43 @@ public class PongEngine implements GameEngine.Engine {
     private volatile boolean mExecuteGameLoop = false;
     private long mLastFrameRenderTimeInMillis;
 
+    // Fixed-tick mode: real time not yet simulated, and when the loop last checked the time.
+    private volatile long mSimulationTickInMillis = 0L;
+    private long mUnsimulatedNanos, mLastLoopTimeInNanos;
+
+    private volatile boolean mStatsOverlayEnabled = false;
+    private volatile boolean mDirtyRegionRenderingEnabled = false;
+
+    private volatile float mRenderScale = 1f;
+    private volatile boolean mAutoRenderScaleEnabled = false;
+    private final RenderScaleGovernor mRenderScaleGovernor =
+            new RenderScaleGovernor(AUTO_RENDER_SCALE_MIN);
+    private final FrameStats mFrameStats = new FrameStats();
+    private final RenderCommandBuffer mCommandBuffer = new RenderCommandBuffer();
+    private final FrameTracer mTracer = new FrameTracer(TRACE_CAPACITY);
+
+    private volatile FlightRecorder mFlightRecorder;
+    private long mLastSlowFrameDumpTimeInMillis;
+
+    private volatile SpectatorBroadcaster mSpectatorBroadcaster;
+
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+
+    // Time to update and draw each frame.
+    private final MetricsRegistry.Histogram mFrameTimeMetric = mMetrics.histogram(
+            "pongish_frame_time_micros", FRAME_TIME_BUCKETS_IN_MICROS);
+
+    // Frames skipped because the canvas couldn't be locked.
+    private final MetricsRegistry.Counter mLockFailuresMetric = mMetrics.counter(
+            "pongish_lock_failures_total");
+
+    // Balls in play, including the normal ball.
+    private final MetricsRegistry.Gauge mBallCountMetric = mMetrics.gauge("pongish_balls");
+
+    // Points scored by either player.
+    private final MetricsRegistry.Counter mPointsScoredMetric = mMetrics.counter(
+            "pongish_points_scored_total");
+
 
     // ==================================== Constructor =========================================
 
@@ -54,6 +131,7 @@ public class PongEngine implements GameEngine.Engine {
     @Override
     public void bindRenderer(@NonNull GameEngine.Renderer renderer) {
         mRenderer = renderer;
+        mRenderer.setRenderScale(mRenderScale);
     }
 
     @Override
@@ -61,9 +139,39 @@ public class PongEngine implements GameEngine.Engine {
         mRenderer = null;
     }
 
+    @Override
+    public synchronized void addRenderSink(@NonNull GameEngine.Renderer sink) {
+        AsyncRenderer asyncSink = new AsyncRenderer(sink, MAX_QUEUED_SINK_FRAMES);
+        asyncSink.start();
+
+        AsyncRenderer[] sinks = new AsyncRenderer[mRenderSinks.length + 1];
+        System.arraycopy(mRenderSinks, 0, sinks, 0, mRenderSinks.length);
+        sinks[sinks.length - 1] = asyncSink;
+        mRenderSinks = sinks;
+    }
+
+    @Override
+    public synchronized void removeRenderSink(@NonNull GameEngine.Renderer sink) {
+        AsyncRenderer[] sinks = mRenderSinks;
+        for (int i = 0; i < sinks.length; i++) {
+            if (sinks[i].getTarget() == sink) {
+                AsyncRenderer[] remaining = new AsyncRenderer[sinks.length - 1];
+                System.arraycopy(sinks, 0, remaining, 0, i);
+                System.arraycopy(sinks, i + 1, remaining, i, sinks.length - i - 1);
+                mRenderSinks = remaining;
+
+                sinks[i].stop();
+                Log.v(TAG, "Render sink dropped " + sinks[i].getDroppedFrameCount() +
+                        " frames");
+                return;
+            }
+        }
+    }
+
     @Override
     public void setScene(@NonNull GameObjects.Scene scene) {
         mScene = scene;
+        mScene.setTracer(mTracer);
     }
 
     @Override
@@ -71,9 +179,62 @@ public class PongEngine implements GameEngine.Engine {
         return mLastFrameRenderTimeInMillis;
     }
 
+    @Override
+    public void setStatsOverlayEnabled(boolean enabled) {
+        mStatsOverlayEnabled = enabled;
+    }
+
+    @Override
+    public void setDirtyRegionRenderingEnabled(boolean enabled) {
+        mDirtyRegionRenderingEnabled = enabled;
+    }
+
+    @Override
+    public void setRenderScale(float scale) {
+        mAutoRenderScaleEnabled = false;
+        applyRenderScale(scale);
+    }
+
+    @Override
+    public void setAutoRenderScaleEnabled(boolean enabled) {
+        mAutoRenderScaleEnabled = enabled;
+    }
+
+    @Override
+    public void setSimulationTickInMillis(long tickInMillis) {
+        mSimulationTickInMillis = tickInMillis;
+    }
+
+    @Override
+    public void setTracingEnabled(boolean enabled) {
+        mTracer.setEnabled(enabled);
+    }
+
+    @Override
+    public void writeTrace(@NonNull File file) throws IOException {
+        mTracer.writeTrace(file);
+    }
+
+    @Override
+    public void setFlightRecorderDirectory(@Nullable File directory) {
+        mFlightRecorder = (directory == null) ? null :
+                new FlightRecorder(FLIGHT_RECORDER_SLOTS, directory);
+    }
+
+    @Override
+    public void setSpectatorBroadcaster(@Nullable SpectatorBroadcaster broadcaster) {
+        mSpectatorBroadcaster = broadcaster;
+    }
+
+    @Override
+    public MetricsRegistry getMetricsRegistry() {
+        return mMetrics;
+    }
+
     @Override
     public void startGameExecution() {
         mExecuteGameLoop = true;
+        mFrameStats.reset();
 
         mGameThread = new Thread(mRunnable);
         mGameThread.start();
@@ -102,81 +263,226 @@ public class PongEngine implements GameEngine.Engine {
 
     @Override
     public void drawFrame() {
+        drawFrame(1f);
+    }
 
-        // Lock the canvas. If not successful, do not proceed.
-        if (!mRenderer.beginDrawing()) {
-            Log.w(TAG, "drawFrame: unable to lock canvas!");
-            return;
+    @Override
+    public void run() {
+        try {
+            runGameLoop();
         }
+        catch (RuntimeException | Error e) {
 
-        // Once canvas is locked, call the renderer's specific draw methods.
-        callRendererDrawMethodsAfterCanvasIsLocked();
-
-        // Unlock the canvas and post the drawings.
-        mRenderer.commitDrawing();
+            // Save the lead-up to the crash before the thread dies.
+            FlightRecorder flightRecorder = mFlightRecorder;
+            if (flightRecorder != null) {
+                flightRecorder.dumpNow("crash");
+            }
+            throw e;
+        }
     }
 
-    @Override
-    public void run() {
+
+    // ==================================== Helper methods =======================================
+
+    private void runGameLoop() {
 
         // Show a countdown before starting the game loop. Draw the first frame first, so the
         // screen is not blank behind the countdown.
         drawFrame();
         drawCountDown();
+        mUnsimulatedNanos = 0L;
+        mLastLoopTimeInNanos = System.nanoTime();
 
         while (mExecuteGameLoop) {
 
             // Save frame render start time.
             long renderStartTimeInMillis = System.currentTimeMillis();
-
-            // Update item positions. Use the last frame's rendering time as an estimate for how
-            // long it will take to render this frame.
-            boolean pointScored = mScene.updateGameObjects(mLastFrameRenderTimeInMillis);
+            long updateStartTimeInNanos = System.nanoTime();
+
+            mTracer.beginSection(TRACE_UPDATE);
+            boolean pointScored;
+            float alpha;
+            long tickInMillis = mSimulationTickInMillis;
+            if (tickInMillis > 0L) {
+
+                // Run as many fixed ticks as the time since the last frame calls for. Whatever is
+                // left over says how far to blend the drawn positions toward the next tick.
+                long tickInNanos = tickInMillis * 1_000_000L;
+                mUnsimulatedNanos += Math.min(updateStartTimeInNanos - mLastLoopTimeInNanos,
+                        MAX_CATCH_UP_IN_NANOS);
+                mLastLoopTimeInNanos = updateStartTimeInNanos;
+
+                pointScored = false;
+                while (!pointScored && mUnsimulatedNanos >= tickInNanos) {
+                    pointScored = updateScene(tickInMillis);
+                    mUnsimulatedNanos -= tickInNanos;
+                }
+                alpha = pointScored ? 1f : (float) mUnsimulatedNanos / tickInNanos;
+            }
+            else {
+                // Update item positions. Use the last frame's rendering time as an estimate for
+                // how long it will take to render this frame.
+                pointScored = updateScene(mLastFrameRenderTimeInMillis);
+                alpha = 1f;
+            }
+            mTracer.endSection();
 
             // Draw the frame.
-            drawFrame();
+            long drawStartTimeInNanos = System.nanoTime();
+            drawFrame(alpha);
 
             // Track frame rendering time.
             mLastFrameRenderTimeInMillis = System.currentTimeMillis() - renderStartTimeInMillis;
+            long frameTimeInNanos = System.nanoTime() - updateStartTimeInNanos;
+            mFrameTimeMetric.record(frameTimeInNanos / 1_000L);
+            mBallCountMetric.set(mScene.getBallCount());
+            dumpFlightRecordingIfSlow(frameTimeInNanos);
+
+            if (mStatsOverlayEnabled) {
+                long drawEndTimeInNanos = System.nanoTime();
+                mFrameStats.recordTick(drawStartTimeInNanos - updateStartTimeInNanos,
+                        drawEndTimeInNanos - drawStartTimeInNanos, mScene.getBallCount());
+            }
 
             if (pointScored) {
+                mPointsScoredMetric.increment();
+
                 // Show countdown with ball frozen at moment point was scored (i.e. on end line).
                 drawCountDown();
 
-                // Reset scene AFTER countdown.
+                // Reset scene AFTER countdown. The countdown isn't game time.
                 mScene.resetAfterPointScored();
+                mUnsimulatedNanos = 0L;
+                mLastLoopTimeInNanos = System.nanoTime();
             }
         }
     }
 
 
-    // ==================================== Helper methods =======================================
+    /**
+     * Update the scene, record the result in the flight recorder, and stream it to spectators.
+     */
+    private boolean updateScene(long millisSinceLastUpdate) {
+        boolean pointScored = mScene.updateGameObjects(millisSinceLastUpdate);
+        FlightRecorder flightRecorder = mFlightRecorder;
+        if (flightRecorder != null) {
+            flightRecorder.recordUpdate(mScene, millisSinceLastUpdate);
+        }
+        SpectatorBroadcaster spectatorBroadcaster = mSpectatorBroadcaster;
+        if (spectatorBroadcaster != null) {
+            spectatorBroadcaster.onUpdate(mScene, millisSinceLastUpdate);
+        }
+        return pointScored;
+    }
+
+    /**
+     * Dump the flight recording if the whole frame, updates and drawing, took too long.
+     */
+    private void dumpFlightRecordingIfSlow(long frameTimeInNanos) {
+        FlightRecorder flightRecorder = mFlightRecorder;
+        if (flightRecorder == null ||
+                frameTimeInNanos <= SLOW_FRAME_DUMP_THRESHOLD_IN_MILLIS * 1_000_000L) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - mLastSlowFrameDumpTimeInMillis >= MIN_MILLIS_BETWEEN_SLOW_FRAME_DUMPS) {
+            mLastSlowFrameDumpTimeInMillis = now;
+            flightRecorder.dumpInBackground("slow");
+        }
+    }
+
+    /**
+     * Draw one frame, with the balls and paddles blended between the last two updates.
+     */
+    private void drawFrame(float alpha) {
+
+        // Record the frame first, so the renderer can lock just the part of the screen it changes.
+        fillCommandBuffer(alpha);
+        if (mDirtyRegionRenderingEnabled && mCommandBuffer.hasDirtyRegion()) {
+            mRenderer.setDirtyRegion(mCommandBuffer.getDirtyLeft(),
+                    mCommandBuffer.getDirtyTop(), mCommandBuffer.getDirtyRight(),
+                    mCommandBuffer.getDirtyBottom());
+        }
+        sendToRenderSinks();
+
+        // Lock the canvas. If not successful, do not proceed.
+        mTracer.beginSection(TRACE_LOCK);
+        boolean locked = mRenderer.beginDrawing();
+        mTracer.endSection();
+        if (!locked) {
+            Log.w(TAG, "drawFrame: unable to lock canvas!");
+            mLockFailuresMetric.increment();
+            return;
+        }
 
-    private void callRendererDrawMethodsAfterCanvasIsLocked() {
+        // Once canvas is locked, draw the recorded frame. Only time the drawing itself, since
+        // locking the canvas can block until the display is ready for another frame.
+        mTracer.beginSection(TRACE_DRAW);
+        long drawStartTimeInNanos = System.nanoTime();
+        mRenderer.drawCommandBuffer(mCommandBuffer);
+        long drawNanos = System.nanoTime() - drawStartTimeInNanos;
+        mTracer.endSection();
 
-        // Wipe everything by re-drawing the background color.
-        mRenderer.drawBackground(mScene.getBackgroundColor());
+        // Unlock the canvas and post the drawings.
+        mTracer.beginSection(TRACE_POST);
+        mRenderer.commitDrawing();
+        mTracer.endSection();
 
-        // Draw each game item.
-        for (GameEngine.ScoreToRender score : mScene.getScoresToRender()) {
-            mRenderer.drawScore(score.getScoreText(), score.getX(), score.getTopY(),
-                    score.getTextSize(), score.getColor(), score.isRightAligned());
+        if (mAutoRenderScaleEnabled && mRenderScaleGovernor.recordFrame(drawNanos)) {
+            applyRenderScale(mRenderScaleGovernor.getScale());
         }
+    }
 
-        for (GameEngine.VerticalLineToRender line : mScene.getVerticalLinesToRender()) {
-            mRenderer.drawVerticalLine(line.getX(), line.getTopY(), line.getBottomY(),
-                    line.getColor(), line.isDashed());
+    /**
+     * Hand the recorded frame to each render sink. This only copies the command buffer; the sinks
+     * draw it on their own threads.
+     */
+    private void sendToRenderSinks() {
+        AsyncRenderer[] sinks = mRenderSinks;
+        if (sinks.length == 0) {
+            return;
         }
 
-        for (GameEngine.CircleToRender circle : mScene.getCirclesToRender()) {
-            mRenderer.drawCircle(circle.getCenterX(), circle.getCenterY(), circle.getRadius(),
-                    circle.getColor());
+        mTracer.beginSection(TRACE_RENDER_SINKS);
+        for (int i = 0; i < sinks.length; i++) {
+            sinks[i].beginDrawing();
+            sinks[i].drawCommandBuffer(mCommandBuffer);
+            sinks[i].commitDrawing();
         }
+        mTracer.endSection();
+    }
+
+    private void applyRenderScale(float scale) {
+        mRenderScale = scale;
+        GameEngine.Renderer renderer = mRenderer;
+        if (renderer != null) {
+            renderer.setRenderScale(scale);
+        }
+    }
 
-        for (GameEngine.RectangleToRender rect : mScene.getRectanglesToRender()) {
-            mRenderer.drawRect(rect.getLeftX(), rect.getTopY(), rect.getRightX(), rect.getBottomY(),
-                    rect.getColor());
+    /**
+     * Record the frame into the reusable command buffer, so it can be drawn in one pass.
+     */
+    private void fillCommandBuffer(float alpha) {
+        mTracer.beginSection(TRACE_BUILD_RENDER_LIST);
+        mCommandBuffer.reset();
+        mScene.fillRenderCommandBuffer(mCommandBuffer, alpha);
+
+        // Add the live stats overlay, one line at a time. The text changes every frame, so its
+        // area is always dirty. No character is wider than the text size, which bounds its width.
+        if (mStatsOverlayEnabled) {
+            String[] lines = mFrameStats.getLines();
+            for (int i = 0; i < lines.length; i++) {
+                float baselineY = FPS_Y_COORDINATE + i * STATS_LINE_SPACING;
+                mCommandBuffer.addText(lines[i], FPS_X_COORDINATE, baselineY, FPS_TEXT_SIZE,
+                        FPS_TEXT_COLOR, RenderCommandBuffer.ALIGN_LEFT);
+                mCommandBuffer.addDirtyRect(FPS_X_COORDINATE, baselineY - FPS_TEXT_SIZE,
+                        FPS_X_COORDINATE + lines[i].length() * FPS_TEXT_SIZE,
+                        baselineY + FPS_TEXT_SIZE / 2f);
+            }
         }
+        mTracer.endSection();
 
         /*
         // Draw the frames per second as text.
@@ -197,14 +503,20 @@ public class PongEngine implements GameEngine.Engine {
 
         for (int i = COUNTDOWN_NUMBER_OF_SECONDS; i > 0; i--){
 
+            // Countdown frames are always drawn in full, since the countdown box covers part of
+            // the board the scene doesn't know about.
+            fillCommandBuffer(1f);
+            sendToRenderSinks();
+
             // Lock the canvas. If not successful, do not proceed.
             if (!mRenderer.beginDrawing()) {
                 Log.w(TAG, "drawFrame: unable to lock canvas!");
+                mLockFailuresMetric.increment();
                 return;
             }
 
             // Draw countdown text. Re-draw frame each time so screen is not blank.
-            callRendererDrawMethodsAfterCanvasIsLocked();
+            mRenderer.drawCommandBuffer(mCommandBuffer);
             mRenderer.drawCountDown("" + i, COUNTDOWN_TEXT_SIZE, COUNTDOWN_TEXT_COLOR,
                     mScene.getBackgroundColor());
 
@@ -1,13 +1,24 @@
 package com.charlesdrews.pongish.game;
 
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Debug;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.charlesdrews.pongish.game.metrics.MetricsFileExporter;
+import com.charlesdrews.pongish.game.metrics.MetricsRegistry;
+import com.charlesdrews.pongish.game.net.NetplayScene;
+import com.charlesdrews.pongish.game.net.SpectatorBroadcaster;
+import com.charlesdrews.pongish.game.net.Transport;
 import com.charlesdrews.pongish.game.objects.GameObjects;
+import com.charlesdrews.pongish.game.objects.HumanPaddleController;
 import com.charlesdrews.pongish.game.objects.PongScene;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * Provide data to the views and handle user touch events and activity lifecycle events.
  *
@@ -18,6 +29,23 @@ public class PongPresenter implements GameContract.Presenter {
     private static final String TAG = "PongPresenter";
 
     private static final String SCENE_PARCEL_KEY = "scene_parcel_key";
+    private static final String CHAOS_MODE_TARGET_BALL_COUNT_KEY =
+            "chaos_mode_target_ball_count_key";
+    private static final String DIFFICULTY_KEY = "difficulty_key";
+
+    // Same tick length the headless simulations and AI policy tables use.
+    private static final long SIMULATION_TICK_IN_MILLIS = 16L;
+
+    private static final long METRICS_EXPORT_INTERVAL_IN_MILLIS = 60_000L;
+    private static final long MAX_METRICS_FILE_BYTES = 1_000_000L;
+    private static final int MAX_METRICS_FILES = 5;
+
+    // Spectators get every other tick, which is plenty to watch.
+    private static final int SPECTATOR_SEND_INTERVAL_TICKS = 2;
+
+    // Input latency buckets, in microseconds: from well within a frame to several frames late.
+    private static final long[] INPUT_LATENCY_BUCKETS_IN_MICROS =
+            { 2_000L, 4_000L, 8_000L, 16_000L, 32_000L, 64_000L, 128_000L };
 
 
     // ===================================== Member variables ====================================
@@ -27,15 +55,67 @@ public class PongPresenter implements GameContract.Presenter {
     private GameEngine.Engine mEngine;
     private GameObjects.Scene mScene;
 
-    private int mGameBoardWidth = 0;
-    private int mGameBoardHeight = 0;
+    // The same scene, if it can be saved and picked up again later. A networked match can't be,
+    // since the other player won't wait, so this is null for one.
+    private PongScene mSavableScene;
+
     private int mComputerControlledPaddle;
+    private int mChaosModeTargetBallCount;
+    private int mDifficulty;
+
+    // Touch events are handed to these, and the scene applies them on the game thread.
+    private final HumanPaddleController mLeftHumanController = new HumanPaddleController();
+    private final HumanPaddleController mRightHumanController = new HumanPaddleController();
+
+    private MetricsRegistry.Gauge mGcCountMetric;
+    private MetricsFileExporter mMetricsExporter;
+
+    // Set for a networked match, in which touches on either side move the local paddle.
+    private Transport mNetplayTransport;
+    private int mNetplayLocalPaddle;
+    private long mNetplayMatchSeed;
+
+    private SpectatorBroadcaster mSpectatorBroadcaster;
 
     // ====================================== Constructor ========================================
 
     public PongPresenter(int computerControlledPaddle) {
+        this(computerControlledPaddle, 0, GameObjects.Scene.DIFFICULTY_MEDIUM);
+    }
+
+    /**
+     * @param computerControlledPaddle indicates which paddle(s), if any, the computer controls.
+     * @param chaosModeTargetBallCount is the number of bonus balls to ramp up to in chaos mode,
+     *                                 or 0 for a normal game.
+     * @param difficulty is GameObjects.Scene.DIFFICULTY_EASY, ...MEDIUM, or ...HARD.
+     */
+    public PongPresenter(int computerControlledPaddle, int chaosModeTargetBallCount,
+                         int difficulty) {
         mEngine = new PongEngine();
         mComputerControlledPaddle = computerControlledPaddle;
+        mChaosModeTargetBallCount = chaosModeTargetBallCount;
+        mDifficulty = difficulty;
+
+        // Chaos mode doubles as a benchmark, so always show the live stats. Its balls cover the
+        // whole board, so there's nothing to gain from dirty-region rendering.
+        mEngine.setStatsOverlayEnabled(mChaosModeTargetBallCount > 0);
+        mEngine.setDirtyRegionRenderingEnabled(mChaosModeTargetBallCount == 0);
+
+        // Drop the render resolution on devices that can't keep up at full resolution.
+        mEngine.setAutoRenderScaleEnabled(true);
+
+        // Run physics at a steady tick rate, and blend drawn positions between ticks.
+        mEngine.setSimulationTickInMillis(SIMULATION_TICK_IN_MILLIS);
+
+        // Add the metrics only the presenter can see to the engine's.
+        // Input latency is the time from a touch event until the game thread moves the paddle.
+        // The GC count is garbage collections since the app started, only reported on 6.0+.
+        MetricsRegistry metrics = mEngine.getMetricsRegistry();
+        MetricsRegistry.Histogram inputLatency = metrics.histogram(
+                "pongish_input_latency_micros", INPUT_LATENCY_BUCKETS_IN_MICROS);
+        mLeftHumanController.setInputLatencyHistogram(inputLatency);
+        mRightHumanController.setInputLatencyHistogram(inputLatency);
+        mGcCountMetric = metrics.gauge("pongish_gc_count");
     }
 
 
@@ -63,21 +143,21 @@ public class PongPresenter implements GameContract.Presenter {
         mEngine.unbindRenderer();
     }
 
-    @Override
-    public void setGameBoardDimensions(int width, int height) {
-        mGameBoardWidth = width;
-        mGameBoardHeight = height;
-    }
-
     @Override
     public void saveGameStateToBundle(@NonNull Bundle gameStateBundle) {
 
+        if (mSavableScene == null) {
+            return;
+        }
+
         // Save scene in bundle
-        gameStateBundle.putParcelable(SCENE_PARCEL_KEY, mScene);
+        gameStateBundle.putParcelable(SCENE_PARCEL_KEY, mSavableScene);
 
         // Save which paddle (if any) is computer controlled
         gameStateBundle.putInt(PongActivity.COMPUTER_CONTROLLED_PADDLE_KEY,
                 mComputerControlledPaddle);
+        gameStateBundle.putInt(CHAOS_MODE_TARGET_BALL_COUNT_KEY, mChaosModeTargetBallCount);
+        gameStateBundle.putInt(DIFFICULTY_KEY, mDifficulty);
     }
 
     @Override
@@ -94,22 +174,29 @@ public class PongPresenter implements GameContract.Presenter {
             mEngine.drawFrame();
         }
         // If game state was saved in a Bundle, restore it, pause game, & redraw last frame
-        else if (savedGameStateBundle != null) {
+        else if (savedGameStateBundle != null && mNetplayTransport == null) {
             Log.d(TAG, "onGameViewReady: game saved in bundle");
 
-            mScene = savedGameStateBundle.getParcelable(SCENE_PARCEL_KEY);
+            mSavableScene = savedGameStateBundle.getParcelable(SCENE_PARCEL_KEY);
+            mScene = mSavableScene;
             mComputerControlledPaddle = savedGameStateBundle
                     .getInt(PongActivity.COMPUTER_CONTROLLED_PADDLE_KEY);
+            mChaosModeTargetBallCount = savedGameStateBundle
+                    .getInt(CHAOS_MODE_TARGET_BALL_COUNT_KEY);
+            mDifficulty = savedGameStateBundle.getInt(DIFFICULTY_KEY);
+            mEngine.setStatsOverlayEnabled(mChaosModeTargetBallCount > 0);
+            mEngine.setDirtyRegionRenderingEnabled(mChaosModeTargetBallCount == 0);
 
             if (mScene != null) {
                 Log.d(TAG, "onGameViewReady: scene successfully retrieved from bundle");
+                attachHumanControllers(mSavableScene);
                 mEngine.setScene(mScene);
                 mEngine.drawFrame();
             }
         }
         // Otherwise, initiate a new game & start the game rendering loop
         else {
-            mScene = new PongScene(mGameBoardWidth, mGameBoardHeight, mComputerControlledPaddle);
+            mScene = createNewScene();
             mEngine.setScene(mScene);
             mEngine.startGameExecution();
             mViewActivity.showPauseIcon();
@@ -136,31 +223,152 @@ public class PongPresenter implements GameContract.Presenter {
 
     @Override
     public void onRestartButtonClick() {
+        if (mNetplayTransport != null) {
+            return;
+        }
 
         // Stop the current game and clear any saved state
         mEngine.stopGameExecution();
         mViewActivity.clearSavedGameState();
 
         // Initialize and start a new game
-        mScene = new PongScene(mGameBoardWidth, mGameBoardHeight, mComputerControlledPaddle);
+        mScene = createNewScene();
         mEngine.setScene(mScene);
         mEngine.startGameExecution();
         mViewActivity.showPauseIcon();
     }
 
     @Override
-    public void onLeftSidePointerMove(float deltaY) {
-        if (mComputerControlledPaddle != GameObjects.Scene.LEFT_PADDLE) {
-            mScene.movePaddle(GameObjects.Scene.LEFT_PADDLE, deltaY,
-                    mEngine.getLastFrameRenderTimeInMillis());
+    public void setNetplay(@NonNull Transport transport, int localPaddle, long matchSeed) {
+        mNetplayTransport = transport;
+        mNetplayLocalPaddle = localPaddle;
+        mNetplayMatchSeed = matchSeed;
+    }
+
+    @Override
+    public void startSpectatorStream(int port) throws IOException {
+        if (mSpectatorBroadcaster != null) {
+            return;
+        }
+        mSpectatorBroadcaster = new SpectatorBroadcaster(port, SPECTATOR_SEND_INTERVAL_TICKS);
+        mEngine.setSpectatorBroadcaster(mSpectatorBroadcaster);
+    }
+
+    @Override
+    public void onActivityDestroy() {
+        if (mSpectatorBroadcaster != null) {
+            mEngine.setSpectatorBroadcaster(null);
+            try {
+                mSpectatorBroadcaster.close();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Unable to close the spectator stream", e);
+            }
+            mSpectatorBroadcaster = null;
+        }
+        if (mNetplayTransport != null) {
+            try {
+                mNetplayTransport.close();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Unable to close the connection to the other player", e);
+            }
+            mNetplayTransport = null;
         }
     }
 
+    @Override
+    public void startMetricsExport(@NonNull File directory) {
+        if (mMetricsExporter != null) {
+            return;
+        }
+        mMetricsExporter = new MetricsFileExporter(mEngine.getMetricsRegistry(), directory,
+                METRICS_EXPORT_INTERVAL_IN_MILLIS, MAX_METRICS_FILE_BYTES, MAX_METRICS_FILES);
+
+        // Reading the GC count allocates, so do it on the exporter's thread, not the game's.
+        mMetricsExporter.setBeforeFlush(new Runnable() {
+            @Override
+            public void run() {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    String gcCount = Debug.getRuntimeStat("art.gc.gc-count");
+                    if (gcCount != null) {
+                        mGcCountMetric.set(Long.parseLong(gcCount));
+                    }
+                }
+            }
+        });
+        mMetricsExporter.start();
+    }
+
+    @Override
+    public void stopMetricsExport() {
+        if (mMetricsExporter != null) {
+            mMetricsExporter.stop();
+            mMetricsExporter = null;
+        }
+    }
+
+    @Override
+    public void setFlightRecorderDirectory(@NonNull File directory) {
+        mEngine.setFlightRecorderDirectory(directory);
+    }
+
+    @Override
+    public void onLeftSidePointerMove(float deltaY) {
+        mLeftHumanController.addTouchDelta(deltaY);
+    }
+
     @Override
     public void onRightSidePointerMove(float deltaY) {
-        if (mComputerControlledPaddle != GameObjects.Scene.RIGHT_PADDLE) {
-            mScene.movePaddle(GameObjects.Scene.RIGHT_PADDLE, deltaY,
-                    mEngine.getLastFrameRenderTimeInMillis());
+        if (mNetplayTransport != null) {
+            mLeftHumanController.addTouchDelta(deltaY);
+        }
+        else {
+            mRightHumanController.addTouchDelta(deltaY);
+        }
+    }
+
+
+    // ==================================== Helper methods =======================================
+
+    private GameObjects.Scene createNewScene() {
+        if (mNetplayTransport != null) {
+            mSavableScene = null;
+            return createNetplayScene();
+        }
+
+        PongScene scene = new PongScene(mComputerControlledPaddle);
+        scene.setChaosModeTargetBallCount(mChaosModeTargetBallCount);
+        scene.setDifficulty(mDifficulty);
+        attachHumanControllers(scene);
+        mSavableScene = scene;
+        return scene;
+    }
+
+    /**
+     * Create a match against another device, where the left human controller collects the local
+     * player's touches from both sides of the screen.
+     */
+    private GameObjects.Scene createNetplayScene() {
+        PongScene scene = new PongScene(GameObjects.Scene.NEITHER_PADDLE);
+        scene.setChaosModeTargetBallCount(mChaosModeTargetBallCount);
+        scene.setDifficulty(mDifficulty);
+        return new NetplayScene(scene, mNetplayTransport, mNetplayLocalPaddle,
+                mLeftHumanController, mNetplayMatchSeed, SIMULATION_TICK_IN_MILLIS);
+    }
+
+    /**
+     * Let touch drive whichever paddles the computer doesn't control. The scene's default
+     * controllers already cover the computer's paddles.
+     */
+    private void attachHumanControllers(PongScene scene) {
+        if (mComputerControlledPaddle != GameObjects.Scene.LEFT_PADDLE &&
+                mComputerControlledPaddle != GameObjects.Scene.BOTH_PADDLES) {
+            scene.setPaddleController(GameObjects.Scene.LEFT_PADDLE, mLeftHumanController);
+        }
+        if (mComputerControlledPaddle != GameObjects.Scene.RIGHT_PADDLE &&
+                mComputerControlledPaddle != GameObjects.Scene.BOTH_PADDLES) {
+            scene.setPaddleController(GameObjects.Scene.RIGHT_PADDLE, mRightHumanController);
         }
     }
-}
\ No newline at end of file
+}
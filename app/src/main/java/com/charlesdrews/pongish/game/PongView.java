@@ -1,9 +1,12 @@
 package com.charlesdrews.pongish.game;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.DashPathEffect;
 import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.support.annotation.NonNull;
 import android.support.v4.view.MotionEventCompat;
 import android.util.AttributeSet;
@@ -19,6 +22,15 @@ import android.view.SurfaceView;
 public class PongView extends SurfaceView implements SurfaceHolder.Callback, GameContract.View,
         GameEngine.Renderer {
 
+    // ======================================== Constants =========================================
+
+    // Text sizes to keep digit atlases for. Text at any other size is drawn the slow way.
+    private static final int MAX_GLYPH_ATLASES = 4;
+
+    // Extra room around the dirty region for anti-aliased edges, in pixels.
+    private static final int DIRTY_REGION_MARGIN = 2;
+
+
     // ===================================== Member variables =====================================
 
     private GameContract.Presenter mPresenter;
@@ -31,6 +43,47 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback, Gam
     private Paint mPaint;
     private DashPathEffect mDashPathEffect;
 
+    // Draws batches of circles as points with round caps, one point per circle.
+    private Paint mCircleBatchPaint;
+
+    // Maps the board units everything is drawn in onto the view. Replaced whenever the surface
+    // changes, and captured for each frame so a frame is drawn with just one.
+    private volatile BoardTransform mTransform;
+    private BoardTransform mFrameTransform;
+
+    // The surface can be smaller than the view, with the compositor scaling it up to fill the
+    // view. Drawing coordinates are mapped to view pixels, and the canvas is scaled down to match.
+    private volatile float mRenderScale = 1f;
+    private volatile float mSurfaceScale = 1f;
+    private float mFrameScale = 1f;
+    private int mCanvasSaveCount;
+
+    // Offscreen copy of the render command buffer's static layer (background and board lines),
+    // only redrawn when the layer's version or the surface changes. Only touched while drawing.
+    private Bitmap mStaticLayerBitmap;
+    private Canvas mStaticLayerCanvas;
+    private float mStaticLayerScale;
+    private int mStaticLayerVersion;
+    private volatile boolean mStaticLayerValid = false;
+    private volatile int mSurfaceFormat = PixelFormat.RGB_565;
+
+    // Digits pre-rasterized at each text size drawn so far, for scores and the countdown.
+    // Rebuilt for each surface, and only touched while drawing.
+    private final GlyphAtlas[] mGlyphAtlases = new GlyphAtlas[MAX_GLYPH_ATLASES];
+    private volatile boolean mGlyphAtlasesValid = false;
+
+    // The region to lock for the next frame, if one was set. Whenever the screen might not match
+    // the last frame drawn (a new surface, a dropped frame, a countdown box) the next frame is
+    // drawn in full instead.
+    private float mDirtyLeft, mDirtyTop, mDirtyRight, mDirtyBottom;
+    private final Rect mDirtyRect = new Rect();
+    private boolean mDirtyRectSet = false;
+    private volatile boolean mFullRedrawNeeded = true;
+    private boolean mDrawingFullFrame;
+
+    // Read positions in the command buffer's argument arrays while drawing it.
+    private int mFloatIndex, mIntIndex, mStringIndex;
+
     private int mLeftSideActivePointerId = MotionEvent.INVALID_POINTER_ID;
     private boolean mLeftSideMoveInProgress = false;
     private float mLeftSideLastYCoordinate = -1f;
@@ -55,6 +108,9 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback, Gam
         mPaint.setStrokeWidth(1f);
 
         mDashPathEffect = new DashPathEffect(new float[]{15f, 15f}, 0f);
+
+        mCircleBatchPaint = new Paint();
+        mCircleBatchPaint.setStrokeCap(Paint.Cap.ROUND);
     }
 
 
@@ -98,17 +154,25 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback, Gam
             }
 
             case MotionEvent.ACTION_MOVE: {
+                // The paddles move in board units, not pixels.
+                BoardTransform transform = mTransform;
+                if (transform == null) {
+                    break;
+                }
+
                 // Report left side deltaY to presenter if a move is in progress
                 if (mLeftSideMoveInProgress){
                     float newY = event.getY(event.findPointerIndex(mLeftSideActivePointerId));
-                    mPresenter.onLeftSidePointerMove(newY - mLeftSideLastYCoordinate);
+                    mPresenter.onLeftSidePointerMove(
+                            transform.toBoardLength(newY - mLeftSideLastYCoordinate));
                     mLeftSideLastYCoordinate = newY;
                 }
 
                 // Report right side deltaY to presenter if a move is in progress
                 if (mRightSideMoveInProgress){
                     float newY = event.getY(event.findPointerIndex(mRightSideActivePointerId));
-                    mPresenter.onRightSidePointerMove(newY - mRightSideLastYCoordinate);
+                    mPresenter.onRightSidePointerMove(
+                            transform.toBoardLength(newY - mRightSideLastYCoordinate));
                     mRightSideLastYCoordinate = newY;
                 }
                 break;
@@ -143,9 +207,22 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback, Gam
 
     @Override
     public void surfaceChanged(SurfaceHolder surfaceHolder, int format, int width, int height) {
-        mPresenter.setGameBoardDimensions(width, height);
 
-        if (width > 2000) {
+        // The board is fit to the view, even when the surface is drawn smaller. The scene is in
+        // board units, so it carries on as is, e.g. after a rotation.
+        int viewWidth = getWidth() > 0 ? getWidth() : width;
+        int viewHeight = getHeight() > 0 ? getHeight() : height;
+        mSurfaceScale = (float) width / viewWidth;
+        mTransform = new BoardTransform(viewWidth, viewHeight);
+        mSurfaceWidth = viewWidth;
+
+        // The static layer must be redrawn to match the new surface.
+        mSurfaceFormat = format;
+        mStaticLayerValid = false;
+        mGlyphAtlasesValid = false;
+        mFullRedrawNeeded = true;
+
+        if (viewWidth > 2000) {
             mPaint.setStrokeWidth(2f);
         }
         else {
@@ -155,7 +232,6 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback, Gam
         // If this is the first time surfaceChanged was called, then start the game!
         if (!mSurfaceReady) {
             mSurfaceReady = true;
-            mSurfaceWidth = width;
             mPresenter.onGameViewReady(mViewActivity.getSavedGameState());
         }
     }
@@ -163,6 +239,7 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback, Gam
     @Override
     public void surfaceDestroyed(SurfaceHolder surfaceHolder) {
         mSurfaceReady = false;
+        mStaticLayerValid = false;
     }
 
 
@@ -188,21 +265,83 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback, Gam
 
     // ================================ GameEngine.Renderer methods ==============================
 
+    @Override
+    public void setDirtyRegion(float left, float top, float right, float bottom) {
+        mDirtyLeft = left;
+        mDirtyTop = top;
+        mDirtyRight = right;
+        mDirtyBottom = bottom;
+        mDirtyRectSet = true;
+    }
+
+    @Override
+    public void setRenderScale(float scale) {
+        if (scale == mRenderScale) {
+            return;
+        }
+        mRenderScale = scale;
+
+        // Resizing the surface has to happen on the UI thread. surfaceChanged() follows.
+        post(new Runnable() {
+            @Override
+            public void run() {
+                float renderScale = mRenderScale;
+                if (renderScale >= 1f || getWidth() == 0 || getHeight() == 0) {
+                    mHolder.setSizeFromLayout();
+                }
+                else {
+                    mHolder.setFixedSize(Math.max(1, Math.round(getWidth() * renderScale)),
+                            Math.max(1, Math.round(getHeight() * renderScale)));
+                }
+            }
+        });
+    }
+
     @Override
     public boolean beginDrawing() {
+        mDrawingFullFrame = mFullRedrawNeeded || !mDirtyRectSet;
+        mDirtyRectSet = false;
+
+        // The dirty region is in board units, but the lock is in surface pixels.
+        mFrameTransform = mTransform;
+        mFrameScale = mSurfaceScale;
+        if (!mDrawingFullFrame) {
+            BoardTransform t = mFrameTransform;
+            mDirtyRect.set(
+                    (int) Math.floor((t.toViewX(mDirtyLeft) - DIRTY_REGION_MARGIN) * mFrameScale),
+                    (int) Math.floor((t.toViewY(mDirtyTop) - DIRTY_REGION_MARGIN) * mFrameScale),
+                    (int) Math.ceil((t.toViewX(mDirtyRight) + DIRTY_REGION_MARGIN) * mFrameScale),
+                    (int) Math.ceil(
+                            (t.toViewY(mDirtyBottom) + DIRTY_REGION_MARGIN) * mFrameScale));
+        }
+
         if (mHolder.getSurface().isValid()) {
-            mCanvas = mHolder.lockCanvas();
-            return true;
+            // A partial lock keeps the rest of the last frame and clips drawing to the region.
+            // The surface may grow the region, and everything is redrawn within it anyway.
+            mCanvas = mDrawingFullFrame ? mHolder.lockCanvas() : mHolder.lockCanvas(mDirtyRect);
         }
-        else {
+
+        if (mCanvas == null) {
+            // The next frame can't count on this one being on screen.
+            mFullRedrawNeeded = true;
             return false;
         }
+
+        mCanvasSaveCount = mCanvas.save();
+        if (mFrameScale != 1f) {
+            mCanvas.scale(mFrameScale, mFrameScale);
+        }
+        return true;
     }
 
     @Override
     public void commitDrawing() {
+        mCanvas.restoreToCount(mCanvasSaveCount);
         mHolder.unlockCanvasAndPost(mCanvas);
         mCanvas = null;
+        if (mDrawingFullFrame) {
+            mFullRedrawNeeded = false;
+        }
     }
 
     @Override
@@ -219,48 +358,70 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback, Gam
         else {
             mPaint.setPathEffect(null);
         }
-        mCanvas.drawLine(x, topY, x, bottomY, mPaint);
+        BoardTransform t = mFrameTransform;
+        mCanvas.drawLine(t.toViewX(x), t.toViewY(topY), t.toViewX(x), t.toViewY(bottomY),
+                mPaint);
     }
 
     @Override
     public void drawScore(@NonNull String scoreText, float x, float topY, float textSize,
                           int color, boolean rightAlign) {
         mPaint.setColor(color);
-        mPaint.setTextSize(textSize);
-        if (rightAlign) {
-            mPaint.setTextAlign(Paint.Align.RIGHT);
-        }
-        else {
-            mPaint.setTextAlign(Paint.Align.LEFT);
-        }
-        mCanvas.drawText(scoreText, x, topY + textSize, mPaint);
+        drawText(mCanvas, scoreText, x, topY + textSize, textSize,
+                rightAlign ? Paint.Align.RIGHT : Paint.Align.LEFT);
     }
 
     @Override
     public void drawCircle(float centerX, float centerY, float radius, int color) {
         mPaint.setColor(color);
-        mCanvas.drawCircle(centerX, centerY, radius, mPaint);
+        BoardTransform t = mFrameTransform;
+        mCanvas.drawCircle(t.toViewX(centerX), t.toViewY(centerY), t.toViewLength(radius),
+                mPaint);
+    }
+
+    @Override
+    public void drawCircleBatch(@NonNull float[] centers, int offset, int count, float radius,
+                                int color) {
+        drawCircleBatch(mCanvas, centers, offset, count, radius, color);
     }
 
     @Override
     public void drawRect(float leftX, float topY, float rightX, float bottomY, int color) {
         mPaint.setColor(color);
-        mCanvas.drawRect(leftX, topY, rightX, bottomY, mPaint);
+        BoardTransform t = mFrameTransform;
+        mCanvas.drawRect(t.toViewX(leftX), t.toViewY(topY), t.toViewX(rightX),
+                t.toViewY(bottomY), mPaint);
+    }
+
+    @Override
+    public void drawCommandBuffer(@NonNull RenderCommandBuffer buffer) {
+        mFloatIndex = 0;
+        mIntIndex = 0;
+        mStringIndex = 0;
+        drawCommands(mCanvas, buffer, 0, buffer.getOpCount());
     }
 
     @Override
     public void drawCountDown(@NonNull String countDownText, float textSize, int textColor,
                               int backgroundColor) {
 
-        // Update the Paint with the necessary text style.
-        mPaint.setTextSize(textSize);
-        mPaint.setTextAlign(Paint.Align.CENTER);
-
-        // Calculate dimensions and location of the text.
-        float width = mPaint.measureText(countDownText);
-        float height = mPaint.descent() + mPaint.ascent();
-        float x = mCanvas.getWidth() / 2f;
-        float y = (mCanvas.getHeight() / 2f) - (height / 2f);
+        // Calculate dimensions and location of the text, from the digit atlas if possible. The
+        // board is centered in the view, so the view's center is the board's.
+        float textSizeInPx = mFrameTransform.toViewLength(textSize);
+        GlyphAtlas atlas =
+                GlyphAtlas.canDraw(countDownText) ? getGlyphAtlas(textSizeInPx) : null;
+        float width, height;
+        if (atlas != null) {
+            width = atlas.measureText(countDownText);
+            height = atlas.descent() + atlas.ascent();
+        }
+        else {
+            mPaint.setTextSize(textSizeInPx);
+            width = mPaint.measureText(countDownText);
+            height = mPaint.descent() + mPaint.ascent();
+        }
+        float x = mCanvas.getWidth() / mFrameScale / 2f;
+        float y = (mCanvas.getHeight() / mFrameScale / 2f) - (height / 2f);
         float extraMargin = 15f;
 
         // Draw a box behind the text so it doesn't overlap with other game objects.
@@ -270,15 +431,231 @@ public class PongView extends SurfaceView implements SurfaceHolder.Callback, Gam
 
         // Draw the countdown text.
         mPaint.setColor(textColor);
-        mCanvas.drawText(countDownText, x, y, mPaint);
+        drawTextInPx(mCanvas, countDownText, x, y, textSizeInPx, Paint.Align.CENTER);
+
+        // The box isn't part of the scene, so the next frame has to cover it up.
+        mFullRedrawNeeded = true;
     }
 
     @Override
     public void drawFramesPerSecond(@NonNull String fpsText, float x, float y, float textSize,
                                     int color) {
+        BoardTransform t = mFrameTransform;
         mPaint.setColor(color);
-        mPaint.setTextSize(textSize);
+        mPaint.setTextSize(t.toViewLength(textSize));
         mPaint.setTextAlign(Paint.Align.LEFT);
-        mCanvas.drawText(fpsText, x, y, mPaint);
+        mCanvas.drawText(fpsText, t.toViewX(x), t.toViewY(y), mPaint);
+    }
+
+
+    // ===================================== Helper methods =====================================
+
+    /**
+     * Draw all the circles with a single drawPoints() call. A round-capped point as wide as the
+     * circle is the circle, without the per-circle setup drawCircle() does. The centers are left
+     * in board units, and the canvas mapped to match, rather than copying them.
+     */
+    private void drawCircleBatch(Canvas canvas, float[] centers, int offset, int count,
+                                 float radius, int color) {
+        if (count == 0) {
+            return;
+        }
+        BoardTransform t = mFrameTransform;
+        int saveCount = canvas.save();
+        canvas.translate(t.toViewX(0f), t.toViewY(0f));
+        canvas.scale(t.getScale(), t.getScale());
+
+        mCircleBatchPaint.setColor(color);
+        mCircleBatchPaint.setStrokeWidth(radius * 2f);
+        canvas.drawPoints(centers, offset, count * 2, mCircleBatchPaint);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Draw text in the Paint's current color, with its position and size in board units.
+     */
+    private void drawText(Canvas canvas, String text, float x, float baselineY, float textSize,
+                          Paint.Align align) {
+        BoardTransform t = mFrameTransform;
+        drawTextInPx(canvas, text, t.toViewX(x), t.toViewY(baselineY), t.toViewLength(textSize),
+                align);
+    }
+
+    /**
+     * Draw text in the Paint's current color. Numbers are copied from a digit atlas when there is
+     * one for the text size, instead of being rasterized again.
+     */
+    private void drawTextInPx(Canvas canvas, String text, float x, float baselineY,
+                              float textSize, Paint.Align align) {
+
+        GlyphAtlas atlas = GlyphAtlas.canDraw(text) ? getGlyphAtlas(textSize) : null;
+        if (atlas != null) {
+            atlas.drawText(canvas, text, x, baselineY, align, mPaint);
+        }
+        else {
+            mPaint.setTextSize(textSize);
+            mPaint.setTextAlign(align);
+            canvas.drawText(text, x, baselineY, mPaint);
+        }
+    }
+
+    /**
+     * @return the digit atlas for the text size, building it the first time that size is drawn
+     *         on this surface, or null if there are already atlases for too many sizes.
+     */
+    private GlyphAtlas getGlyphAtlas(float textSize) {
+        if (!mGlyphAtlasesValid) {
+            for (int i = 0; i < MAX_GLYPH_ATLASES; i++) {
+                if (mGlyphAtlases[i] != null) {
+                    mGlyphAtlases[i].recycle();
+                    mGlyphAtlases[i] = null;
+                }
+            }
+            mGlyphAtlasesValid = true;
+        }
+
+        for (int i = 0; i < MAX_GLYPH_ATLASES; i++) {
+            if (mGlyphAtlases[i] == null) {
+                mGlyphAtlases[i] = new GlyphAtlas(textSize);
+                return mGlyphAtlases[i];
+            }
+            if (mGlyphAtlases[i].getTextSize() == textSize) {
+                return mGlyphAtlases[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Draw the commands from fromOp up to (not including) toOp onto the given canvas, reading
+     * arguments from the current argument positions and advancing them.
+     */
+    private void drawCommands(Canvas canvas, RenderCommandBuffer buffer, int fromOp, int toOp) {
+        int[] ops = buffer.getOps();
+        float[] floats = buffer.getFloats();
+        int[] ints = buffer.getInts();
+        String[] strings = buffer.getStrings();
+        BoardTransform t = mFrameTransform;
+
+        for (int op = fromOp; op < toOp; op++) {
+            int f = mFloatIndex, i = mIntIndex;
+
+            switch (ops[op]) {
+                case RenderCommandBuffer.OP_BACKGROUND:
+                    canvas.drawColor(ints[i]);
+                    mIntIndex += 1;
+                    break;
+
+                case RenderCommandBuffer.OP_VERTICAL_LINE:
+                    mPaint.setColor(ints[i]);
+                    mPaint.setPathEffect(ints[i + 1] != 0 ? mDashPathEffect : null);
+                    canvas.drawLine(t.toViewX(floats[f]), t.toViewY(floats[f + 1]),
+                            t.toViewX(floats[f]), t.toViewY(floats[f + 2]), mPaint);
+                    mPaint.setPathEffect(null);
+                    mFloatIndex += 3;
+                    mIntIndex += 2;
+                    break;
+
+                case RenderCommandBuffer.OP_TEXT:
+                    mPaint.setColor(ints[i]);
+                    drawText(canvas, strings[mStringIndex++], floats[f], floats[f + 1],
+                            floats[f + 2], ints[i + 1] == RenderCommandBuffer.ALIGN_RIGHT ?
+                                    Paint.Align.RIGHT : Paint.Align.LEFT);
+                    mFloatIndex += 3;
+                    mIntIndex += 2;
+                    break;
+
+                case RenderCommandBuffer.OP_CIRCLE:
+                    mPaint.setColor(ints[i]);
+                    canvas.drawCircle(t.toViewX(floats[f]), t.toViewY(floats[f + 1]),
+                            t.toViewLength(floats[f + 2]), mPaint);
+                    mFloatIndex += 3;
+                    mIntIndex += 1;
+                    break;
+
+                case RenderCommandBuffer.OP_RECT:
+                    mPaint.setColor(ints[i]);
+                    canvas.drawRect(t.toViewX(floats[f]), t.toViewY(floats[f + 1]),
+                            t.toViewX(floats[f + 2]), t.toViewY(floats[f + 3]), mPaint);
+                    mFloatIndex += 4;
+                    mIntIndex += 1;
+                    break;
+
+                case RenderCommandBuffer.OP_STATIC_LAYER: {
+                    int version = ints[i];
+                    int layerOps = ints[i + 1];
+                    mIntIndex += 5;
+
+                    // Redraw the layer's commands into the offscreen bitmap only if they changed,
+                    // otherwise skip past them. Either way, copy the bitmap onto the frame.
+                    if (prepareStaticLayer(canvas, version)) {
+                        mFloatIndex += ints[i + 2];
+                        mIntIndex += ints[i + 3];
+                        mStringIndex += ints[i + 4];
+                    }
+                    else {
+                        drawCommands(mStaticLayerCanvas, buffer, op + 1, op + 1 + layerOps);
+                        mStaticLayerVersion = version;
+                        mStaticLayerValid = true;
+                    }
+                    drawStaticLayerBitmap(canvas);
+                    op += layerOps;
+                    break;
+                }
+
+                case RenderCommandBuffer.OP_STATIC_LAYER_END:
+                    break;
+
+                case RenderCommandBuffer.OP_CIRCLE_BATCH: {
+                    int count = ints[i + 1];
+                    drawCircleBatch(canvas, floats, f + 1, count, floats[f], ints[i]);
+                    mFloatIndex += 1 + 2 * count;
+                    mIntIndex += 2;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Make sure there's an offscreen bitmap matching the canvas for the static layer.
+     *
+     * @return true if the bitmap already holds the given version of the layer.
+     */
+    private boolean prepareStaticLayer(Canvas canvas, int version) {
+        int width = canvas.getWidth();
+        int height = canvas.getHeight();
+
+        if (mStaticLayerBitmap == null || mStaticLayerBitmap.getWidth() != width ||
+                mStaticLayerBitmap.getHeight() != height || mStaticLayerScale != mFrameScale) {
+
+            // Match the surface's pixel format, so copying the layer is a straight copy.
+            Bitmap.Config config = (mSurfaceFormat == PixelFormat.RGB_565) ?
+                    Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+            mStaticLayerBitmap = Bitmap.createBitmap(width, height, config);
+            mStaticLayerCanvas = new Canvas(mStaticLayerBitmap);
+            mStaticLayerCanvas.scale(mFrameScale, mFrameScale);
+            mStaticLayerScale = mFrameScale;
+            mStaticLayerValid = false;
+        }
+
+        return mStaticLayerValid && mStaticLayerVersion == version;
+    }
+
+    /**
+     * Copy the static layer onto the canvas pixel for pixel. The layer is already drawn at the
+     * surface's scale, so undo the canvas's scaling while copying it.
+     */
+    private void drawStaticLayerBitmap(Canvas canvas) {
+        if (mFrameScale == 1f) {
+            canvas.drawBitmap(mStaticLayerBitmap, 0f, 0f, null);
+        }
+        else {
+            int saveCount = canvas.save();
+            canvas.scale(1f / mFrameScale, 1f / mFrameScale);
+            canvas.drawBitmap(mStaticLayerBitmap, 0f, 0f, null);
+            canvas.restoreToCount(saveCount);
+        }
     }
-}
\ No newline at end of file
+}
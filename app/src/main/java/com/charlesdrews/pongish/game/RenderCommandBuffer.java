@@ -0,0 +1,391 @@
+package com.charlesdrews.pongish.game;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * A flat, reusable list of draw commands for one frame. The scene fills it and the renderer walks
+ * it in a single pass, so drawing a frame is a loop over a few arrays instead of a getter call per
+ * property per game object. The buffer grows as needed and is reset, not reallocated, each frame.
+ *
+ * Each command is one opcode in getOps(). Its arguments follow in order in the other arrays:
+ *   OP_BACKGROUND     ints: color
+ *   OP_VERTICAL_LINE  floats: x, topY, bottomY            ints: color, dashed (0 or 1)
+ *   OP_TEXT           floats: x, baselineY, textSize      ints: color, align   strings: text
+ *   OP_CIRCLE         floats: centerX, centerY, radius    ints: color
+ *   OP_RECT           floats: leftX, topY, rightX, bottomY  ints: color
+ *   OP_STATIC_LAYER   ints: version, then the number of ops, floats, ints, and strings inside
+ *   OP_STATIC_LAYER_END
+ *   OP_CIRCLE_BATCH   floats: radius, then centerX, centerY for each circle   ints: color, count
+ *
+ * The commands between OP_STATIC_LAYER and OP_STATIC_LAYER_END draw things that rarely change,
+ * like the background and the board lines. They look the same as long as the version is the
+ * same, so a renderer may draw them once into an offscreen layer, and on later frames draw the
+ * layer and skip past them using the counts.
+ *
+ * A scene that knows what moved since the last frame can also report it as a dirty region, so a
+ * renderer can redraw just that part of the screen. If no region is reported, or markAllDirty()
+ * is called, the whole frame must be redrawn.
+ *
+ * Since it's plain data, a buffer can also be copied for later, or replayed into any Renderer.
+ */
+public class RenderCommandBuffer {
+
+    // ===================================== Constants ==========================================
+
+    public static final int OP_BACKGROUND = 0;
+    public static final int OP_VERTICAL_LINE = 1;
+    public static final int OP_TEXT = 2;
+    public static final int OP_CIRCLE = 3;
+    public static final int OP_RECT = 4;
+    public static final int OP_STATIC_LAYER = 5;
+    public static final int OP_STATIC_LAYER_END = 6;
+    public static final int OP_CIRCLE_BATCH = 7;
+
+    public static final int ALIGN_LEFT = 0;
+    public static final int ALIGN_RIGHT = 1;
+
+    private static final int INITIAL_COMMAND_CAPACITY = 32;
+
+
+    // ================================= Member variables =======================================
+
+    private int[] mOps = new int[INITIAL_COMMAND_CAPACITY];
+    private float[] mFloats = new float[INITIAL_COMMAND_CAPACITY * 4];
+    private int[] mInts = new int[INITIAL_COMMAND_CAPACITY * 2];
+    private String[] mStrings = new String[8];
+
+    private int mOpCount = 0, mFloatCount = 0, mIntCount = 0, mStringCount = 0;
+
+    // Where the open static layer's OP_STATIC_LAYER command is, or -1 if none is open.
+    private int mStaticLayerOp = -1, mStaticLayerFloat, mStaticLayerInt, mStaticLayerString;
+
+    // Where the open circle batch's count goes, or -1 if none is open.
+    private int mCircleBatchCountInt = -1;
+
+    // Bounding box of the dirty region. It's empty while left > right.
+    private boolean mAllDirty = false;
+    private float mDirtyLeft = Float.MAX_VALUE, mDirtyTop = Float.MAX_VALUE;
+    private float mDirtyRight = -Float.MAX_VALUE, mDirtyBottom = -Float.MAX_VALUE;
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Empty the buffer to record a new frame, keeping its capacity.
+     */
+    public void reset() {
+        Arrays.fill(mStrings, 0, mStringCount, null);
+        mOpCount = 0;
+        mFloatCount = 0;
+        mIntCount = 0;
+        mStringCount = 0;
+        mStaticLayerOp = -1;
+        mCircleBatchCountInt = -1;
+
+        mAllDirty = false;
+        mDirtyLeft = Float.MAX_VALUE;
+        mDirtyTop = Float.MAX_VALUE;
+        mDirtyRight = -Float.MAX_VALUE;
+        mDirtyBottom = -Float.MAX_VALUE;
+    }
+
+    /**
+     * Start recording commands for the static layer. Must be followed by endStaticLayer().
+     *
+     * @param version must change whenever anything drawn in the layer changes.
+     */
+    public void beginStaticLayer(final int version) {
+        if (mStaticLayerOp >= 0) {
+            throw new IllegalStateException("Static layers can't be nested");
+        }
+        ensureCapacity(0, 5, 0);
+        mStaticLayerOp = mOpCount;
+        mOps[mOpCount++] = OP_STATIC_LAYER;
+        mInts[mIntCount++] = version;
+
+        // The counts are filled in by endStaticLayer().
+        mIntCount += 4;
+        mStaticLayerFloat = mFloatCount;
+        mStaticLayerInt = mIntCount;
+        mStaticLayerString = mStringCount;
+    }
+
+    public void endStaticLayer() {
+        if (mStaticLayerOp < 0) {
+            throw new IllegalStateException("No static layer to end");
+        }
+        int counts = mStaticLayerInt - 4;
+        mInts[counts] = mOpCount - mStaticLayerOp - 1;
+        mInts[counts + 1] = mFloatCount - mStaticLayerFloat;
+        mInts[counts + 2] = mIntCount - mStaticLayerInt;
+        mInts[counts + 3] = mStringCount - mStaticLayerString;
+        mStaticLayerOp = -1;
+
+        ensureCapacity(0, 0, 0);
+        mOps[mOpCount++] = OP_STATIC_LAYER_END;
+    }
+
+    public void addBackground(final int color) {
+        ensureCapacity(0, 1, 0);
+        mOps[mOpCount++] = OP_BACKGROUND;
+        mInts[mIntCount++] = color;
+    }
+
+    public void addVerticalLine(final float x, final float topY, final float bottomY,
+                                final int color, final boolean dashed) {
+        ensureCapacity(3, 2, 0);
+        mOps[mOpCount++] = OP_VERTICAL_LINE;
+        mFloats[mFloatCount++] = x;
+        mFloats[mFloatCount++] = topY;
+        mFloats[mFloatCount++] = bottomY;
+        mInts[mIntCount++] = color;
+        mInts[mIntCount++] = dashed ? 1 : 0;
+    }
+
+    /**
+     * @param align is ALIGN_LEFT if x is the left edge of the text, or ALIGN_RIGHT if it's the
+     *              right edge.
+     */
+    public void addText(@NonNull final String text, final float x, final float baselineY,
+                        final float textSize, final int color, final int align) {
+        ensureCapacity(3, 2, 1);
+        mOps[mOpCount++] = OP_TEXT;
+        mFloats[mFloatCount++] = x;
+        mFloats[mFloatCount++] = baselineY;
+        mFloats[mFloatCount++] = textSize;
+        mInts[mIntCount++] = color;
+        mInts[mIntCount++] = align;
+        mStrings[mStringCount++] = text;
+    }
+
+    public void addCircle(final float centerX, final float centerY, final float radius,
+                          final int color) {
+        ensureCapacity(3, 1, 0);
+        mOps[mOpCount++] = OP_CIRCLE;
+        mFloats[mFloatCount++] = centerX;
+        mFloats[mFloatCount++] = centerY;
+        mFloats[mFloatCount++] = radius;
+        mInts[mIntCount++] = color;
+    }
+
+    public void addRect(final float leftX, final float topY, final float rightX,
+                        final float bottomY, final int color) {
+        ensureCapacity(4, 1, 0);
+        mOps[mOpCount++] = OP_RECT;
+        mFloats[mFloatCount++] = leftX;
+        mFloats[mFloatCount++] = topY;
+        mFloats[mFloatCount++] = rightX;
+        mFloats[mFloatCount++] = bottomY;
+        mInts[mIntCount++] = color;
+    }
+
+    /**
+     * Start a batch of circles that all have the same radius and color, so the renderer can draw
+     * them in one call. Add circles with addCircleToBatch(), then call endCircleBatch(). Nothing
+     * else may be added while the batch is open.
+     */
+    public void beginCircleBatch(final float radius, final int color) {
+        if (mCircleBatchCountInt >= 0) {
+            throw new IllegalStateException("Circle batches can't be nested");
+        }
+        ensureCapacity(1, 2, 0);
+        mOps[mOpCount++] = OP_CIRCLE_BATCH;
+        mFloats[mFloatCount++] = radius;
+        mInts[mIntCount++] = color;
+        mCircleBatchCountInt = mIntCount;
+        mInts[mIntCount++] = 0;
+    }
+
+    public void addCircleToBatch(final float centerX, final float centerY) {
+        if (mCircleBatchCountInt < 0) {
+            throw new IllegalStateException("No circle batch is open");
+        }
+        ensureCapacity(2, 0, 0, 0);
+        mFloats[mFloatCount++] = centerX;
+        mFloats[mFloatCount++] = centerY;
+        mInts[mCircleBatchCountInt]++;
+    }
+
+    public void endCircleBatch() {
+        if (mCircleBatchCountInt < 0) {
+            throw new IllegalStateException("No circle batch to end");
+        }
+        mCircleBatchCountInt = -1;
+    }
+
+    /**
+     * Add a rectangle that changed since the last frame to the dirty region. The region is kept
+     * as a single bounding box, since that's what a Surface can lock.
+     */
+    public void addDirtyRect(final float leftX, final float topY, final float rightX,
+                             final float bottomY) {
+        mDirtyLeft = Math.min(mDirtyLeft, leftX);
+        mDirtyTop = Math.min(mDirtyTop, topY);
+        mDirtyRight = Math.max(mDirtyRight, rightX);
+        mDirtyBottom = Math.max(mDirtyBottom, bottomY);
+    }
+
+    /**
+     * Mark the whole frame as changed, e.g. because the static layer or the set of objects did.
+     */
+    public void markAllDirty() {
+        mAllDirty = true;
+    }
+
+    /**
+     * @return true if only the part of the frame inside the dirty region's bounds has to be
+     *         redrawn, or false if the whole frame does.
+     */
+    public boolean hasDirtyRegion() {
+        return !mAllDirty && mDirtyLeft <= mDirtyRight && mDirtyTop <= mDirtyBottom;
+    }
+
+    public float getDirtyLeft() {
+        return mDirtyLeft;
+    }
+
+    public float getDirtyTop() {
+        return mDirtyTop;
+    }
+
+    public float getDirtyRight() {
+        return mDirtyRight;
+    }
+
+    public float getDirtyBottom() {
+        return mDirtyBottom;
+    }
+
+    /**
+     * Replace this buffer's contents with a copy of another's, e.g. to keep a frame for later.
+     */
+    public void copyFrom(@NonNull final RenderCommandBuffer other) {
+        reset();
+        ensureCapacity(other.mFloatCount, other.mIntCount, other.mStringCount,
+                other.mOpCount);
+        System.arraycopy(other.mOps, 0, mOps, 0, other.mOpCount);
+        System.arraycopy(other.mFloats, 0, mFloats, 0, other.mFloatCount);
+        System.arraycopy(other.mInts, 0, mInts, 0, other.mIntCount);
+        System.arraycopy(other.mStrings, 0, mStrings, 0, other.mStringCount);
+        mOpCount = other.mOpCount;
+        mFloatCount = other.mFloatCount;
+        mIntCount = other.mIntCount;
+        mStringCount = other.mStringCount;
+
+        mAllDirty = other.mAllDirty;
+        mDirtyLeft = other.mDirtyLeft;
+        mDirtyTop = other.mDirtyTop;
+        mDirtyRight = other.mDirtyRight;
+        mDirtyBottom = other.mDirtyBottom;
+    }
+
+    /**
+     * Draw every command through the Renderer's individual draw methods. Renderers that can walk
+     * the arrays directly should do that instead; this is for the ones that can't.
+     * beginDrawing MUST be called prior, and commitDrawing() MUST be called after.
+     */
+    public void replay(@NonNull final GameEngine.Renderer renderer) {
+        int f = 0, i = 0, s = 0;
+        for (int op = 0; op < mOpCount; op++) {
+            switch (mOps[op]) {
+                case OP_BACKGROUND:
+                    renderer.drawBackground(mInts[i++]);
+                    break;
+
+                case OP_VERTICAL_LINE:
+                    renderer.drawVerticalLine(mFloats[f], mFloats[f + 1], mFloats[f + 2],
+                            mInts[i], mInts[i + 1] != 0);
+                    f += 3;
+                    i += 2;
+                    break;
+
+                case OP_TEXT: {
+                    // drawScore() takes the top of the text rather than the baseline.
+                    float textSize = mFloats[f + 2];
+                    renderer.drawScore(mStrings[s++], mFloats[f], mFloats[f + 1] - textSize,
+                            textSize, mInts[i], mInts[i + 1] == ALIGN_RIGHT);
+                    f += 3;
+                    i += 2;
+                    break;
+                }
+
+                case OP_CIRCLE:
+                    renderer.drawCircle(mFloats[f], mFloats[f + 1], mFloats[f + 2], mInts[i++]);
+                    f += 3;
+                    break;
+
+                case OP_RECT:
+                    renderer.drawRect(mFloats[f], mFloats[f + 1], mFloats[f + 2], mFloats[f + 3],
+                            mInts[i++]);
+                    f += 4;
+                    break;
+
+                case OP_STATIC_LAYER:
+                    // Replay simply draws the layer's commands every time.
+                    i += 5;
+                    break;
+
+                case OP_STATIC_LAYER_END:
+                    break;
+
+                case OP_CIRCLE_BATCH: {
+                    int count = mInts[i + 1];
+                    renderer.drawCircleBatch(mFloats, f + 1, count, mFloats[f], mInts[i]);
+                    f += 1 + 2 * count;
+                    i += 2;
+                    break;
+                }
+            }
+        }
+    }
+
+    public int getOpCount() {
+        return mOpCount;
+    }
+
+    /**
+     * The raw arrays, for renderers that walk the commands directly. Only the first getOpCount()
+     * opcodes are valid, and the arrays may be replaced when the buffer grows, so don't hold on
+     * to them across frames.
+     */
+    public int[] getOps() {
+        return mOps;
+    }
+
+    public float[] getFloats() {
+        return mFloats;
+    }
+
+    public int[] getInts() {
+        return mInts;
+    }
+
+    public String[] getStrings() {
+        return mStrings;
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private void ensureCapacity(int floats, int ints, int strings) {
+        ensureCapacity(floats, ints, strings, 1);
+    }
+
+    private void ensureCapacity(int floats, int ints, int strings, int ops) {
+        if (mOpCount + ops > mOps.length) {
+            mOps = Arrays.copyOf(mOps, Math.max(mOps.length * 2, mOpCount + ops));
+        }
+        if (mFloatCount + floats > mFloats.length) {
+            mFloats = Arrays.copyOf(mFloats, Math.max(mFloats.length * 2, mFloatCount + floats));
+        }
+        if (mIntCount + ints > mInts.length) {
+            mInts = Arrays.copyOf(mInts, Math.max(mInts.length * 2, mIntCount + ints));
+        }
+        if (mStringCount + strings > mStrings.length) {
+            mStrings = Arrays.copyOf(mStrings,
+                    Math.max(mStrings.length * 2, mStringCount + strings));
+        }
+    }
+}
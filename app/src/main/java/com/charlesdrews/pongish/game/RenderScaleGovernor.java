@@ -0,0 +1,97 @@
+package com.charlesdrews.pongish.game;
+
+/**
+ * Picks the render scale from how long frames take to draw. If the average draw time over a
+ * window is over budget, it steps the scale down; if it's well under budget at a reduced scale,
+ * it steps back up. Since fill cost goes roughly with the square of the scale, each step down
+ * cuts draw time by about 40%.
+ *
+ * After each change the next window is skipped, since the surface takes a few frames to resize.
+ */
+public class RenderScaleGovernor {
+
+    // ===================================== Constants ==========================================
+
+    private static final float[] SCALES = { 1f, 0.75f, 0.5f };
+
+    private static final long WINDOW_IN_NANOS = 1_000_000_000L;
+
+    // Most of a 60 fps frame, leaving room for updating the scene.
+    private static final long DRAW_BUDGET_IN_NANOS = 12_000_000L;
+
+    // Only step back up if the draw time would still be under budget at the larger scale.
+    private static final long STEP_UP_BELOW_NANOS = 5_000_000L;
+
+
+    // ================================= Member variables =======================================
+
+    private int mScaleIndex = 0;
+    private final int mMinScaleIndex;
+
+    private long mWindowStartNanos = 0L;
+    private long mWindowDrawNanos = 0L;
+    private int mWindowFrames = 0;
+    private boolean mSkipWindow = false;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param minScale is the smallest scale to step down to.
+     */
+    public RenderScaleGovernor(final float minScale) {
+        int minIndex = 0;
+        while (minIndex + 1 < SCALES.length && SCALES[minIndex + 1] >= minScale) {
+            minIndex++;
+        }
+        mMinScaleIndex = minIndex;
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Record how long one frame took to draw.
+     *
+     * @return true if the render scale changed.
+     */
+    public boolean recordFrame(final long drawNanos) {
+        long now = System.nanoTime();
+        if (mWindowStartNanos == 0L) {
+            mWindowStartNanos = now;
+        }
+        mWindowDrawNanos += drawNanos;
+        mWindowFrames++;
+
+        if (now - mWindowStartNanos < WINDOW_IN_NANOS) {
+            return false;
+        }
+
+        long averageNanos = mWindowDrawNanos / mWindowFrames;
+        boolean skip = mSkipWindow;
+        mWindowStartNanos = now;
+        mWindowDrawNanos = 0L;
+        mWindowFrames = 0;
+        mSkipWindow = false;
+        if (skip) {
+            return false;
+        }
+
+        if (averageNanos > DRAW_BUDGET_IN_NANOS && mScaleIndex < mMinScaleIndex) {
+            mScaleIndex++;
+        }
+        else if (averageNanos < STEP_UP_BELOW_NANOS && mScaleIndex > 0) {
+            mScaleIndex--;
+        }
+        else {
+            return false;
+        }
+
+        mSkipWindow = true;
+        return true;
+    }
+
+    public float getScale() {
+        return SCALES[mScaleIndex];
+    }
+}
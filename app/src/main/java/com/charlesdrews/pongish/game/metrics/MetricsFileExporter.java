@@ -0,0 +1,183 @@
+package com.charlesdrews.pongish.game.metrics;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Appends a snapshot of a MetricsRegistry to a local file at a fixed interval, from its own
+ * thread, so performance can be followed across days of play without a profiler attached. The
+ * file is CSV, see MetricsRegistry.CSV_HEADER, with every row stamped with the time its snapshot
+ * was taken, so it loads straight into a spreadsheet or a dataframe.
+ *
+ * The file is rotated once it passes a size limit: metrics.csv becomes metrics.csv.1, and so on,
+ * up to a fixed number of files, after which the oldest is deleted. Each file starts with the
+ * header row.
+ */
+public class MetricsFileExporter {
+
+    // ===================================== Constants ==========================================
+
+    private static final String TAG = "MetricsFileExporter";
+
+    public static final String FILE_NAME = "metrics.csv";
+
+
+    // ================================= Member variables =======================================
+
+    private final MetricsRegistry mRegistry;
+    private final File mDirectory;
+    private final long mIntervalMillis, mMaxFileBytes;
+    private final int mMaxFiles;
+    private Runnable mBeforeFlush;
+    private Thread mThread;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param registry holds the metrics to export.
+     * @param directory is where to write the metrics files. Created if needed.
+     * @param intervalMillis is the time between snapshots.
+     * @param maxFileBytes is the size past which the file is rotated.
+     * @param maxFiles is the most files to keep, including the one being written.
+     */
+    public MetricsFileExporter(@NonNull final MetricsRegistry registry,
+                               @NonNull final File directory, final long intervalMillis,
+                               final long maxFileBytes, final int maxFiles) {
+        mRegistry = registry;
+        mDirectory = directory;
+        mIntervalMillis = intervalMillis;
+        mMaxFileBytes = maxFileBytes;
+        mMaxFiles = Math.max(1, maxFiles);
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Run something on the exporter's thread just before each snapshot, e.g. to update gauges
+     * that are too slow to update from the game thread.
+     *
+     * @param beforeFlush will be run before each snapshot, or null for nothing.
+     */
+    public synchronized void setBeforeFlush(final Runnable beforeFlush) {
+        mBeforeFlush = beforeFlush;
+    }
+
+    /**
+     * Start writing snapshots.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                exportUntilInterrupted();
+            }
+        }, TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stop writing snapshots, after writing one last one.
+     */
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mThread.interrupt();
+        try {
+            mThread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    /**
+     * Write one snapshot now, rotating the file first if it's full.
+     */
+    public void flush() throws IOException {
+        Runnable beforeFlush;
+        synchronized (this) {
+            beforeFlush = mBeforeFlush;
+        }
+        if (beforeFlush != null) {
+            beforeFlush.run();
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Couldn't create " + mDirectory);
+        }
+        File file = new File(mDirectory, FILE_NAME);
+        if (file.length() >= mMaxFileBytes) {
+            rotate();
+        }
+
+        boolean newFile = file.length() == 0L;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, true), "UTF-8"));
+        try {
+            if (newFile) {
+                writer.write(MetricsRegistry.CSV_HEADER);
+            }
+            mRegistry.writeCsv(writer, System.currentTimeMillis());
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private void exportUntilInterrupted() {
+        boolean running = true;
+        while (running) {
+            try {
+                Thread.sleep(mIntervalMillis);
+            }
+            catch (InterruptedException e) {
+                running = false;
+            }
+
+            try {
+                flush();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Unable to write metrics; will try again next interval", e);
+            }
+        }
+    }
+
+    /**
+     * Shift each old file up one number, dropping the oldest, and move the current file to .1.
+     */
+    private void rotate() throws IOException {
+        File oldest = numberedFile(mMaxFiles - 1);
+        if (oldest.exists() && !oldest.delete()) {
+            throw new IOException("Couldn't delete " + oldest);
+        }
+        for (int i = mMaxFiles - 2; i >= 0; i--) {
+            File from = numberedFile(i);
+            if (from.exists() && !from.renameTo(numberedFile(i + 1))) {
+                throw new IOException("Couldn't rename " + from);
+            }
+        }
+    }
+
+    private File numberedFile(final int number) {
+        return new File(mDirectory, number == 0 ? FILE_NAME : FILE_NAME + "." + number);
+    }
+}
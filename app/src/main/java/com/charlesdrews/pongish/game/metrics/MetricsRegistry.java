@@ -0,0 +1,198 @@
+package com.charlesdrews.pongish.game.metrics;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Named counters, gauges, and histograms for watching how the game performs over long sessions.
+ * Metrics are created up front, e.g. when the engine is built, and the game thread then records
+ * into them with plain atomic updates - no locks and no allocation. Any thread can write out a
+ * snapshot of every metric as CSV rows at any time, and snapshots can be appended one after
+ * another to the same file, since every row carries its own timestamp.
+ */
+public class MetricsRegistry {
+
+    // ===================================== Constants ==========================================
+
+    // The columns of the rows writeCsv() writes. The le column holds a histogram bucket's upper
+    // bound, as in Prometheus, and is empty for every other sample.
+    public static final String CSV_HEADER = "timestamp_millis,name,type,le,value\n";
+
+    // ================================= Member variables =======================================
+
+    private final List<Metric> mMetrics = new ArrayList<>();
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * @param name is the metric's name, e.g. "pongish_points_scored_total".
+     * @return a new Counter, which only ever goes up.
+     */
+    public synchronized Counter counter(@NonNull final String name) {
+        return add(new Counter(name));
+    }
+
+    /**
+     * @param name is the metric's name, e.g. "pongish_balls".
+     * @return a new Gauge, which holds the latest value set.
+     */
+    public synchronized Gauge gauge(@NonNull final String name) {
+        return add(new Gauge(name));
+    }
+
+    /**
+     * @param name is the metric's name, e.g. "pongish_frame_time_micros".
+     * @param bucketUpperBounds are the upper bounds of the histogram's buckets, in increasing
+     *                          order. Values above the last bound go in an extra bucket.
+     * @return a new Histogram, which counts recorded values by bucket.
+     */
+    public synchronized Histogram histogram(@NonNull final String name,
+                                            @NonNull final long[] bucketUpperBounds) {
+        return add(new Histogram(name, bucketUpperBounds));
+    }
+
+    /**
+     * Write the current value of every metric, one CSV row per sample, in CSV_HEADER's columns.
+     * Doesn't write the header itself.
+     *
+     * @param writer is where to write the snapshot.
+     * @param timestampMillis is the time to stamp each sample with.
+     */
+    public synchronized void writeCsv(@NonNull final Writer writer, final long timestampMillis)
+            throws IOException {
+        for (int i = 0; i < mMetrics.size(); i++) {
+            mMetrics.get(i).writeSamples(writer, timestampMillis);
+        }
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private <T extends Metric> T add(final T metric) {
+        for (int i = 0; i < mMetrics.size(); i++) {
+            if (mMetrics.get(i).mName.equals(metric.mName)) {
+                throw new IllegalArgumentException("Metric already exists: " + metric.mName);
+            }
+        }
+        mMetrics.add(metric);
+        return metric;
+    }
+
+    private static void writeSample(final Writer writer, final long timestampMillis,
+                                    final String name, final String type, final String le,
+                                    final long value) throws IOException {
+        writer.write(timestampMillis + "," + name + "," + type + "," + le + "," + value + "\n");
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    private abstract static class Metric {
+
+        final String mName;
+
+        Metric(String name) {
+            mName = name;
+        }
+
+        abstract void writeSamples(Writer writer, long timestampMillis) throws IOException;
+    }
+
+    public static class Counter extends Metric {
+
+        private final AtomicLong mValue = new AtomicLong();
+
+        Counter(String name) {
+            super(name);
+        }
+
+        public void increment() {
+            mValue.incrementAndGet();
+        }
+
+        public void add(final long amount) {
+            mValue.addAndGet(amount);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+
+        @Override
+        void writeSamples(Writer writer, long timestampMillis) throws IOException {
+            writeSample(writer, timestampMillis, mName, "counter", "", mValue.get());
+        }
+    }
+
+    public static class Gauge extends Metric {
+
+        private final AtomicLong mValue = new AtomicLong();
+
+        Gauge(String name) {
+            super(name);
+        }
+
+        public void set(final long value) {
+            mValue.set(value);
+        }
+
+        public long get() {
+            return mValue.get();
+        }
+
+        @Override
+        void writeSamples(Writer writer, long timestampMillis) throws IOException {
+            writeSample(writer, timestampMillis, mName, "gauge", "", mValue.get());
+        }
+    }
+
+    /**
+     * Counts values by bucket, plus their sum, so averages and rough percentiles can be worked
+     * out afterwards. A snapshot taken while values are being recorded may be off by the values
+     * in flight, which is fine for watching trends.
+     */
+    public static class Histogram extends Metric {
+
+        private final long[] mUpperBounds;
+        private final AtomicLongArray mBucketCounts;
+        private final AtomicLong mSum = new AtomicLong();
+
+        Histogram(String name, long[] upperBounds) {
+            super(name);
+            mUpperBounds = upperBounds.clone();
+            mBucketCounts = new AtomicLongArray(upperBounds.length + 1);
+        }
+
+        public void record(final long value) {
+            int bucket = 0;
+            while (bucket < mUpperBounds.length && value > mUpperBounds[bucket]) {
+                bucket++;
+            }
+            mBucketCounts.incrementAndGet(bucket);
+            mSum.addAndGet(value);
+        }
+
+        // Buckets are cumulative, as in Prometheus: each counts every value up to its bound.
+        @Override
+        void writeSamples(Writer writer, long timestampMillis) throws IOException {
+            String bucketName = mName + "_bucket";
+            long count = 0L;
+            for (int i = 0; i < mUpperBounds.length; i++) {
+                count += mBucketCounts.get(i);
+                writeSample(writer, timestampMillis, bucketName, "histogram",
+                        Long.toString(mUpperBounds[i]), count);
+            }
+            count += mBucketCounts.get(mUpperBounds.length);
+            writeSample(writer, timestampMillis, bucketName, "histogram", "+Inf", count);
+            writeSample(writer, timestampMillis, mName + "_sum", "histogram", "", mSum.get());
+            writeSample(writer, timestampMillis, mName + "_count", "histogram", "", count);
+        }
+    }
+}
@@ -0,0 +1,521 @@
+package com.charlesdrews.pongish.game.net;
+
+import android.support.annotation.NonNull;
+
+import com.charlesdrews.pongish.game.RenderCommandBuffer;
+import com.charlesdrews.pongish.game.objects.BudgetedPaddleController;
+import com.charlesdrews.pongish.game.objects.GameObjects;
+import com.charlesdrews.pongish.game.objects.HumanPaddleController;
+import com.charlesdrews.pongish.game.objects.PongScene;
+import com.charlesdrews.pongish.game.objects.SceneSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Plays a PongScene against another device. Each device runs the whole simulation, one fixed
+ * tick at a time; the only thing sent between them is each player's paddle input for each tick.
+ *
+ * The other player's input for recent ticks usually hasn't arrived yet, so it's predicted to be
+ * the same as their last known input, and the game carries on. A snapshot of the scene is saved
+ * before every tick. When the real input for a tick arrives and differs from the prediction, the
+ * scene is put back to that tick's snapshot and the ticks since are run again with the real input
+ * - a rollback - all within one update, so the player just sees the other paddle correct itself.
+ * If the other player falls more than MAX_ROLLBACK_TICKS behind, this side waits for them.
+ *
+ * To stay in step, both devices must use the same match seed, tick length, and board size. Each
+ * tick reseeds the scene's random number generator from the match seed and tick number, and each
+ * packet carries a checksum of a recent confirmed tick, so a desync is noticed.
+ *
+ * Points are reset within the tick they're scored on, so the engine's countdown between points
+ * isn't used, and the match can't be saved or restarted on one side alone.
+ */
+public class NetplayScene implements GameObjects.Scene {
+
+    // ===================================== Constants ==========================================
+
+    private static final int MAGIC = 0x504e4731; // "PNG1"
+
+    // Ticks the simulation may run ahead of the other player's confirmed input.
+    public static final int MAX_ROLLBACK_TICKS = 12;
+
+    // Rings indexed by tick number. Snapshots only need to reach back past the rollback limit;
+    // inputs and checksums are kept longer, for resending and for comparing with the other side.
+    private static final int SNAPSHOT_RING_SIZE = 16;
+    private static final int INPUT_RING_SIZE = 128;
+    private static final int CHECKSUM_RING_SIZE = 128;
+
+    // Every packet repeats the inputs the other player hasn't confirmed, up to this many, so a
+    // lost packet costs nothing but a little delay.
+    private static final int MAX_INPUTS_PER_PACKET = 32;
+    private static final int PACKET_HEADER_BYTES = 30;
+    private static final int MAX_PACKET_BYTES = PACKET_HEADER_BYTES + 4 * MAX_INPUTS_PER_PACKET;
+
+    private static final int NO_TICK = -1;
+
+    // Spreads consecutive tick numbers across the seed space.
+    private static final long TICK_SEED_MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+
+    // ================================= Member variables =======================================
+
+    private final PongScene mScene;
+    private final Transport mTransport;
+    private final int mLocalPaddle;
+    private final HumanPaddleController mLocalInput;
+    private final long mMatchSeed, mTickInMillis;
+    private final int mMatchId;
+    private final InputController mLocalController = new InputController();
+    private final InputController mRemoteController = new InputController();
+
+    // The next tick to simulate, and the last tick through which all the other player's inputs
+    // have arrived.
+    private int mCurrentTick = 0;
+    private int mLastConfirmedRemoteTick = NO_TICK;
+
+    // The last of this side's ticks the other player has confirmed, and the earliest tick to roll
+    // back to, or Integer.MAX_VALUE if none.
+    private int mRemoteAckTick = NO_TICK;
+    private int mRollbackFromTick = Integer.MAX_VALUE;
+
+    private final SceneSnapshot[] mSnapshots = new SceneSnapshot[SNAPSHOT_RING_SIZE];
+    private final int[] mSnapshotTicks = new int[SNAPSHOT_RING_SIZE];
+
+    private final float[] mLocalInputs = new float[INPUT_RING_SIZE];
+    private final float[] mRemoteInputs = new float[INPUT_RING_SIZE];
+    private final int[] mRemoteInputTicks = new int[INPUT_RING_SIZE];
+    private final float[] mRemoteInputsUsed = new float[INPUT_RING_SIZE];
+
+    private final long[] mChecksums = new long[CHECKSUM_RING_SIZE];
+    private final int[] mChecksumTicks = new int[CHECKSUM_RING_SIZE];
+    private int mLastChecksummedTick = NO_TICK;
+
+    private final ByteBuffer mSendBuffer = ByteBuffer.allocate(MAX_PACKET_BYTES);
+    private final ByteBuffer mReceiveBuffer = ByteBuffer.allocate(MAX_PACKET_BYTES);
+
+    // Stats, written on the game thread and readable from any thread.
+    private volatile int mRollbackCount = 0, mMaxRollbackTicks = 0, mStalledUpdateCount = 0;
+    private volatile long mMaxRollbackNanos = 0L;
+    private volatile int mChecksumsCompared = 0, mDesyncCount = 0;
+    private volatile int mRejectedPacketCount = 0, mNetworkErrorCount = 0;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param scene is the scene to play. Both devices must create it with the same board size,
+     *              and with neither paddle computer controlled.
+     * @param transport connects to the other player.
+     * @param localPaddle is the paddle this device's player controls, PongScene.LEFT_PADDLE (0)
+     *                    or PongScene.RIGHT_PADDLE (1). The other player controls the other one.
+     * @param localInput collects this device's player's touch input.
+     * @param matchSeed must be the same on both devices.
+     * @param tickInMillis is the length of every tick, and must be the same on both devices.
+     */
+    public NetplayScene(@NonNull final PongScene scene, @NonNull final Transport transport,
+                        final int localPaddle, @NonNull final HumanPaddleController localInput,
+                        final long matchSeed, final long tickInMillis) {
+        if (localPaddle != LEFT_PADDLE && localPaddle != RIGHT_PADDLE) {
+            throw new IllegalArgumentException("localPaddle must be either " +
+                    "GameObjects.Scene.LEFT_PADDLE or GameObjects.Scene.RIGHT_PADDLE");
+        }
+
+        mScene = scene;
+        mTransport = transport;
+        mLocalPaddle = localPaddle;
+        mLocalInput = localInput;
+        mMatchSeed = matchSeed;
+        mTickInMillis = tickInMillis;
+        mMatchId = (int) (matchSeed ^ (matchSeed >>> 32));
+
+        for (int i = 0; i < SNAPSHOT_RING_SIZE; i++) {
+            mSnapshots[i] = new SceneSnapshot();
+        }
+        Arrays.fill(mSnapshotTicks, NO_TICK);
+        Arrays.fill(mRemoteInputTicks, NO_TICK);
+        Arrays.fill(mChecksumTicks, NO_TICK);
+
+        // Start the first point the same way on both devices.
+        mScene.setRandomSeed(matchSeed);
+
+        // Never let the budget fall back to another controller. If it kicked in on only one
+        // device, the games would go out of step.
+        int remotePaddle = (localPaddle == LEFT_PADDLE) ? RIGHT_PADDLE : LEFT_PADDLE;
+        mScene.setPaddleController(localPaddle, new BudgetedPaddleController(mLocalController,
+                mLocalController, Long.MAX_VALUE));
+        mScene.setPaddleController(remotePaddle, new BudgetedPaddleController(mRemoteController,
+                mRemoteController, Long.MAX_VALUE));
+    }
+
+
+    // ================================== Public methods ========================================
+
+    public int getLocalPaddle() {
+        return mLocalPaddle;
+    }
+
+    /**
+     * @return the next tick to be simulated.
+     */
+    public int getCurrentTick() {
+        return mCurrentTick;
+    }
+
+    /**
+     * @return the number of updates that rolled back and re-ran ticks.
+     */
+    public int getRollbackCount() {
+        return mRollbackCount;
+    }
+
+    /**
+     * @return the most ticks re-run in one rollback.
+     */
+    public int getMaxRollbackTicks() {
+        return mMaxRollbackTicks;
+    }
+
+    /**
+     * @return the longest time one rollback took, including restoring the snapshot.
+     */
+    public long getMaxRollbackNanos() {
+        return mMaxRollbackNanos;
+    }
+
+    /**
+     * @return the number of updates skipped to wait for the other player.
+     */
+    public int getStalledUpdateCount() {
+        return mStalledUpdateCount;
+    }
+
+    /**
+     * @return the number of ticks whose checksums were compared with the other player's.
+     */
+    public int getChecksumsCompared() {
+        return mChecksumsCompared;
+    }
+
+    /**
+     * @return the number of compared ticks where the games were out of step.
+     */
+    public int getDesyncCount() {
+        return mDesyncCount;
+    }
+
+    /**
+     * @return the number of packets ignored because they were from a different match.
+     */
+    public int getRejectedPacketCount() {
+        return mRejectedPacketCount;
+    }
+
+    /**
+     * @return the number of sends and receives that failed.
+     */
+    public int getNetworkErrorCount() {
+        return mNetworkErrorCount;
+    }
+
+    /**
+     * Close the connection to the other player.
+     */
+    public void close() throws IOException {
+        mTransport.close();
+    }
+
+
+    // ============================= GameObjects.Scene methods ==================================
+
+    /**
+     * Advance the match by one tick, if the other player isn't too far behind. The given time is
+     * ignored; every tick is the length given to the constructor, so run the engine at a fixed
+     * tick of that length.
+     *
+     * @return false; points are reset within the tick they're scored on.
+     */
+    @Override
+    public boolean updateGameObjects(long millisSinceLastUpdate) {
+        receivePackets();
+        if (mRollbackFromTick < mCurrentTick) {
+            rollBack();
+        }
+        recordChecksums();
+
+        if (mCurrentTick - mLastConfirmedRemoteTick <= MAX_ROLLBACK_TICKS) {
+            mLocalInputs[inputIndex(mCurrentTick)] = mLocalInput.takePendingDeltaY();
+            simulateTick(mCurrentTick);
+            mCurrentTick++;
+        }
+        else {
+            mStalledUpdateCount++;
+        }
+
+        sendInputs();
+        return false;
+    }
+
+    @Override
+    public void movePaddle(int paddle, float deltaY, long millisSinceLastUpdate) {
+        mScene.movePaddle(paddle, deltaY, millisSinceLastUpdate);
+    }
+
+    @Override
+    public int getBackgroundColor() {
+        return mScene.getBackgroundColor();
+    }
+
+    @Override
+    public void fillRenderCommandBuffer(@NonNull RenderCommandBuffer buffer, float alpha) {
+        mScene.fillRenderCommandBuffer(buffer, alpha);
+    }
+
+    @Override
+    public int getBallCount() {
+        return mScene.getBallCount();
+    }
+
+    @Override
+    public void writeSnapshot(@NonNull ByteBuffer buffer, int maxBalls) {
+        mScene.writeSnapshot(buffer, maxBalls);
+    }
+
+    @Override
+    public void resetAfterPointScored() {
+        // Points are already reset within the tick they're scored on, in step with the other
+        // player.
+    }
+
+    @Override
+    public void setCountdownInProgress(boolean countdownInProgress) {
+        mScene.setCountdownInProgress(countdownInProgress);
+    }
+
+    @Override
+    public void setTracer(GameObjects.Tracer tracer) {
+        mScene.setTracer(tracer);
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private static int inputIndex(final int tick) {
+        return tick % INPUT_RING_SIZE;
+    }
+
+    /**
+     * Save the scene's snapshot for the tick, then run the tick with both players' inputs.
+     */
+    private void simulateTick(final int tick) {
+        int slot = tick % SNAPSHOT_RING_SIZE;
+        mScene.saveSnapshot(mSnapshots[slot]);
+        mSnapshotTicks[slot] = tick;
+
+        int index = inputIndex(tick);
+        float remoteInput = getRemoteInput(tick);
+        mRemoteInputsUsed[index] = remoteInput;
+        mLocalController.mDeltaY = mLocalInputs[index];
+        mRemoteController.mDeltaY = remoteInput;
+
+        mScene.reseedRandom(mMatchSeed ^ (tick * TICK_SEED_MULTIPLIER));
+        if (mScene.updateGameObjects(mTickInMillis)) {
+            mScene.resetAfterPointScored();
+        }
+    }
+
+    /**
+     * @return the other player's input for the tick if it's arrived, or else a prediction: the
+     *         same as their last confirmed input.
+     */
+    private float getRemoteInput(final int tick) {
+        int index = inputIndex(tick);
+        if (mRemoteInputTicks[index] == tick) {
+            return mRemoteInputs[index];
+        }
+        if (mLastConfirmedRemoteTick != NO_TICK) {
+            return mRemoteInputs[inputIndex(mLastConfirmedRemoteTick)];
+        }
+        return 0f;
+    }
+
+    /**
+     * Put the scene back to the earliest mispredicted tick, and run every tick since again.
+     */
+    private void rollBack() {
+        long startNanos = System.nanoTime();
+        int fromTick = mRollbackFromTick;
+        mRollbackFromTick = Integer.MAX_VALUE;
+
+        int slot = fromTick % SNAPSHOT_RING_SIZE;
+        if (mSnapshotTicks[slot] != fromTick) {
+
+            // Can't happen while the simulation stays within MAX_ROLLBACK_TICKS of the confirmed
+            // input, but if it did, there'd be nothing to roll back to.
+            return;
+        }
+        mScene.restoreSnapshot(mSnapshots[slot]);
+        for (int tick = fromTick; tick < mCurrentTick; tick++) {
+            simulateTick(tick);
+        }
+
+        long rollbackNanos = System.nanoTime() - startNanos;
+        mRollbackCount++;
+        mMaxRollbackTicks = Math.max(mMaxRollbackTicks, mCurrentTick - fromTick);
+        mMaxRollbackNanos = Math.max(mMaxRollbackNanos, rollbackNanos);
+    }
+
+    /**
+     * Checksum the snapshot of each tick that can no longer be rolled back: every input before
+     * it has been confirmed, and it's been simulated since.
+     */
+    private void recordChecksums() {
+        int lastFinalTick = Math.min(mLastConfirmedRemoteTick + 1, mCurrentTick - 1);
+        while (mLastChecksummedTick < lastFinalTick) {
+            int tick = mLastChecksummedTick + 1;
+            int slot = tick % SNAPSHOT_RING_SIZE;
+            if (mSnapshotTicks[slot] == tick) {
+                int index = tick % CHECKSUM_RING_SIZE;
+                mChecksums[index] = mSnapshots[slot].checksum();
+                mChecksumTicks[index] = tick;
+            }
+            mLastChecksummedTick = tick;
+        }
+    }
+
+    private void receivePackets() {
+        while (true) {
+            mReceiveBuffer.clear();
+            try {
+                if (!mTransport.receive(mReceiveBuffer)) {
+                    return;
+                }
+            }
+            catch (IOException e) {
+                mNetworkErrorCount++;
+                return;
+            }
+            mReceiveBuffer.flip();
+            readPacket(mReceiveBuffer);
+        }
+    }
+
+    private void readPacket(final ByteBuffer packet) {
+        if (packet.remaining() < PACKET_HEADER_BYTES || packet.getInt() != MAGIC) {
+            mRejectedPacketCount++;
+            return;
+        }
+        if (packet.getInt() != mMatchId) {
+            mRejectedPacketCount++;
+            return;
+        }
+
+        int ackTick = packet.getInt();
+        if (ackTick > mRemoteAckTick) {
+            mRemoteAckTick = ackTick;
+        }
+
+        int checksumTick = packet.getInt();
+        long checksum = packet.getLong();
+        compareChecksum(checksumTick, checksum);
+
+        int firstTick = packet.getInt();
+        int count = packet.getShort();
+        if (count < 0 || count > MAX_INPUTS_PER_PACKET || packet.remaining() < 4 * count) {
+            mRejectedPacketCount++;
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            receiveRemoteInput(firstTick + i, packet.getFloat());
+        }
+
+        // Confirm as far as every tick has arrived.
+        while (mRemoteInputTicks[inputIndex(mLastConfirmedRemoteTick + 1)] ==
+                mLastConfirmedRemoteTick + 1) {
+            mLastConfirmedRemoteTick++;
+        }
+    }
+
+    private void receiveRemoteInput(final int tick, final float deltaY) {
+        if (tick <= mLastConfirmedRemoteTick ||
+                tick >= mLastConfirmedRemoteTick + INPUT_RING_SIZE) {
+            return;
+        }
+        int index = inputIndex(tick);
+        if (mRemoteInputTicks[index] == tick) {
+            return;
+        }
+        mRemoteInputs[index] = deltaY;
+        mRemoteInputTicks[index] = tick;
+
+        // If the tick already ran on a wrong guess, it has to run again.
+        if (tick < mCurrentTick && mRemoteInputsUsed[index] != deltaY) {
+            mRollbackFromTick = Math.min(mRollbackFromTick, tick);
+        }
+    }
+
+    private void compareChecksum(final int tick, final long checksum) {
+        if (tick == NO_TICK || tick > mLastChecksummedTick) {
+            return;
+        }
+        int index = tick % CHECKSUM_RING_SIZE;
+        if (mChecksumTicks[index] == tick) {
+            mChecksumsCompared++;
+            if (mChecksums[index] != checksum) {
+                mDesyncCount++;
+            }
+        }
+    }
+
+    /**
+     * Send every local input the other player hasn't confirmed, plus this side's confirmed tick
+     * and latest checksum.
+     */
+    private void sendInputs() {
+        int firstTick = Math.max(mRemoteAckTick + 1, mCurrentTick - MAX_INPUTS_PER_PACKET);
+        int count = Math.max(0, mCurrentTick - firstTick);
+
+        mSendBuffer.clear();
+        mSendBuffer.putInt(MAGIC);
+        mSendBuffer.putInt(mMatchId);
+        mSendBuffer.putInt(mLastConfirmedRemoteTick);
+        mSendBuffer.putInt(mLastChecksummedTick);
+        mSendBuffer.putLong((mLastChecksummedTick == NO_TICK) ? 0L :
+                mChecksums[mLastChecksummedTick % CHECKSUM_RING_SIZE]);
+        mSendBuffer.putInt(firstTick);
+        mSendBuffer.putShort((short) count);
+        for (int i = 0; i < count; i++) {
+            mSendBuffer.putFloat(mLocalInputs[inputIndex(firstTick + i)]);
+        }
+        mSendBuffer.flip();
+
+        try {
+            mTransport.send(mSendBuffer);
+        }
+        catch (IOException e) {
+            mNetworkErrorCount++;
+        }
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    /**
+     * Moves a paddle by whatever input the scene has set for the current tick.
+     */
+    private static class InputController implements GameObjects.PaddleController {
+
+        float mDeltaY;
+
+        @Override
+        public float getPaddleDeltaY(@NonNull GameObjects.SceneView sceneView, int paddle,
+                                     long millisSinceLastUpdate) {
+            return mDeltaY;
+        }
+
+        @Override
+        public void reset() {
+            // The input for each tick is set before the tick runs, so there's nothing to forget.
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.charlesdrews.pongish.game.net;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Wraps another Transport to make the network look worse than it is, for testing: each packet
+ * sent is dropped at random, or held back for a random delay before it's really sent, so packets
+ * can also arrive out of order. Held-back packets go out during later calls to send() or
+ * receive(). Allocates for every packet, so it's for testing only.
+ */
+public class SimulatedNetworkTransport implements Transport {
+
+    // ================================= Member variables =======================================
+
+    private final Transport mTransport;
+    private final long mLatencyInNanos, mJitterInNanos;
+    private final float mLossRate;
+    private final Random mRandom;
+
+    private final PriorityQueue<DelayedPacket> mDelayedPackets = new PriorityQueue<>();
+    private long mNextSequence = 0L;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param transport is the Transport to really send and receive with.
+     * @param latencyInMillis is the delay added to every packet.
+     * @param jitterInMillis is the most extra delay added at random to each packet.
+     * @param lossRate is the chance of dropping each packet, from 0.0 to 1.0.
+     * @param seed is the seed for the random drops and delays.
+     */
+    public SimulatedNetworkTransport(@NonNull final Transport transport,
+                                     final long latencyInMillis, final long jitterInMillis,
+                                     final float lossRate, final long seed) {
+        mTransport = transport;
+        mLatencyInNanos = latencyInMillis * 1_000_000L;
+        mJitterInNanos = jitterInMillis * 1_000_000L;
+        mLossRate = lossRate;
+        mRandom = new Random(seed);
+    }
+
+
+    // ================================= Transport methods ======================================
+
+    @Override
+    public void send(@NonNull ByteBuffer packet) throws IOException {
+        sendDuePackets();
+        if (mRandom.nextFloat() < mLossRate) {
+            packet.position(packet.limit());
+            return;
+        }
+
+        byte[] bytes = new byte[packet.remaining()];
+        packet.get(bytes);
+        long jitter = (mJitterInNanos > 0L) ? (long) (mRandom.nextDouble() * mJitterInNanos) : 0L;
+        mDelayedPackets.add(new DelayedPacket(System.nanoTime() + mLatencyInNanos + jitter,
+                mNextSequence++, bytes));
+    }
+
+    @Override
+    public boolean receive(@NonNull ByteBuffer packet) throws IOException {
+        sendDuePackets();
+        return mTransport.receive(packet);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mTransport.close();
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private void sendDuePackets() throws IOException {
+        long now = System.nanoTime();
+        while (!mDelayedPackets.isEmpty() && mDelayedPackets.peek().mDueNanos <= now) {
+            mTransport.send(ByteBuffer.wrap(mDelayedPackets.poll().mBytes));
+        }
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    private static class DelayedPacket implements Comparable<DelayedPacket> {
+
+        final long mDueNanos, mSequence;
+        final byte[] mBytes;
+
+        DelayedPacket(long dueNanos, long sequence, byte[] bytes) {
+            mDueNanos = dueNanos;
+            mSequence = sequence;
+            mBytes = bytes;
+        }
+
+        @Override
+        public int compareTo(@NonNull DelayedPacket other) {
+            if (mDueNanos != other.mDueNanos) {
+                return (mDueNanos < other.mDueNanos) ? -1 : 1;
+            }
+            return (mSequence < other.mSequence) ? -1 : (mSequence > other.mSequence ? 1 : 0);
+        }
+    }
+}
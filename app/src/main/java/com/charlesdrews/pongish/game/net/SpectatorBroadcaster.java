@@ -0,0 +1,371 @@
+package com.charlesdrews.pongish.game.net;
+
+import android.support.annotation.NonNull;
+
+import com.charlesdrews.pongish.game.objects.GameObjects;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams a live match to up to MAX_SPECTATORS spectators over UDP. A spectator joins by sending
+ * an acknowledgement, and keeps acknowledging the newest tick it has, see SpectatorClient.
+ *
+ * Anyone can put any return address on a UDP packet, so a new address only gets a hello, no
+ * bigger than the acknowledgement that asked for it, holding a random token. Nothing else is sent
+ * to it until it acknowledges with that token, proving the hello reached it. That way a forged
+ * acknowledgement can't turn the broadcaster into a stream of keyframes aimed at someone else.
+ *
+ * Every few ticks, each spectator is sent the match as a delta from the newest tick it has
+ * acknowledged, so it only gets what's changed since. Spectators who've acknowledged the same
+ * tick share one encoded packet. A spectator whose last acknowledged tick is too old to delta
+ * from gets a keyframe instead - at most every KEYFRAME_RETRY_TICKS, until it catches up - so a
+ * slow viewer just skips ahead. Nothing is ever queued and sends never block, so one slow viewer
+ * can't delay the others, or the game.
+ *
+ * Acknowledgement packet layout: ACK_MAGIC (int), the tick (int), or -1 to just join, then the
+ * token from the hello (int), or 0 before there's been one.
+ *
+ * Hello packet layout: HELLO_MAGIC (int), then the token (int).
+ */
+public class SpectatorBroadcaster implements Closeable {
+
+    // ===================================== Constants ==========================================
+
+    public static final int ACK_MAGIC = 0x50535041; // "PSPA"
+    public static final int ACK_BYTES = 12;
+
+    public static final int HELLO_MAGIC = 0x50535048; // "PSPH"
+    public static final int HELLO_BYTES = 8;
+
+    public static final int MAX_SPECTATORS = 64;
+
+    // Addresses that haven't answered their hello yet, counted among MAX_SPECTATORS. Kept lower,
+    // so forged joins can't crowd out real spectators for long.
+    private static final int MAX_UNCONFIRMED_SPECTATORS = 16;
+
+    // Ticks of frames kept to delta from. Spectators keep as many, to decode with.
+    public static final int HISTORY_SIZE = 64;
+
+    private static final int KEYFRAME_RETRY_TICKS = 30;
+    private static final long SPECTATOR_TIMEOUT_IN_MILLIS = 5_000L;
+
+    // Distinct base frames encoded per send before encoding stops being shared.
+    private static final int ENCODING_CACHE_SIZE = 4;
+
+
+    // ================================= Member variables =======================================
+
+    private final DatagramChannel mChannel;
+    private final int mSendIntervalTicks;
+
+    private final SpectatorFrame[] mHistory = new SpectatorFrame[HISTORY_SIZE];
+    private int mTick = 0;
+
+    private final ByteBuffer mSnapshot = ByteBuffer.allocate(
+            GameObjects.Scene.SNAPSHOT_BASE_BYTES +
+                    SpectatorFrame.MAX_BALLS * GameObjects.Scene.SNAPSHOT_BYTES_PER_BALL);
+    private final ByteBuffer mAck = ByteBuffer.allocate(ACK_BYTES);
+    private final ByteBuffer mHello = ByteBuffer.allocate(HELLO_BYTES);
+    private final SecureRandom mTokens = new SecureRandom();
+
+    private final Map<SocketAddress, Spectator> mSpectatorsByAddress = new HashMap<>();
+    private final List<Spectator> mSpectators = new ArrayList<>();
+    private int mUnconfirmedCount = 0;
+
+    // Packets encoded for the current send, by the tick of the frame they're a delta from.
+    private final int[] mEncodedBaseTicks = new int[ENCODING_CACHE_SIZE];
+    private final ByteBuffer[] mEncodedPackets = new ByteBuffer[ENCODING_CACHE_SIZE];
+    private final ByteBuffer mUncachedPacket =
+            ByteBuffer.allocate(SpectatorCodec.MAX_PACKET_BYTES);
+    private int mEncodedCount = 0;
+
+    // Stats, written on the game thread and readable from any thread.
+    private volatile int mSpectatorCount = 0;
+    private volatile long mBytesSent = 0L, mPacketsSent = 0L, mKeyframesSent = 0L;
+    private volatile long mPacketsDropped = 0L;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param port is the UDP port spectators connect to.
+     * @param sendIntervalTicks is the number of ticks between sends, e.g. 2 to send at half the
+     *                          tick rate.
+     */
+    public SpectatorBroadcaster(final int port, final int sendIntervalTicks) throws IOException {
+        mSendIntervalTicks = Math.max(1, sendIntervalTicks);
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            mHistory[i] = new SpectatorFrame();
+        }
+        for (int i = 0; i < ENCODING_CACHE_SIZE; i++) {
+            mEncodedPackets[i] = ByteBuffer.allocate(SpectatorCodec.MAX_PACKET_BYTES);
+        }
+
+        mChannel = DatagramChannel.open();
+        try {
+            mChannel.configureBlocking(false);
+            mChannel.socket().bind(new InetSocketAddress(port));
+        }
+        catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Record the scene as it is after an update, and send it to the spectators if it's time.
+     * Call on the game thread only, after every update.
+     *
+     * @param scene is the scene that was just updated.
+     * @param millisSinceLastUpdate is the length of the update.
+     */
+    public void onUpdate(@NonNull final GameObjects.Scene scene,
+                         final long millisSinceLastUpdate) {
+        long nowMillis = System.currentTimeMillis();
+        receiveAcks(nowMillis);
+
+        SpectatorFrame frame = mHistory[mTick % HISTORY_SIZE];
+        mSnapshot.clear();
+        scene.writeSnapshot(mSnapshot, SpectatorFrame.MAX_BALLS);
+        mSnapshot.flip();
+        frame.readSnapshot(mSnapshot, mTick, millisSinceLastUpdate);
+
+        if (mTick % mSendIntervalTicks == 0) {
+            send(frame, nowMillis);
+        }
+        mTick++;
+    }
+
+    public int getSpectatorCount() {
+        return mSpectatorCount;
+    }
+
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    public long getPacketsSent() {
+        return mPacketsSent;
+    }
+
+    public long getKeyframesSent() {
+        return mKeyframesSent;
+    }
+
+    /**
+     * @return the number of packets the socket had no room for.
+     */
+    public long getPacketsDropped() {
+        return mPacketsDropped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private void receiveAcks(final long nowMillis) {
+        while (true) {
+            mAck.clear();
+            SocketAddress address;
+            try {
+                address = mChannel.receive(mAck);
+            }
+            catch (IOException e) {
+                return;
+            }
+            if (address == null) {
+                return;
+            }
+
+            mAck.flip();
+            if (mAck.remaining() < ACK_BYTES || mAck.getInt() != ACK_MAGIC) {
+                continue;
+            }
+            int tick = mAck.getInt();
+            int token = mAck.getInt();
+
+            Spectator spectator = mSpectatorsByAddress.get(address);
+            if (spectator == null) {
+                if (mSpectators.size() >= MAX_SPECTATORS ||
+                        mUnconfirmedCount >= MAX_UNCONFIRMED_SPECTATORS) {
+                    continue;
+                }
+                spectator = new Spectator(address, getNewToken());
+                spectator.mLastHeardMillis = nowMillis;
+                mSpectatorsByAddress.put(address, spectator);
+                mSpectators.add(spectator);
+                mUnconfirmedCount++;
+                mSpectatorCount = mSpectators.size();
+            }
+
+            // Until the spectator has shown it got its hello, its address may be forged.
+            if (!spectator.mConfirmed) {
+                if (token != spectator.mToken) {
+                    continue;
+                }
+                spectator.mConfirmed = true;
+                mUnconfirmedCount--;
+            }
+            spectator.mLastHeardMillis = nowMillis;
+            if (tick > spectator.mAckedTick && tick < mTick) {
+                spectator.mAckedTick = tick;
+            }
+        }
+    }
+
+    private void send(final SpectatorFrame frame, final long nowMillis) {
+        mEncodedCount = 0;
+        for (int i = mSpectators.size() - 1; i >= 0; i--) {
+            Spectator spectator = mSpectators.get(i);
+            if (nowMillis - spectator.mLastHeardMillis > SPECTATOR_TIMEOUT_IN_MILLIS) {
+                removeSpectator(i);
+                continue;
+            }
+            if (!spectator.mConfirmed) {
+                sendHello(spectator);
+                continue;
+            }
+
+            SpectatorFrame base = getBaseFrame(spectator.mAckedTick);
+            if (base == null) {
+
+                // Give a spectator that's fallen behind time to confirm its keyframe.
+                if (spectator.mLastKeyframeTick >= 0 &&
+                        mTick - spectator.mLastKeyframeTick < KEYFRAME_RETRY_TICKS) {
+                    continue;
+                }
+                spectator.mLastKeyframeTick = mTick;
+                mKeyframesSent++;
+            }
+
+            ByteBuffer packet = getPacket(frame, base);
+            packet.position(0);
+            sendPacket(packet, spectator.mAddress);
+        }
+    }
+
+    /**
+     * Send an unconfirmed spectator its token, at most every KEYFRAME_RETRY_TICKS in case the
+     * hello or the answer is lost.
+     */
+    private void sendHello(final Spectator spectator) {
+        if (spectator.mLastHelloTick >= 0 &&
+                mTick - spectator.mLastHelloTick < KEYFRAME_RETRY_TICKS) {
+            return;
+        }
+        spectator.mLastHelloTick = mTick;
+        mHello.clear();
+        mHello.putInt(HELLO_MAGIC);
+        mHello.putInt(spectator.mToken);
+        mHello.flip();
+        sendPacket(mHello, spectator.mAddress);
+    }
+
+    private void sendPacket(final ByteBuffer packet, final SocketAddress address) {
+        try {
+            int sent = mChannel.send(packet, address);
+            if (sent == 0) {
+                mPacketsDropped++;
+            }
+            else {
+                mBytesSent += sent;
+                mPacketsSent++;
+            }
+        }
+        catch (IOException e) {
+            mPacketsDropped++;
+        }
+    }
+
+    /**
+     * @return a random token for a new spectator's hello. Never 0, which means no token.
+     */
+    private int getNewToken() {
+        int token = mTokens.nextInt();
+        return (token != 0) ? token : 1;
+    }
+
+    /**
+     * @return the frame from the given tick, if it's recent enough to delta from, or else null.
+     */
+    private SpectatorFrame getBaseFrame(final int tick) {
+        if (tick < 0 || mTick - tick >= HISTORY_SIZE) {
+            return null;
+        }
+        SpectatorFrame base = mHistory[tick % HISTORY_SIZE];
+        return (base.mTick == tick) ? base : null;
+    }
+
+    /**
+     * @return the frame encoded as a delta from the base frame, or as a keyframe if it's null,
+     *         reusing the packet if it's already been encoded this send.
+     */
+    private ByteBuffer getPacket(final SpectatorFrame frame, final SpectatorFrame base) {
+        int baseTick = (base == null) ? -1 : base.mTick;
+        for (int i = 0; i < mEncodedCount; i++) {
+            if (mEncodedBaseTicks[i] == baseTick) {
+                return mEncodedPackets[i];
+            }
+        }
+
+        ByteBuffer packet;
+        if (mEncodedCount < ENCODING_CACHE_SIZE) {
+            mEncodedBaseTicks[mEncodedCount] = baseTick;
+            packet = mEncodedPackets[mEncodedCount++];
+        }
+        else {
+            packet = mUncachedPacket;
+        }
+        packet.clear();
+        SpectatorCodec.encode(frame, base, packet);
+        packet.flip();
+        return packet;
+    }
+
+    private void removeSpectator(final int index) {
+        Spectator spectator = mSpectators.get(index);
+        mSpectators.set(index, mSpectators.get(mSpectators.size() - 1));
+        mSpectators.remove(mSpectators.size() - 1);
+        mSpectatorsByAddress.remove(spectator.mAddress);
+        if (!spectator.mConfirmed) {
+            mUnconfirmedCount--;
+        }
+        mSpectatorCount = mSpectators.size();
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    private static class Spectator {
+
+        final SocketAddress mAddress;
+        final int mToken;
+        boolean mConfirmed = false;
+        int mLastHelloTick = -1;
+        int mAckedTick = -1;
+        int mLastKeyframeTick = -1;
+        long mLastHeardMillis;
+
+        Spectator(SocketAddress address, int token) {
+            mAddress = address;
+            mToken = token;
+        }
+    }
+}
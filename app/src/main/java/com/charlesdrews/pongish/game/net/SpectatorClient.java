@@ -0,0 +1,173 @@
+package com.charlesdrews.pongish.game.net;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Watches a match streamed by a SpectatorBroadcaster. Call poll() regularly, e.g. once a frame,
+ * to take in whatever has arrived and acknowledge the newest tick, then draw getLatestFrame().
+ * Frames only start arriving once the broadcaster's hello has been answered, which poll() does.
+ */
+public class SpectatorClient implements Closeable {
+
+    // ===================================== Constants ==========================================
+
+    // Acknowledge at least this often, so the broadcaster knows the spectator is still there.
+    private static final long ACK_INTERVAL_IN_MILLIS = 1_000L;
+
+
+    // ================================= Member variables =======================================
+
+    private final DatagramChannel mChannel;
+    private final SpectatorFrame[] mHistory =
+            new SpectatorFrame[SpectatorBroadcaster.HISTORY_SIZE];
+    private final SpectatorFrame mIncoming = new SpectatorFrame();
+    private int mLatestTick = -1;
+
+    private final ByteBuffer mPacket = ByteBuffer.allocate(SpectatorCodec.MAX_PACKET_BYTES);
+    private final ByteBuffer mAck = ByteBuffer.allocate(SpectatorBroadcaster.ACK_BYTES);
+    private long mLastAckMillis = 0L;
+
+    // From the broadcaster's hello, sent back with every acknowledgement. 0 until there's one.
+    private int mToken = 0;
+
+    private long mBytesReceived = 0L, mFramesReceived = 0L, mUndecodablePackets = 0L;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param broadcasterAddress is the broadcaster's address and port. Use an IP address, so no
+     *                           lookup is needed.
+     */
+    public SpectatorClient(@NonNull final InetSocketAddress broadcasterAddress)
+            throws IOException {
+        for (int i = 0; i < mHistory.length; i++) {
+            mHistory[i] = new SpectatorFrame();
+        }
+
+        mChannel = DatagramChannel.open();
+        try {
+            mChannel.configureBlocking(false);
+            mChannel.connect(broadcasterAddress);
+        }
+        catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Take in every packet that's arrived, and acknowledge the newest tick.
+     *
+     * @return true if there's a newer frame than before.
+     */
+    public boolean poll() throws IOException {
+        boolean newFrame = false;
+        while (true) {
+            mPacket.clear();
+            try {
+                if (mChannel.read(mPacket) <= 0) {
+                    break;
+                }
+            }
+            catch (PortUnreachableException e) {
+
+                // The broadcaster isn't up yet; keep trying.
+                break;
+            }
+            mPacket.flip();
+            mBytesReceived += mPacket.remaining();
+
+            if (mPacket.remaining() == SpectatorBroadcaster.HELLO_BYTES &&
+                    mPacket.getInt(0) == SpectatorBroadcaster.HELLO_MAGIC) {
+
+                // Answer straight away, so frames start coming.
+                mToken = mPacket.getInt(4);
+                mLastAckMillis = 0L;
+                continue;
+            }
+
+            if (!SpectatorCodec.decode(mPacket, mHistory, mIncoming)) {
+                mUndecodablePackets++;
+                continue;
+            }
+            mFramesReceived++;
+            SpectatorFrame slot = mHistory[mIncoming.mTick % mHistory.length];
+            if (mIncoming.mTick > slot.mTick) {
+                slot.copyFrom(mIncoming);
+            }
+            if (mIncoming.mTick > mLatestTick) {
+                mLatestTick = mIncoming.mTick;
+                newFrame = true;
+            }
+        }
+
+        long nowMillis = System.currentTimeMillis();
+        if (newFrame || nowMillis - mLastAckMillis >= ACK_INTERVAL_IN_MILLIS) {
+            sendAck(nowMillis);
+        }
+        return newFrame;
+    }
+
+    /**
+     * @return the newest frame received, or null if none has been yet.
+     */
+    @Nullable
+    public SpectatorFrame getLatestFrame() {
+        if (mLatestTick < 0) {
+            return null;
+        }
+        SpectatorFrame frame = mHistory[mLatestTick % mHistory.length];
+        return (frame.mTick == mLatestTick) ? frame : null;
+    }
+
+    public long getBytesReceived() {
+        return mBytesReceived;
+    }
+
+    public long getFramesReceived() {
+        return mFramesReceived;
+    }
+
+    /**
+     * @return the number of packets that were corrupt, or were deltas from frames this spectator
+     *         no longer has.
+     */
+    public long getUndecodablePackets() {
+        return mUndecodablePackets;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private void sendAck(final long nowMillis) throws IOException {
+        mAck.clear();
+        mAck.putInt(SpectatorBroadcaster.ACK_MAGIC);
+        mAck.putInt(mLatestTick);
+        mAck.putInt(mToken);
+        mAck.flip();
+        try {
+            mChannel.write(mAck);
+        }
+        catch (PortUnreachableException e) {
+            // Try again next time.
+        }
+        mLastAckMillis = nowMillis;
+    }
+}
@@ -0,0 +1,173 @@
+package com.charlesdrews.pongish.game.net;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs SpectatorFrames into small packets. A packet is either a keyframe, which holds the whole
+ * frame, or a delta from an older base frame the spectator has confirmed it has.
+ *
+ * Each field is sent as its difference from what the base frame predicts, see
+ * SpectatorFrame.predict(), so a ball flying in a straight line costs nothing until it bounces.
+ * Differences are zigzag encoded varints, so small ones of either sign take one byte. A delta
+ * starts with a bitmask of the fields that differ from the prediction, and only those follow.
+ *
+ * Packet layout: MAGIC (int), then varints: tick, ticks back to the base frame (0 for a
+ * keyframe), and the field count; then, for a delta, the bitmask; then the differences.
+ */
+public class SpectatorCodec {
+
+    // ===================================== Constants ==========================================
+
+    public static final int MAGIC = 0x50535031; // "PSP1"
+
+    // A keyframe of MAX_BALLS balls, with every field at its largest.
+    public static final int MAX_PACKET_BYTES = 4 + 3 * 5 + (SpectatorFrame.MAX_FIELDS + 7) / 8 +
+            5 * SpectatorFrame.MAX_FIELDS;
+
+
+    // =================================== Constructor ==========================================
+
+    private SpectatorCodec() {}
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Write a packet holding the frame.
+     *
+     * @param frame is the frame to send.
+     * @param base is an older frame the spectator has, or null to send a keyframe.
+     * @param packet is where to write the packet, from its position.
+     */
+    public static void encode(@NonNull final SpectatorFrame frame,
+                              @Nullable final SpectatorFrame base,
+                              @NonNull final ByteBuffer packet) {
+        int fieldCount = frame.mFieldCount;
+        packet.putInt(MAGIC);
+        putVarint(packet, frame.mTick);
+        putVarint(packet, (base == null) ? 0 : frame.mTick - base.mTick);
+        putVarint(packet, fieldCount);
+
+        if (base == null) {
+            for (int field = 0; field < fieldCount; field++) {
+                putVarint(packet, zigzag(frame.mValues[field]));
+            }
+            return;
+        }
+
+        // Leave room for the bitmask, and fill it in as the differences are written.
+        int maskStart = packet.position();
+        int maskBytes = (fieldCount + 7) / 8;
+        for (int i = 0; i < maskBytes; i++) {
+            packet.put((byte) 0);
+        }
+        for (int field = 0; field < fieldCount; field++) {
+            int difference = frame.mValues[field] - base.predict(field, frame.mTick);
+            if (difference != 0) {
+                int maskIndex = maskStart + field / 8;
+                packet.put(maskIndex, (byte) (packet.get(maskIndex) | (1 << (field % 8))));
+                putVarint(packet, zigzag(difference));
+            }
+        }
+    }
+
+    /**
+     * Read a packet into a frame.
+     *
+     * @param packet holds the packet between its position and limit.
+     * @param history holds recent frames, each at index tick % history.length, to find the
+     *                packet's base frame in.
+     * @param frame is where to put the frame read. It mustn't be the base frame.
+     * @return false if the packet isn't valid, or if its base frame isn't in the history.
+     */
+    public static boolean decode(@NonNull final ByteBuffer packet,
+                                 @NonNull final SpectatorFrame[] history,
+                                 @NonNull final SpectatorFrame frame) {
+        try {
+            if (packet.getInt() != MAGIC) {
+                return false;
+            }
+            int tick = getVarint(packet);
+            int ticksBack = getVarint(packet);
+            int fieldCount = getVarint(packet);
+            if (fieldCount < SpectatorFrame.HEADER_FIELDS ||
+                    fieldCount > SpectatorFrame.MAX_FIELDS) {
+                return false;
+            }
+
+            SpectatorFrame base = null;
+            if (ticksBack > 0) {
+                if (ticksBack > tick || ticksBack >= history.length) {
+                    return false;
+                }
+                base = history[(tick - ticksBack) % history.length];
+                if (base.mTick != tick - ticksBack || base == frame) {
+                    return false;
+                }
+            }
+
+            // Until it's all read, the frame isn't from any tick.
+            frame.mTick = -1;
+
+            if (base == null) {
+                for (int field = 0; field < fieldCount; field++) {
+                    frame.mValues[field] = unzigzag(getVarint(packet));
+                }
+            }
+            else {
+                int maskStart = packet.position();
+                packet.position(maskStart + (fieldCount + 7) / 8);
+                for (int field = 0; field < fieldCount; field++) {
+                    int predicted = base.predict(field, tick);
+                    boolean differs =
+                            (packet.get(maskStart + field / 8) & (1 << (field % 8))) != 0;
+                    frame.mValues[field] = differs ? predicted + unzigzag(getVarint(packet)) :
+                            predicted;
+                }
+            }
+
+            frame.mTick = tick;
+            frame.mFieldCount = fieldCount;
+            return true;
+        }
+        catch (RuntimeException e) {
+
+            // A truncated or corrupt packet runs off the end of the buffer.
+            return false;
+        }
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private static int zigzag(final int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(final int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void putVarint(final ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(final ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+}
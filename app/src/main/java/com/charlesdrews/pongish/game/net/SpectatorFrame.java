@@ -0,0 +1,176 @@
+package com.charlesdrews.pongish.game.net;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One tick of a match as spectators see it: every value quantized to an int, so it can be sent
+ * as small deltas. Positions are board relative, from 0 to COORDINATE_MAX across the board, so a
+ * spectator can draw the match at any size. Velocities are in 1/VELOCITY_SCALE of a coordinate
+ * step per tick, fine enough that a ball's position can be predicted from an older frame.
+ *
+ * The values are kept as one flat array of fields: left and right scores, left and right paddle
+ * center y, the ball count, then x, y, velocity x, and velocity y for each ball, normal ball first.
+ */
+public class SpectatorFrame {
+
+    // ===================================== Constants ==========================================
+
+    public static final int COORDINATE_MAX = 65535;
+    public static final int VELOCITY_SCALE = 256;
+
+    public static final int MAX_BALLS = 64;
+
+    static final int LEFT_SCORE = 0;
+    static final int RIGHT_SCORE = 1;
+    static final int LEFT_PADDLE_Y = 2;
+    static final int RIGHT_PADDLE_Y = 3;
+    static final int BALL_COUNT = 4;
+    static final int HEADER_FIELDS = 5;
+
+    static final int BALL_X = 0;
+    static final int BALL_Y = 1;
+    static final int BALL_VELOCITY_X = 2;
+    static final int BALL_VELOCITY_Y = 3;
+    static final int FIELDS_PER_BALL = 4;
+
+    static final int MAX_FIELDS = HEADER_FIELDS + MAX_BALLS * FIELDS_PER_BALL;
+
+    // Where the paddle centers and ball count sit in a GameObjects.Scene snapshot.
+    private static final int SNAPSHOT_PADDLE_Y_OFFSET = 16;
+    private static final int SNAPSHOT_SCORES_OFFSET = 32;
+    private static final int SNAPSHOT_BALL_COUNT_OFFSET = 40;
+
+
+    // ================================= Member variables =======================================
+
+    int mTick = -1;
+    int mFieldCount = HEADER_FIELDS;
+    final int[] mValues = new int[MAX_FIELDS];
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * @return the tick this frame is from, or -1 if it hasn't been filled in.
+     */
+    public int getTick() {
+        return mTick;
+    }
+
+    public int getLeftScore() {
+        return mValues[LEFT_SCORE];
+    }
+
+    public int getRightScore() {
+        return mValues[RIGHT_SCORE];
+    }
+
+    /**
+     * @param paddle is Scene.LEFT_PADDLE (0) or Scene.RIGHT_PADDLE (1).
+     * @return the paddle's center y, as a fraction of the board height.
+     */
+    public float getPaddleCenterY(final int paddle) {
+        return mValues[LEFT_PADDLE_Y + paddle] / (float) COORDINATE_MAX;
+    }
+
+    public int getBallCount() {
+        return mValues[BALL_COUNT];
+    }
+
+    /**
+     * @return the ball's center x, as a fraction of the board width.
+     */
+    public float getBallCenterX(final int ball) {
+        return mValues[HEADER_FIELDS + ball * FIELDS_PER_BALL + BALL_X] / (float) COORDINATE_MAX;
+    }
+
+    /**
+     * @return the ball's center y, as a fraction of the board height.
+     */
+    public float getBallCenterY(final int ball) {
+        return mValues[HEADER_FIELDS + ball * FIELDS_PER_BALL + BALL_Y] / (float) COORDINATE_MAX;
+    }
+
+    /**
+     * Fill the frame in from a snapshot written by GameObjects.Scene.writeSnapshot(), with up to
+     * MAX_BALLS balls.
+     *
+     * @param snapshot holds the snapshot, starting at its position, which is left as is.
+     * @param tick is the tick the snapshot was taken after.
+     * @param millisPerTick is the length of a tick, to convert the balls' velocities.
+     */
+    public void readSnapshot(@NonNull final ByteBuffer snapshot, final int tick,
+                             final long millisPerTick) {
+        int start = snapshot.position();
+        float width = snapshot.getFloat(start + 8);
+        float height = snapshot.getFloat(start + 12);
+
+        mTick = tick;
+        mValues[LEFT_SCORE] = snapshot.getInt(start + SNAPSHOT_SCORES_OFFSET);
+        mValues[RIGHT_SCORE] = snapshot.getInt(start + SNAPSHOT_SCORES_OFFSET + 4);
+        mValues[LEFT_PADDLE_Y] = quantize(snapshot.getFloat(start + SNAPSHOT_PADDLE_Y_OFFSET),
+                height);
+        mValues[RIGHT_PADDLE_Y] = quantize(
+                snapshot.getFloat(start + SNAPSHOT_PADDLE_Y_OFFSET + 4), height);
+
+        int ballCount = Math.min(MAX_BALLS,
+                snapshot.getInt(start + SNAPSHOT_BALL_COUNT_OFFSET + 4));
+        mValues[BALL_COUNT] = ballCount;
+        mFieldCount = HEADER_FIELDS + ballCount * FIELDS_PER_BALL;
+
+        int ballStart = start + SNAPSHOT_BALL_COUNT_OFFSET + 8;
+        for (int i = 0; i < ballCount; i++) {
+            int field = HEADER_FIELDS + i * FIELDS_PER_BALL;
+            int offset = ballStart + i * 16;
+            mValues[field + BALL_X] = quantize(snapshot.getFloat(offset), width);
+            mValues[field + BALL_Y] = quantize(snapshot.getFloat(offset + 4), height);
+            mValues[field + BALL_VELOCITY_X] = quantizeVelocity(snapshot.getFloat(offset + 8),
+                    width, millisPerTick);
+            mValues[field + BALL_VELOCITY_Y] = quantizeVelocity(snapshot.getFloat(offset + 12),
+                    height, millisPerTick);
+        }
+    }
+
+    public void copyFrom(@NonNull final SpectatorFrame other) {
+        mTick = other.mTick;
+        mFieldCount = other.mFieldCount;
+        System.arraycopy(other.mValues, 0, mValues, 0, other.mFieldCount);
+    }
+
+
+    // ================================== Package methods =======================================
+
+    /**
+     * @return what the field is expected to be at the given tick, judging by this frame alone:
+     *         balls keep moving at the same velocity, and everything else stays the same.
+     *         Fields this frame doesn't have are expected to be 0.
+     */
+    int predict(final int field, final int tick) {
+        if (field >= mFieldCount) {
+            return 0;
+        }
+        if (field >= HEADER_FIELDS) {
+            int ballField = (field - HEADER_FIELDS) % FIELDS_PER_BALL;
+            if (ballField == BALL_X || ballField == BALL_Y) {
+                int velocity = mValues[field + BALL_VELOCITY_X - BALL_X];
+                return mValues[field] + velocity * (tick - mTick) / VELOCITY_SCALE;
+            }
+        }
+        return mValues[field];
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private static int quantize(final float value, final float size) {
+        int quantized = Math.round(value / size * COORDINATE_MAX);
+        return Math.max(0, Math.min(COORDINATE_MAX, quantized));
+    }
+
+    private static int quantizeVelocity(final float unitsPerMs, final float size,
+                                        final long millisPerTick) {
+        return Math.round(unitsPerMs * millisPerTick / size * COORDINATE_MAX * VELOCITY_SCALE);
+    }
+}
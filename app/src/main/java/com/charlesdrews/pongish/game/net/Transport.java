@@ -0,0 +1,29 @@
+package com.charlesdrews.pongish.game.net;
+
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends and receives whole packets to and from one other player, without blocking. Packets may
+ * be lost, duplicated, or arrive out of order, like UDP datagrams.
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Send the packet, from its position to its limit.
+     *
+     * @param packet is the packet to send.
+     */
+    void send(@NonNull ByteBuffer packet) throws IOException;
+
+    /**
+     * Receive the next packet that has arrived, if any, into the buffer at its position.
+     *
+     * @param packet is the buffer to receive into.
+     * @return true if a packet was received, or false if none are waiting.
+     */
+    boolean receive(@NonNull ByteBuffer packet) throws IOException;
+}
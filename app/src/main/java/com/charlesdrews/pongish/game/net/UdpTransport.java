@@ -0,0 +1,71 @@
+package com.charlesdrews.pongish.game.net;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * A Transport over a non-blocking UDP socket, connected to the other player's address so that
+ * packets from anyone else are ignored.
+ */
+public class UdpTransport implements Transport {
+
+    // ================================= Member variables =======================================
+
+    private final DatagramChannel mChannel;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param localPort is the port to receive on.
+     * @param remoteAddress is the other player's address and port. Use an IP address, so no
+     *                      lookup is needed.
+     */
+    public UdpTransport(final int localPort, @NonNull final InetSocketAddress remoteAddress)
+            throws IOException {
+        mChannel = DatagramChannel.open();
+        try {
+            mChannel.configureBlocking(false);
+            mChannel.socket().bind(new InetSocketAddress(localPort));
+            mChannel.connect(remoteAddress);
+        }
+        catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+    }
+
+
+    // ================================= Transport methods ======================================
+
+    @Override
+    public void send(@NonNull ByteBuffer packet) throws IOException {
+        try {
+            mChannel.write(packet);
+        }
+        catch (PortUnreachableException e) {
+            // The other player isn't listening yet. Like any lost packet, its contents get sent
+            // again with the next one.
+        }
+    }
+
+    @Override
+    public boolean receive(@NonNull ByteBuffer packet) throws IOException {
+        try {
+            return mChannel.read(packet) > 0;
+        }
+        catch (PortUnreachableException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+}
@@ -0,0 +1,185 @@
+package com.charlesdrews.pongish.game.objects;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A compact lookup table that tells a computer controlled paddle how to move. The table is keyed
+ * on a quantized game state - where the targeted ball will arrive relative to the paddle, how
+ * long until it arrives, and where it is right now relative to the paddle - and holds one action
+ * per state: a signed percentage of the paddle's max speed.
+ *
+ * Tables are generated offline by a headless search (see AiPolicyTableGenerator in the headless
+ * module) and shipped as raw resources, one per difficulty level. The header also carries the
+ * paddle's max speed and collision jitter, so a difficulty can be retuned without code changes.
+ *
+ * File format, big-endian: int magic, int version, float maxSpeedInUnitsPerMs,
+ * float collisionJitter, float offsetRangeInHalfHeights, float millisPerTimeBucket,
+ * int arrivalOffsetBuckets, int timeBuckets, int currentOffsetBuckets, then one byte per state
+ * in [arrival][time][current] order.
+ */
+public class AiPolicyTable {
+
+    // ===================================== Constants ==========================================
+
+    public static final int MAGIC = 0x50504F4C; // "PPOL"
+    // Version 2 measures the max speed in board units rather than pixels.
+    public static final int VERSION = 2;
+
+    public static final int MAX_ACTION = 100;
+
+    private static final int NUMBER_OF_DIFFICULTIES = 3;
+
+    // Looked up by every computer paddle on every tick, possibly from many simulation threads at
+    // once, so reads must not take a lock.
+    private static final AtomicReferenceArray<AiPolicyTable> sTables =
+            new AtomicReferenceArray<>(NUMBER_OF_DIFFICULTIES);
+
+
+    // ================================= Member variables =======================================
+
+    private final float mMaxSpeedInUnitsPerMs, mCollisionJitter;
+    private final float mOffsetRangeInHalfHeights, mMillisPerTimeBucket;
+    private final int mArrivalOffsetBuckets, mTimeBuckets, mCurrentOffsetBuckets;
+    private final byte[] mActions;
+
+
+    // =================================== Constructor ==========================================
+
+    public AiPolicyTable(float maxSpeedInUnitsPerMs, float collisionJitter,
+                         float offsetRangeInHalfHeights, float millisPerTimeBucket,
+                         int arrivalOffsetBuckets, int timeBuckets, int currentOffsetBuckets,
+                         byte[] actions) {
+
+        if (actions.length != arrivalOffsetBuckets * timeBuckets * currentOffsetBuckets) {
+            throw new IllegalArgumentException("actions must hold exactly one entry per state");
+        }
+
+        mMaxSpeedInUnitsPerMs = maxSpeedInUnitsPerMs;
+        mCollisionJitter = collisionJitter;
+        mOffsetRangeInHalfHeights = offsetRangeInHalfHeights;
+        mMillisPerTimeBucket = millisPerTimeBucket;
+        mArrivalOffsetBuckets = arrivalOffsetBuckets;
+        mTimeBuckets = timeBuckets;
+        mCurrentOffsetBuckets = currentOffsetBuckets;
+        mActions = actions;
+    }
+
+
+    // ================================= Static methods =========================================
+
+    /**
+     * Read a table in the format described above.
+     *
+     * @param in is the stream to read. It is not closed.
+     * @return the table.
+     * @throws IOException if the stream can't be read or isn't a valid policy table.
+     */
+    public static AiPolicyTable read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not an AI policy table");
+        }
+        int version = data.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported AI policy table version " + version);
+        }
+
+        float maxSpeed = data.readFloat();
+        float collisionJitter = data.readFloat();
+        float offsetRange = data.readFloat();
+        float millisPerTimeBucket = data.readFloat();
+        int arrivalOffsetBuckets = data.readInt();
+        int timeBuckets = data.readInt();
+        int currentOffsetBuckets = data.readInt();
+
+        byte[] actions = new byte[arrivalOffsetBuckets * timeBuckets * currentOffsetBuckets];
+        data.readFully(actions);
+
+        return new AiPolicyTable(maxSpeed, collisionJitter, offsetRange, millisPerTimeBucket,
+                arrivalOffsetBuckets, timeBuckets, currentOffsetBuckets, actions);
+    }
+
+    /**
+     * Make a table available for the given difficulty. Call once at startup.
+     */
+    public static void register(int difficulty, AiPolicyTable table) {
+        sTables.set(difficulty, table);
+    }
+
+    /**
+     * Retrieve the table for the given difficulty, or null if none was registered.
+     */
+    public static AiPolicyTable forDifficulty(int difficulty) {
+        if (difficulty < 0 || difficulty >= NUMBER_OF_DIFFICULTIES) {
+            return null;
+        }
+        return sTables.get(difficulty);
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Write the table in the format described above.
+     *
+     * @param out is the stream to write to. It is flushed but not closed.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeFloat(mMaxSpeedInUnitsPerMs);
+        data.writeFloat(mCollisionJitter);
+        data.writeFloat(mOffsetRangeInHalfHeights);
+        data.writeFloat(mMillisPerTimeBucket);
+        data.writeInt(mArrivalOffsetBuckets);
+        data.writeInt(mTimeBuckets);
+        data.writeInt(mCurrentOffsetBuckets);
+        data.write(mActions);
+        data.flush();
+    }
+
+    /**
+     * Look up the action for the given state.
+     *
+     * @param arrivalOffset is how far the targeted ball will arrive from the paddle's center, in
+     *                      paddle half heights, positive if below.
+     * @param millisToArrival is how long until the ball arrives.
+     * @param currentOffset is how far the ball is right now from the paddle's center, in paddle
+     *                      half heights, positive if below.
+     * @return the percentage of max speed to move, from -MAX_ACTION (up) to MAX_ACTION (down).
+     */
+    public int getAction(float arrivalOffset, float millisToArrival, float currentOffset) {
+        int arrival = getOffsetBucket(arrivalOffset, mArrivalOffsetBuckets);
+        int time = Math.min(mTimeBuckets - 1, Math.max(0,
+                (int) (millisToArrival / mMillisPerTimeBucket)));
+        int current = getOffsetBucket(currentOffset, mCurrentOffsetBuckets);
+
+        return mActions[(arrival * mTimeBuckets + time) * mCurrentOffsetBuckets + current];
+    }
+
+    public float getMaxSpeedInUnitsPerMs() {
+        return mMaxSpeedInUnitsPerMs;
+    }
+
+    public float getCollisionJitter() {
+        return mCollisionJitter;
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    /**
+     * Map an offset in [-range, range] evenly onto [0, buckets), clamping anything outside.
+     */
+    private int getOffsetBucket(float offset, int buckets) {
+        float normalized = (offset + mOffsetRangeInHalfHeights) / (2f * mOffsetRangeInHalfHeights);
+        return Math.min(buckets - 1, Math.max(0, (int) (normalized * buckets)));
+    }
+}
@@ -24,13 +24,21 @@ public class BallDirection implements GameObjects.Direction {
      * for the initial direction of the ball at the beginning of a round.
      */
     public BallDirection() {
+        this(sRandom);
+    }
+
+    /**
+     * Same as BallDirection(), but drawing from the given random number generator, so that a
+     * seeded scene plays out the same way every time.
+     */
+    public BallDirection(Random random) {
 
         // First get absolute value in allowed range
         mDegrees = MIN_RANDOM_DEGREES +
-                sRandom.nextDouble() * (MAX_RANDOM_DEGREES - MIN_RANDOM_DEGREES);
+                random.nextDouble() * (MAX_RANDOM_DEGREES - MIN_RANDOM_DEGREES);
 
         // Then choose leftward (-) or rightward (+) at random
-        if (sRandom.nextInt(2) == 0) {
+        if (random.nextInt(2) == 0) {
             mDegrees = -mDegrees;
         }
     }
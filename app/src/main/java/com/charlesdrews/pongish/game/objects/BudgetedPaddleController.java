@@ -0,0 +1,122 @@
+package com.charlesdrews.pongish.game.objects;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Wraps a PaddleController and times every call to it. If the controller runs over its per-update
+ * time budget several updates in a row, or throws, it's benched and the fallback controller takes
+ * over until the next reset(), e.g. when the next point starts. A single slow update (e.g. a GC
+ * pause) is forgiven.
+ *
+ * Only meant for computer controllers. A player's paddle must never be handed to the computer
+ * just because the thread applying their input was held up, so PongScene doesn't wrap
+ * HumanPaddleControllers.
+ *
+ * Java can't preempt a call that never returns, so this protects against controllers that are
+ * consistently too slow, not ones that hang.
+ */
+public class BudgetedPaddleController implements GameObjects.PaddleController {
+
+    // ===================================== Constants ==========================================
+
+    public static final long DEFAULT_BUDGET_IN_NANOS = 1_000_000L;
+
+    private static final int MAX_CONSECUTIVE_OVERRUNS = 3;
+
+
+    // ================================= Member variables =======================================
+
+    private final GameObjects.PaddleController mController, mFallback;
+    private final long mBudgetInNanos;
+
+    private int mConsecutiveOverruns = 0;
+    private boolean mFallingBack = false;
+    private long mLastCallNanos = 0L;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param controller is the controller to time.
+     * @param fallback takes over if the controller runs over budget. It isn't timed, so it must
+     *                 be cheap.
+     * @param budgetInNanos is the most time the controller may take per update.
+     */
+    public BudgetedPaddleController(@NonNull final GameObjects.PaddleController controller,
+                                    @NonNull final GameObjects.PaddleController fallback,
+                                    final long budgetInNanos) {
+        mController = controller;
+        mFallback = fallback;
+        mBudgetInNanos = budgetInNanos;
+    }
+
+
+    // ======================== GameObjects.PaddleController methods ============================
+
+    @Override
+    public float getPaddleDeltaY(@NonNull GameObjects.SceneView sceneView, int paddle,
+                                 long millisSinceLastUpdate) {
+
+        if (mFallingBack) {
+            return mFallback.getPaddleDeltaY(sceneView, paddle, millisSinceLastUpdate);
+        }
+
+        long startNanos = System.nanoTime();
+        float deltaY;
+        try {
+            deltaY = mController.getPaddleDeltaY(sceneView, paddle, millisSinceLastUpdate);
+        }
+        catch (RuntimeException e) {
+            mFallingBack = true;
+            return mFallback.getPaddleDeltaY(sceneView, paddle, millisSinceLastUpdate);
+        }
+        mLastCallNanos = System.nanoTime() - startNanos;
+
+        if (mLastCallNanos > mBudgetInNanos) {
+            if (++mConsecutiveOverruns >= MAX_CONSECUTIVE_OVERRUNS) {
+                mFallingBack = true;
+            }
+        }
+        else {
+            mConsecutiveOverruns = 0;
+        }
+
+        // Don't trust a NaN or infinite answer from the wrapped controller.
+        if (Float.isNaN(deltaY) || Float.isInfinite(deltaY)) {
+            return 0f;
+        }
+        return deltaY;
+    }
+
+    @Override
+    public void reset() {
+        mConsecutiveOverruns = 0;
+        mFallingBack = false;
+        mController.reset();
+        mFallback.reset();
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * @return the controller being timed.
+     */
+    public GameObjects.PaddleController getController() {
+        return mController;
+    }
+
+    /**
+     * @return true once the fallback has taken over, until the next reset().
+     */
+    public boolean isFallingBack() {
+        return mFallingBack;
+    }
+
+    /**
+     * @return how long the last call to the wrapped controller took.
+     */
+    public long getLastCallNanos() {
+        return mLastCallNanos;
+    }
+}
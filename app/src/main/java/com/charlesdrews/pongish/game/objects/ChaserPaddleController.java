@@ -0,0 +1,49 @@
+package com.charlesdrews.pongish.game.objects;
+
+import android.support.annotation.NonNull;
+
+/**
+ * The built-in computer opponent. Chases the incoming ball the scene's threat scheduler picks,
+ * moving according to the AI policy table for the scene's difficulty. If no balls are incoming,
+ * it drifts back toward the middle. Without a policy table, it heads straight for the target.
+ */
+public class ChaserPaddleController implements GameObjects.PaddleController {
+
+    // ======================== GameObjects.PaddleController methods ============================
+
+    @Override
+    public float getPaddleDeltaY(@NonNull GameObjects.SceneView sceneView, int paddle,
+                                 long millisSinceLastUpdate) {
+
+        float arrivalY, currentY, millisToArrival;
+        if (sceneView.hasIncomingBall(paddle)) {
+            arrivalY = sceneView.getIncomingBallArrivalY(paddle);
+            currentY = sceneView.getIncomingBallCurrentY(paddle);
+            millisToArrival = sceneView.getIncomingBallMillisToArrival(paddle);
+        }
+        else {
+            arrivalY = sceneView.getGameBoardHeight() / 2f;
+            currentY = arrivalY;
+            millisToArrival = Float.MAX_VALUE;
+        }
+
+        float paddleCenterY = sceneView.getPaddleCenterY(paddle);
+
+        AiPolicyTable table = AiPolicyTable.forDifficulty(sceneView.getDifficulty());
+        if (table == null) {
+            return arrivalY - paddleCenterY;
+        }
+
+        float paddleHalfHeight = sceneView.getPaddleHalfHeight(paddle);
+        int action = table.getAction((arrivalY - paddleCenterY) / paddleHalfHeight,
+                millisToArrival, (currentY - paddleCenterY) / paddleHalfHeight);
+
+        return sceneView.getPaddleMaxSpeedInUnitsPerMs(paddle) * millisSinceLastUpdate * action /
+                AiPolicyTable.MAX_ACTION;
+    }
+
+    @Override
+    public void reset() {
+        // Nothing is carried between updates.
+    }
+}
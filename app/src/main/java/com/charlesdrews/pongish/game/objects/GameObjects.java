@@ -4,8 +4,10 @@ import android.os.Parcelable;
 import android.support.annotation.NonNull;
 
 import com.charlesdrews.pongish.game.GameEngine;
+import com.charlesdrews.pongish.game.RenderCommandBuffer;
+
+import java.nio.ByteBuffer;
 
-import java.util.List;
 
 /**
  * Contracts for the objects that will appear in the game
@@ -18,15 +20,29 @@ public interface GameObjects {
      * The PongScene is a container for the other game objects (paddles, balls) and will include the
      * logic to detect and handle collisions between game objects.
      */
-    interface Scene extends Parcelable {
+    interface Scene {
 
         int LEFT_PADDLE = 0;
         int RIGHT_PADDLE = 1;
         int NEITHER_PADDLE = 2;
         int BOTH_PADDLES = 3;
 
+        int DIFFICULTY_EASY = 0;
+        int DIFFICULTY_MEDIUM = 1;
+        int DIFFICULTY_HARD = 2;
+
         float NO_PADDLE_HIT = -2f;
 
+        // The game board's size in board units, which every position, size, and speed in the
+        // scene is measured in. It's the same on every device; the renderer scales the board to
+        // fit the screen, see BoardTransform.
+        float BOARD_WIDTH = 4f / 3f;
+        float BOARD_HEIGHT = 1f;
+
+        // Sizes of the parts of a snapshot written by writeSnapshot().
+        int SNAPSHOT_BASE_BYTES = 48;
+        int SNAPSHOT_BYTES_PER_BALL = 16;
+
         int NO_WALL_HIT = 0;
         int LEFT_WALL_HIT = 1;
         int RIGHT_WALL_HIT = 2;
@@ -54,32 +70,39 @@ public interface GameObjects {
         int getBackgroundColor();
 
         /**
-         * Retrieve a List of scores for the Renderer to draw as text.
+         * Record everything to draw for the current frame - background, lines, scores, balls, and
+         * paddles, in that order - into the given buffer. The buffer is not reset first.
          *
-         * @return the scores included in the Scene.
-         */
-        List<GameEngine.ScoreToRender> getScoresToRender();
-
-        /**
-         * Retrieve a List of circles for the Renderer to draw.
+         * Balls and paddles are drawn between where they were before the last update and where
+         * they are now, so motion stays smooth when frames and updates don't line up.
          *
-         * @return the circles included in the Scene.
+         * @param buffer is the render command buffer to append to.
+         * @param alpha is how far between the last two updates to draw the moving objects, from
+         *              0.0 (as of the update before last) to 1.0 (as of the last update).
          */
-        List<GameEngine.CircleToRender> getCirclesToRender();
+        void fillRenderCommandBuffer(@NonNull RenderCommandBuffer buffer, float alpha);
 
         /**
-         * Retrieve a list of rectangles for the Renderer to draw.
+         * Retrieve the number of balls currently in play, including the normal ball.
          *
-         * @return the rectangles included in the Scene.
+         * @return the total ball count.
          */
-        List<GameEngine.RectangleToRender> getRectanglesToRender();
+        int getBallCount();
 
         /**
-         * Retrieve a list of vertical lines for the Renderer to draw.
+         * Write a compact snapshot of the scene's current state, as of the last update, into the
+         * buffer at its position, without allocating. In order, all little endian if the buffer
+         * is: simulation time (long); board width and height (floats); left and right paddle
+         * center y (floats); the left and right paddle moves their controllers asked for in the
+         * last update (floats); left and right scores (ints); the number of balls in play and
+         * the number that follow (ints); then for each of those balls, center x, center y,
+         * velocity x, and velocity y (floats). The normal ball is always first.
          *
-         * @return the vertical lines includes in the Scene.
+         * @param buffer is where to write the snapshot. It must have room for
+         *               SNAPSHOT_BASE_BYTES + maxBalls * SNAPSHOT_BYTES_PER_BALL bytes.
+         * @param maxBalls is the most balls to include.
          */
-        List<GameEngine.VerticalLineToRender> getVerticalLinesToRender();
+        void writeSnapshot(@NonNull final ByteBuffer buffer, final int maxBalls);
 
         /**
          * Start a new normal game ball after a point is scored.
@@ -93,11 +116,119 @@ public interface GameObjects {
          * @param countdownInProgress indicates whether a countdown is currently in progress.
          */
         void setCountdownInProgress(boolean countdownInProgress);
+
+        /**
+         * Report the start and end of each phase of updateGameObjects() to the given Tracer, for
+         * profiling.
+         *
+         * @param tracer will be told about each phase, or null to stop tracing.
+         */
+        void setTracer(final Tracer tracer);
+    }
+
+    /**
+     * Receives the start and end of named sections of work on the game thread, for profiling.
+     * Sections nest, and each endSection() closes the most recent open section. Section names
+     * should be constants, so that tracing doesn't allocate.
+     */
+    interface Tracer {
+
+        /**
+         * Mark the start of a section.
+         *
+         * @param name is the section's name, as it should appear in the trace.
+         */
+        void beginSection(@NonNull final String name);
+
+        /**
+         * Mark the end of the most recently started section.
+         */
+        void endSection();
+    }
+
+    /**
+     * Decides how a paddle moves. A controller is called once per update on the game thread, and
+     * should return quickly without allocating.
+     */
+    interface PaddleController {
+
+        /**
+         * Decide how far the paddle should move during this update. The paddle's maximum speed
+         * still applies, so asking for more than it can move only moves it as far as it can.
+         *
+         * @param sceneView is a read-only view of the balls and paddles. Only valid during the
+         *                  call; don't keep a reference to it.
+         * @param paddle is PongScene.LEFT_PADDLE (0), or PongScene.RIGHT_PADDLE (1).
+         * @param millisSinceLastUpdate is the time delta for the movement.
+         * @return the distance to move up (negative) or down (positive).
+         */
+        float getPaddleDeltaY(@NonNull final SceneView sceneView, final int paddle,
+                              final long millisSinceLastUpdate);
+
+        /**
+         * Forget any state carried between updates, e.g. when a new point starts.
+         */
+        void reset();
+    }
+
+    /**
+     * A read-only view of the Scene for PaddleControllers. Balls are accessed by index, from 0 to
+     * getBallCount() - 1, with the normal ball at index 0. Paddles are accessed by position,
+     * PongScene.LEFT_PADDLE (0) or PongScene.RIGHT_PADDLE (1). None of the methods allocate.
+     */
+    interface SceneView {
+
+        float getGameBoardHeight();
+
+        long getSimulationTimeInMillis();
+
+        int getDifficulty();
+
+        int getBallCount();
+
+        float getBallCenterX(final int ball);
+
+        float getBallCenterY(final int ball);
+
+        float getBallRadius(final int ball);
+
+        float getBallVelocityX(final int ball);
+
+        float getBallVelocityY(final int ball);
+
+        float getPaddleCenterY(final int paddle);
+
+        float getPaddleHalfHeight(final int paddle);
+
+        float getPaddleMaxSpeedInUnitsPerMs(final int paddle);
+
+        /**
+         * @param paddle is PongScene.LEFT_PADDLE (0), or PongScene.RIGHT_PADDLE (1).
+         * @return true if a ball is heading toward the paddle. If so, the getIncomingBall___()
+         * methods describe the one the paddle should go for.
+         */
+        boolean hasIncomingBall(final int paddle);
+
+        /**
+         * @return the predicted y at which the incoming ball will reach the paddle.
+         */
+        float getIncomingBallArrivalY(final int paddle);
+
+        /**
+         * @return the incoming ball's current y.
+         */
+        float getIncomingBallCurrentY(final int paddle);
+
+        /**
+         * @return how long until the incoming ball reaches the paddle.
+         */
+        float getIncomingBallMillisToArrival(final int paddle);
     }
 
     interface Score extends GameEngine.ScoreToRender, Parcelable {
         void increaseScore(int pointsToAddToScore);
         void setScore(int score);
+        int getScore();
     }
 
     /**
@@ -117,7 +248,7 @@ public interface GameObjects {
          * The Paddle's top y cannot be < 0 and the bottom y cannot be > gameBoardHeight. Also,
          * ensure the movement does not exceed the maximum speed of the paddle.
          *
-         * @param deltaY is the number of pixels to move up (negative) or down (positive).
+         * @param deltaY is the distance to move up (negative) or down (positive).
          * @param gameBoardHeight is the maximum allowable y value for the game/scene.
          * @param millisecondsSinceLastUpdate will determine how far it is possible for the paddle
          *                                    to move, based on it's maximum speed.
@@ -142,6 +273,44 @@ public interface GameObjects {
          * @return the center y coordinate.
          */
         float getCenterY();
+
+        /**
+         * Retrieve the fastest the paddle can move.
+         * @return the maximum speed in board units per millisecond.
+         */
+        float getMaxSpeedInUnitsPerMs();
+
+        /**
+         * Remember the paddle's current position as its previous position, before it's moved.
+         */
+        void savePreviousPosition();
+
+        /**
+         * Blend the paddle's previous and current positions, for drawing between updates.
+         *
+         * @param alpha is 0.0 for the previous position, 1.0 for the current one, or in between.
+         * @return the blended y coordinate of the paddle's top edge.
+         */
+        float getInterpolatedTopY(final float alpha);
+
+        /**
+         * Copy the paddle's changing state - its position and previous position - into the
+         * array, so it can be put back later with restoreState(), e.g. to roll back an update.
+         *
+         * @param state is the array to copy into.
+         * @param offset is where in the array to start. STATE_SIZE values are written.
+         */
+        void saveState(@NonNull final double[] state, final int offset);
+
+        /**
+         * Put back state copied by saveState().
+         *
+         * @param state is the array to copy from.
+         * @param offset is where in the array to start. STATE_SIZE values are read.
+         */
+        void restoreState(@NonNull final double[] state, final int offset);
+
+        int STATE_SIZE = 3;
     }
 
     /**
@@ -161,12 +330,11 @@ public interface GameObjects {
         /**
          * Determine whether the ball has hit either the left or right side walls.
          *
-         * @param gameBoardWidth is the width of the game board in pixels.
-         * @param gameBoardHorizontalMargin is the width of the thumb margin in pixels.
+         * @param gameBoardWidth is the width of the game board.
          * @return PongScene.NO_WALL_HIT (0), PongScene.LEFT_WALL_HIT (1),
          * or PongScene.RIGHT_WALL_HIT (2).
          */
-        int checkIfPointScored(final float gameBoardWidth, final float gameBoardHorizontalMargin);
+        int checkIfPointScored(final float gameBoardWidth);
 
         /**
          * Increase or decrease speed by the given percentage, depending on whether it is +/-.
@@ -195,6 +363,74 @@ public interface GameObjects {
          * @return the direction in degrees.
          */
         double getDirection();
+
+        /**
+         * Retrieve the horizontal component of the ball's velocity.
+         *
+         * @return board units per millisecond, negative if moving left and positive if moving
+         *         right.
+         */
+        float getVelocityX();
+
+        /**
+         * Retrieve the vertical component of the ball's velocity.
+         *
+         * @return board units per millisecond, negative if moving up and positive if moving
+         *         down.
+         */
+        float getVelocityY();
+
+        /**
+         * Predict the y coordinate of the ball's center when it reaches the given x coordinate,
+         * following its current path and bouncing off the top and bottom walls along the way.
+         * The result is cached and only recalculated after the ball's velocity changes (a wall
+         * bounce, a paddle hit, or a speed change), so calling this every tick is cheap.
+         *
+         * Only meaningful if the ball is moving toward x; see getVelocityX().
+         *
+         * @param x is the x coordinate where the ball's center will be predicted.
+         * @param gameBoardHeight is the maximum allowable y value for the game/scene.
+         * @return the predicted y coordinate of the ball's center.
+         */
+        float getPredictedYAtX(final float x, final float gameBoardHeight);
+
+        /**
+         * Remember the ball's current position as its previous position, before it's moved.
+         */
+        void savePreviousPosition();
+
+        /**
+         * Blend the ball's previous and current positions, for drawing between updates.
+         *
+         * @param alpha is 0.0 for the previous position, 1.0 for the current one, or in between.
+         * @return the blended x coordinate of the ball's center.
+         */
+        float getInterpolatedCenterX(final float alpha);
+
+        /**
+         * Same as above, for the y coordinate.
+         */
+        float getInterpolatedCenterY(final float alpha);
+
+        /**
+         * Copy the ball's changing state - position, size, speed, direction, color, and previous
+         * position - into the array, so it can be put back later with restoreState(), e.g. to
+         * roll back an update.
+         *
+         * @param state is the array to copy into.
+         * @param offset is where in the array to start. STATE_SIZE values are written.
+         */
+        void saveState(@NonNull final double[] state, final int offset);
+
+        /**
+         * Put back state copied by saveState().
+         *
+         * @param state is the array to copy from.
+         * @param offset is where in the array to start. STATE_SIZE values are read.
+         */
+        void restoreState(@NonNull final double[] state, final int offset);
+
+        int STATE_SIZE = 8;
     }
 
     /**
@@ -238,7 +474,8 @@ public interface GameObjects {
         /**
          * Change the line's color.
          * @param color is the new color as an int.
+         * @return true if the color actually changed.
          */
-        void setColor(int color);
+        boolean setColor(int color);
     }
 }
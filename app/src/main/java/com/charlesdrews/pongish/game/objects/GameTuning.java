@@ -0,0 +1,146 @@
+package com.charlesdrews.pongish.game.objects;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Locale;
+
+/**
+ * The gameplay constants that decide how a match feels: how fast the ball starts, how tall the
+ * paddles are, how much the ball speeds up on each paddle hit, how many consecutive hits release
+ * bonus balls, and how steep a ball can bounce off a paddle. The defaults are the hand-picked
+ * values the game shipped with; the headless GameTuner sweeps ranges of them to compare balance.
+ */
+public class GameTuning implements Parcelable {
+
+    // ===================================== Constants ==========================================
+
+    private static final float DEFAULT_BALL_SPEED_AS_PERCENT_OF_GAME_BOARD_WIDTH_PER_SECOND = 0.509f;
+    private static final float DEFAULT_PADDLE_HEIGHT_AS_PERCENT_OF_GAME_BOARD_HEIGHT = 0.2f;
+    private static final float DEFAULT_BALL_SPEED_INCREASE_ON_PADDLE_HIT = 0.04f;
+    private static final int DEFAULT_BONUS_BALLS_CONSECUTIVE_HITS_THRESHOLD = 10;
+    private static final double DEFAULT_MIN_ABS_VAL_DEG_AFTER_PADDLE_COLLISION = 10d;
+
+    public static final GameTuning DEFAULT = new GameTuning(
+            DEFAULT_BALL_SPEED_AS_PERCENT_OF_GAME_BOARD_WIDTH_PER_SECOND,
+            DEFAULT_PADDLE_HEIGHT_AS_PERCENT_OF_GAME_BOARD_HEIGHT,
+            DEFAULT_BALL_SPEED_INCREASE_ON_PADDLE_HIT,
+            DEFAULT_BONUS_BALLS_CONSECUTIVE_HITS_THRESHOLD,
+            DEFAULT_MIN_ABS_VAL_DEG_AFTER_PADDLE_COLLISION);
+
+
+    // ================================= Member variables =======================================
+
+    private final float mBallSpeed, mPaddleHeight, mBallSpeedIncreaseOnPaddleHit;
+    private final int mBonusBallsConsecutiveHitsThreshold;
+    private final double mMinDegreesAfterPaddleCollision;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param ballSpeed is the normal ball's starting speed, as a percent of the game board width
+     *                  per second.
+     * @param paddleHeight is the paddle height as a percent of the game board height.
+     * @param ballSpeedIncreaseOnPaddleHit is how much a ball speeds up on each paddle hit, as a
+     *                                     percent of its current speed.
+     * @param bonusBallsConsecutiveHitsThreshold is how many consecutive paddle hits release
+     *                                           bonus balls. Must be at least 1.
+     * @param minDegreesAfterPaddleCollision is how close to straight up or down, in degrees, a
+     *                                       ball may leave a paddle. Must be in [0, 90).
+     */
+    public GameTuning(final float ballSpeed, final float paddleHeight,
+                      final float ballSpeedIncreaseOnPaddleHit,
+                      final int bonusBallsConsecutiveHitsThreshold,
+                      final double minDegreesAfterPaddleCollision) {
+
+        if (bonusBallsConsecutiveHitsThreshold < 1) {
+            throw new IllegalArgumentException("bonusBallsConsecutiveHitsThreshold must be >= 1");
+        }
+        if (minDegreesAfterPaddleCollision < 0d || minDegreesAfterPaddleCollision >= 90d) {
+            throw new IllegalArgumentException("minDegreesAfterPaddleCollision must be in [0, 90)");
+        }
+
+        mBallSpeed = ballSpeed;
+        mPaddleHeight = paddleHeight;
+        mBallSpeedIncreaseOnPaddleHit = ballSpeedIncreaseOnPaddleHit;
+        mBonusBallsConsecutiveHitsThreshold = bonusBallsConsecutiveHitsThreshold;
+        mMinDegreesAfterPaddleCollision = minDegreesAfterPaddleCollision;
+    }
+
+
+    // ================================== Public methods ========================================
+
+    public float getBallSpeed() {
+        return mBallSpeed;
+    }
+
+    public float getPaddleHeight() {
+        return mPaddleHeight;
+    }
+
+    public float getBallSpeedIncreaseOnPaddleHit() {
+        return mBallSpeedIncreaseOnPaddleHit;
+    }
+
+    public int getBonusBallsConsecutiveHitsThreshold() {
+        return mBonusBallsConsecutiveHitsThreshold;
+    }
+
+    public double getMinDegreesAfterPaddleCollision() {
+        return mMinDegreesAfterPaddleCollision;
+    }
+
+    /**
+     * @return half the range of angles a ball may leave a paddle at, in degrees.
+     */
+    public double getHalfRangeOfDegreesAfterPaddleCollision() {
+        return (180d - 2d * mMinDegreesAfterPaddleCollision) / 2d;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "GameTuning[ballSpeed=%s, paddleHeight=%s, speedIncrease=%s, " +
+                        "bonusThreshold=%d, minBounceDegrees=%s]",
+                mBallSpeed, mPaddleHeight, mBallSpeedIncreaseOnPaddleHit,
+                mBonusBallsConsecutiveHitsThreshold, mMinDegreesAfterPaddleCollision);
+    }
+
+
+    // =========================== Parcelable methods & constant ==================================
+
+    protected GameTuning(Parcel in) {
+        mBallSpeed = in.readFloat();
+        mPaddleHeight = in.readFloat();
+        mBallSpeedIncreaseOnPaddleHit = in.readFloat();
+        mBonusBallsConsecutiveHitsThreshold = in.readInt();
+        mMinDegreesAfterPaddleCollision = in.readDouble();
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeFloat(mBallSpeed);
+        dest.writeFloat(mPaddleHeight);
+        dest.writeFloat(mBallSpeedIncreaseOnPaddleHit);
+        dest.writeInt(mBonusBallsConsecutiveHitsThreshold);
+        dest.writeDouble(mMinDegreesAfterPaddleCollision);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    public static final Creator<GameTuning> CREATOR = new Creator<GameTuning>() {
+        @Override
+        public GameTuning createFromParcel(Parcel in) {
+            return new GameTuning(in);
+        }
+
+        @Override
+        public GameTuning[] newArray(int size) {
+            return new GameTuning[size];
+        }
+    };
+}
@@ -0,0 +1,89 @@
+package com.charlesdrews.pongish.game.objects;
+
+import android.support.annotation.NonNull;
+
+import com.charlesdrews.pongish.game.metrics.MetricsRegistry;
+
+/**
+ * Moves a paddle by the user's drag motions. Touch events arrive on the UI thread and are added
+ * up until the game thread asks for them, so the paddle only ever moves during an update.
+ */
+public class HumanPaddleController implements GameObjects.PaddleController {
+
+    // ================================= Member variables =======================================
+
+    private final Object mLock = new Object();
+    private float mPendingDeltaY = 0f;
+
+    // When the oldest touch not yet applied arrived, or 0 if there isn't one.
+    private long mPendingSinceNanos = 0L;
+    private volatile MetricsRegistry.Histogram mInputLatencyMicros;
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Add the change in position requested by a touch event. Safe to call from any thread.
+     *
+     * @param deltaY is the distance to move up (negative) or down (positive), in board units.
+     */
+    public void addTouchDelta(final float deltaY) {
+        synchronized (mLock) {
+            mPendingDeltaY += deltaY;
+            if (mPendingSinceNanos == 0L) {
+                mPendingSinceNanos = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Record how long each touch waits before the game thread applies it to the paddle.
+     *
+     * @param inputLatencyMicros will be given each wait, in microseconds, or null to stop.
+     */
+    public void setInputLatencyHistogram(final MetricsRegistry.Histogram inputLatencyMicros) {
+        mInputLatencyMicros = inputLatencyMicros;
+    }
+
+    /**
+     * Take every touch added since the last call, e.g. to send them to another device before
+     * they're applied. Call on the game thread only.
+     *
+     * @return the distance to move up (negative) or down (positive).
+     */
+    public float takePendingDeltaY() {
+        float deltaY;
+        long pendingSinceNanos;
+        synchronized (mLock) {
+            deltaY = mPendingDeltaY;
+            pendingSinceNanos = mPendingSinceNanos;
+            mPendingDeltaY = 0f;
+            mPendingSinceNanos = 0L;
+        }
+
+        MetricsRegistry.Histogram inputLatencyMicros = mInputLatencyMicros;
+        if (pendingSinceNanos != 0L && inputLatencyMicros != null) {
+            inputLatencyMicros.record((System.nanoTime() - pendingSinceNanos) / 1_000L);
+        }
+        return deltaY;
+    }
+
+
+    // ======================== GameObjects.PaddleController methods ============================
+
+    @Override
+    public float getPaddleDeltaY(@NonNull GameObjects.SceneView sceneView, int paddle,
+                                 long millisSinceLastUpdate) {
+        return takePendingDeltaY();
+    }
+
+    @Override
+    public void reset() {
+
+        // Drop any drags made while the game wasn't updating, e.g. during a countdown.
+        synchronized (mLock) {
+            mPendingDeltaY = 0f;
+            mPendingSinceNanos = 0L;
+        }
+    }
+}
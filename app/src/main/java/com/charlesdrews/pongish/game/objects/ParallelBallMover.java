@@ -0,0 +1,118 @@
+package com.charlesdrews.pongish.game.objects;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Moves a large list of balls by splitting it into chunks across a ForkJoinPool. Only the
+ * integration step and top/bottom wall bounces happen here, since those only touch the ball being
+ * moved. Paddle hits and scoring touch shared state, so the PongScene resolves them afterwards on
+ * the game thread, in list order.
+ *
+ * ForkJoinPool requires API 21, so only instantiate this class after checking the SDK version.
+ */
+public class ParallelBallMover {
+
+    // ===================================== Constants ==========================================
+
+    private static final int MIN_BALLS_PER_CHUNK = 64;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private static ForkJoinPool sPool;
+
+
+    // ================================= Member variables =======================================
+
+    private final ForkJoinPool mPool;
+
+
+    // =================================== Constructor ==========================================
+
+    public ParallelBallMover() {
+        mPool = getSharedPool();
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Call move() on every ball in the list, splitting the work across the pool's threads. Blocks
+     * until every ball has been moved. The list must not be modified while this method runs.
+     *
+     * @param balls are the balls to move.
+     * @param millisSinceLastUpdate is the time delta for the movement.
+     * @param gameBoardHeight is passed through to each ball for top/bottom wall bounces.
+     */
+    public void moveBalls(final List<GameObjects.Ball> balls, final long millisSinceLastUpdate,
+                          final float gameBoardHeight) {
+
+        int ballCount = balls.size();
+        int chunkSize = Math.max(MIN_BALLS_PER_CHUNK,
+                ballCount / (mPool.getParallelism() * CHUNKS_PER_THREAD));
+
+        mPool.invoke(new MoveBallsAction(balls, 0, ballCount, chunkSize, millisSinceLastUpdate,
+                gameBoardHeight));
+    }
+
+    /**
+     * @return the number of threads balls will be split across.
+     */
+    public int getParallelism() {
+        return mPool.getParallelism();
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private static synchronized ForkJoinPool getSharedPool() {
+
+        // Share one pool across scenes, since a new scene is created on every restart. Idle
+        // ForkJoinPool threads exit on their own, so the pool doesn't need to be shut down.
+        if (sPool == null) {
+            sPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sPool;
+    }
+
+    /**
+     * Recursively halve the range of balls until it's no bigger than chunkSize, then move the
+     * balls in that range.
+     */
+    private static class MoveBallsAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<GameObjects.Ball> mBalls;
+        private final int mFromIndex, mToIndex, mChunkSize;
+        private final long mMillisSinceLastUpdate;
+        private final float mGameBoardHeight;
+
+        MoveBallsAction(List<GameObjects.Ball> balls, int fromIndex, int toIndex, int chunkSize,
+                        long millisSinceLastUpdate, float gameBoardHeight) {
+            mBalls = balls;
+            mFromIndex = fromIndex;
+            mToIndex = toIndex;
+            mChunkSize = chunkSize;
+            mMillisSinceLastUpdate = millisSinceLastUpdate;
+            mGameBoardHeight = gameBoardHeight;
+        }
+
+        @Override
+        protected void compute() {
+            if (mToIndex - mFromIndex <= mChunkSize) {
+                for (int i = mFromIndex; i < mToIndex; i++) {
+                    mBalls.get(i).move(mMillisSinceLastUpdate, mGameBoardHeight);
+                }
+            }
+            else {
+                int middle = (mFromIndex + mToIndex) >>> 1;
+                invokeAll(
+                        new MoveBallsAction(mBalls, mFromIndex, middle, mChunkSize,
+                                mMillisSinceLastUpdate, mGameBoardHeight),
+                        new MoveBallsAction(mBalls, middle, mToIndex, mChunkSize,
+                                mMillisSinceLastUpdate, mGameBoardHeight));
+            }
+        }
+    }
+}
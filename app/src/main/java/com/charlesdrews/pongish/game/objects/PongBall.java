@@ -1,6 +1,9 @@
 package com.charlesdrews.pongish.game.objects;
 
 import android.os.Parcel;
+import android.support.annotation.NonNull;
+
+import java.util.Random;
 
 /**
  * Models a ball that moves in a straight line without gravity or friction (i.e. speed does and
@@ -13,22 +16,51 @@ public class PongBall implements GameObjects.Ball {
     // ================================= Member variables =======================================
 
     private GameObjects.Direction mDirection;
-    private float mCenterX, mCenterY, mRadiusInPx, mSpeedInPxPerMs;
+    private float mCenterX, mCenterY, mRadius, mSpeedInUnitsPerMs;
     private int mColor;
 
+    // Velocity components are derived from direction & speed, so they aren't parceled. They're
+    // recalculated only when the direction or speed changes, instead of on every move.
+    private float mVelocityXInUnitsPerMs, mVelocityYInUnitsPerMs;
+
+    // Cached result of the last getPredictedYAtX() call, valid until the velocity changes.
+    private boolean mPredictionValid = false;
+    private float mPredictionX, mPredictedY;
+
+    // Position before the last move, for drawing between updates. Not parceled.
+    private float mPreviousCenterX, mPreviousCenterY;
+
 
     // =================================== Constructor ==========================================
 
-    public PongBall(final float gameBoardWidth, final float gameBoardHeight,
-                    final float gameBoardHorizontalMargin, final float radiusInPx,
-                    final float speedInPxPerMs, final int color) {
-        mCenterX = gameBoardHorizontalMargin + gameBoardWidth / 2f;
+    public PongBall(final float gameBoardWidth, final float gameBoardHeight, final float radius,
+                    final float speedInUnitsPerMs, final int color) {
+        this(gameBoardWidth, gameBoardHeight, radius, speedInUnitsPerMs, color,
+                new BallDirection());
+    }
+
+    /**
+     * Same as above, but the ball's random starting direction is drawn from the given random
+     * number generator.
+     */
+    public PongBall(final float gameBoardWidth, final float gameBoardHeight, final float radius,
+                    final float speedInUnitsPerMs, final int color, final Random random) {
+        this(gameBoardWidth, gameBoardHeight, radius, speedInUnitsPerMs, color,
+                new BallDirection(random));
+    }
+
+    private PongBall(final float gameBoardWidth, final float gameBoardHeight, final float radius,
+                     final float speedInUnitsPerMs, final int color,
+                     final GameObjects.Direction direction) {
+        mCenterX = gameBoardWidth / 2f;
         mCenterY = gameBoardHeight / 2f;
-        mRadiusInPx = radiusInPx;
-        mSpeedInPxPerMs = speedInPxPerMs;
+        mRadius = radius;
+        mSpeedInUnitsPerMs = speedInUnitsPerMs;
         mColor = color;
 
-        mDirection = new BallDirection();
+        mDirection = direction;
+        onVelocityChanged();
+        savePreviousPosition();
     }
 
 
@@ -36,33 +68,31 @@ public class PongBall implements GameObjects.Ball {
 
     @Override
     public void move(final long millisecondsSinceLastUpdate, final float gameBoardHeight) {
-        float distanceInPx = mSpeedInPxPerMs * millisecondsSinceLastUpdate;
-
-        // Trigonometry
-        double angleInRadians = mDirection.getDirectionInRadians();
-        mCenterX += Math.cos(angleInRadians) * distanceInPx;
-        mCenterY += Math.sin(angleInRadians) * distanceInPx;
+        mCenterX += mVelocityXInUnitsPerMs * millisecondsSinceLastUpdate;
+        mCenterY += mVelocityYInUnitsPerMs * millisecondsSinceLastUpdate;
 
         // Check if ball hit top or bottom wall
-        if (mCenterY - mRadiusInPx < 0) {
+        if (mCenterY - mRadius < 0) {
             mDirection.setDirectionInDegrees(180d - mDirection.getDirectionInDegrees());
-            mCenterY = mRadiusInPx;
+            mCenterY = mRadius;
+            onVelocityChanged();
         }
-        else if (mCenterY + mRadiusInPx > gameBoardHeight) {
+        else if (mCenterY + mRadius > gameBoardHeight) {
             mDirection.setDirectionInDegrees(180d - mDirection.getDirectionInDegrees());
-            mCenterY = gameBoardHeight - mRadiusInPx;
+            mCenterY = gameBoardHeight - mRadius;
+            onVelocityChanged();
         }
     }
 
     @Override
-    public int checkIfPointScored(float gameBoardWidth, float gameBoardHorizontalMargin) {
+    public int checkIfPointScored(float gameBoardWidth) {
 
         // Check left wall
-        if (mCenterX - mRadiusInPx <= gameBoardHorizontalMargin) {
+        if (mCenterX - mRadius <= 0) {
             return GameObjects.Scene.LEFT_WALL_HIT;
         }
         // Check right wall
-        else if (mCenterX + mRadiusInPx >= gameBoardHorizontalMargin + gameBoardWidth) {
+        else if (mCenterX + mRadius >= gameBoardWidth) {
             return GameObjects.Scene.RIGHT_WALL_HIT;
         }
         else {
@@ -72,12 +102,14 @@ public class PongBall implements GameObjects.Ball {
 
     @Override
     public void changeSpeed(final float percentChangeInBallSpeed) {
-        mSpeedInPxPerMs *= (1f + percentChangeInBallSpeed);
+        mSpeedInUnitsPerMs *= (1f + percentChangeInBallSpeed);
+        onVelocityChanged();
     }
 
     @Override
     public void setDirection(double directionInDegrees) {
         mDirection.setDirectionInDegrees(directionInDegrees);
+        onVelocityChanged();
     }
 
     @Override
@@ -90,6 +122,85 @@ public class PongBall implements GameObjects.Ball {
         return mDirection.getDirectionInDegrees();
     }
 
+    @Override
+    public float getVelocityX() {
+        return mVelocityXInUnitsPerMs;
+    }
+
+    @Override
+    public float getVelocityY() {
+        return mVelocityYInUnitsPerMs;
+    }
+
+    @Override
+    public float getPredictedYAtX(final float x, final float gameBoardHeight) {
+        if (mPredictionValid && mPredictionX == x) {
+            return mPredictedY;
+        }
+
+        // Where would the ball cross x if there were no top or bottom walls?
+        float unboundedY = mCenterY +
+                mVelocityYInUnitsPerMs * ((x - mCenterX) / mVelocityXInUnitsPerMs);
+
+        // Fold that back into the range the ball's center can reach. Each trip across the range
+        // is a bounce, so the pattern repeats every two range heights.
+        float range = gameBoardHeight - 2f * mRadius;
+        float offset = (unboundedY - mRadius) % (2f * range);
+        if (offset < 0) {
+            offset += 2f * range;
+        }
+        if (offset > range) {
+            offset = 2f * range - offset;
+        }
+
+        mPredictionX = x;
+        mPredictedY = mRadius + offset;
+        mPredictionValid = true;
+        return mPredictedY;
+    }
+
+
+    @Override
+    public void savePreviousPosition() {
+        mPreviousCenterX = mCenterX;
+        mPreviousCenterY = mCenterY;
+    }
+
+    @Override
+    public void saveState(@NonNull double[] state, int offset) {
+        state[offset] = mCenterX;
+        state[offset + 1] = mCenterY;
+        state[offset + 2] = mRadius;
+        state[offset + 3] = mSpeedInUnitsPerMs;
+        state[offset + 4] = mDirection.getDirectionInDegrees();
+        state[offset + 5] = mColor;
+        state[offset + 6] = mPreviousCenterX;
+        state[offset + 7] = mPreviousCenterY;
+    }
+
+    @Override
+    public void restoreState(@NonNull double[] state, int offset) {
+        mCenterX = (float) state[offset];
+        mCenterY = (float) state[offset + 1];
+        mRadius = (float) state[offset + 2];
+        mSpeedInUnitsPerMs = (float) state[offset + 3];
+        mDirection.setDirectionInDegrees(state[offset + 4]);
+        mColor = (int) state[offset + 5];
+        mPreviousCenterX = (float) state[offset + 6];
+        mPreviousCenterY = (float) state[offset + 7];
+        onVelocityChanged();
+    }
+
+    @Override
+    public float getInterpolatedCenterX(final float alpha) {
+        return (alpha >= 1f) ? mCenterX : mPreviousCenterX + (mCenterX - mPreviousCenterX) * alpha;
+    }
+
+    @Override
+    public float getInterpolatedCenterY(final float alpha) {
+        return (alpha >= 1f) ? mCenterY : mPreviousCenterY + (mCenterY - mPreviousCenterY) * alpha;
+    }
+
 
     // ========================== GameEngine.CircleToRender methods ==============================
 
@@ -105,7 +216,7 @@ public class PongBall implements GameObjects.Ball {
 
     @Override
     public float getRadius() {
-        return mRadiusInPx;
+        return mRadius;
     }
 
     @Override
@@ -114,15 +225,33 @@ public class PongBall implements GameObjects.Ball {
     }
 
 
+    // ================================== Helper methods =========================================
+
+    /**
+     * Recalculate the velocity components and drop the cached prediction. Must be called any
+     * time the direction or speed changes. StrictMath gives the same result on every device,
+     * which networked games need to stay in step; this only runs on bounces, so its cost
+     * doesn't matter.
+     */
+    private void onVelocityChanged() {
+        double angleInRadians = mDirection.getDirectionInRadians();
+        mVelocityXInUnitsPerMs = (float) (StrictMath.cos(angleInRadians) * mSpeedInUnitsPerMs);
+        mVelocityYInUnitsPerMs = (float) (StrictMath.sin(angleInRadians) * mSpeedInUnitsPerMs);
+        mPredictionValid = false;
+    }
+
+
     // =========================== Parcelable methods & constant ==================================
 
     protected PongBall(Parcel in) {
         mDirection = in.readParcelable(GameObjects.Direction.class.getClassLoader());
         mCenterX = in.readFloat();
         mCenterY = in.readFloat();
-        mRadiusInPx = in.readFloat();
-        mSpeedInPxPerMs = in.readFloat();
+        mRadius = in.readFloat();
+        mSpeedInUnitsPerMs = in.readFloat();
         mColor = in.readInt();
+        onVelocityChanged();
+        savePreviousPosition();
     }
 
     @Override
@@ -130,8 +259,8 @@ public class PongBall implements GameObjects.Ball {
         dest.writeParcelable(mDirection, flags);
         dest.writeFloat(mCenterX);
         dest.writeFloat(mCenterY);
-        dest.writeFloat(mRadiusInPx);
-        dest.writeFloat(mSpeedInPxPerMs);
+        dest.writeFloat(mRadius);
+        dest.writeFloat(mSpeedInUnitsPerMs);
         dest.writeInt(mColor);
     }
 
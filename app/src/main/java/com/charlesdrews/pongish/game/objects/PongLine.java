@@ -27,8 +27,12 @@ public class PongLine implements GameObjects.VerticalLine, GameEngine.VerticalLi
     // ============================ GameObjects.VerticalLine methods =============================
 
     @Override
-    public void setColor(int color) {
+    public boolean setColor(int color) {
+        if (mColor == color) {
+            return false;
+        }
         mColor = color;
+        return true;
     }
 
 
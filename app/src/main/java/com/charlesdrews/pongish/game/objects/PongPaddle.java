@@ -15,9 +15,12 @@ public class PongPaddle implements GameObjects.Paddle {
 
     // ===================================== Constants ==========================================
 
-    private static final float DEFAULT_OUTSIDE_MARGIN = 20f;
-    private static final float MAXIMUM_HUMAN_PADDLE_SPEED_IN_PX_PER_MS = 1_000f;
-    private static final float MAXIMUM_COMPUTER_PADDLE_SPEED_IN_PX_PER_MS = 0.75f;
+    private static final float OUTSIDE_MARGIN_AS_PERCENT_OF_GAME_BOARD_WIDTH = 0.0134f;
+
+    // Human paddles follow the finger, so their limit is a whole board height per millisecond.
+    // Computer paddles cross the board in about a second and a half.
+    private static final float MAXIMUM_HUMAN_PADDLE_SPEED_IN_UNITS_PER_MS = 1f;
+    private static final float MAXIMUM_COMPUTER_PADDLE_SPEED_IN_UNITS_PER_MS = 0.0007f;
 
     private static final float COMPUTER_PADDLE_EXTRA_ABS_VALUE = 0.3f;
 
@@ -29,7 +32,12 @@ public class PongPaddle implements GameObjects.Paddle {
     private boolean mComputerControlled;
     private int mPaddlePosition, mColor;
     private float mLeftX, mTopY, mRightX, mBottomY;
-    private float mMaxSpeedInPxPerMs;
+    private float mMaxSpeedInUnitsPerMs;
+    private float mCollisionJitter = COMPUTER_PADDLE_EXTRA_ABS_VALUE;
+    private Random mRandom = sRandom;
+
+    // Top edge before the last move, for drawing between updates. Not parceled.
+    private float mPreviousTopY;
 
 
     // =================================== Constructor ==========================================
@@ -39,27 +47,26 @@ public class PongPaddle implements GameObjects.Paddle {
      *
      * @param paddlePosition must be GameObjects.Scene.LEFT_PADDLE or
      *                       GameObjects.Scene.RIGHT_PADDLE.
-     * @param paddleHeight is the height in pixels of the paddle's desired height.
-     * @param gameBoardWidth is the width in pixels of the game board.
-     * @param gameBoardHeight is the height in pixels of the game board.
-     * @param gameBoardHorizontalMargin is the width in pixels of the space on either side of the
-     *                                  game board for the user's thumbs.
+     * @param paddleHeight is the paddle's desired height.
+     * @param gameBoardWidth is the width of the game board.
+     * @param gameBoardHeight is the height of the game board.
      * @param paddleColor is an int representation of the paddle's desired color.
      */
     public PongPaddle(final boolean computerControlled, final int paddlePosition,
                       final float paddleWidth, final float paddleHeight,
                       final float gameBoardWidth, final float gameBoardHeight,
-                      final float gameBoardHorizontalMargin, final int paddleColor) {
+                      final int paddleColor) {
 
         // Set left and right coordinates based on paddle type, or throw exception if invalid type
         if (paddlePosition == GameObjects.Scene.LEFT_PADDLE) {
             mPaddlePosition = paddlePosition;
-            mLeftX = gameBoardHorizontalMargin + DEFAULT_OUTSIDE_MARGIN;
+            mLeftX = OUTSIDE_MARGIN_AS_PERCENT_OF_GAME_BOARD_WIDTH * gameBoardWidth;
             mRightX = mLeftX + paddleWidth;
         }
         else if (paddlePosition == GameObjects.Scene.RIGHT_PADDLE) {
             mPaddlePosition = paddlePosition;
-            mRightX = gameBoardHorizontalMargin + gameBoardWidth - DEFAULT_OUTSIDE_MARGIN;
+            mRightX = gameBoardWidth -
+                    OUTSIDE_MARGIN_AS_PERCENT_OF_GAME_BOARD_WIDTH * gameBoardWidth;
             mLeftX = mRightX - paddleWidth;
         }
         else {
@@ -69,16 +76,17 @@ public class PongPaddle implements GameObjects.Paddle {
 
         mTopY =  (gameBoardHeight - paddleHeight) / 2f;
         mBottomY = mTopY + paddleHeight;
+        mPreviousTopY = mTopY;
 
         mColor = paddleColor;
 
         // Set max speed
         mComputerControlled = computerControlled;
         if (mComputerControlled) {
-            mMaxSpeedInPxPerMs = MAXIMUM_COMPUTER_PADDLE_SPEED_IN_PX_PER_MS;
+            mMaxSpeedInUnitsPerMs = MAXIMUM_COMPUTER_PADDLE_SPEED_IN_UNITS_PER_MS;
         }
         else {
-            mMaxSpeedInPxPerMs = MAXIMUM_HUMAN_PADDLE_SPEED_IN_PX_PER_MS;
+            mMaxSpeedInUnitsPerMs = MAXIMUM_HUMAN_PADDLE_SPEED_IN_UNITS_PER_MS;
         }
     }
 
@@ -96,10 +104,10 @@ public class PongPaddle implements GameObjects.Paddle {
 
         // Reduce deltaY if moving that far would exceed maximum paddle speed
         if (deltaY > 0) {
-            deltaY = Math.min(deltaY, mMaxSpeedInPxPerMs * millisecondsSinceLastUpdate);
+            deltaY = Math.min(deltaY, mMaxSpeedInUnitsPerMs * millisecondsSinceLastUpdate);
         }
         else {
-            deltaY = Math.max(deltaY, (- mMaxSpeedInPxPerMs) * millisecondsSinceLastUpdate);
+            deltaY = Math.max(deltaY, (- mMaxSpeedInUnitsPerMs) * millisecondsSinceLastUpdate);
         }
 
         // Update top and bottom coordinates
@@ -148,8 +156,7 @@ public class PongPaddle implements GameObjects.Paddle {
             // ball struck bottom half.
 
             // Add a little extra so the computer isn't too perfect...
-            float extra = sRandom.nextFloat() * COMPUTER_PADDLE_EXTRA_ABS_VALUE * 2 -
-                    COMPUTER_PADDLE_EXTRA_ABS_VALUE;
+            float extra = mRandom.nextFloat() * mCollisionJitter * 2 - mCollisionJitter;
 
             return (-((ball.getCenterY() - paddleCenterY) / paddleHalfHeight)) + extra;
         }
@@ -163,6 +170,60 @@ public class PongPaddle implements GameObjects.Paddle {
         return mTopY + ((mBottomY - mTopY) / 2f);
     }
 
+    @Override
+    public float getMaxSpeedInUnitsPerMs() {
+        return mMaxSpeedInUnitsPerMs;
+    }
+
+    @Override
+    public void savePreviousPosition() {
+        mPreviousTopY = mTopY;
+    }
+
+    @Override
+    public float getInterpolatedTopY(final float alpha) {
+        return (alpha >= 1f) ? mTopY : mPreviousTopY + (mTopY - mPreviousTopY) * alpha;
+    }
+
+    @Override
+    public void saveState(@NonNull double[] state, int offset) {
+        state[offset] = mTopY;
+        state[offset + 1] = mBottomY;
+        state[offset + 2] = mPreviousTopY;
+    }
+
+    @Override
+    public void restoreState(@NonNull double[] state, int offset) {
+        mTopY = (float) state[offset];
+        mBottomY = (float) state[offset + 1];
+        mPreviousTopY = (float) state[offset + 2];
+    }
+
+
+    // ================================== Public methods =========================================
+
+    /**
+     * Override the default max speed and collision jitter of a computer controlled paddle, e.g.
+     * with values from the AI policy table for the selected difficulty.
+     *
+     * @param maxSpeedInUnitsPerMs is the fastest the paddle may move.
+     * @param collisionJitter is the largest random amount added to a collision location.
+     */
+    public void setComputerSkill(final float maxSpeedInUnitsPerMs, final float collisionJitter) {
+        if (mComputerControlled) {
+            mMaxSpeedInUnitsPerMs = maxSpeedInUnitsPerMs;
+            mCollisionJitter = collisionJitter;
+        }
+    }
+
+    /**
+     * Draw collision jitter from the given random number generator instead of the shared one, so
+     * that a seeded scene plays out the same way every time. Not parceled.
+     */
+    public void setRandom(@NonNull final Random random) {
+        mRandom = random;
+    }
+
 
     // ========================= GameEngine.RectangleToRender methods ================================
 
@@ -201,6 +262,10 @@ public class PongPaddle implements GameObjects.Paddle {
         mTopY = in.readFloat();
         mRightX = in.readFloat();
         mBottomY = in.readFloat();
+        mComputerControlled = in.readByte() != 0;
+        mMaxSpeedInUnitsPerMs = in.readFloat();
+        mCollisionJitter = in.readFloat();
+        mPreviousTopY = mTopY;
     }
 
     @Override
@@ -211,6 +276,9 @@ public class PongPaddle implements GameObjects.Paddle {
         dest.writeFloat(mTopY);
         dest.writeFloat(mRightX);
         dest.writeFloat(mBottomY);
+        dest.writeByte((byte) (mComputerControlled ? 1 : 0));
+        dest.writeFloat(mMaxSpeedInUnitsPerMs);
+        dest.writeFloat(mCollisionJitter);
     }
 
     @Override
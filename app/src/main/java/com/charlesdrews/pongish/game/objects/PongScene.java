@@ -1,14 +1,23 @@
 package com.charlesdrews.pongish.game.objects;
 
 import android.graphics.Color;
+import android.os.Build;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.support.annotation.NonNull;
 
 import com.charlesdrews.pongish.game.GameEngine;
+import com.charlesdrews.pongish.game.RenderCommandBuffer;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Container for the other game objects. Includes logic to update the positions of those objects.
@@ -22,7 +31,6 @@ public class PongScene implements GameObjects.Scene, Parcelable {
     private static final String TAG = "PongScene";
 
     private static final int DEFAULT_BACKGROUND_COLOR = Color.BLACK;
-    private static final float HORIZONTAL_THUMB_MARGIN_AS_PERCENT_OF_SCREEN_WIDTH = 0.11f;
 
     private static final int SCORE_COLOR = Color.GREEN;
     private static final float SCORE_TOP_MARGIN_AS_PERCENT_OF_GAME_BOARD_HEIGHT = 0.02f;
@@ -33,35 +41,44 @@ public class PongScene implements GameObjects.Scene, Parcelable {
     private static final int END_LINE_COLOR = Color.WHITE;
 
     private static final int PADDLE_COLOR = Color.WHITE;
-    private static final float PADDLE_HEIGHT_AS_PERCENT_OF_GAME_BOARD_HEIGHT = 0.2f;
     private static final float PADDLE_WIDTH_AS_PERCENT_OF_GAME_BOARD_WIDTH = 0.015f;
 
     private static final int NORMAL_BALL_POINTS = 3;
     private static final int NORMAL_BALL_COLOR = Color.WHITE;
     private static final float NORMAL_BALL_RADIUS_AS_PERCENT_OF_GAME_BOARD_WIDTH = 0.022f;
-    private static final float NORMAL_BALL_SPEED_AS_PERCENT_OF_GAME_BOARD_WIDTH_PER_SECOND = 0.509f;
 
     private static final int BONUS_BALL_POINTS = 1;
     private static final int[] BONUS_BALL_COLORS = { Color.YELLOW, Color.CYAN, Color.MAGENTA };
     private static final float BONUS_BALL_RADIUS_AS_PERCENT_OF_GAME_BOARD_WIDTH = 0.015f;
     private static final float BONUS_BALL_SPEED_AS_PERCENT_OF_GAME_BOARD_WIDTH_PER_SECOND = 0.436f;
 
-    private static final int BONUS_BALLS_CONSECUTIVE_HITS_THRESHOLD = 10;
-
-    private static final float BALL_SPEED_INCREASE_ON_PADDLE_HIT_AS_PERCENT_OF_CURRENT_SPEED = 0.04f;
-
     private static final int BALL_COLOR_ON_POINT_SCORED = Color.RED;
     private static final int END_LINE_COLOR_ON_POINT_SCORED = Color.RED;
     private static final long MS_BEFORE_LINE_COLOR_REVERTS_AFTER_SCORE = 1_000L;
 
-    private static final double MIN_ABS_VAL_DEG_AFTER_PADDLE_COLLISION = 10d;
-    private static final double HALF_ABS_VAL_RANGE_AFTER_PADDLE_COLLISION =
-            (180d - 2d * MIN_ABS_VAL_DEG_AFTER_PADDLE_COLLISION) / 2d;
+    private static final int DEFAULT_PARALLEL_BALL_UPDATE_THRESHOLD = 512;
+
+    // Past this fraction of the board, a partial redraw saves too little to be worth it, since
+    // the surface copies the rest of the last frame back in.
+    private static final float MAX_DIRTY_FRACTION_OF_BOARD = 0.5f;
+
+    // Most bonus balls kept aside for restoreSnapshot() to reuse.
+    private static final int MAX_SPARE_BALLS = 64;
+
+    private static final AtomicInteger sStaticLayerVersions = new AtomicInteger();
+
+    public static final int CHAOS_MODE_MAX_TARGET_BALL_COUNT = 10_000;
+    private static final float CHAOS_MODE_BONUS_BALLS_ADDED_PER_SECOND = 400f;
+
+    // Names of the update phases, as they appear in traces.
+    private static final String TRACE_BALL_MOVES = "ballMoves";
+    private static final String TRACE_COLLISIONS = "collisions";
+    private static final String TRACE_BONUS_SPAWN = "bonusSpawn";
+    private static final String TRACE_AI = "ai";
 
 
     // ================================= Member variables =======================================
 
-    private float mGameBoardWidth, mGameBoardHeight, mGameBoardHorizontalMargin;
     private int mBackgroundColor, mComputerControlledPaddle;
     private GameObjects.Score mLeftPlayerScore, mRightPlayerScore;
     private GameObjects.VerticalLine mLeftEndLine, mRightEndLine, mCenterLine;
@@ -72,77 +89,102 @@ public class PongScene implements GameObjects.Scene, Parcelable {
     private boolean mNeedToAddBonusBalls = false;
     private boolean mCountDownInProgress = false;
     private long mTimeLeftEndLineTurnedRed = 0, mTimeRightEndLineTurnedRed = 0;
-
-    private List<GameEngine.ScoreToRender> mScoresToRender;
-    private List<GameEngine.VerticalLineToRender> mVerticalLinesToRender;
-    private List<GameEngine.CircleToRender> mCirclesToRender;
-    private List<GameEngine.RectangleToRender> mRectanglesToRender;
+    private int mParallelBallUpdateThreshold = DEFAULT_PARALLEL_BALL_UPDATE_THRESHOLD;
+    private ParallelBallMover mParallelBallMover;
+    private int mChaosModeTargetBallCount = 0;
+    private float mChaosModeBallsOwed = 0f;
+    private int mNextBonusBallColorIndex = 0;
+    private List<GameObjects.Ball> mPendingBonusBalls = new ArrayList<>();
+
+    // Bonus balls that scored or were rolled back, for restoreSnapshot() to reuse instead of
+    // allocating new ones. Their state is all overwritten when they're reused.
+    private List<GameObjects.Ball> mSpareBalls = new ArrayList<>();
+
+    // Bonus balls that scored during this update, removed from mBonusBalls all at once after.
+    private Set<GameObjects.Ball> mScoredBonusBalls = new HashSet<>();
+    private long mSimulationTimeInMillis = 0L;
+    private ThreatScheduler mLeftThreatScheduler, mRightThreatScheduler;
+    private int mDifficulty = DIFFICULTY_MEDIUM;
+    private GameTuning mTuning = GameTuning.DEFAULT;
+
+    // Source of every random choice in the scene. Not parceled; a restored scene starts over
+    // with an unseeded generator.
+    private Random mRandom = new Random();
+
+    // Controllers aren't parceled. A restored scene starts with the default controllers, and the
+    // presenter re-attaches any others.
+    private GameObjects.PaddleController mLeftPaddleController, mRightPaddleController;
+    private final GameObjects.SceneView mSceneView = new PongSceneView();
+
+    // The moves each paddle's controller asked for in the last update, for snapshots.
+    private final float[] mRequestedPaddleDeltaY = new float[2];
+
+    // Not parceled either. Null unless the engine is tracing.
+    private GameObjects.Tracer mTracer;
+
+    // Changed whenever the background or a line changes, so the renderer knows when to redraw its
+    // cached copy of them. Versions come from a shared counter, so that a restarted or restored
+    // scene never reuses a version the renderer has already cached.
+    private int mStaticLayerVersion = sStaticLayerVersions.incrementAndGet();
+
+    // Bounds of the paddles and balls in the frame being recorded and in the last one, four floats
+    // per object, used to report which part of the frame changed.
+    private float[] mDrawnBounds = new float[24], mLastDrawnBounds = new float[24];
+    private int mDrawnBoundsCount = 0, mLastDrawnBoundsCount = 0;
+    private int mLastDrawnStaticLayerVersion = -1;
 
 
     // =================================== Constructor ==========================================
 
     /**
-     * Instantiate a new Scene with the specified characteristics.
+     * Instantiate a new Scene with the specified characteristics. The scene is always
+     * BOARD_WIDTH by BOARD_HEIGHT board units, whatever the size of the screen it's drawn on.
      *
-     * @param availableWidth is the width in pixels available for the game board.
-     * @param availableHeight is the height in pixels available for the game board.
      * @param computerControlledPaddle must be GameObjects.Scene.LEFT_PADDLE,
      *                                 GameObjects.Scene.RIGHT_PADDLE, or
      *                                 GameObjects.Scene.NEITHER_PADDLE.
      * @param gameBoardColor is the int representation of the scene's background color.
      */
-    public PongScene(final int availableWidth, final int availableHeight,
-                     final int computerControlledPaddle, final int gameBoardColor) {
-
-        mGameBoardHorizontalMargin = availableWidth *
-                HORIZONTAL_THUMB_MARGIN_AS_PERCENT_OF_SCREEN_WIDTH;
+    public PongScene(final int computerControlledPaddle, final int gameBoardColor) {
 
-        mGameBoardWidth = availableWidth - (2 * mGameBoardHorizontalMargin);
-
-        mGameBoardHeight = availableHeight;
         mBackgroundColor = gameBoardColor;
 
-        float gameBoardCenterX = mGameBoardHorizontalMargin + (mGameBoardWidth / 2f);
+        float gameBoardCenterX = BOARD_WIDTH / 2f;
 
         mLeftPlayerScore = new PongScore(SCORE_COLOR,
                 gameBoardCenterX -
-                        (SCORE_MARGIN_FROM_CENTER_AS_PERCENT_OF_GAME_BOARD_WIDTH * mGameBoardWidth),
-                SCORE_TOP_MARGIN_AS_PERCENT_OF_GAME_BOARD_HEIGHT * mGameBoardHeight,
-                SCORE_TEXT_SIZE_AS_PERCENT_OF_GAME_BOARD_HEIGHT * mGameBoardHeight,
+                        (SCORE_MARGIN_FROM_CENTER_AS_PERCENT_OF_GAME_BOARD_WIDTH * BOARD_WIDTH),
+                SCORE_TOP_MARGIN_AS_PERCENT_OF_GAME_BOARD_HEIGHT * BOARD_HEIGHT,
+                SCORE_TEXT_SIZE_AS_PERCENT_OF_GAME_BOARD_HEIGHT * BOARD_HEIGHT,
                 true);
 
         mRightPlayerScore = new PongScore(SCORE_COLOR,
                 gameBoardCenterX +
-                        (SCORE_MARGIN_FROM_CENTER_AS_PERCENT_OF_GAME_BOARD_WIDTH * mGameBoardWidth),
-                SCORE_TOP_MARGIN_AS_PERCENT_OF_GAME_BOARD_HEIGHT * mGameBoardHeight,
-                SCORE_TEXT_SIZE_AS_PERCENT_OF_GAME_BOARD_HEIGHT * mGameBoardHeight,
+                        (SCORE_MARGIN_FROM_CENTER_AS_PERCENT_OF_GAME_BOARD_WIDTH * BOARD_WIDTH),
+                SCORE_TOP_MARGIN_AS_PERCENT_OF_GAME_BOARD_HEIGHT * BOARD_HEIGHT,
+                SCORE_TEXT_SIZE_AS_PERCENT_OF_GAME_BOARD_HEIGHT * BOARD_HEIGHT,
                 false);
 
         mComputerControlledPaddle = computerControlledPaddle;
         initializeGameObjects();
+        initializeDefaultPaddleControllers();
     }
 
     /**
      * Instantiate a new Scene with the specified characteristics.
      *
-     * @param availableWidth is the width in pixels available for the game board.
-     * @param availableHeight is the height in pixels available for the game board.
      * @param computerControlledPaddle must be GameObjects.Scene.LEFT_PADDLE,
      *                                 GameObjects.Scene.RIGHT_PADDLE, or
      *                                 GameObjects.Scene.NEITHER_PADDLE.
      */
-    public PongScene(final int availableWidth, final int availableHeight,
-                     final int computerControlledPaddle) {
-        this(availableWidth, availableHeight, computerControlledPaddle, DEFAULT_BACKGROUND_COLOR);
+    public PongScene(final int computerControlledPaddle) {
+        this(computerControlledPaddle, DEFAULT_BACKGROUND_COLOR);
     }
 
 
     // ============================= GameObjects.PongScene methods ===============================
 
     protected PongScene(Parcel in) {
-        mGameBoardWidth = in.readFloat();
-        mGameBoardHeight = in.readFloat();
-        mGameBoardHorizontalMargin = in.readFloat();
         mBackgroundColor = in.readInt();
         mComputerControlledPaddle = in.readInt();
         mLeftPlayerScore = in.readParcelable(GameObjects.Score.class.getClassLoader());
@@ -159,13 +201,16 @@ public class PongScene implements GameObjects.Scene, Parcelable {
         mCountDownInProgress = in.readByte() != 0;
         mTimeLeftEndLineTurnedRed = in.readLong();
         mTimeRightEndLineTurnedRed = in.readLong();
+        mParallelBallUpdateThreshold = in.readInt();
+        mChaosModeTargetBallCount = in.readInt();
+        mDifficulty = in.readInt();
+        mTuning = in.readParcelable(GameTuning.class.getClassLoader());
+        mSimulationTimeInMillis = in.readLong();
+        initializeDefaultPaddleControllers();
     }
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeFloat(mGameBoardWidth);
-        dest.writeFloat(mGameBoardHeight);
-        dest.writeFloat(mGameBoardHorizontalMargin);
         dest.writeInt(mBackgroundColor);
         dest.writeInt(mComputerControlledPaddle);
         dest.writeParcelable(mLeftPlayerScore, flags);
@@ -182,6 +227,11 @@ public class PongScene implements GameObjects.Scene, Parcelable {
         dest.writeByte((byte) (mCountDownInProgress ? 1 : 0));
         dest.writeLong(mTimeLeftEndLineTurnedRed);
         dest.writeLong(mTimeRightEndLineTurnedRed);
+        dest.writeInt(mParallelBallUpdateThreshold);
+        dest.writeInt(mChaosModeTargetBallCount);
+        dest.writeInt(mDifficulty);
+        dest.writeParcelable(mTuning, flags);
+        dest.writeLong(mSimulationTimeInMillis);
     }
 
     @Override
@@ -205,9 +255,9 @@ public class PongScene implements GameObjects.Scene, Parcelable {
     public void movePaddle(final int paddle, final float deltaY, final long millisSinceLastUpdate) {
         if (!mCountDownInProgress) {
             if (paddle == LEFT_PADDLE) {
-                mLeftPaddle.move(deltaY, mGameBoardHeight, millisSinceLastUpdate);
+                mLeftPaddle.move(deltaY, BOARD_HEIGHT, millisSinceLastUpdate);
             } else if (paddle == RIGHT_PADDLE) {
-                mRightPaddle.move(deltaY, mGameBoardHeight, millisSinceLastUpdate);
+                mRightPaddle.move(deltaY, BOARD_HEIGHT, millisSinceLastUpdate);
             }
         }
     }
@@ -215,53 +265,83 @@ public class PongScene implements GameObjects.Scene, Parcelable {
     @Override
     public boolean updateGameObjects(final long millisSinceLastUpdate) {
 
-        // If enough time has elapsed, reset colors for end lines
+        mSimulationTimeInMillis += millisSinceLastUpdate;
+        savePreviousPositions();
+
+        // Threat schedulers aren't parceled, so rebuild them after the scene is restored.
+        if (mLeftThreatScheduler == null && mRightThreatScheduler == null) {
+            initializeThreatSchedulers();
+        }
+
+        // If enough time has elapsed, reset colors for end lines. Timed in simulation time, so a
+        // replay or export looks the same however fast it runs.
         if (mLeftEndLine.getColor() != END_LINE_COLOR &&
-                System.currentTimeMillis() - mTimeLeftEndLineTurnedRed >
+                mSimulationTimeInMillis - mTimeLeftEndLineTurnedRed >
                         MS_BEFORE_LINE_COLOR_REVERTS_AFTER_SCORE) {
-            mLeftEndLine.setColor(END_LINE_COLOR);
+            setLineColor(mLeftEndLine, END_LINE_COLOR);
         }
 
         if (mRightEndLine.getColor() != END_LINE_COLOR &&
-                System.currentTimeMillis() - mTimeRightEndLineTurnedRed >
+                mSimulationTimeInMillis - mTimeRightEndLineTurnedRed >
                         MS_BEFORE_LINE_COLOR_REVERTS_AFTER_SCORE) {
-            mRightEndLine.setColor(END_LINE_COLOR);
+            setLineColor(mRightEndLine, END_LINE_COLOR);
         }
 
-        // Move normal ball (update direction if paddle hit, otherwise check if side wall hit)
+        // Move normal ball (update direction if paddle hit, otherwise check if side wall hit).
+        // Moving and collision checks are done together per ball, so they're traced together,
+        // except on the parallel path, where they're separate passes.
+        beginTraceSection(TRACE_BALL_MOVES);
         boolean pointScored = moveBallAndCheckResult(mNormalBall, millisSinceLastUpdate, true);
 
-        // Do the same for each bonus ball
-        for (GameObjects.Ball ball : mBonusBalls) {
-            pointScored = pointScored || moveBallAndCheckResult(ball, millisSinceLastUpdate, false);
+        // Do the same for each bonus ball, unless the normal ball already scored. Bonus balls
+        // never end the round, so they don't affect pointScored.
+        if (!pointScored) {
+            if (shouldMoveBonusBallsInParallel()) {
+
+                // Moves don't depend on each other, so spread them across all cores. Then resolve
+                // paddle hits and scoring in list order, exactly as the serial path would.
+                mParallelBallMover.moveBalls(mBonusBalls, millisSinceLastUpdate, BOARD_HEIGHT);
+                beginTraceSection(TRACE_COLLISIONS);
+                for (GameObjects.Ball ball : mBonusBalls) {
+                    checkBallResult(ball, false);
+                }
+                endTraceSection();
+            }
+            else {
+                for (GameObjects.Ball ball : mBonusBalls) {
+                    moveBallAndCheckResult(ball, millisSinceLastUpdate, false);
+                }
+            }
+            removeScoredBonusBalls();
         }
+        endTraceSection();
 
+        // In chaos mode, keep ramping the bonus balls up toward the target count instead.
+        beginTraceSection(TRACE_BONUS_SPAWN);
+        if (isChaosMode()) {
+            if (!pointScored) {
+                addChaosModeBonusBalls(millisSinceLastUpdate);
+            }
+        }
         // If a point was not yet scored, bonus balls were not yet added, and the # of consecutive
         // hits exceeds threshold, then add bonus balls!
-        if (!pointScored && mNeedToAddBonusBalls) {
+        else if (!pointScored && mNeedToAddBonusBalls) {
 
             // If 2x the threshold is reached, release 2x the bonus balls, etc.
-            for (int i = 0; i < mConsecutivePaddleHits / BONUS_BALLS_CONSECUTIVE_HITS_THRESHOLD; i++) {
+            int releases = mConsecutivePaddleHits / mTuning.getBonusBallsConsecutiveHitsThreshold();
+            for (int i = 0; i < releases; i++) {
                 addBonusBalls();
             }
         }
+        endTraceSection();
 
-        // Move computer controlled paddle
-        switch (mComputerControlledPaddle) {
-
-            case LEFT_PADDLE:
-                moveComputerControlledPaddle(mLeftPaddle, LEFT_PADDLE, millisSinceLastUpdate);
-                break;
-
-            case RIGHT_PADDLE:
-                moveComputerControlledPaddle(mRightPaddle, RIGHT_PADDLE, millisSinceLastUpdate);
-                break;
-
-            case BOTH_PADDLES:
-                moveComputerControlledPaddle(mLeftPaddle, LEFT_PADDLE, millisSinceLastUpdate);
-                moveComputerControlledPaddle(mRightPaddle, RIGHT_PADDLE, millisSinceLastUpdate);
-                break;
-        }
+        // Let each paddle's controller move it, now that the balls are where they'll be drawn.
+        beginTraceSection(TRACE_AI);
+        mLeftThreatScheduler.selectTarget(mSimulationTimeInMillis, BOARD_HEIGHT);
+        mRightThreatScheduler.selectTarget(mSimulationTimeInMillis, BOARD_HEIGHT);
+        moveControlledPaddle(LEFT_PADDLE, mLeftPaddleController, millisSinceLastUpdate);
+        moveControlledPaddle(RIGHT_PADDLE, mRightPaddleController, millisSinceLastUpdate);
+        endTraceSection();
 
         return pointScored;
     }
@@ -272,33 +352,58 @@ public class PongScene implements GameObjects.Scene, Parcelable {
     }
 
     @Override
-    public List<GameEngine.ScoreToRender> getScoresToRender() {
-        return mScoresToRender;
-    }
+    public void fillRenderCommandBuffer(@NonNull RenderCommandBuffer buffer, float alpha) {
 
-    @Override
-    public List<GameEngine.CircleToRender> getCirclesToRender() {
+        // The background and lines only change when a point is scored, so they go in the static
+        // layer, which the renderer can cache between frames.
+        buffer.beginStaticLayer(mStaticLayerVersion);
+        buffer.addBackground(mBackgroundColor);
+        addVerticalLine(buffer, mLeftEndLine);
+        addVerticalLine(buffer, mRightEndLine);
+        addVerticalLine(buffer, mCenterLine);
+        buffer.endStaticLayer();
 
-        // Clear list of circles to render, in case it contains any expired bonus balls.
-        mCirclesToRender.clear();
+        addScore(buffer, mLeftPlayerScore);
+        addScore(buffer, mRightPlayerScore);
 
-        // Add normal ball and bonus balls (if any exist).
-        mCirclesToRender.add(mNormalBall);
-        for (GameObjects.Ball ball : mBonusBalls) {
-            mCirclesToRender.add(ball);
-        }
+        mDrawnBoundsCount = 0;
+        addBall(buffer, mNormalBall, alpha);
+        addBonusBallBatches(buffer, alpha);
 
-        return mCirclesToRender;
+        addPaddle(buffer, mLeftPaddle, alpha);
+        addPaddle(buffer, mRightPaddle, alpha);
+
+        addDirtyRegion(buffer);
     }
 
     @Override
-    public List<GameEngine.RectangleToRender> getRectanglesToRender() {
-        return mRectanglesToRender;
+    public int getBallCount() {
+        return 1 + mBonusBalls.size();
     }
 
     @Override
-    public List<GameEngine.VerticalLineToRender> getVerticalLinesToRender() {
-        return mVerticalLinesToRender;
+    public void writeSnapshot(@NonNull ByteBuffer buffer, int maxBalls) {
+        buffer.putLong(mSimulationTimeInMillis);
+        buffer.putFloat(BOARD_WIDTH);
+        buffer.putFloat(BOARD_HEIGHT);
+        buffer.putFloat(mLeftPaddle.getCenterY());
+        buffer.putFloat(mRightPaddle.getCenterY());
+        buffer.putFloat(mRequestedPaddleDeltaY[LEFT_PADDLE]);
+        buffer.putFloat(mRequestedPaddleDeltaY[RIGHT_PADDLE]);
+        buffer.putInt(mLeftPlayerScore.getScore());
+        buffer.putInt(mRightPlayerScore.getScore());
+
+        int ballCount = getBallCount();
+        int recordedBallCount = Math.min(ballCount, maxBalls);
+        buffer.putInt(ballCount);
+        buffer.putInt(recordedBallCount);
+        for (int i = 0; i < recordedBallCount; i++) {
+            GameObjects.Ball ball = getBall(i);
+            buffer.putFloat(ball.getCenterX());
+            buffer.putFloat(ball.getCenterY());
+            buffer.putFloat(ball.getVelocityX());
+            buffer.putFloat(ball.getVelocityY());
+        }
     }
 
     @Override
@@ -308,33 +413,261 @@ public class PongScene implements GameObjects.Scene, Parcelable {
 
     @Override
     public void setCountdownInProgress(boolean countdownInProgress) {
+
+        // Controllers start fresh when play resumes, e.g. dropping drags made during the countdown.
+        if (mCountDownInProgress && !countdownInProgress) {
+            resetPaddleControllers();
+        }
         mCountDownInProgress = countdownInProgress;
     }
 
+    @Override
+    public void setTracer(final GameObjects.Tracer tracer) {
+        mTracer = tracer;
+    }
+
+
+    // ================================== Public methods =========================================
+
+    /**
+     * Hand control of the specified paddle to the given controller, which will be asked for
+     * the paddle's movement on every update. Computer controllers that run over their time budget
+     * are replaced by a cheap fallback, so a slow controller can't drag down the frame rate.
+     *
+     * @param paddle must be GameObjects.Scene.LEFT_PADDLE (0), or ...RIGHT_PADDLE (1).
+     * @param controller will decide how the paddle moves, or null to leave it still.
+     */
+    public void setPaddleController(final int paddle,
+                                    final GameObjects.PaddleController controller) {
+
+        // Hold computer controllers to a time budget, unless the caller already chose one. A
+        // player's input is never budgeted: a slow update there means the thread was held up,
+        // e.g. by a GC pause, not that the player should lose their paddle to the computer.
+        GameObjects.PaddleController budgeted = controller;
+        if (controller != null && !(controller instanceof BudgetedPaddleController) &&
+                !(controller instanceof HumanPaddleController)) {
+            budgeted = new BudgetedPaddleController(controller, new TrackingPaddleController(),
+                    BudgetedPaddleController.DEFAULT_BUDGET_IN_NANOS);
+        }
+
+        if (paddle == LEFT_PADDLE) {
+            mLeftPaddleController = budgeted;
+        }
+        else if (paddle == RIGHT_PADDLE) {
+            mRightPaddleController = budgeted;
+        }
+        else {
+            throw new IllegalArgumentException("paddle must be either " +
+                    "GameObjects.Scene.LEFT_PADDLE or GameObjects.Scene.RIGHT_PADDLE");
+        }
+    }
+
+    /**
+     * Set the number of bonus balls at which updateGameObjects() starts moving them in parallel.
+     * Below the threshold, balls are moved on the game thread alone to avoid the overhead of
+     * handing work to other threads. Parallel moves also require API 21 or higher.
+     *
+     * @param threshold is the minimum number of bonus balls to move in parallel.
+     */
+    public void setParallelBallUpdateThreshold(final int threshold) {
+        mParallelBallUpdateThreshold = threshold;
+    }
+
+    /**
+     * Turn on chaos mode, which continuously adds bonus balls until the target count is reached
+     * and keeps them in play across points, instead of releasing them after consecutive hits.
+     *
+     * @param targetBallCount is the number of bonus balls to ramp up to, capped at
+     *                        CHAOS_MODE_MAX_TARGET_BALL_COUNT. Zero turns chaos mode off.
+     */
+    public void setChaosModeTargetBallCount(final int targetBallCount) {
+        mChaosModeTargetBallCount = Math.max(0,
+                Math.min(targetBallCount, CHAOS_MODE_MAX_TARGET_BALL_COUNT));
+        mChaosModeBallsOwed = 0f;
+    }
+
+    /**
+     * Set how well the computer plays. Applies to the current paddles and any created later.
+     *
+     * @param difficulty must be GameObjects.Scene.DIFFICULTY_EASY, ...MEDIUM, or ...HARD.
+     */
+    public void setDifficulty(final int difficulty) {
+        mDifficulty = difficulty;
+        applyComputerSkill(mLeftPaddle);
+        applyComputerSkill(mRightPaddle);
+    }
+
+    /**
+     * Replace the gameplay constants, e.g. to try out a balance change. Restarts the current
+     * point, since paddles and the normal ball are sized when they're created.
+     *
+     * @param tuning holds the gameplay constants to use from now on.
+     */
+    public void setTuning(@NonNull final GameTuning tuning) {
+        mTuning = tuning;
+        initializeGameObjects();
+    }
+
+    /**
+     * Make every random choice in the scene - ball directions and paddle collision jitter - come
+     * from a generator with the given seed, so the scene plays out the same way on every run with
+     * the same inputs. Restarts the current point so that its ball direction is seeded too.
+     *
+     * @param seed is the seed for the scene's random number generator.
+     */
+    public void setRandomSeed(final long seed) {
+        mRandom = new Random(seed);
+        initializeGameObjects();
+    }
+
+    /**
+     * Reset the seed of the scene's random number generator, without restarting the point. A
+     * networked game does this before every update, seeded by the update's number, so that an
+     * update replayed after a rollback makes the same random choices as the first time.
+     *
+     * @param seed is the new seed for the scene's random number generator.
+     */
+    public void reseedRandom(final long seed) {
+        mRandom.setSeed(seed);
+    }
+
+    /**
+     * Copy everything an update can change into the snapshot, reusing its arrays.
+     *
+     * @param snapshot is the snapshot to fill in.
+     */
+    public void saveSnapshot(@NonNull final SceneSnapshot snapshot) {
+        mLeftPaddle.saveState(snapshot.mPaddleStates, 0);
+        mRightPaddle.saveState(snapshot.mPaddleStates, GameObjects.Paddle.STATE_SIZE);
+
+        int ballCount = getBallCount();
+        if (snapshot.mBallStates.length < ballCount * GameObjects.Ball.STATE_SIZE) {
+            snapshot.mBallStates = new double[2 * ballCount * GameObjects.Ball.STATE_SIZE];
+        }
+        for (int i = 0; i < ballCount; i++) {
+            getBall(i).saveState(snapshot.mBallStates, i * GameObjects.Ball.STATE_SIZE);
+        }
+        snapshot.mBallCount = ballCount;
+
+        snapshot.mLeftScore = mLeftPlayerScore.getScore();
+        snapshot.mRightScore = mRightPlayerScore.getScore();
+        snapshot.mConsecutivePaddleHits = mConsecutivePaddleHits;
+        snapshot.mNeedToAddBonusBalls = mNeedToAddBonusBalls;
+        snapshot.mChaosModeBallsOwed = mChaosModeBallsOwed;
+        snapshot.mNextBonusBallColorIndex = mNextBonusBallColorIndex;
+        snapshot.mSimulationTimeInMillis = mSimulationTimeInMillis;
+    }
+
+    /**
+     * Put the scene back the way it was when the snapshot was saved. The threat schedulers are
+     * rebuilt from the restored balls, so any computer controlled paddle sees them too.
+     *
+     * @param snapshot is a snapshot saved from this scene.
+     */
+    public void restoreSnapshot(@NonNull final SceneSnapshot snapshot) {
+        mLeftPaddle.restoreState(snapshot.mPaddleStates, 0);
+        mRightPaddle.restoreState(snapshot.mPaddleStates, GameObjects.Paddle.STATE_SIZE);
+
+        // Match the number of bonus balls first, reusing spare balls. Every ball's state is
+        // overwritten below, so they can start anywhere. Each change to a CopyOnWriteArrayList
+        // copies it, so make at most one, and none if the count hasn't changed.
+        int bonusBallCount = snapshot.mBallCount - 1;
+        int currentBonusBallCount = mBonusBalls.size();
+        if (currentBonusBallCount > bonusBallCount) {
+            for (int i = bonusBallCount; i < currentBonusBallCount; i++) {
+                recycleBall(mBonusBalls.get(i));
+            }
+            mBonusBalls.subList(bonusBallCount, currentBonusBallCount).clear();
+        }
+        else if (currentBonusBallCount < bonusBallCount) {
+            for (int i = currentBonusBallCount; i < bonusBallCount; i++) {
+                mPendingBonusBalls.add(mSpareBalls.isEmpty()
+                        ? new PongBall(BOARD_WIDTH, BOARD_HEIGHT, 0f, 0f, 0)
+                        : mSpareBalls.remove(mSpareBalls.size() - 1));
+            }
+            mBonusBalls.addAll(mPendingBonusBalls);
+            mPendingBonusBalls.clear();
+        }
+        for (int i = 0; i < snapshot.mBallCount; i++) {
+            getBall(i).restoreState(snapshot.mBallStates, i * GameObjects.Ball.STATE_SIZE);
+        }
+
+        if (mLeftPlayerScore.getScore() != snapshot.mLeftScore) {
+            mLeftPlayerScore.setScore(snapshot.mLeftScore);
+        }
+        if (mRightPlayerScore.getScore() != snapshot.mRightScore) {
+            mRightPlayerScore.setScore(snapshot.mRightScore);
+        }
+        mConsecutivePaddleHits = snapshot.mConsecutivePaddleHits;
+        mNeedToAddBonusBalls = snapshot.mNeedToAddBonusBalls;
+        mChaosModeBallsOwed = snapshot.mChaosModeBallsOwed;
+        mNextBonusBallColorIndex = snapshot.mNextBonusBallColorIndex;
+        mSimulationTimeInMillis = snapshot.mSimulationTimeInMillis;
+
+        initializeThreatSchedulers();
+    }
+
+    /**
+     * @return the number of times in a row the normal ball has hit a paddle this point.
+     */
+    public int getConsecutivePaddleHits() {
+        return mConsecutivePaddleHits;
+    }
+
+    /**
+     * @return the left player's score.
+     */
+    public int getLeftPlayerScore() {
+        return mLeftPlayerScore.getScore();
+    }
+
+    /**
+     * @return the right player's score.
+     */
+    public int getRightPlayerScore() {
+        return mRightPlayerScore.getScore();
+    }
+
+    /**
+     * @return true if chaos mode is turned on.
+     */
+    public boolean isChaosMode() {
+        return mChaosModeTargetBallCount > 0;
+    }
+
 
     // =========================== Parcelable methods & constant ==================================
 
 
     // ================================ Helper methods ===========================================
 
+    private void beginTraceSection(final String name) {
+        if (mTracer != null) {
+            mTracer.beginSection(name);
+        }
+    }
+
+    private void endTraceSection() {
+        if (mTracer != null) {
+            mTracer.endSection();
+        }
+    }
+
     /**
      * Add a left paddle, a right paddle, and the normal ball to the scene. If any bonus balls
-     * exist, remove them. Also prepare the lists of circles and rectangles to return to the
-     * renderer.
+     * exist, remove them.
      */
     private void initializeGameObjects() {
 
         mConsecutivePaddleHits = 0;
 
         // Add left, right, and center line.
-        mLeftEndLine = new PongLine(mGameBoardHorizontalMargin, 0, mGameBoardHeight,
-                END_LINE_COLOR, false);
+        mLeftEndLine = new PongLine(0, 0, BOARD_HEIGHT, END_LINE_COLOR, false);
 
-        mRightEndLine = new PongLine(mGameBoardHorizontalMargin + mGameBoardWidth, 0,
-                mGameBoardHeight, END_LINE_COLOR, false);
+        mRightEndLine = new PongLine(BOARD_WIDTH, 0, BOARD_HEIGHT, END_LINE_COLOR, false);
 
-        mCenterLine = new PongLine(mGameBoardHorizontalMargin + (mGameBoardWidth / 2f), 0,
-                mGameBoardHeight, CENTER_LINE_COLOR, true);
+        mCenterLine = new PongLine(BOARD_WIDTH / 2f, 0, BOARD_HEIGHT, CENTER_LINE_COLOR, true);
+        mStaticLayerVersion = sStaticLayerVersions.incrementAndGet();
 
         // Add left & right paddles and the normal ball.
         switch (mComputerControlledPaddle) {
@@ -363,46 +696,90 @@ public class PongScene implements GameObjects.Scene, Parcelable {
                         "GameObjects.Scene.LEFT_PADDLE, ...RIGHT_PADDLE, or ...NEITHER_PADDLE.");
         }
 
-        mNormalBall = new PongBall(mGameBoardWidth, mGameBoardHeight, mGameBoardHorizontalMargin,
-                NORMAL_BALL_RADIUS_AS_PERCENT_OF_GAME_BOARD_WIDTH * mGameBoardWidth,
-                NORMAL_BALL_SPEED_AS_PERCENT_OF_GAME_BOARD_WIDTH_PER_SECOND *
-                        mGameBoardWidth / 1000f,
-                NORMAL_BALL_COLOR);
+        mNormalBall = new PongBall(BOARD_WIDTH, BOARD_HEIGHT,
+                NORMAL_BALL_RADIUS_AS_PERCENT_OF_GAME_BOARD_WIDTH * BOARD_WIDTH,
+                mTuning.getBallSpeed() * BOARD_WIDTH / 1000f,
+                NORMAL_BALL_COLOR, mRandom);
 
-        // Instantiate an empty list for bonus balls, or if one exists, empty it.
+        // Instantiate an empty list for bonus balls, or if one exists, empty it. Chaos mode keeps
+        // its bonus balls in play across points.
         if (mBonusBalls == null) {
             mBonusBalls = new CopyOnWriteArrayList<>();
         }
-        else {
+        else if (!isChaosMode()) {
             mBonusBalls.clear();
         }
         mNeedToAddBonusBalls = false;
 
-        // Instantiate and initialize a list of scores to return to the renderer.
-        mScoresToRender = new ArrayList<>(2);
-        mScoresToRender.add(mLeftPlayerScore);
-        mScoresToRender.add(mRightPlayerScore);
+        // The paddles are new, so they need new threat schedulers, and controllers start over.
+        initializeThreatSchedulers();
+        resetPaddleControllers();
+    }
 
-        // Instantiate and initialize a list of vertical lines to return to the renderer.
-        mVerticalLinesToRender = new ArrayList<>(3);
-        mVerticalLinesToRender.add(mLeftEndLine);
-        mVerticalLinesToRender.add(mRightEndLine);
-        mVerticalLinesToRender.add(mCenterLine);
+    /**
+     * Create a ThreatScheduler for each paddle and schedule every ball currently in play. Any
+     * paddle's controller may ask which ball is coming, so both paddles get one.
+     */
+    private void initializeThreatSchedulers() {
+        mLeftThreatScheduler = new ThreatScheduler(mLeftPaddle, LEFT_PADDLE);
+        mRightThreatScheduler = new ThreatScheduler(mRightPaddle, RIGHT_PADDLE);
+
+        scheduleThreat(mNormalBall, true);
+        for (GameObjects.Ball ball : mBonusBalls) {
+            scheduleThreat(ball, false);
+        }
+    }
+
+    /**
+     * Let each threat scheduler know about a ball that was added or changed direction. Each one
+     * ignores the ball unless it's heading toward its paddle.
+     */
+    private void scheduleThreat(GameObjects.Ball ball, boolean isNormalBall) {
+        int points = isNormalBall ? NORMAL_BALL_POINTS : BONUS_BALL_POINTS;
+        mLeftThreatScheduler.schedule(ball, points, mSimulationTimeInMillis);
+        mRightThreatScheduler.schedule(ball, points, mSimulationTimeInMillis);
+    }
 
-        // Instantiate an empty list to hold balls as circles to return to the renderer.
-        mCirclesToRender = new ArrayList<>();
+    /**
+     * Give each computer controlled paddle the built-in chaser AI. Other paddles stay still until
+     * a controller is set, e.g. one driven by touch.
+     */
+    private void initializeDefaultPaddleControllers() {
+        setPaddleController(LEFT_PADDLE,
+                mLeftPaddle.isComputerControlled() ? new ChaserPaddleController() : null);
+        setPaddleController(RIGHT_PADDLE,
+                mRightPaddle.isComputerControlled() ? new ChaserPaddleController() : null);
+    }
 
-        // Instantiate and initialize a list of paddles as rectangles to return to the renderer.
-        mRectanglesToRender = new ArrayList<>(2);
-        mRectanglesToRender.add(mLeftPaddle);
-        mRectanglesToRender.add(mRightPaddle);
+    private void resetPaddleControllers() {
+        if (mLeftPaddleController != null) {
+            mLeftPaddleController.reset();
+        }
+        if (mRightPaddleController != null) {
+            mRightPaddleController.reset();
+        }
     }
 
     private GameObjects.Paddle getNewPaddle(boolean isComputerControlled, int paddlePosition) {
-        return new PongPaddle(isComputerControlled, paddlePosition,
-                PADDLE_WIDTH_AS_PERCENT_OF_GAME_BOARD_WIDTH * mGameBoardWidth,
-                PADDLE_HEIGHT_AS_PERCENT_OF_GAME_BOARD_HEIGHT * mGameBoardHeight,
-                mGameBoardWidth, mGameBoardHeight, mGameBoardHorizontalMargin, PADDLE_COLOR);
+        PongPaddle paddle = new PongPaddle(isComputerControlled, paddlePosition,
+                PADDLE_WIDTH_AS_PERCENT_OF_GAME_BOARD_WIDTH * BOARD_WIDTH,
+                mTuning.getPaddleHeight() * BOARD_HEIGHT,
+                BOARD_WIDTH, BOARD_HEIGHT, PADDLE_COLOR);
+        paddle.setRandom(mRandom);
+        applyComputerSkill(paddle);
+        return paddle;
+    }
+
+    /**
+     * If the paddle is computer controlled and a policy table is available for the current
+     * difficulty, use the table's speed and jitter instead of the paddle's defaults.
+     */
+    private void applyComputerSkill(GameObjects.Paddle paddle) {
+        AiPolicyTable table = AiPolicyTable.forDifficulty(mDifficulty);
+        if (table != null && paddle instanceof PongPaddle) {
+            ((PongPaddle) paddle).setComputerSkill(table.getMaxSpeedInUnitsPerMs(),
+                    table.getCollisionJitter());
+        }
     }
 
     /**
@@ -419,7 +796,7 @@ public class PongScene implements GameObjects.Scene, Parcelable {
                                                     final float collisionLocation) {
 
         double absoluteValueNewDirection = 90d +
-                (-collisionLocation) * HALF_ABS_VAL_RANGE_AFTER_PADDLE_COLLISION;
+                (-collisionLocation) * mTuning.getHalfRangeOfDegreesAfterPaddleCollision();
 
         if (paddlePosition == GameObjects.Scene.LEFT_PADDLE) {
             return absoluteValueNewDirection;
@@ -452,7 +829,8 @@ public class PongScene implements GameObjects.Scene, Parcelable {
             }
 
             ball.setDirection(getDirectionAfterPaddleCollision(LEFT_PADDLE, collisionLocation));
-            ball.changeSpeed(BALL_SPEED_INCREASE_ON_PADDLE_HIT_AS_PERCENT_OF_CURRENT_SPEED);
+            ball.changeSpeed(mTuning.getBallSpeedIncreaseOnPaddleHit());
+            scheduleThreat(ball, isNormalBall);
             return true;
         }
         else {
@@ -465,7 +843,8 @@ public class PongScene implements GameObjects.Scene, Parcelable {
                 }
 
                 ball.setDirection(getDirectionAfterPaddleCollision(RIGHT_PADDLE, collisionLocation));
-                ball.changeSpeed(BALL_SPEED_INCREASE_ON_PADDLE_HIT_AS_PERCENT_OF_CURRENT_SPEED);
+                ball.changeSpeed(mTuning.getBallSpeedIncreaseOnPaddleHit());
+                scheduleThreat(ball, isNormalBall);
                 return true;
             }
         }
@@ -475,7 +854,7 @@ public class PongScene implements GameObjects.Scene, Parcelable {
     private void incrementConsecutiveHitsCounter() {
         mConsecutivePaddleHits += 1;
         if (mConsecutivePaddleHits > 0
-                && mConsecutivePaddleHits % BONUS_BALLS_CONSECUTIVE_HITS_THRESHOLD == 0) {
+                && mConsecutivePaddleHits % mTuning.getBonusBallsConsecutiveHitsThreshold() == 0) {
             mNeedToAddBonusBalls = true;
         }
     }
@@ -493,21 +872,32 @@ public class PongScene implements GameObjects.Scene, Parcelable {
                                            boolean isNormalBall) {
 
         // Start by updating the ball's position
-        ball.move(millisSinceLastUpdate, mGameBoardHeight);
+        ball.move(millisSinceLastUpdate, BOARD_HEIGHT);
+
+        return checkBallResult(ball, isNormalBall);
+    }
 
-        // Then check if it hit a paddle, and update its direction if yes
+    /**
+     * Steps 2 and 3 of moveBallAndCheckResult(), for a ball that has already been moved.
+     *
+     * @param ball is the Ball whose position was just updated.
+     * @return true if a point was scored that ends the round, else false.
+     */
+    private boolean checkBallResult(GameObjects.Ball ball, boolean isNormalBall) {
+
+        // Check if it hit a paddle, and update its direction if yes
         if (!checkForPaddleCollisionsAndUpdateBall(ball, isNormalBall)) {
 
             // If the ball hasn't hit either paddle, check if it hit the left or right wall
-            int hit = ball.checkIfPointScored(mGameBoardWidth, mGameBoardHorizontalMargin);
+            int hit = ball.checkIfPointScored(BOARD_WIDTH);
 
             // If a side wall was hit, return true so the game engine knows to pause the loop
             switch (hit) {
                 case GameObjects.Scene.LEFT_WALL_HIT: {
                     ball.setColor(BALL_COLOR_ON_POINT_SCORED);
 
-                    mLeftEndLine.setColor(END_LINE_COLOR_ON_POINT_SCORED);
-                    mTimeLeftEndLineTurnedRed = System.currentTimeMillis();
+                    setLineColor(mLeftEndLine, END_LINE_COLOR_ON_POINT_SCORED);
+                    mTimeLeftEndLineTurnedRed = mSimulationTimeInMillis;
 
                     if (isNormalBall) {
                         mRightPlayerScore.increaseScore(NORMAL_BALL_POINTS);
@@ -515,7 +905,7 @@ public class PongScene implements GameObjects.Scene, Parcelable {
                     }
                     else {
                         mRightPlayerScore.increaseScore(BONUS_BALL_POINTS);
-                        mBonusBalls.remove(ball);
+                        mScoredBonusBalls.add(ball);
                     }
 
                     return isNormalBall;
@@ -524,8 +914,8 @@ public class PongScene implements GameObjects.Scene, Parcelable {
                 case GameObjects.Scene.RIGHT_WALL_HIT: {
                     ball.setColor(BALL_COLOR_ON_POINT_SCORED);
 
-                    mRightEndLine.setColor(END_LINE_COLOR_ON_POINT_SCORED);
-                    mTimeRightEndLineTurnedRed = System.currentTimeMillis();
+                    setLineColor(mRightEndLine, END_LINE_COLOR_ON_POINT_SCORED);
+                    mTimeRightEndLineTurnedRed = mSimulationTimeInMillis;
 
                     if (isNormalBall) {
                         mLeftPlayerScore.increaseScore(NORMAL_BALL_POINTS);
@@ -533,7 +923,7 @@ public class PongScene implements GameObjects.Scene, Parcelable {
                     }
                     else {
                         mLeftPlayerScore.increaseScore(BONUS_BALL_POINTS);
-                        mBonusBalls.remove(ball);
+                        mScoredBonusBalls.add(ball);
                     }
 
                     return isNormalBall;
@@ -548,39 +938,359 @@ public class PongScene implements GameObjects.Scene, Parcelable {
         }
     }
 
+    /**
+     * Decide whether this update's bonus balls should be moved by the ParallelBallMover, creating
+     * it the first time it's needed.
+     */
+    private boolean shouldMoveBonusBallsInParallel() {
+        if (mBonusBalls.size() < mParallelBallUpdateThreshold
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+
+        if (mParallelBallMover == null) {
+            mParallelBallMover = new ParallelBallMover();
+        }
+        return mParallelBallMover.getParallelism() > 1;
+    }
+
     private void addBonusBalls() {
         for (int color : BONUS_BALL_COLORS) {
-            mBonusBalls.add(new PongBall(mGameBoardWidth, mGameBoardHeight,
-                    mGameBoardHorizontalMargin,
-                    BONUS_BALL_RADIUS_AS_PERCENT_OF_GAME_BOARD_WIDTH * mGameBoardWidth,
-                    BONUS_BALL_SPEED_AS_PERCENT_OF_GAME_BOARD_WIDTH_PER_SECOND *
-                            mGameBoardWidth / 1000f,
-                    color));
+            GameObjects.Ball ball = getNewBonusBall(color);
+            mBonusBalls.add(ball);
+            scheduleThreat(ball, false);
         }
         mNeedToAddBonusBalls = false;
     }
 
-    private void moveComputerControlledPaddle(GameObjects.Paddle paddle, int paddlePosition,
-                                              long millisSinceLastUpdate) {
+    /**
+     * Add bonus balls at a steady rate until the chaos mode target is reached. Also replaces
+     * bonus balls that were removed after scoring, so the ball count stays at the target.
+     */
+    private void addChaosModeBonusBalls(long millisSinceLastUpdate) {
+
+        int missing = mChaosModeTargetBallCount - mBonusBalls.size();
+        if (missing <= 0) {
+            mChaosModeBallsOwed = 0f;
+            return;
+        }
+
+        mChaosModeBallsOwed += CHAOS_MODE_BONUS_BALLS_ADDED_PER_SECOND *
+                millisSinceLastUpdate / 1000f;
+        int ballsToAdd = Math.min(missing, (int) mChaosModeBallsOwed);
+        if (ballsToAdd <= 0) {
+            return;
+        }
+        mChaosModeBallsOwed -= ballsToAdd;
+
+        // Add them all at once; each add to a CopyOnWriteArrayList copies the whole list.
+        for (int i = 0; i < ballsToAdd; i++) {
+            GameObjects.Ball ball = getNewBonusBall(BONUS_BALL_COLORS[mNextBonusBallColorIndex]);
+            mPendingBonusBalls.add(ball);
+            scheduleThreat(ball, false);
+            mNextBonusBallColorIndex = (mNextBonusBallColorIndex + 1) % BONUS_BALL_COLORS.length;
+        }
+        mBonusBalls.addAll(mPendingBonusBalls);
+        mPendingBonusBalls.clear();
+    }
+
+    /**
+     * Take the bonus balls that scored this update out of play. Removing them one at a time would
+     * copy the whole CopyOnWriteArrayList for each, so they're removed in a single pass instead.
+     */
+    private void removeScoredBonusBalls() {
+        if (mScoredBonusBalls.isEmpty()) {
+            return;
+        }
+        mBonusBalls.removeAll(mScoredBonusBalls);
+        for (GameObjects.Ball ball : mScoredBonusBalls) {
+            recycleBall(ball);
+        }
+        mScoredBonusBalls.clear();
+    }
 
-        float closestBallX = mNormalBall.getCenterX();
-        float closestBallY = mNormalBall.getCenterY();
+    /**
+     * Keep a bonus ball that's left play, for restoreSnapshot() to reuse.
+     */
+    private void recycleBall(GameObjects.Ball ball) {
+        if (mSpareBalls.size() < MAX_SPARE_BALLS) {
+            mSpareBalls.add(ball);
+        }
+    }
 
-        for (GameObjects.Ball ball : mBonusBalls) {
-            if (paddlePosition == LEFT_PADDLE && mNormalBall.getDirection() > 0) {
-                if (ball.getCenterX() < closestBallX) {
-                    closestBallX = ball.getCenterX();
-                    closestBallY = ball.getCenterY();
+    private GameObjects.Ball getNewBonusBall(int color) {
+        return new PongBall(BOARD_WIDTH, BOARD_HEIGHT,
+                BONUS_BALL_RADIUS_AS_PERCENT_OF_GAME_BOARD_WIDTH * BOARD_WIDTH,
+                BONUS_BALL_SPEED_AS_PERCENT_OF_GAME_BOARD_WIDTH_PER_SECOND *
+                        BOARD_WIDTH / 1000f,
+                color, mRandom);
+    }
+
+    private void setLineColor(GameObjects.VerticalLine line, int color) {
+        if (line.setColor(color)) {
+            mStaticLayerVersion = sStaticLayerVersions.incrementAndGet();
+        }
+    }
+
+    private static void addScore(RenderCommandBuffer buffer, GameEngine.ScoreToRender score) {
+        buffer.addText(score.getScoreText(), score.getX(), score.getTopY() + score.getTextSize(),
+                score.getTextSize(), score.getColor(), score.isRightAligned() ?
+                        RenderCommandBuffer.ALIGN_RIGHT : RenderCommandBuffer.ALIGN_LEFT);
+    }
+
+    private static void addVerticalLine(RenderCommandBuffer buffer,
+                                        GameEngine.VerticalLineToRender line) {
+        buffer.addVerticalLine(line.getX(), line.getTopY(), line.getBottomY(), line.getColor(),
+                line.isDashed());
+    }
+
+    private void addBall(RenderCommandBuffer buffer, GameObjects.Ball ball, float alpha) {
+        float centerX = ball.getInterpolatedCenterX(alpha);
+        float centerY = ball.getInterpolatedCenterY(alpha);
+        float radius = ball.getRadius();
+        buffer.addCircle(centerX, centerY, radius, ball.getColor());
+        addDrawnBounds(centerX - radius, centerY - radius, centerX + radius, centerY + radius);
+    }
+
+    /**
+     * Add the bonus balls in one circle batch per color, so the renderer can draw hundreds of
+     * them in a few calls. They all share a radius. Any ball in some other color is added on its
+     * own.
+     */
+    private void addBonusBallBatches(RenderCommandBuffer buffer, float alpha) {
+        if (mBonusBalls.isEmpty()) {
+            return;
+        }
+
+        float radius = mBonusBalls.get(0).getRadius();
+        for (int color : BONUS_BALL_COLORS) {
+            buffer.beginCircleBatch(radius, color);
+            for (int i = 0; i < mBonusBalls.size(); i++) {
+                GameObjects.Ball ball = mBonusBalls.get(i);
+                if (ball.getColor() == color && ball.getRadius() == radius) {
+                    float centerX = ball.getInterpolatedCenterX(alpha);
+                    float centerY = ball.getInterpolatedCenterY(alpha);
+                    buffer.addCircleToBatch(centerX, centerY);
+                    addDrawnBounds(centerX - radius, centerY - radius, centerX + radius,
+                            centerY + radius);
                 }
             }
-            else if (paddlePosition == RIGHT_PADDLE && mNormalBall.getDirection() < 0) {
-                if (ball.getCenterX() > closestBallX) {
-                    closestBallX = ball.getCenterX();
-                    closestBallY = ball.getCenterY();
+            buffer.endCircleBatch();
+        }
+
+        for (int i = 0; i < mBonusBalls.size(); i++) {
+            GameObjects.Ball ball = mBonusBalls.get(i);
+            if (!isBatchedBonusBall(ball, radius)) {
+                addBall(buffer, ball, alpha);
+            }
+        }
+    }
+
+    private static boolean isBatchedBonusBall(GameObjects.Ball ball, float radius) {
+        if (ball.getRadius() != radius) {
+            return false;
+        }
+        for (int color : BONUS_BALL_COLORS) {
+            if (ball.getColor() == color) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addPaddle(RenderCommandBuffer buffer, GameObjects.Paddle paddle, float alpha) {
+        float topY = paddle.getInterpolatedTopY(alpha);
+        float leftX = paddle.getLeftX(), rightX = paddle.getRightX();
+        float bottomY = topY + (paddle.getBottomY() - paddle.getTopY());
+        buffer.addRect(leftX, topY, rightX, bottomY, paddle.getColor());
+        addDrawnBounds(leftX, topY, rightX, bottomY);
+    }
+
+    /**
+     * Remember where every ball and paddle is before they move, so frames can be drawn between
+     * this update and the next. Balls added during the update start out with no motion to blend.
+     */
+    private void savePreviousPositions() {
+        mNormalBall.savePreviousPosition();
+        for (int i = 0; i < mBonusBalls.size(); i++) {
+            mBonusBalls.get(i).savePreviousPosition();
+        }
+        mLeftPaddle.savePreviousPosition();
+        mRightPaddle.savePreviousPosition();
+    }
+
+    private void addDrawnBounds(float leftX, float topY, float rightX, float bottomY) {
+        if (mDrawnBoundsCount + 4 > mDrawnBounds.length) {
+            mDrawnBounds = Arrays.copyOf(mDrawnBounds, mDrawnBounds.length * 2);
+        }
+        mDrawnBounds[mDrawnBoundsCount++] = leftX;
+        mDrawnBounds[mDrawnBoundsCount++] = topY;
+        mDrawnBounds[mDrawnBoundsCount++] = rightX;
+        mDrawnBounds[mDrawnBoundsCount++] = bottomY;
+    }
+
+    /**
+     * Report the part of the frame that changed since the last one: the old and new bounds of
+     * every ball and paddle that moved. Objects are matched up by their order in the frame. If the
+     * static layer changed, or balls came or went, the whole frame is marked dirty instead.
+     * Scores aren't tracked, since they only change when a point is scored, which also starts a
+     * new static layer.
+     *
+     * A Surface can only lock one rect, so the region is one box around everything that moved.
+     * When things far apart move at once, e.g. both paddles, it can cover most of the board, and
+     * then the whole frame is marked dirty instead, since a partial redraw would save little.
+     */
+    private void addDirtyRegion(RenderCommandBuffer buffer) {
+        if (mStaticLayerVersion != mLastDrawnStaticLayerVersion ||
+                mDrawnBoundsCount != mLastDrawnBoundsCount) {
+            buffer.markAllDirty();
+        }
+        else {
+            for (int i = 0; i < mDrawnBoundsCount; i += 4) {
+                if (mDrawnBounds[i] != mLastDrawnBounds[i] ||
+                        mDrawnBounds[i + 1] != mLastDrawnBounds[i + 1] ||
+                        mDrawnBounds[i + 2] != mLastDrawnBounds[i + 2] ||
+                        mDrawnBounds[i + 3] != mLastDrawnBounds[i + 3]) {
+                    buffer.addDirtyRect(mLastDrawnBounds[i], mLastDrawnBounds[i + 1],
+                            mLastDrawnBounds[i + 2], mLastDrawnBounds[i + 3]);
+                    buffer.addDirtyRect(mDrawnBounds[i], mDrawnBounds[i + 1],
+                            mDrawnBounds[i + 2], mDrawnBounds[i + 3]);
                 }
             }
+            if (buffer.hasDirtyRegion() &&
+                    (buffer.getDirtyRight() - buffer.getDirtyLeft()) *
+                            (buffer.getDirtyBottom() - buffer.getDirtyTop()) >
+                            MAX_DIRTY_FRACTION_OF_BOARD * BOARD_WIDTH * BOARD_HEIGHT) {
+                buffer.markAllDirty();
+            }
         }
-        paddle.move(closestBallY - paddle.getCenterY(), mGameBoardHeight,
+
+        // This frame's bounds become the last frame's, reusing the old array.
+        float[] swap = mLastDrawnBounds;
+        mLastDrawnBounds = mDrawnBounds;
+        mDrawnBounds = swap;
+        mLastDrawnBoundsCount = mDrawnBoundsCount;
+        mLastDrawnStaticLayerVersion = mStaticLayerVersion;
+    }
+
+    /**
+     * Ask the controller how far to move the paddle, and move it. The paddle's maximum speed and
+     * the game board's edges still apply.
+     */
+    private void moveControlledPaddle(int paddlePosition,
+                                      GameObjects.PaddleController controller,
+                                      long millisSinceLastUpdate) {
+        if (controller == null) {
+            mRequestedPaddleDeltaY[paddlePosition] = 0f;
+            return;
+        }
+
+        float deltaY = controller.getPaddleDeltaY(mSceneView, paddlePosition,
                 millisSinceLastUpdate);
+        mRequestedPaddleDeltaY[paddlePosition] = deltaY;
+        getPaddle(paddlePosition).move(deltaY, BOARD_HEIGHT, millisSinceLastUpdate);
+    }
+
+    private GameObjects.Paddle getPaddle(int paddlePosition) {
+        return (paddlePosition == LEFT_PADDLE) ? mLeftPaddle : mRightPaddle;
+    }
+
+    private ThreatScheduler getThreatScheduler(int paddlePosition) {
+        return (paddlePosition == LEFT_PADDLE) ? mLeftThreatScheduler : mRightThreatScheduler;
+    }
+
+    private GameObjects.Ball getBall(int index) {
+        return (index == 0) ? mNormalBall : mBonusBalls.get(index - 1);
+    }
+
+
+    // ================================== Helper classes =========================================
+
+    /**
+     * Read-only access to the scene for paddle controllers. Reads straight through to the scene's
+     * objects, so one instance serves every update without allocating.
+     */
+    private class PongSceneView implements GameObjects.SceneView {
+
+        @Override
+        public float getGameBoardHeight() {
+            return BOARD_HEIGHT;
+        }
+
+        @Override
+        public long getSimulationTimeInMillis() {
+            return mSimulationTimeInMillis;
+        }
+
+        @Override
+        public int getDifficulty() {
+            return mDifficulty;
+        }
+
+        @Override
+        public int getBallCount() {
+            return PongScene.this.getBallCount();
+        }
+
+        @Override
+        public float getBallCenterX(int ball) {
+            return getBall(ball).getCenterX();
+        }
+
+        @Override
+        public float getBallCenterY(int ball) {
+            return getBall(ball).getCenterY();
+        }
+
+        @Override
+        public float getBallRadius(int ball) {
+            return getBall(ball).getRadius();
+        }
+
+        @Override
+        public float getBallVelocityX(int ball) {
+            return getBall(ball).getVelocityX();
+        }
+
+        @Override
+        public float getBallVelocityY(int ball) {
+            return getBall(ball).getVelocityY();
+        }
+
+        @Override
+        public float getPaddleCenterY(int paddle) {
+            return getPaddle(paddle).getCenterY();
+        }
+
+        @Override
+        public float getPaddleHalfHeight(int paddle) {
+            GameObjects.Paddle p = getPaddle(paddle);
+            return (p.getBottomY() - p.getTopY()) / 2f;
+        }
+
+        @Override
+        public float getPaddleMaxSpeedInUnitsPerMs(int paddle) {
+            return getPaddle(paddle).getMaxSpeedInUnitsPerMs();
+        }
+
+        @Override
+        public boolean hasIncomingBall(int paddle) {
+            return getThreatScheduler(paddle).hasTarget();
+        }
+
+        @Override
+        public float getIncomingBallArrivalY(int paddle) {
+            return getThreatScheduler(paddle).getTargetArrivalY();
+        }
+
+        @Override
+        public float getIncomingBallCurrentY(int paddle) {
+            return getThreatScheduler(paddle).getTargetCurrentY();
+        }
+
+        @Override
+        public float getIncomingBallMillisToArrival(int paddle) {
+            return getThreatScheduler(paddle).getTargetMillisToArrival();
+        }
     }
 }
@@ -10,6 +10,10 @@ import android.os.Parcel;
 public class PongScore implements GameObjects.Score {
 
     private int mScore, mColor;
+
+    // The score is drawn every frame but rarely changes, so keep its text instead of building a
+    // new String each frame.
+    private String mScoreText = "0";
     private float mX, mTopY, mTextSize;
     private boolean mRightAligned;
 
@@ -27,21 +31,28 @@ public class PongScore implements GameObjects.Score {
     @Override
     public void increaseScore(final int pointsToAddToScore) {
         mScore += pointsToAddToScore;
+        mScoreText = String.valueOf(mScore);
     }
 
     @Override
     public void setScore(int score) {
         if (score >= 0) {
             mScore = score;
+            mScoreText = String.valueOf(mScore);
         }
     }
 
+    @Override
+    public int getScore() {
+        return mScore;
+    }
+
 
     // ============================== GameEngine.ScoreToRender methods ============================
 
     @Override
     public String getScoreText() {
-        return "" + mScore;
+        return mScoreText;
     }
 
     @Override
@@ -74,6 +85,7 @@ public class PongScore implements GameObjects.Score {
 
     protected PongScore(Parcel in) {
         mScore = in.readInt();
+        mScoreText = String.valueOf(mScore);
         mColor = in.readInt();
         mX = in.readFloat();
         mTopY = in.readFloat();
@@ -0,0 +1,138 @@
+package com.charlesdrews.pongish.game.objects;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Everything a PongScene update can change, copied out of the scene so it can be put back later,
+ * e.g. to roll back and replay updates in a networked game. Saving into the same snapshot again
+ * reuses its arrays, so once they've grown to fit, saving and restoring don't allocate.
+ *
+ * Line colors, which only flash when a point is scored, aren't included.
+ *
+ * A snapshot can also be written out as bytes and read back in another process, e.g. to move a
+ * match between servers. Byte layout, big-endian: simulation time (long), ball count, left and
+ * right scores, consecutive paddle hits (ints), need to add bonus balls (byte), chaos mode balls
+ * owed (float), next bonus ball color index (int), then the paddles' and balls' states (doubles).
+ */
+public class SceneSnapshot {
+
+    // ================================= Member variables =======================================
+
+    // Package-private, since only PongScene fills these in and reads them back.
+    double[] mPaddleStates = new double[2 * GameObjects.Paddle.STATE_SIZE];
+    double[] mBallStates = new double[GameObjects.Ball.STATE_SIZE];
+    int mBallCount;
+    int mLeftScore, mRightScore;
+    int mConsecutivePaddleHits;
+    boolean mNeedToAddBonusBalls;
+    float mChaosModeBallsOwed;
+    int mNextBonusBallColorIndex;
+    long mSimulationTimeInMillis;
+
+
+    // ===================================== Constants ==========================================
+
+    private static final int HEADER_BYTES = 8 + 4 * 4 + 1 + 4 + 4;
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * @return the simulation time the snapshot was taken at.
+     */
+    public long getSimulationTimeInMillis() {
+        return mSimulationTimeInMillis;
+    }
+
+    /**
+     * @return a hash of the snapshot, to compare with another scene's, e.g. to check that two
+     *         networked games are still in step. Equal scenes always give equal checksums.
+     */
+    public long checksum() {
+        long hash = mSimulationTimeInMillis;
+        hash = 31 * hash + mBallCount;
+        hash = 31 * hash + mLeftScore;
+        hash = 31 * hash + mRightScore;
+        hash = 31 * hash + mConsecutivePaddleHits;
+        hash = 31 * hash + (mNeedToAddBonusBalls ? 1 : 0);
+        hash = 31 * hash + Float.floatToIntBits(mChaosModeBallsOwed);
+        hash = 31 * hash + mNextBonusBallColorIndex;
+        for (int i = 0; i < mPaddleStates.length; i++) {
+            hash = 31 * hash + Double.doubleToLongBits(mPaddleStates[i]);
+        }
+        for (int i = 0; i < mBallCount * GameObjects.Ball.STATE_SIZE; i++) {
+            hash = 31 * hash + Double.doubleToLongBits(mBallStates[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * @return the number of bytes write() will take.
+     */
+    public int getSerializedBytes() {
+        return HEADER_BYTES +
+                8 * (mPaddleStates.length + mBallCount * GameObjects.Ball.STATE_SIZE);
+    }
+
+    /**
+     * Write the snapshot out, from the buffer's position.
+     *
+     * @param buffer must have getSerializedBytes() remaining.
+     */
+    public void write(@NonNull final ByteBuffer buffer) {
+        buffer.putLong(mSimulationTimeInMillis);
+        buffer.putInt(mBallCount);
+        buffer.putInt(mLeftScore);
+        buffer.putInt(mRightScore);
+        buffer.putInt(mConsecutivePaddleHits);
+        buffer.put((byte) (mNeedToAddBonusBalls ? 1 : 0));
+        buffer.putFloat(mChaosModeBallsOwed);
+        buffer.putInt(mNextBonusBallColorIndex);
+        for (int i = 0; i < mPaddleStates.length; i++) {
+            buffer.putDouble(mPaddleStates[i]);
+        }
+        for (int i = 0; i < mBallCount * GameObjects.Ball.STATE_SIZE; i++) {
+            buffer.putDouble(mBallStates[i]);
+        }
+    }
+
+    /**
+     * Read a snapshot written by write() into this one, reusing its arrays where they fit.
+     *
+     * @param buffer holds the snapshot from its position, which is moved past it.
+     * @throws IllegalArgumentException if the buffer doesn't hold a whole, valid snapshot.
+     */
+    public void read(@NonNull final ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES) {
+            throw new IllegalArgumentException("Snapshot truncated");
+        }
+        int start = buffer.position();
+        long simulationTimeInMillis = buffer.getLong();
+        int ballCount = buffer.getInt();
+        long bytes = HEADER_BYTES +
+                8L * (mPaddleStates.length + (long) ballCount * GameObjects.Ball.STATE_SIZE);
+        if (ballCount < 1 || buffer.limit() - start < bytes) {
+            throw new IllegalArgumentException("Snapshot truncated or corrupt");
+        }
+
+        mSimulationTimeInMillis = simulationTimeInMillis;
+        mBallCount = ballCount;
+        mLeftScore = buffer.getInt();
+        mRightScore = buffer.getInt();
+        mConsecutivePaddleHits = buffer.getInt();
+        mNeedToAddBonusBalls = buffer.get() != 0;
+        mChaosModeBallsOwed = buffer.getFloat();
+        mNextBonusBallColorIndex = buffer.getInt();
+        for (int i = 0; i < mPaddleStates.length; i++) {
+            mPaddleStates[i] = buffer.getDouble();
+        }
+        if (mBallStates.length < ballCount * GameObjects.Ball.STATE_SIZE) {
+            mBallStates = new double[ballCount * GameObjects.Ball.STATE_SIZE];
+        }
+        for (int i = 0; i < ballCount * GameObjects.Ball.STATE_SIZE; i++) {
+            mBallStates[i] = buffer.getDouble();
+        }
+    }
+}
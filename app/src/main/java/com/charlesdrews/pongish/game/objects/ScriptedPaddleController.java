@@ -0,0 +1,99 @@
+package com.charlesdrews.pongish.game.objects;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Plays back a scripted path for a paddle, e.g. for demos, attract mode, or repeatable tests. The
+ * script is a list of keyframes, each a time since the start of the point and a paddle center y
+ * as a fraction of the game board height, so one script works on any screen size. Between
+ * keyframes the paddle moves linearly; after the last one it holds still, or starts over if the
+ * script loops.
+ */
+public class ScriptedPaddleController implements GameObjects.PaddleController {
+
+    // ================================= Member variables =======================================
+
+    private final long[] mKeyframeTimesInMillis;
+    private final float[] mKeyframeCenterYs;
+    private final boolean mLoop;
+
+    private long mStartTimeInMillis = -1L;
+    private int mKeyframe = 0;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param keyframeTimesInMillis are the keyframe times since the start of the point, in
+     *                              increasing order. The first should be 0.
+     * @param keyframeCenterYs are the paddle center y at each keyframe, from 0.0 (top of the
+     *                         board) to 1.0 (bottom).
+     * @param loop indicates whether to start over after the last keyframe.
+     */
+    public ScriptedPaddleController(@NonNull final long[] keyframeTimesInMillis,
+                                    @NonNull final float[] keyframeCenterYs,
+                                    final boolean loop) {
+
+        if (keyframeTimesInMillis.length == 0 ||
+                keyframeTimesInMillis.length != keyframeCenterYs.length) {
+            throw new IllegalArgumentException("Need the same number of keyframe times and " +
+                    "positions, and at least one of each");
+        }
+        for (int i = 1; i < keyframeTimesInMillis.length; i++) {
+            if (keyframeTimesInMillis[i] <= keyframeTimesInMillis[i - 1]) {
+                throw new IllegalArgumentException("Keyframe times must be increasing");
+            }
+        }
+
+        mKeyframeTimesInMillis = keyframeTimesInMillis.clone();
+        mKeyframeCenterYs = keyframeCenterYs.clone();
+        mLoop = loop;
+    }
+
+
+    // ======================== GameObjects.PaddleController methods ============================
+
+    @Override
+    public float getPaddleDeltaY(@NonNull GameObjects.SceneView sceneView, int paddle,
+                                 long millisSinceLastUpdate) {
+
+        long now = sceneView.getSimulationTimeInMillis();
+        if (mStartTimeInMillis < 0L) {
+            mStartTimeInMillis = now;
+        }
+
+        long elapsed = now - mStartTimeInMillis;
+        long duration = mKeyframeTimesInMillis[mKeyframeTimesInMillis.length - 1];
+        if (mLoop && duration > 0L && elapsed >= duration) {
+            mStartTimeInMillis += elapsed - elapsed % duration;
+            elapsed %= duration;
+            mKeyframe = 0;
+        }
+
+        // Time only moves forward, so within a pass the current keyframe only ever advances.
+        int last = mKeyframeTimesInMillis.length - 1;
+        while (mKeyframe < last && mKeyframeTimesInMillis[mKeyframe + 1] <= elapsed) {
+            mKeyframe++;
+        }
+
+        float fraction;
+        if (mKeyframe == last || elapsed <= mKeyframeTimesInMillis[mKeyframe]) {
+            fraction = mKeyframeCenterYs[mKeyframe];
+        }
+        else {
+            long from = mKeyframeTimesInMillis[mKeyframe];
+            long to = mKeyframeTimesInMillis[mKeyframe + 1];
+            float progress = (float) (elapsed - from) / (to - from);
+            fraction = mKeyframeCenterYs[mKeyframe] +
+                    (mKeyframeCenterYs[mKeyframe + 1] - mKeyframeCenterYs[mKeyframe]) * progress;
+        }
+
+        return fraction * sceneView.getGameBoardHeight() - sceneView.getPaddleCenterY(paddle);
+    }
+
+    @Override
+    public void reset() {
+        mStartTimeInMillis = -1L;
+        mKeyframe = 0;
+    }
+}
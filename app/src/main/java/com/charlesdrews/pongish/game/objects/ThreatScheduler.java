@@ -0,0 +1,322 @@
+package com.charlesdrews.pongish.game.objects;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the balls heading toward one paddle, in a min-heap keyed by the simulation time
+ * at which each ball will reach the paddle. The scene schedules a ball when it's added or when its
+ * horizontal velocity changes (i.e. a paddle hit), so the work is O(log n) per event instead of
+ * O(n) per tick.
+ *
+ * Entries are never updated in place. A ball that changes direction is simply scheduled again,
+ * and its old entry is recognized as stale because its recorded x velocity no longer matches the
+ * ball's. Stale and expired entries are discarded when they reach the top of the heap.
+ */
+public class ThreatScheduler {
+
+    // ===================================== Constants ==========================================
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    // How many of the soonest threats to consider when choosing a target.
+    private static final int MAX_CANDIDATES = 8;
+
+    // Count the ball as reachable if it will arrive within this fraction of the paddle's half
+    // height from the paddle's center.
+    private static final float REACH_AS_PERCENT_OF_PADDLE_HALF_HEIGHT = 0.8f;
+
+
+    // ================================= Member variables =======================================
+
+    private final GameObjects.Paddle mPaddle;
+    private final int mPaddlePosition;
+
+    // Parallel arrays making up the heap.
+    private GameObjects.Ball[] mBalls = new GameObjects.Ball[INITIAL_CAPACITY];
+    private double[] mArrivalTimes = new double[INITIAL_CAPACITY];
+    private float[] mVelocitiesX = new float[INITIAL_CAPACITY];
+    private int[] mPoints = new int[INITIAL_CAPACITY];
+    private int mSize = 0;
+
+    // Scratch space for walking the soonest candidates without popping them.
+    private final int[] mFrontier = new int[MAX_CANDIDATES * 2 + 1];
+
+    // Details of the most recently selected target.
+    private boolean mHasTarget = false;
+    private float mTargetArrivalY, mTargetCurrentY, mTargetMillisToArrival;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param paddle is the paddle whose incoming balls will be tracked.
+     * @param paddlePosition must be GameObjects.Scene.LEFT_PADDLE or
+     *                       GameObjects.Scene.RIGHT_PADDLE.
+     */
+    public ThreatScheduler(GameObjects.Paddle paddle, int paddlePosition) {
+        if (paddlePosition != GameObjects.Scene.LEFT_PADDLE &&
+                paddlePosition != GameObjects.Scene.RIGHT_PADDLE) {
+            throw new IllegalArgumentException("paddlePosition must be either" +
+                    "GameObjects.Scene.LEFT_PADDLE or GameObjects.Scene.RIGHT_PADDLE");
+        }
+        mPaddle = paddle;
+        mPaddlePosition = paddlePosition;
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Add the ball to the heap if it's heading toward this paddle. Call whenever a ball is added
+     * to the scene or its horizontal velocity changes. Wall bounces don't change when a ball
+     * arrives, so they don't need to be scheduled.
+     *
+     * @param ball is the ball that was added or changed direction.
+     * @param points is the number of points the ball is worth.
+     * @param simulationTimeInMillis is the scene's current simulation time.
+     */
+    public void schedule(GameObjects.Ball ball, int points, double simulationTimeInMillis) {
+        float velocityX = ball.getVelocityX();
+        if (!isIncoming(velocityX)) {
+            return;
+        }
+
+        double millisToArrival = (getPaddleFaceX(ball) - ball.getCenterX()) / velocityX;
+        if (millisToArrival < 0) {
+            return;
+        }
+
+        if (mSize == mBalls.length) {
+            grow();
+        }
+
+        int index = mSize++;
+        mBalls[index] = ball;
+        mArrivalTimes[index] = simulationTimeInMillis + millisToArrival;
+        mVelocitiesX[index] = velocityX;
+        mPoints[index] = points;
+        siftUp(index);
+    }
+
+    /**
+     * Remove all entries, e.g. when the scene is reset.
+     */
+    public void clear() {
+        Arrays.fill(mBalls, 0, mSize, null);
+        mSize = 0;
+        mHasTarget = false;
+    }
+
+    /**
+     * Choose which ball the paddle should go for. Among the soonest incoming balls, prefer those
+     * the paddle can still reach at its maximum speed, then those worth more points, then those
+     * arriving sooner. If none are reachable, go for the soonest anyway. Details of the chosen
+     * ball are then available from the getTarget___() methods.
+     *
+     * @param simulationTimeInMillis is the scene's current simulation time.
+     * @param gameBoardHeight is the maximum allowable y value for the game/scene.
+     * @return true if a target was chosen, or false if nothing is incoming.
+     */
+    public boolean selectTarget(double simulationTimeInMillis, float gameBoardHeight) {
+
+        // Discard stale or expired entries from the top, so the root is a live threat.
+        while (mSize > 0 && !isLive(0, simulationTimeInMillis)) {
+            removeRoot();
+        }
+        if (mSize == 0) {
+            mHasTarget = false;
+            return false;
+        }
+
+        float paddleCenterY = mPaddle.getCenterY();
+        float reach = REACH_AS_PERCENT_OF_PADDLE_HALF_HEIGHT *
+                (mPaddle.getBottomY() - mPaddle.getTopY()) / 2f;
+        float maxSpeed = mPaddle.getMaxSpeedInUnitsPerMs();
+
+        int soonestIndex = -1;
+        int bestIndex = -1;
+        float soonestArrivalY = 0f, bestArrivalY = 0f;
+
+        // Visit the soonest entries in order by walking down from the root, always expanding the
+        // earliest index on the frontier. Stale entries are skipped but their children are not.
+        int frontierSize = 0;
+        mFrontier[frontierSize++] = 0;
+        int visited = 0;
+
+        while (frontierSize > 0 && visited < MAX_CANDIDATES) {
+            int soonestSlot = 0;
+            for (int i = 1; i < frontierSize; i++) {
+                if (mArrivalTimes[mFrontier[i]] < mArrivalTimes[mFrontier[soonestSlot]]) {
+                    soonestSlot = i;
+                }
+            }
+            int index = mFrontier[soonestSlot];
+            mFrontier[soonestSlot] = mFrontier[--frontierSize];
+
+            // Stop expanding once the scratch space is full; that only happens after skipping
+            // many stale entries, and the candidates already on the frontier are enough.
+            int left = 2 * index + 1;
+            if (left < mSize && frontierSize < mFrontier.length) {
+                mFrontier[frontierSize++] = left;
+            }
+            if (left + 1 < mSize && frontierSize < mFrontier.length) {
+                mFrontier[frontierSize++] = left + 1;
+            }
+
+            if (!isLive(index, simulationTimeInMillis)) {
+                continue;
+            }
+            visited++;
+
+            GameObjects.Ball ball = mBalls[index];
+            float arrivalY = ball.getPredictedYAtX(getPaddleFaceX(ball), gameBoardHeight);
+            if (soonestIndex < 0) {
+                soonestIndex = index;
+                soonestArrivalY = arrivalY;
+            }
+
+            float distanceToTravel = Math.abs(arrivalY - paddleCenterY) - reach;
+            double millisLeft = mArrivalTimes[index] - simulationTimeInMillis;
+            boolean reachable = distanceToTravel <= maxSpeed * millisLeft;
+
+            if (reachable && (bestIndex < 0 || mPoints[index] > mPoints[bestIndex])) {
+                bestIndex = index;
+                bestArrivalY = arrivalY;
+            }
+        }
+
+        if (bestIndex < 0) {
+            bestIndex = soonestIndex;
+            bestArrivalY = soonestArrivalY;
+        }
+
+        mTargetArrivalY = bestArrivalY;
+        mTargetCurrentY = mBalls[bestIndex].getCenterY();
+        mTargetMillisToArrival = (float) (mArrivalTimes[bestIndex] - simulationTimeInMillis);
+        mHasTarget = true;
+        return true;
+    }
+
+    /**
+     * @return the result of the last call to selectTarget().
+     */
+    public boolean hasTarget() {
+        return mHasTarget;
+    }
+
+    /**
+     * @return the predicted y at which the last selected target will reach the paddle.
+     */
+    public float getTargetArrivalY() {
+        return mTargetArrivalY;
+    }
+
+    /**
+     * @return the y of the last selected target at the time it was selected.
+     */
+    public float getTargetCurrentY() {
+        return mTargetCurrentY;
+    }
+
+    /**
+     * @return how long until the last selected target reaches the paddle.
+     */
+    public float getTargetMillisToArrival() {
+        return mTargetMillisToArrival;
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private boolean isIncoming(float velocityX) {
+        return (mPaddlePosition == GameObjects.Scene.LEFT_PADDLE) ? velocityX < 0 : velocityX > 0;
+    }
+
+    /**
+     * The x coordinate of the ball's center at the moment it touches the paddle.
+     */
+    private float getPaddleFaceX(GameObjects.Ball ball) {
+        if (mPaddlePosition == GameObjects.Scene.LEFT_PADDLE) {
+            return mPaddle.getRightX() + ball.getRadius();
+        }
+        else {
+            return mPaddle.getLeftX() - ball.getRadius();
+        }
+    }
+
+    private boolean isLive(int index, double simulationTimeInMillis) {
+        return mArrivalTimes[index] >= simulationTimeInMillis &&
+                mBalls[index].getVelocityX() == mVelocitiesX[index];
+    }
+
+    private void removeRoot() {
+        mSize--;
+        if (mSize > 0) {
+            move(mSize, 0);
+            mBalls[mSize] = null;
+            siftDown(0);
+        }
+        else {
+            mBalls[0] = null;
+        }
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (mArrivalTimes[parent] <= mArrivalTimes[index]) {
+                return;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < mSize && mArrivalTimes[left] < mArrivalTimes[smallest]) {
+                smallest = left;
+            }
+            if (right < mSize && mArrivalTimes[right] < mArrivalTimes[smallest]) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(smallest, index);
+            index = smallest;
+        }
+    }
+
+    private void move(int from, int to) {
+        mBalls[to] = mBalls[from];
+        mArrivalTimes[to] = mArrivalTimes[from];
+        mVelocitiesX[to] = mVelocitiesX[from];
+        mPoints[to] = mPoints[from];
+    }
+
+    private void swap(int a, int b) {
+        GameObjects.Ball ball = mBalls[a];
+        double arrivalTime = mArrivalTimes[a];
+        float velocityX = mVelocitiesX[a];
+        int points = mPoints[a];
+
+        move(b, a);
+
+        mBalls[b] = ball;
+        mArrivalTimes[b] = arrivalTime;
+        mVelocitiesX[b] = velocityX;
+        mPoints[b] = points;
+    }
+
+    private void grow() {
+        int capacity = mBalls.length * 2;
+        mBalls = Arrays.copyOf(mBalls, capacity);
+        mArrivalTimes = Arrays.copyOf(mArrivalTimes, capacity);
+        mVelocitiesX = Arrays.copyOf(mVelocitiesX, capacity);
+        mPoints = Arrays.copyOf(mPoints, capacity);
+    }
+}
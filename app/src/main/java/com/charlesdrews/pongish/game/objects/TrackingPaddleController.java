@@ -0,0 +1,28 @@
+package com.charlesdrews.pongish.game.objects;
+
+import android.support.annotation.NonNull;
+
+/**
+ * The cheapest reasonable opponent: follows the current y of the incoming ball, or the middle of
+ * the board if nothing is incoming. Used as the fallback for controllers that run over their
+ * time budget, since it costs a couple of field reads per update.
+ */
+public class TrackingPaddleController implements GameObjects.PaddleController {
+
+    // ======================== GameObjects.PaddleController methods ============================
+
+    @Override
+    public float getPaddleDeltaY(@NonNull GameObjects.SceneView sceneView, int paddle,
+                                 long millisSinceLastUpdate) {
+
+        float targetY = sceneView.hasIncomingBall(paddle) ?
+                sceneView.getIncomingBallCurrentY(paddle) : sceneView.getGameBoardHeight() / 2f;
+
+        return targetY - sceneView.getPaddleCenterY(paddle);
+    }
+
+    @Override
+    public void reset() {
+        // Nothing is carried between updates.
+    }
+}
@@ -0,0 +1,101 @@
+package com.charlesdrews.pongish.game.objects;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Rolls a chaos mode scene back to a snapshot and replays it, the way NetplayScene does, and
+ * checks it ends up exactly where it did the first time. Chaos mode adds and scores bonus balls
+ * all the time, so restoring has to both drop and bring back balls.
+ */
+public class PongSceneRollbackTest {
+
+    // ===================================== Constants ==========================================
+
+    private static final long SEED = 20161018L;
+    private static final long MILLIS_PER_TICK = 16L;
+    private static final int CHAOS_MODE_BALL_COUNT = 200;
+    private static final int WARM_UP_TICKS = 30;
+    private static final int REPLAYED_TICKS = 120;
+
+
+    // ================================= Member variables =======================================
+
+    private PongScene mScene;
+    private int mTick;
+
+
+    // ====================================== Setup =============================================
+
+    @Before
+    public void setUp() {
+        mScene = new PongScene(GameObjects.Scene.NEITHER_PADDLE);
+        mScene.setRandomSeed(SEED);
+        mScene.setChaosModeTargetBallCount(CHAOS_MODE_BALL_COUNT);
+        mTick = 0;
+        runTicks(WARM_UP_TICKS);
+    }
+
+
+    // ====================================== Tests =============================================
+
+    @Test
+    public void replayAfterRestoreReachesTheSameState() {
+        SceneSnapshot start = new SceneSnapshot();
+        mScene.saveSnapshot(start);
+        runTicks(REPLAYED_TICKS);
+        long expected = checksum();
+        int expectedBallCount = mScene.getBallCount();
+
+        mScene.restoreSnapshot(start);
+        mTick = WARM_UP_TICKS;
+        assertEquals(start.checksum(), checksum());
+        runTicks(REPLAYED_TICKS);
+
+        assertTrue("the ball count should change while replaying",
+                expectedBallCount != start.mBallCount);
+        assertEquals(expected, checksum());
+    }
+
+    @Test
+    public void restoreGrowsAndShrinksTheBallList() {
+        SceneSnapshot before = new SceneSnapshot();
+        mScene.saveSnapshot(before);
+        runTicks(REPLAYED_TICKS);
+        SceneSnapshot after = new SceneSnapshot();
+        mScene.saveSnapshot(after);
+
+        // Back and forth, so spare balls are both put aside and reused.
+        for (int i = 0; i < 3; i++) {
+            mScene.restoreSnapshot(before);
+            assertEquals(before.mBallCount, mScene.getBallCount());
+            assertEquals(before.checksum(), checksum());
+
+            mScene.restoreSnapshot(after);
+            assertEquals(after.mBallCount, mScene.getBallCount());
+            assertEquals(after.checksum(), checksum());
+        }
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    /**
+     * Update the scene, reseeding before each update by its number as NetplayScene does.
+     */
+    private void runTicks(final int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            mScene.reseedRandom(SEED + mTick++);
+            mScene.updateGameObjects(MILLIS_PER_TICK);
+        }
+    }
+
+    private long checksum() {
+        SceneSnapshot snapshot = new SceneSnapshot();
+        mScene.saveSnapshot(snapshot);
+        return snapshot.checksum();
+    }
+}
@@ -0,0 +1,213 @@
+package com.charlesdrews.pongish.headless;
+
+import com.charlesdrews.pongish.game.objects.AiPolicyTable;
+import com.charlesdrews.pongish.game.objects.GameObjects;
+import com.charlesdrews.pongish.game.objects.GameTuning;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Offline job that builds the AI policy table for each difficulty level and writes them to the
+ * given directory (normally the app's res/raw).
+ *
+ * Each table is found by dynamic programming over a 1D model of the paddle chasing a ball's
+ * arrival point. Working backwards from the moment of arrival, each time bucket picks the action
+ * minimizing the chance of a miss, plus an effort penalty for moving and an urgency penalty for
+ * staying far from the target, with the arrival point blurred by perception noise. Difficulties
+ * differ in paddle speed, noise, effort and urgency, and how much the paddle follows where the
+ * ball is now instead of where it will arrive.
+ *
+ * Usage: AiPolicyTableGenerator [output directory]
+ */
+public class AiPolicyTableGenerator {
+
+    // ===================================== Constants ==========================================
+
+    private static final long SEED = 20161018L;
+
+    private static final float OFFSET_RANGE_IN_HALF_HEIGHTS = 4f;
+    private static final float MILLIS_PER_TIME_BUCKET = 100f;
+    private static final int ARRIVAL_OFFSET_BUCKETS = 33;
+    private static final int TIME_BUCKETS = 12;
+    private static final int CURRENT_OFFSET_BUCKETS = 9;
+
+    // The model works in paddle half heights; this is the default tuning's, in board units.
+    private static final float REFERENCE_PADDLE_HALF_HEIGHT =
+            GameTuning.DEFAULT.getPaddleHeight() * GameObjects.Scene.BOARD_HEIGHT / 2f;
+
+    // Resolution of the value function, and samples used to blur it with perception noise.
+    private static final int VALUE_GRID_POINTS = 321;
+    private static final int NOISE_SAMPLES = 64;
+    private static final int ACTION_STEP = 10;
+
+    private static final String[] FILE_NAMES = {
+            "ai_policy_easy.bin", "ai_policy_medium.bin", "ai_policy_hard.bin" };
+
+    // A miss also costs a little more the farther away it was, so a paddle that can't make it
+    // still heads for the ball instead of giving up.
+    private static final float MISS_DISTANCE_PENALTY = 0.1f;
+
+    // Per difficulty: max speed (board heights per second), collision jitter, perception noise
+    // (half heights), tracking weight (0 = aim for the predicted arrival, 1 = follow the ball's
+    // current y), effort penalty per full-speed bucket, and urgency penalty per half height per
+    // bucket.
+    private static final float[][] DIFFICULTY_PARAMETERS = {
+            { 0.42f, 0.45f, 0.80f, 0.70f, 0.020f, 0.002f },
+            { 0.69f, 0.30f, 0.35f, 0.25f, 0.008f, 0.010f },
+            { 0.93f, 0.15f, 0.10f, 0.00f, 0.002f, 0.030f },
+    };
+
+
+    // ==================================== Main method =========================================
+
+    public static void main(String[] args) throws IOException {
+        File outputDirectory = new File(args.length > 0 ? args[0] : ".");
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + outputDirectory);
+        }
+
+        int[] difficulties = { GameObjects.Scene.DIFFICULTY_EASY,
+                GameObjects.Scene.DIFFICULTY_MEDIUM, GameObjects.Scene.DIFFICULTY_HARD };
+
+        for (int difficulty : difficulties) {
+            AiPolicyTable table = generate(DIFFICULTY_PARAMETERS[difficulty]);
+
+            File file = new File(outputDirectory, FILE_NAMES[difficulty]);
+            OutputStream out = new FileOutputStream(file);
+            try {
+                table.write(out);
+            }
+            finally {
+                out.close();
+            }
+            System.out.println("Wrote " + file + " (" + file.length() + " bytes)");
+        }
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private static AiPolicyTable generate(float[] parameters) {
+        float maxSpeed = parameters[0] / 1_000f;
+        float collisionJitter = parameters[1];
+        float noise = parameters[2];
+        float trackingWeight = parameters[3];
+        float effortPenalty = parameters[4];
+        float urgencyPenalty = parameters[5];
+
+        // How far the paddle moves in one time bucket at full speed, in half heights.
+        float fullSpeedStep = maxSpeed * MILLIS_PER_TIME_BUCKET / REFERENCE_PADDLE_HALF_HEIGHT;
+
+        float[] noiseSamples = new float[NOISE_SAMPLES];
+        Random random = new Random(SEED);
+        for (int i = 0; i < NOISE_SAMPLES; i++) {
+            noiseSamples[i] = (float) random.nextGaussian() * noise;
+        }
+
+        // value[i] is the expected cost from grid offset i with the time left so far. Start at
+        // the moment of arrival: a miss if the ball is outside the paddle.
+        float[] value = new float[VALUE_GRID_POINTS];
+        for (int i = 0; i < VALUE_GRID_POINTS; i++) {
+            float distance = Math.abs(gridOffset(i));
+            value[i] = distance > 1f ?
+                    1f + MISS_DISTANCE_PENALTY * distance / OFFSET_RANGE_IN_HALF_HEIGHTS : 0f;
+        }
+
+        // bestActions[t][i] is the best action with t+1 buckets left, at grid offset i.
+        int[][] bestActions = new int[TIME_BUCKETS][VALUE_GRID_POINTS];
+
+        for (int t = 0; t < TIME_BUCKETS; t++) {
+            float[] nextValue = new float[VALUE_GRID_POINTS];
+
+            for (int i = 0; i < VALUE_GRID_POINTS; i++) {
+                float offset = gridOffset(i);
+                float bestCost = Float.MAX_VALUE;
+                int bestAction = 0;
+
+                for (int action = -AiPolicyTable.MAX_ACTION; action <= AiPolicyTable.MAX_ACTION;
+                     action += ACTION_STEP) {
+
+                    // Moving down (positive) brings a ball arriving below closer to center.
+                    float moved = offset - fullSpeedStep * action / AiPolicyTable.MAX_ACTION;
+
+                    float cost = effortPenalty * Math.abs(action) / AiPolicyTable.MAX_ACTION +
+                            urgencyPenalty * Math.abs(moved);
+                    for (float sample : noiseSamples) {
+                        cost += interpolate(value, moved + sample) / NOISE_SAMPLES;
+                    }
+
+                    // Prefer the smaller action on ties, so the paddle doesn't jitter.
+                    if (cost < bestCost - 1e-6f ||
+                            (cost <= bestCost + 1e-6f && Math.abs(action) < Math.abs(bestAction))) {
+                        bestCost = cost;
+                        bestAction = action;
+                    }
+                }
+
+                nextValue[i] = bestCost;
+                bestActions[t][i] = bestAction;
+            }
+
+            value = nextValue;
+        }
+
+        // Sample the policy at the center of each table bucket. The paddle aims for a blend of
+        // the predicted arrival offset and the ball's current offset.
+        byte[] actions = new byte[ARRIVAL_OFFSET_BUCKETS * TIME_BUCKETS * CURRENT_OFFSET_BUCKETS];
+        for (int arrival = 0; arrival < ARRIVAL_OFFSET_BUCKETS; arrival++) {
+            float arrivalOffset = bucketCenter(arrival, ARRIVAL_OFFSET_BUCKETS);
+
+            for (int time = 0; time < TIME_BUCKETS; time++) {
+                for (int current = 0; current < CURRENT_OFFSET_BUCKETS; current++) {
+                    float currentOffset = bucketCenter(current, CURRENT_OFFSET_BUCKETS);
+                    float aimOffset = (1f - trackingWeight) * arrivalOffset +
+                            trackingWeight * currentOffset;
+
+                    int index = (arrival * TIME_BUCKETS + time) * CURRENT_OFFSET_BUCKETS + current;
+                    actions[index] = (byte) bestActions[time][nearestGridIndex(aimOffset)];
+                }
+            }
+        }
+
+        return new AiPolicyTable(maxSpeed, collisionJitter, OFFSET_RANGE_IN_HALF_HEIGHTS,
+                MILLIS_PER_TIME_BUCKET, ARRIVAL_OFFSET_BUCKETS, TIME_BUCKETS,
+                CURRENT_OFFSET_BUCKETS, actions);
+    }
+
+    private static float gridOffset(int index) {
+        return -OFFSET_RANGE_IN_HALF_HEIGHTS +
+                2f * OFFSET_RANGE_IN_HALF_HEIGHTS * index / (VALUE_GRID_POINTS - 1);
+    }
+
+    private static int nearestGridIndex(float offset) {
+        float position = (offset + OFFSET_RANGE_IN_HALF_HEIGHTS) /
+                (2f * OFFSET_RANGE_IN_HALF_HEIGHTS) * (VALUE_GRID_POINTS - 1);
+        return Math.min(VALUE_GRID_POINTS - 1, Math.max(0, Math.round(position)));
+    }
+
+    private static float bucketCenter(int bucket, int buckets) {
+        return -OFFSET_RANGE_IN_HALF_HEIGHTS +
+                2f * OFFSET_RANGE_IN_HALF_HEIGHTS * (bucket + 0.5f) / buckets;
+    }
+
+    /**
+     * Linearly interpolate the value function, clamping offsets beyond the grid to its edges.
+     */
+    private static float interpolate(float[] value, float offset) {
+        float position = (offset + OFFSET_RANGE_IN_HALF_HEIGHTS) /
+                (2f * OFFSET_RANGE_IN_HALF_HEIGHTS) * (VALUE_GRID_POINTS - 1);
+        if (position <= 0f) {
+            return value[0];
+        }
+        if (position >= VALUE_GRID_POINTS - 1) {
+            return value[VALUE_GRID_POINTS - 1];
+        }
+        int lower = (int) position;
+        float fraction = position - lower;
+        return value[lower] * (1f - fraction) + value[lower + 1] * fraction;
+    }
+}
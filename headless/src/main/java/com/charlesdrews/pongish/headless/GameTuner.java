@@ -0,0 +1,331 @@
+package com.charlesdrews.pongish.headless;
+
+import com.charlesdrews.pongish.game.objects.AiPolicyTable;
+import com.charlesdrews.pongish.game.objects.GameTuning;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sweeps ranges of the gameplay constants in GameTuning and plays many seeded computer-vs-computer
+ * matches for every combination, spread across all cores. Writes one CSV row per combination with
+ * the average rally length, how often bonus balls are released, how far apart the final scores
+ * are, and how long matches last.
+ *
+ * Every combination plays the same list of match seeds, so differences between rows come from the
+ * tuning rather than from luck.
+ *
+ * Usage: GameTuner [--option=value ...]
+ *   --ballSpeed, --paddleHeight, --speedIncrease, --bonusThreshold, --minBounceDegrees
+ *       each take a single value or a range as min:max:steps. Unlisted constants keep their
+ *       defaults.
+ *   --matches     matches per combination (default 1000)
+ *   --points      score that ends a match (default 21)
+ *   --difficulty  easy, medium, or hard for both paddles (default medium)
+ *   --seed        base seed for the match seeds (default 20161018)
+ *   --threads     worker threads (default: one per core)
+ *   --tables      directory holding the AI policy tables (default app/src/main/res/raw)
+ *   --output      CSV file to write (default tuning.csv)
+ */
+public class GameTuner {
+
+    // ===================================== Constants ==========================================
+
+    // Give up on a match after this much simulated time, in case a tuning makes rallies endless.
+    private static final long MAX_MATCH_MILLIS = 30L * 60L * 1000L;
+
+    // Matches per task, so that work spreads evenly across threads even with few combinations.
+    private static final int MATCHES_PER_TASK = 25;
+
+    private static final String[] DIFFICULTY_NAMES = { "easy", "medium", "hard" };
+    private static final String[] TABLE_FILE_NAMES = {
+            "ai_policy_easy.bin", "ai_policy_medium.bin", "ai_policy_hard.bin" };
+
+    private static final String CSV_HEADER = "ball_speed,paddle_height,speed_increase," +
+            "bonus_threshold,min_bounce_degrees,matches,timeouts,avg_rally_hits,longest_rally," +
+            "bonus_balls_per_minute,avg_score_spread,avg_match_minutes";
+
+
+    // ================================== Main method ===========================================
+
+    public static void main(String[] args) throws IOException, InterruptedException,
+            ExecutionException {
+
+        Options options = new Options(args);
+        loadPolicyTables(new File(options.getString("tables", "app/src/main/res/raw")));
+
+        GameTuning defaults = GameTuning.DEFAULT;
+        float[] ballSpeeds = options.getRange("ballSpeed", defaults.getBallSpeed());
+        float[] paddleHeights = options.getRange("paddleHeight", defaults.getPaddleHeight());
+        float[] speedIncreases = options.getRange("speedIncrease",
+                defaults.getBallSpeedIncreaseOnPaddleHit());
+        float[] bonusThresholds = options.getRange("bonusThreshold",
+                defaults.getBonusBallsConsecutiveHitsThreshold());
+        float[] minBounceDegrees = options.getRange("minBounceDegrees",
+                (float) defaults.getMinDegreesAfterPaddleCollision());
+
+        List<GameTuning> combinations = new ArrayList<>();
+        for (float ballSpeed : ballSpeeds) {
+            for (float paddleHeight : paddleHeights) {
+                for (float speedIncrease : speedIncreases) {
+                    for (float bonusThreshold : bonusThresholds) {
+                        for (float minBounce : minBounceDegrees) {
+                            combinations.add(new GameTuning(ballSpeed, paddleHeight,
+                                    speedIncrease, Math.round(bonusThreshold), minBounce));
+                        }
+                    }
+                }
+            }
+        }
+
+        int matches = options.getInt("matches", 1000);
+        int pointsToWin = options.getInt("points", 21);
+        int difficulty = getDifficulty(options.getString("difficulty", "medium"));
+        long baseSeed = options.getLong("seed", 20161018L);
+        int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+        File output = new File(options.getString("output", "tuning.csv"));
+
+        System.out.println(String.format(Locale.US,
+                "Playing %,d matches for each of %,d combinations on %d threads...",
+                matches, combinations.size(), threads));
+        long startNanos = System.nanoTime();
+
+        // Queue every batch of every combination up front; results come back per batch and are
+        // merged into the combination's totals in submission order.
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<List<Future<Totals>>> futures = new ArrayList<>(combinations.size());
+        try {
+            for (GameTuning tuning : combinations) {
+                List<Future<Totals>> batches = new ArrayList<>();
+                for (int first = 0; first < matches; first += MATCHES_PER_TASK) {
+                    batches.add(executor.submit(new MatchBatch(tuning, difficulty, pointsToWin,
+                            baseSeed, first, Math.min(matches, first + MATCHES_PER_TASK))));
+                }
+                futures.add(batches);
+            }
+
+            PrintWriter writer = new PrintWriter(new FileWriter(output));
+            try {
+                writer.println(CSV_HEADER);
+                for (int i = 0; i < combinations.size(); i++) {
+                    Totals totals = new Totals();
+                    for (Future<Totals> batch : futures.get(i)) {
+                        totals.add(batch.get());
+                    }
+                    writer.println(toCsvRow(combinations.get(i), totals));
+                    System.out.println(String.format(Locale.US, "%d/%d %s",
+                            i + 1, combinations.size(), combinations.get(i)));
+                }
+            }
+            finally {
+                writer.close();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        System.out.println(String.format(Locale.US, "Wrote %s in %.1f s", output,
+                (System.nanoTime() - startNanos) / 1_000_000_000d));
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    static void loadPolicyTables(File directory) throws IOException {
+        for (int difficulty = 0; difficulty < TABLE_FILE_NAMES.length; difficulty++) {
+            File file = new File(directory, TABLE_FILE_NAMES[difficulty]);
+            if (!file.isFile()) {
+                System.err.println("No policy table at " + file +
+                        "; computer paddles will head straight for the ball.");
+                continue;
+            }
+
+            InputStream in = new FileInputStream(file);
+            try {
+                AiPolicyTable.register(difficulty, AiPolicyTable.read(in));
+            }
+            finally {
+                in.close();
+            }
+        }
+    }
+
+    static int getDifficulty(String name) {
+        for (int i = 0; i < DIFFICULTY_NAMES.length; i++) {
+            if (DIFFICULTY_NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown difficulty: " + name);
+    }
+
+    /**
+     * Spread the bits of the base seed and match index, so neighboring matches aren't correlated.
+     */
+    static long getMatchSeed(long baseSeed, int matchIndex) {
+        long z = baseSeed + (matchIndex + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static String toCsvRow(GameTuning tuning, Totals totals) {
+        double minutes = totals.mElapsedMillis / 60_000d;
+        return String.format(Locale.US, "%s,%s,%s,%d,%s,%d,%d,%.3f,%d,%.3f,%.3f,%.3f",
+                tuning.getBallSpeed(), tuning.getPaddleHeight(),
+                tuning.getBallSpeedIncreaseOnPaddleHit(),
+                tuning.getBonusBallsConsecutiveHitsThreshold(),
+                tuning.getMinDegreesAfterPaddleCollision(),
+                totals.mMatches, totals.mTimeouts,
+                totals.mPointsPlayed == 0 ? 0d : (double) totals.mRallyHits / totals.mPointsPlayed,
+                totals.mLongestRally,
+                minutes == 0d ? 0d : totals.mBonusBallsReleased / minutes,
+                totals.mMatches == 0 ? 0d : (double) totals.mScoreSpread / totals.mMatches,
+                totals.mMatches == 0 ? 0d : minutes / totals.mMatches);
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    /**
+     * Plays a range of match indices for one combination on a worker thread.
+     */
+    private static class MatchBatch implements Callable<Totals> {
+
+        private final GameTuning mTuning;
+        private final int mDifficulty, mPointsToWin, mFirstMatch, mEndMatch;
+        private final long mBaseSeed;
+
+        MatchBatch(GameTuning tuning, int difficulty, int pointsToWin, long baseSeed,
+                   int firstMatch, int endMatch) {
+            mTuning = tuning;
+            mDifficulty = difficulty;
+            mPointsToWin = pointsToWin;
+            mBaseSeed = baseSeed;
+            mFirstMatch = firstMatch;
+            mEndMatch = endMatch;
+        }
+
+        @Override
+        public Totals call() {
+            Totals totals = new Totals();
+            for (int i = mFirstMatch; i < mEndMatch; i++) {
+                HeadlessMatch match = new HeadlessMatch(mTuning, mDifficulty,
+                        getMatchSeed(mBaseSeed, i));
+                match.play(mPointsToWin, MAX_MATCH_MILLIS);
+                totals.add(match);
+            }
+            return totals;
+        }
+    }
+
+    /**
+     * Running sums of match results, mergeable across batches.
+     */
+    private static class Totals {
+
+        private int mMatches, mTimeouts, mPointsPlayed, mLongestRally, mBonusBallsReleased;
+        private long mRallyHits, mScoreSpread, mElapsedMillis;
+
+        void add(HeadlessMatch match) {
+            mMatches++;
+            mTimeouts += match.isTimedOut() ? 1 : 0;
+            mPointsPlayed += match.getPointsPlayed();
+            mLongestRally = Math.max(mLongestRally, match.getLongestRally());
+            mBonusBallsReleased += match.getBonusBallsReleased();
+            mRallyHits += match.getTotalRallyHits();
+            mScoreSpread += match.getScoreSpread();
+            mElapsedMillis += match.getElapsedMillis();
+        }
+
+        void add(Totals other) {
+            mMatches += other.mMatches;
+            mTimeouts += other.mTimeouts;
+            mPointsPlayed += other.mPointsPlayed;
+            mLongestRally = Math.max(mLongestRally, other.mLongestRally);
+            mBonusBallsReleased += other.mBonusBallsReleased;
+            mRallyHits += other.mRallyHits;
+            mScoreSpread += other.mScoreSpread;
+            mElapsedMillis += other.mElapsedMillis;
+        }
+    }
+
+    /**
+     * Minimal --name=value argument parsing, shared with the other command line tools.
+     */
+    static class Options {
+
+        private final Map<String, String> mValues = new HashMap<>();
+
+        Options(String[] args) {
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("Expected --name=value but got " + arg);
+                }
+                int equals = arg.indexOf('=');
+                mValues.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+
+        String getString(String name, String defaultValue) {
+            String value = mValues.get(name);
+            return value == null ? defaultValue : value;
+        }
+
+        int getInt(String name, int defaultValue) {
+            String value = mValues.get(name);
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }
+
+        long getLong(String name, long defaultValue) {
+            String value = mValues.get(name);
+            return value == null ? defaultValue : Long.parseLong(value);
+        }
+
+        /**
+         * Parse either a single value or min:max:steps into the list of values to try.
+         */
+        float[] getRange(String name, float defaultValue) {
+            String value = mValues.get(name);
+            if (value == null) {
+                return new float[] { defaultValue };
+            }
+
+            String[] parts = value.split(":");
+            if (parts.length == 1) {
+                return new float[] { Float.parseFloat(parts[0]) };
+            }
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("--" + name + " must be value or min:max:steps");
+            }
+
+            float min = Float.parseFloat(parts[0]);
+            float max = Float.parseFloat(parts[1]);
+            int steps = Integer.parseInt(parts[2]);
+            if (steps < 2) {
+                return new float[] { min };
+            }
+
+            float[] values = new float[steps];
+            for (int i = 0; i < steps; i++) {
+                values[i] = min + (max - min) * i / (steps - 1);
+            }
+            return values;
+        }
+    }
+}
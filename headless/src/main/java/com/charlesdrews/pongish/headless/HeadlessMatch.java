@@ -0,0 +1,135 @@
+package com.charlesdrews.pongish.headless;
+
+import com.charlesdrews.pongish.game.objects.GameObjects;
+import com.charlesdrews.pongish.game.objects.GameTuning;
+import com.charlesdrews.pongish.game.objects.PongScene;
+
+/**
+ * Plays one computer-vs-computer match on a seeded PongScene without a view or a game loop,
+ * stepping the simulation in fixed ticks as fast as the CPU allows, and records how it went.
+ * The same tuning, difficulty, and seed always produce the same match.
+ */
+public class HeadlessMatch {
+
+    // ===================================== Constants ==========================================
+
+    // A tick at roughly 60 updates per second.
+    public static final long MILLIS_PER_TICK = 16L;
+
+
+    // ================================= Member variables =======================================
+
+    private final PongScene mScene;
+
+    private long mElapsedMillis = 0L;
+    private int mPointsPlayed = 0;
+    private long mTotalRallyHits = 0L;
+    private int mLongestRally = 0;
+    private int mBonusBallsReleased = 0;
+    private boolean mTimedOut = false;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param tuning holds the gameplay constants to play with.
+     * @param difficulty is the difficulty of both computer paddles.
+     * @param seed seeds every random choice in the match.
+     */
+    public HeadlessMatch(final GameTuning tuning, final int difficulty, final long seed) {
+        mScene = new PongScene(GameObjects.Scene.BOTH_PADDLES);
+        mScene.setDifficulty(difficulty);
+        mScene.setTuning(tuning);
+        mScene.setRandomSeed(seed);
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Play until either player reaches the given score, or until the time limit runs out.
+     *
+     * @param pointsToWin is the score that ends the match.
+     * @param maxMillis is the most simulated time to play before giving up on the match.
+     */
+    public void play(final int pointsToWin, final long maxMillis) {
+        while (mScene.getLeftPlayerScore() < pointsToWin &&
+                mScene.getRightPlayerScore() < pointsToWin) {
+
+            if (mElapsedMillis >= maxMillis) {
+                mTimedOut = true;
+                return;
+            }
+            tick();
+        }
+    }
+
+    /**
+     * Advance the match by one tick, starting the next point if this one was scored.
+     *
+     * @return true if a point was scored.
+     */
+    public boolean tick() {
+
+        // Balls only leave play by scoring, so any growth in the count is a bonus release.
+        int ballCountBefore = mScene.getBallCount();
+        int rallyBefore = mScene.getConsecutivePaddleHits();
+
+        boolean pointScored = mScene.updateGameObjects(MILLIS_PER_TICK);
+        mElapsedMillis += MILLIS_PER_TICK;
+
+        int ballCountAfter = mScene.getBallCount();
+        if (ballCountAfter > ballCountBefore) {
+            mBonusBallsReleased += ballCountAfter - ballCountBefore;
+        }
+
+        if (pointScored) {
+            mPointsPlayed++;
+            mTotalRallyHits += rallyBefore;
+            mLongestRally = Math.max(mLongestRally, rallyBefore);
+            mScene.resetAfterPointScored();
+        }
+        return pointScored;
+    }
+
+    /**
+     * @return the scene being played, e.g. to draw it.
+     */
+    public PongScene getScene() {
+        return mScene;
+    }
+
+    public long getElapsedMillis() {
+        return mElapsedMillis;
+    }
+
+    public int getPointsPlayed() {
+        return mPointsPlayed;
+    }
+
+    /**
+     * @return the total number of normal ball paddle hits across every point that was played.
+     */
+    public long getTotalRallyHits() {
+        return mTotalRallyHits;
+    }
+
+    public int getLongestRally() {
+        return mLongestRally;
+    }
+
+    public int getBonusBallsReleased() {
+        return mBonusBallsReleased;
+    }
+
+    /**
+     * @return how far apart the two scores are.
+     */
+    public int getScoreSpread() {
+        return Math.abs(mScene.getLeftPlayerScore() - mScene.getRightPlayerScore());
+    }
+
+    public boolean isTimedOut() {
+        return mTimedOut;
+    }
+}
@@ -0,0 +1,163 @@
+package com.charlesdrews.pongish.headless;
+
+import com.charlesdrews.pongish.game.net.NetplayScene;
+import com.charlesdrews.pongish.game.net.SimulatedNetworkTransport;
+import com.charlesdrews.pongish.game.net.Transport;
+import com.charlesdrews.pongish.game.net.UdpTransport;
+import com.charlesdrews.pongish.game.objects.GameObjects;
+import com.charlesdrews.pongish.game.objects.HumanPaddleController;
+import com.charlesdrews.pongish.game.objects.PongScene;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Plays a networked match between two engines in this process, over UDP on the loopback
+ * interface, with added latency, jitter, and packet loss. Each side runs on its own thread in
+ * real time, like a device would, and drags its paddle in a random but seeded pattern, so the
+ * other side's predictions are often wrong and have to be rolled back.
+ *
+ * Prints each side's rollback and sync stats. Exits with an error if the two games ever went out
+ * of step, or if no ticks could be compared.
+ *
+ * Usage: NetplayLoopback [--option=value ...]
+ *   --ticks     ticks for each side to play (default 1800, about 30 seconds)
+ *   --latency   one-way latency added to each packet, in ms (default 100)
+ *   --jitter    most random latency added on top, in ms (default 30)
+ *   --loss      fraction of packets to drop (default 0.1)
+ *   --seed      match seed (default 20161018)
+ *   --port      UDP port for the left side; the right side uses the next one (default 47000)
+ */
+public class NetplayLoopback {
+
+    // ===================================== Constants ==========================================
+
+    // Average ticks between changes of drag direction, and the fastest drag per tick, in board
+    // units.
+    private static final int TICKS_PER_DRAG_CHANGE = 10;
+    private static final float MAX_DRAG_PER_TICK = 0.02f;
+
+
+    // ================================== Main method ===========================================
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        GameTuner.Options options = new GameTuner.Options(args);
+        int ticks = options.getInt("ticks", 1800);
+        long latency = options.getLong("latency", 100L);
+        long jitter = options.getLong("jitter", 30L);
+        float loss = Float.parseFloat(options.getString("loss", "0.1"));
+        long seed = options.getLong("seed", 20161018L);
+        int port = options.getInt("port", 47000);
+
+        System.out.println(String.format(Locale.US, "Playing %,d ticks per side with %d+%d ms " +
+                "latency and %.0f%% loss...", ticks, latency, jitter, loss * 100f));
+
+        Side left = new Side("left", GameObjects.Scene.LEFT_PADDLE, ticks, seed,
+                new SimulatedNetworkTransport(new UdpTransport(port,
+                        new InetSocketAddress("127.0.0.1", port + 1)),
+                        latency, jitter, loss, seed + 1));
+        Side right = new Side("right", GameObjects.Scene.RIGHT_PADDLE, ticks, seed,
+                new SimulatedNetworkTransport(new UdpTransport(port + 1,
+                        new InetSocketAddress("127.0.0.1", port)),
+                        latency, jitter, loss, seed + 2));
+
+        Thread leftThread = new Thread(left, "left");
+        Thread rightThread = new Thread(right, "right");
+        leftThread.start();
+        rightThread.start();
+        leftThread.join();
+        rightThread.join();
+
+        boolean inStep = left.report() & right.report();
+        if (!inStep) {
+            System.exit(1);
+        }
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    /**
+     * One player's device: a scene, its connection, and the thread that plays it.
+     */
+    private static class Side implements Runnable {
+
+        private final String mName;
+        private final int mTicks;
+        private final HumanPaddleController mInput = new HumanPaddleController();
+        private final NetplayScene mScene;
+        private final Random mRandom;
+        private Throwable mFailure;
+
+        Side(String name, int localPaddle, int ticks, long seed, Transport transport) {
+            mName = name;
+            mTicks = ticks;
+            mScene = new NetplayScene(new PongScene(GameObjects.Scene.NEITHER_PADDLE), transport,
+                    localPaddle, mInput, seed, HeadlessMatch.MILLIS_PER_TICK);
+            mRandom = new Random(seed ^ localPaddle);
+        }
+
+        @Override
+        public void run() {
+            try {
+                play();
+            }
+            catch (Throwable t) {
+                mFailure = t;
+            }
+            finally {
+                try {
+                    mScene.close();
+                }
+                catch (IOException e) {
+                    // Nothing more to send anyway.
+                }
+            }
+        }
+
+        private void play() throws InterruptedException {
+            long tickInNanos = HeadlessMatch.MILLIS_PER_TICK * 1_000_000L;
+            long nextTickNanos = System.nanoTime();
+            float drag = 0f;
+
+            // Stalled updates don't advance the tick, so keep going until every tick has run.
+            while (mScene.getCurrentTick() < mTicks) {
+                if (mRandom.nextInt(TICKS_PER_DRAG_CHANGE) == 0) {
+                    drag = (2f * mRandom.nextFloat() - 1f) * MAX_DRAG_PER_TICK;
+                }
+                mInput.addTouchDelta(drag);
+                mScene.updateGameObjects(HeadlessMatch.MILLIS_PER_TICK);
+
+                nextTickNanos += tickInNanos;
+                long sleepNanos = nextTickNanos - System.nanoTime();
+                if (sleepNanos > 0) {
+                    Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+                }
+            }
+        }
+
+        /**
+         * Print the side's stats.
+         *
+         * @return true if the side finished and never saw the games go out of step.
+         */
+        boolean report() {
+            if (mFailure != null) {
+                System.out.println(mName + " failed:");
+                mFailure.printStackTrace(System.out);
+                return false;
+            }
+
+            System.out.println(String.format(Locale.US, "%-5s  rollbacks %,d (longest %d ticks, " +
+                            "%.2f ms)  stalls %,d  checksums compared %,d  desyncs %d  " +
+                            "network errors %d",
+                    mName, mScene.getRollbackCount(), mScene.getMaxRollbackTicks(),
+                    mScene.getMaxRollbackNanos() / 1_000_000d, mScene.getStalledUpdateCount(),
+                    mScene.getChecksumsCompared(), mScene.getDesyncCount(),
+                    mScene.getNetworkErrorCount()));
+            return mScene.getDesyncCount() == 0 && mScene.getChecksumsCompared() > 0;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.charlesdrews.pongish.headless;
+
+import com.charlesdrews.pongish.game.RenderCommandBuffer;
+import com.charlesdrews.pongish.game.objects.GameTuning;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Plays a seeded computer-vs-computer match and writes every tick out as an image, for making
+ * videos of replays. The simulation runs on one thread, since each tick depends on the last; it
+ * records each frame into a render command buffer, and worker threads each draw frames with their
+ * own SoftwareRenderer and write them out. The same seed always produces the same images.
+ *
+ * Usage: ReplayExporter [--option=value ...]
+ *   --frames      number of frames to export (default 600, about 10 seconds)
+ *   --difficulty  easy, medium, or hard for both paddles (default medium)
+ *   --seed        seed for the match (default 20161018)
+ *   --scale       fraction of 1920x1080 to draw at (default 1)
+ *   --format      png, or ppm for speed over size (default png)
+ *   --threads     worker threads (default: one per core)
+ *   --tables      directory holding the AI policy tables (default app/src/main/res/raw)
+ *   --output      directory to write frame_00000.png etc. into (default replay)
+ */
+public class ReplayExporter {
+
+    // ===================================== Constants ==========================================
+
+    // The frame size at a scale of 1: a typical landscape phone screen. The board is fit inside.
+    private static final int FULL_WIDTH_IN_PX = 1920;
+    private static final int FULL_HEIGHT_IN_PX = 1080;
+
+    // Recorded frames waiting to be drawn, per worker thread. Bounds memory if writing is slow.
+    private static final int BUFFERS_PER_THREAD = 4;
+
+
+    // ================================== Main method ===========================================
+
+    public static void main(String[] args) throws IOException, InterruptedException,
+            ExecutionException {
+
+        GameTuner.Options options = new GameTuner.Options(args);
+        GameTuner.loadPolicyTables(new File(options.getString("tables", "app/src/main/res/raw")));
+
+        int frames = options.getInt("frames", 600);
+        int difficulty = GameTuner.getDifficulty(options.getString("difficulty", "medium"));
+        long seed = options.getLong("seed", 20161018L);
+        float scale = Float.parseFloat(options.getString("scale", "1"));
+        String format = options.getString("format", "png");
+        int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+        File output = new File(options.getString("output", "replay"));
+
+        if (!format.equals("png") && !format.equals("ppm")) {
+            throw new IllegalArgumentException("--format must be png or ppm");
+        }
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Couldn't create " + output);
+        }
+
+        int width = Math.max(1, Math.round(FULL_WIDTH_IN_PX * scale));
+        int height = Math.max(1, Math.round(FULL_HEIGHT_IN_PX * scale));
+        System.out.println(String.format(Locale.US,
+                "Exporting %,d %dx%d frames on %d threads...", frames, width, height, threads));
+        long startNanos = System.nanoTime();
+
+        // Buffers go round trip: filled here, drawn by a worker, then handed back to be refilled.
+        BlockingQueue<RenderCommandBuffer> freeBuffers =
+                new ArrayBlockingQueue<>(threads * BUFFERS_PER_THREAD);
+        for (int i = 0; i < threads * BUFFERS_PER_THREAD; i++) {
+            freeBuffers.add(new RenderCommandBuffer());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> futures = new ArrayList<>(frames);
+        try {
+            ThreadLocal<FrameWriter> writers = FrameWriter.threadLocal(width, height, format);
+            HeadlessMatch match = new HeadlessMatch(GameTuning.DEFAULT, difficulty, seed);
+
+            for (int frame = 0; frame < frames; frame++) {
+                RenderCommandBuffer buffer = freeBuffers.take();
+                buffer.reset();
+                match.getScene().fillRenderCommandBuffer(buffer, 1f);
+                futures.add(executor.submit(new FrameTask(writers, buffer, freeBuffers,
+                        new File(output, String.format(Locale.US, "frame_%05d.%s", frame,
+                                format)))));
+                match.tick();
+            }
+
+            // Surface the first failure, if any.
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000d;
+        System.out.println(String.format(Locale.US, "Wrote %,d frames to %s in %.1f s (%.0f fps)",
+                frames, output, seconds, frames / seconds));
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    /**
+     * Draws one recorded frame, writes it, and hands the buffer back.
+     */
+    private static class FrameTask implements Callable<Void> {
+
+        private final ThreadLocal<FrameWriter> mWriters;
+        private final RenderCommandBuffer mBuffer;
+        private final BlockingQueue<RenderCommandBuffer> mFreeBuffers;
+        private final File mFile;
+
+        FrameTask(ThreadLocal<FrameWriter> writers, RenderCommandBuffer buffer,
+                  BlockingQueue<RenderCommandBuffer> freeBuffers, File file) {
+            mWriters = writers;
+            mBuffer = buffer;
+            mFreeBuffers = freeBuffers;
+            mFile = file;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            try {
+                mWriters.get().write(mBuffer, mFile);
+            }
+            finally {
+                mFreeBuffers.add(mBuffer);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * One worker thread's renderer, plus what it needs to encode frames without reallocating.
+     */
+    private static class FrameWriter {
+
+        private final SoftwareRenderer mRenderer;
+        private final String mFormat;
+        private BufferedImage mImage;
+        private byte[] mPpmBytes;
+
+        static ThreadLocal<FrameWriter> threadLocal(final int width, final int height,
+                                                    final String format) {
+            return new ThreadLocal<FrameWriter>() {
+                @Override
+                protected FrameWriter initialValue() {
+                    return new FrameWriter(width, height, format);
+                }
+            };
+        }
+
+        FrameWriter(int width, int height, String format) {
+            mRenderer = new SoftwareRenderer(width, height);
+            mFormat = format;
+        }
+
+        void write(RenderCommandBuffer buffer, File file) throws IOException {
+            mRenderer.beginDrawing();
+            mRenderer.drawCommandBuffer(buffer);
+            mRenderer.commitDrawing();
+
+            int width = mRenderer.getWidth();
+            int height = mRenderer.getHeight();
+            int[] pixels = mRenderer.getPixels();
+
+            if (mFormat.equals("ppm")) {
+                writePpm(file, width, height, pixels);
+            }
+            else {
+                if (mImage == null) {
+                    mImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                }
+                mImage.setRGB(0, 0, width, height, pixels, 0, width);
+                if (!ImageIO.write(mImage, "png", file)) {
+                    throw new IOException("No PNG writer available");
+                }
+            }
+        }
+
+        /**
+         * Binary PPM: a short text header, then 3 bytes per pixel. Much faster to write than PNG.
+         */
+        private void writePpm(File file, int width, int height, int[] pixels)
+                throws IOException {
+            if (mPpmBytes == null) {
+                mPpmBytes = new byte[width * height * 3];
+            }
+            for (int i = 0, j = 0; i < pixels.length; i++) {
+                int pixel = pixels[i];
+                mPpmBytes[j++] = (byte) (pixel >> 16);
+                mPpmBytes[j++] = (byte) (pixel >> 8);
+                mPpmBytes[j++] = (byte) pixel;
+            }
+
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+            try {
+                out.write(String.format(Locale.US, "P6\n%d %d\n255\n", width, height)
+                        .getBytes("US-ASCII"));
+                out.write(mPpmBytes);
+            }
+            finally {
+                out.close();
+            }
+        }
+    }
+}
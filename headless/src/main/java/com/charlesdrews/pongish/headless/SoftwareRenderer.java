@@ -0,0 +1,406 @@
+package com.charlesdrews.pongish.headless;
+
+import android.support.annotation.NonNull;
+
+import com.charlesdrews.pongish.game.BoardTransform;
+import com.charlesdrews.pongish.game.GameEngine;
+import com.charlesdrews.pongish.game.RenderCommandBuffer;
+import com.charlesdrews.pongish.game.objects.GameObjects;
+
+import java.util.Arrays;
+
+/**
+ * A GameEngine.Renderer that draws into an int[] of ARGB pixels in plain Java, so frames can be
+ * rendered on the JVM without a device: for comparing against known-good images, or exporting
+ * replays as image sequences. Shapes are filled a row at a time, a pixel is covered if its center
+ * is inside the shape (no anti-aliasing), and nothing is allocated while drawing. The board is
+ * fit to the framebuffer with a BoardTransform, the same way PongView fits it to the screen.
+ *
+ * Text uses a built-in 5x7 pixel font with digits, capital letters, and a little punctuation;
+ * lowercase letters are drawn as capitals. It won't match Android's fonts, only be consistent.
+ */
+public class SoftwareRenderer implements GameEngine.Renderer {
+
+    // ===================================== Constants ==========================================
+
+    // Same dash pattern, line widths, and dirty region margin as PongView.
+    private static final float DASH_LENGTH_IN_PX = 15f;
+    private static final int WIDE_SCREEN_IN_PX = 2000;
+    private static final int DIRTY_REGION_MARGIN_IN_PX = 2;
+
+    // The font's capital letters are this fraction of the text size tall, about as in Roboto.
+    private static final float GLYPH_HEIGHT_AS_FRACTION_OF_TEXT_SIZE = 0.7f;
+    private static final int GLYPH_COLUMNS = 5;
+    private static final int GLYPH_ROWS = 7;
+    private static final float COUNTDOWN_BOX_MARGIN_IN_PX = 15f;
+
+    private static final String GLYPH_CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ:.%/-";
+    private static final String[] GLYPH_BITMAPS = {
+            "01110 10001 10011 10101 11001 10001 01110", // 0
+            "00100 01100 00100 00100 00100 00100 01110", // 1
+            "01110 10001 00001 00010 00100 01000 11111", // 2
+            "11111 00010 00100 00010 00001 10001 01110", // 3
+            "00010 00110 01010 10010 11111 00010 00010", // 4
+            "11111 10000 11110 00001 00001 10001 01110", // 5
+            "00110 01000 10000 11110 10001 10001 01110", // 6
+            "11111 00001 00010 00100 01000 01000 01000", // 7
+            "01110 10001 10001 01110 10001 10001 01110", // 8
+            "01110 10001 10001 01111 00001 00010 01100", // 9
+            "01110 10001 10001 11111 10001 10001 10001", // A
+            "11110 10001 10001 11110 10001 10001 11110", // B
+            "01110 10001 10000 10000 10000 10001 01110", // C
+            "11100 10010 10001 10001 10001 10010 11100", // D
+            "11111 10000 10000 11110 10000 10000 11111", // E
+            "11111 10000 10000 11110 10000 10000 10000", // F
+            "01110 10001 10000 10111 10001 10001 01111", // G
+            "10001 10001 10001 11111 10001 10001 10001", // H
+            "01110 00100 00100 00100 00100 00100 01110", // I
+            "00111 00010 00010 00010 00010 10010 01100", // J
+            "10001 10010 10100 11000 10100 10010 10001", // K
+            "10000 10000 10000 10000 10000 10000 11111", // L
+            "10001 11011 10101 10101 10001 10001 10001", // M
+            "10001 10001 11001 10101 10011 10001 10001", // N
+            "01110 10001 10001 10001 10001 10001 01110", // O
+            "11110 10001 10001 11110 10000 10000 10000", // P
+            "01110 10001 10001 10001 10101 10010 01101", // Q
+            "11110 10001 10001 11110 10100 10010 10001", // R
+            "01111 10000 10000 01110 00001 00001 11110", // S
+            "11111 00100 00100 00100 00100 00100 00100", // T
+            "10001 10001 10001 10001 10001 10001 01110", // U
+            "10001 10001 10001 10001 10001 01010 00100", // V
+            "10001 10001 10001 10101 10101 10101 01010", // W
+            "10001 10001 01010 00100 01010 10001 10001", // X
+            "10001 10001 10001 01010 00100 00100 00100", // Y
+            "11111 00001 00010 00100 01000 10000 11111", // Z
+            "00000 01100 01100 00000 01100 01100 00000", // :
+            "00000 00000 00000 00000 00000 01100 01100", // .
+            "11000 11001 00010 00100 01000 10011 00011", // %
+            "00000 00001 00010 00100 01000 10000 00000", // /
+            "00000 00000 00000 11111 00000 00000 00000", // -
+    };
+
+    // Each glyph as GLYPH_ROWS ints, top row first, with the leftmost pixel in the highest bit.
+    private static final int[] GLYPHS = parseGlyphs();
+
+
+    // ================================= Member variables =======================================
+
+    private final int mWidth, mHeight;
+    private final int[] mPixels;
+    private final int mLineWidth;
+    private final BoardTransform mTransform;
+
+    // Drawing is limited to this rectangle; right and bottom are exclusive.
+    private int mClipLeft, mClipTop, mClipRight, mClipBottom;
+    private boolean mDirtyRegionSet = false;
+    private float mDirtyLeft, mDirtyTop, mDirtyRight, mDirtyBottom;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param width of the framebuffer in pixels.
+     * @param height of the framebuffer in pixels.
+     */
+    public SoftwareRenderer(final int width, final int height) {
+        mWidth = width;
+        mHeight = height;
+        mPixels = new int[width * height];
+        mLineWidth = (width > WIDE_SCREEN_IN_PX) ? 2 : 1;
+        mTransform = new BoardTransform(width, height);
+        resetClip();
+    }
+
+
+    // ================================== Public methods ========================================
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return the framebuffer, one ARGB int per pixel, row by row. It's the live array, so it
+     *         changes as frames are drawn.
+     */
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    public int getPixel(final int x, final int y) {
+        return mPixels[y * mWidth + x];
+    }
+
+
+    // ============================ GameEngine.Renderer methods =================================
+
+    @Override
+    public void setRenderScale(float scale) {
+        // Always draws at the framebuffer's size, chosen up front.
+    }
+
+    @Override
+    public void setDirtyRegion(float left, float top, float right, float bottom) {
+        mDirtyRegionSet = true;
+        mDirtyLeft = left;
+        mDirtyTop = top;
+        mDirtyRight = right;
+        mDirtyBottom = bottom;
+    }
+
+    @Override
+    public boolean beginDrawing() {
+
+        // Like a partial lock on a Surface, a dirty region keeps the rest of the last frame.
+        resetClip();
+        if (mDirtyRegionSet) {
+            mClipLeft = Math.max(0, (int) Math.floor(mTransform.toViewX(mDirtyLeft)) -
+                    DIRTY_REGION_MARGIN_IN_PX);
+            mClipTop = Math.max(0, (int) Math.floor(mTransform.toViewY(mDirtyTop)) -
+                    DIRTY_REGION_MARGIN_IN_PX);
+            mClipRight = Math.min(mWidth, (int) Math.ceil(mTransform.toViewX(mDirtyRight)) +
+                    DIRTY_REGION_MARGIN_IN_PX);
+            mClipBottom = Math.min(mHeight, (int) Math.ceil(mTransform.toViewY(mDirtyBottom)) +
+                    DIRTY_REGION_MARGIN_IN_PX);
+            mDirtyRegionSet = false;
+        }
+        return true;
+    }
+
+    @Override
+    public void commitDrawing() {
+        resetClip();
+    }
+
+    @Override
+    public void drawBackground(int color) {
+        for (int y = mClipTop; y < mClipBottom; y++) {
+            fillSpan(y, mClipLeft, mClipRight, color);
+        }
+    }
+
+    @Override
+    public void drawVerticalLine(float x, float topY, float bottomY, int color, boolean dashed) {
+        int left = (int) Math.floor(mTransform.toViewX(x) - (mLineWidth - 1) / 2f);
+        int top = toPixelY(topY);
+        int bottom = toPixelY(bottomY);
+
+        if (!dashed) {
+            fillPixels(left, top, left + mLineWidth, bottom, color);
+            return;
+        }
+
+        // Dashes start at the top of the line, alternating on and off.
+        float dashTopY = mTransform.toViewY(topY);
+        float lineBottomY = mTransform.toViewY(bottomY);
+        while (dashTopY < lineBottomY) {
+            int dashTop = (int) Math.ceil(dashTopY - 0.5f);
+            int dashBottom =
+                    Math.min(bottom, (int) Math.ceil(dashTopY + DASH_LENGTH_IN_PX - 0.5f));
+            fillPixels(left, dashTop, left + mLineWidth, dashBottom, color);
+            dashTopY += 2f * DASH_LENGTH_IN_PX;
+        }
+    }
+
+    @Override
+    public void drawScore(@NonNull String scoreText, float x, float topY, float textSize,
+                          int color, boolean rightAlign) {
+        drawText(scoreText, x, topY + textSize, textSize, color, rightAlign ? 1f : 0f);
+    }
+
+    @Override
+    public void drawCircle(float centerX, float centerY, float radius, int color) {
+        float cx = mTransform.toViewX(centerX);
+        float cy = mTransform.toViewY(centerY);
+        float r = mTransform.toViewLength(radius);
+        float rSquared = r * r;
+
+        int top = Math.max(mClipTop, (int) Math.ceil(cy - r - 0.5f));
+        int bottom = Math.min(mClipBottom, (int) Math.ceil(cy + r - 0.5f));
+        for (int y = top; y < bottom; y++) {
+            float dy = y + 0.5f - cy;
+            float halfWidthSquared = rSquared - dy * dy;
+            if (halfWidthSquared < 0f) {
+                continue;
+            }
+            float halfWidth = (float) Math.sqrt(halfWidthSquared);
+            fillSpan(y, (int) Math.ceil(cx - halfWidth - 0.5f),
+                    (int) Math.ceil(cx + halfWidth - 0.5f), color);
+        }
+    }
+
+    @Override
+    public void drawCircleBatch(@NonNull float[] centers, int offset, int count, float radius,
+                                int color) {
+        for (int i = 0; i < count; i++) {
+            drawCircle(centers[offset + 2 * i], centers[offset + 2 * i + 1], radius, color);
+        }
+    }
+
+    @Override
+    public void drawRect(float leftX, float topY, float rightX, float bottomY, int color) {
+        fillPixels(toPixelX(leftX), toPixelY(topY), toPixelX(rightX), toPixelY(bottomY), color);
+    }
+
+    @Override
+    public void drawCommandBuffer(@NonNull RenderCommandBuffer buffer) {
+
+        // Redrawing the static layer costs no more than copying it would, so just replay it all.
+        buffer.replay(this);
+    }
+
+    @Override
+    public void drawCountDown(@NonNull String countDownText, float textSize, int textColor,
+                              int backgroundColor) {
+
+        // Center the text and the box behind it on the board, like PongView does.
+        float width = measureText(countDownText, textSize);
+        float glyphHeight = textSize * GLYPH_HEIGHT_AS_FRACTION_OF_TEXT_SIZE;
+        float x = GameObjects.Scene.BOARD_WIDTH / 2f;
+        float baselineY = GameObjects.Scene.BOARD_HEIGHT / 2f + glyphHeight / 2f;
+        float margin = mTransform.toBoardLength(COUNTDOWN_BOX_MARGIN_IN_PX);
+
+        drawRect(x - width / 2f - margin, baselineY - glyphHeight - margin,
+                x + width / 2f + margin, baselineY + margin, backgroundColor);
+        drawText(countDownText, x, baselineY, textSize, textColor, 0.5f);
+    }
+
+    @Override
+    public void drawFramesPerSecond(@NonNull String fpsText, float x, float y, float textSize,
+                                    int color) {
+        drawText(fpsText, x, y, textSize, color, 0f);
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    /**
+     * Draw text with the built-in font.
+     *
+     * @param anchor is 0 if x is the left edge of the text, 0.5 if its center, or 1 if its right
+     *               edge.
+     */
+    private void drawText(String text, float x, float baselineY, float textSize, int color,
+                          float anchor) {
+
+        float dot = textSize * GLYPH_HEIGHT_AS_FRACTION_OF_TEXT_SIZE / GLYPH_ROWS;
+        float penX = x - measureText(text, textSize) * anchor;
+        float glyphTopY = baselineY - GLYPH_ROWS * dot;
+
+        for (int i = 0; i < text.length(); i++) {
+            int glyph = GLYPH_CHARS.indexOf(Character.toUpperCase(text.charAt(i)));
+            if (glyph >= 0) {
+                for (int row = 0; row < GLYPH_ROWS; row++) {
+                    int bits = GLYPHS[glyph * GLYPH_ROWS + row];
+                    float top = glyphTopY + row * dot;
+
+                    // Fill each run of set bits in the row as one rectangle.
+                    int column = 0;
+                    while (column < GLYPH_COLUMNS) {
+                        if ((bits & (1 << (GLYPH_COLUMNS - 1 - column))) == 0) {
+                            column++;
+                            continue;
+                        }
+                        int runStart = column;
+                        while (column < GLYPH_COLUMNS &&
+                                (bits & (1 << (GLYPH_COLUMNS - 1 - column))) != 0) {
+                            column++;
+                        }
+                        drawRect(penX + runStart * dot, top, penX + column * dot, top + dot,
+                                color);
+                    }
+                }
+            }
+            penX += (GLYPH_COLUMNS + 1) * dot;
+        }
+    }
+
+    private float measureText(String text, float textSize) {
+        if (text.isEmpty()) {
+            return 0f;
+        }
+        float dot = textSize * GLYPH_HEIGHT_AS_FRACTION_OF_TEXT_SIZE / GLYPH_ROWS;
+
+        // Every glyph advances one column past its width, except the last.
+        return (text.length() * (GLYPH_COLUMNS + 1) - 1) * dot;
+    }
+
+    /**
+     * @return the first column whose center is at or past the given board x coordinate.
+     */
+    private int toPixelX(float x) {
+        return (int) Math.ceil(mTransform.toViewX(x) - 0.5f);
+    }
+
+    /**
+     * @return the first row whose center is at or past the given board y coordinate.
+     */
+    private int toPixelY(float y) {
+        return (int) Math.ceil(mTransform.toViewY(y) - 0.5f);
+    }
+
+    /**
+     * Fill the pixels from left to right and top to bottom, exclusive of right and bottom.
+     */
+    private void fillPixels(int left, int top, int right, int bottom, int color) {
+        int clippedTop = Math.max(mClipTop, top);
+        int clippedBottom = Math.min(mClipBottom, bottom);
+        for (int y = clippedTop; y < clippedBottom; y++) {
+            fillSpan(y, left, right, color);
+        }
+    }
+
+    /**
+     * Fill one row of pixels, blending if the color isn't opaque.
+     */
+    private void fillSpan(int y, int left, int right, int color) {
+        left = Math.max(mClipLeft, left);
+        right = Math.min(mClipRight, right);
+        if (left >= right || y < mClipTop || y >= mClipBottom) {
+            return;
+        }
+
+        int row = y * mWidth;
+        int alpha = color >>> 24;
+        if (alpha == 0xFF) {
+            Arrays.fill(mPixels, row + left, row + right, color);
+        }
+        else if (alpha != 0) {
+            for (int i = row + left; i < row + right; i++) {
+                mPixels[i] = blend(mPixels[i], color, alpha);
+            }
+        }
+    }
+
+    private void resetClip() {
+        mClipLeft = 0;
+        mClipTop = 0;
+        mClipRight = mWidth;
+        mClipBottom = mHeight;
+    }
+
+    /**
+     * Draw color over destination with the given alpha, leaving the result opaque.
+     */
+    private static int blend(int destination, int color, int alpha) {
+        int inverse = 0xFF - alpha;
+        int red = (((color >> 16) & 0xFF) * alpha + ((destination >> 16) & 0xFF) * inverse) / 0xFF;
+        int green = (((color >> 8) & 0xFF) * alpha + ((destination >> 8) & 0xFF) * inverse) / 0xFF;
+        int blue = ((color & 0xFF) * alpha + (destination & 0xFF) * inverse) / 0xFF;
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    private static int[] parseGlyphs() {
+        int[] glyphs = new int[GLYPH_BITMAPS.length * GLYPH_ROWS];
+        for (int i = 0; i < GLYPH_BITMAPS.length; i++) {
+            String[] rows = GLYPH_BITMAPS[i].split(" ");
+            for (int row = 0; row < GLYPH_ROWS; row++) {
+                glyphs[i * GLYPH_ROWS + row] = Integer.parseInt(rows[row], 2);
+            }
+        }
+        return glyphs;
+    }
+}
@@ -0,0 +1,206 @@
+package com.charlesdrews.pongish.headless;
+
+import com.charlesdrews.pongish.game.net.SpectatorBroadcaster;
+import com.charlesdrews.pongish.game.net.SpectatorClient;
+import com.charlesdrews.pongish.game.net.SpectatorFrame;
+import com.charlesdrews.pongish.game.objects.GameObjects;
+import com.charlesdrews.pongish.game.objects.PongScene;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Streams a chaos mode computer-vs-computer match to several spectators in this process, over
+ * UDP on the loopback interface, in real time. Every spectator but the last polls once a tick,
+ * like a viewer drawing every frame; the last only polls once every few seconds, like a viewer
+ * whose device or connection keeps stalling.
+ *
+ * Prints each spectator's bandwidth, how far behind the match its newest frame was when it
+ * polled, and how many of its frames matched the broadcaster's exactly. Exits with an error if
+ * any decoded frame didn't match, or if any prompt spectator got nothing.
+ *
+ * Usage: SpectatorBandwidth [--option=value ...]
+ *   --ticks       ticks to stream (default 1800, about 30 seconds)
+ *   --balls       chaos mode bonus ball target (default 40)
+ *   --spectators  number of spectators, including the slow one (default 8)
+ *   --interval    ticks between sends (default 2)
+ *   --slowPoll    ticks between the slow spectator's polls (default 180)
+ *   --port        UDP port to broadcast from (default 47200)
+ */
+public class SpectatorBandwidth {
+
+    // ===================================== Constants ==========================================
+
+    // Frames kept to check the spectators' against. More than the spectators keep themselves.
+    private static final int EXPECTED_FRAME_COUNT = 4 * SpectatorBroadcaster.HISTORY_SIZE;
+
+
+    // ================================== Main method ===========================================
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        GameTuner.Options options = new GameTuner.Options(args);
+        int ticks = options.getInt("ticks", 1800);
+        int balls = options.getInt("balls", 40);
+        int spectatorCount = Math.max(2, options.getInt("spectators", 8));
+        int interval = options.getInt("interval", 2);
+        int slowPoll = options.getInt("slowPoll", 180);
+        int port = options.getInt("port", 47200);
+
+        PongScene scene = new PongScene(GameObjects.Scene.BOTH_PADDLES);
+        scene.setRandomSeed(20161018L);
+        scene.setChaosModeTargetBallCount(balls);
+
+        // Keep a copy of every frame the broadcaster records, to check the spectators against.
+        SpectatorFrame[] expected = new SpectatorFrame[EXPECTED_FRAME_COUNT];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = new SpectatorFrame();
+        }
+        ByteBuffer snapshot = ByteBuffer.allocate(GameObjects.Scene.SNAPSHOT_BASE_BYTES +
+                SpectatorFrame.MAX_BALLS * GameObjects.Scene.SNAPSHOT_BYTES_PER_BALL);
+
+        SpectatorBroadcaster broadcaster = new SpectatorBroadcaster(port, interval);
+        Viewer[] viewers = new Viewer[spectatorCount];
+        for (int i = 0; i < spectatorCount; i++) {
+            boolean slow = i == spectatorCount - 1;
+            viewers[i] = new Viewer(slow ? "slow" : "prompt " + i, slow ? slowPoll : 1,
+                    new SpectatorClient(new InetSocketAddress("127.0.0.1", port)));
+        }
+
+        System.out.println(String.format(Locale.US, "Streaming %,d ticks of up to %d balls to " +
+                "%d spectators, sending every %d ticks...", ticks, balls + 1, spectatorCount,
+                interval));
+
+        long tickInNanos = HeadlessMatch.MILLIS_PER_TICK * 1_000_000L;
+        long nextTickNanos = System.nanoTime();
+        long maxBroadcastNanos = 0L;
+        int maxBallCount = 0;
+        for (int tick = 0; tick < ticks; tick++) {
+            if (scene.updateGameObjects(HeadlessMatch.MILLIS_PER_TICK)) {
+                scene.resetAfterPointScored();
+            }
+            maxBallCount = Math.max(maxBallCount, scene.getBallCount());
+
+            long startNanos = System.nanoTime();
+            broadcaster.onUpdate(scene, HeadlessMatch.MILLIS_PER_TICK);
+            maxBroadcastNanos = Math.max(maxBroadcastNanos, System.nanoTime() - startNanos);
+
+            snapshot.clear();
+            scene.writeSnapshot(snapshot, SpectatorFrame.MAX_BALLS);
+            snapshot.flip();
+            expected[tick % expected.length].readSnapshot(snapshot, tick,
+                    HeadlessMatch.MILLIS_PER_TICK);
+
+            for (Viewer viewer : viewers) {
+                viewer.poll(tick, expected);
+            }
+
+            nextTickNanos += tickInNanos;
+            long sleepNanos = nextTickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+            }
+        }
+
+        double seconds = ticks * HeadlessMatch.MILLIS_PER_TICK / 1_000d;
+        System.out.println(String.format(Locale.US, "Broadcaster: %,d packets (%,d keyframes, " +
+                        "%,d dropped), %.1f KB/s total, longest update %.2f ms, most balls %d",
+                broadcaster.getPacketsSent(), broadcaster.getKeyframesSent(),
+                broadcaster.getPacketsDropped(), broadcaster.getBytesSent() / 1_024d / seconds,
+                maxBroadcastNanos / 1_000_000d, maxBallCount));
+
+        boolean ok = true;
+        for (Viewer viewer : viewers) {
+            ok &= viewer.report(seconds);
+            viewer.mClient.close();
+        }
+        broadcaster.close();
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private static boolean framesMatch(final SpectatorFrame a, final SpectatorFrame b) {
+        if (a.getTick() != b.getTick() || a.getLeftScore() != b.getLeftScore() ||
+                a.getRightScore() != b.getRightScore() ||
+                a.getPaddleCenterY(GameObjects.Scene.LEFT_PADDLE) !=
+                        b.getPaddleCenterY(GameObjects.Scene.LEFT_PADDLE) ||
+                a.getPaddleCenterY(GameObjects.Scene.RIGHT_PADDLE) !=
+                        b.getPaddleCenterY(GameObjects.Scene.RIGHT_PADDLE) ||
+                a.getBallCount() != b.getBallCount()) {
+            return false;
+        }
+        for (int i = 0; i < a.getBallCount(); i++) {
+            if (a.getBallCenterX(i) != b.getBallCenterX(i) ||
+                    a.getBallCenterY(i) != b.getBallCenterY(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    /**
+     * One spectator, and what it's seen.
+     */
+    private static class Viewer {
+
+        private final String mName;
+        private final int mPollIntervalTicks;
+        private final SpectatorClient mClient;
+
+        private long mPolls = 0L, mTotalLagTicks = 0L;
+        private int mMaxLagTicks = 0;
+        private long mFramesChecked = 0L, mMismatches = 0L;
+
+        Viewer(String name, int pollIntervalTicks, SpectatorClient client) {
+            mName = name;
+            mPollIntervalTicks = pollIntervalTicks;
+            mClient = client;
+        }
+
+        void poll(final int tick, final SpectatorFrame[] expected) throws IOException {
+            if (tick % mPollIntervalTicks != 0) {
+                return;
+            }
+            mClient.poll();
+            SpectatorFrame frame = mClient.getLatestFrame();
+            if (frame == null) {
+                return;
+            }
+
+            int lagTicks = tick - frame.getTick();
+            mPolls++;
+            mTotalLagTicks += lagTicks;
+            mMaxLagTicks = Math.max(mMaxLagTicks, lagTicks);
+
+            if (lagTicks < expected.length) {
+                mFramesChecked++;
+                if (!framesMatch(frame, expected[frame.getTick() % expected.length])) {
+                    mMismatches++;
+                }
+            }
+        }
+
+        /**
+         * Print the spectator's stats.
+         *
+         * @return true if every frame checked matched, and a prompt spectator got frames at all.
+         */
+        boolean report(final double seconds) {
+            System.out.println(String.format(Locale.US, "%-9s  %6.2f KB/s  frames %,6d  " +
+                            "undecodable %,d  lag avg %.1f max %d ticks  matched %,d/%,d",
+                    mName, mClient.getBytesReceived() / 1_024d / seconds,
+                    mClient.getFramesReceived(), mClient.getUndecodablePackets(),
+                    mPolls == 0 ? 0d : mTotalLagTicks / (double) mPolls, mMaxLagTicks,
+                    mFramesChecked - mMismatches, mFramesChecked));
+            return mMismatches == 0 && (mPollIntervalTicks > 1 || mFramesChecked > 0);
+        }
+    }
+}
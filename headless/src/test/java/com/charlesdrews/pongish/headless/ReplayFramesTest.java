@@ -0,0 +1,123 @@
+package com.charlesdrews.pongish.headless;
+
+import com.charlesdrews.pongish.game.RenderCommandBuffer;
+import com.charlesdrews.pongish.game.objects.GameObjects;
+import com.charlesdrews.pongish.game.objects.GameTuning;
+
+import org.junit.Test;
+
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Renders a seeded replay the way ReplayExporter does and compares every CHECKED_FRAME_INTERVAL
+ * frames against stored checksums, so anything that makes exported frames change, or depend on
+ * something besides the seed, shows up here.
+ *
+ * The policy tables aren't loaded, so the computer paddles head straight for the ball and
+ * regenerating the tables doesn't change the frames. If a change to the game or the renderer is
+ * meant to change them, print the new checksums from renderChecksums() and update
+ * FRAME_CHECKSUMS.
+ */
+public class ReplayFramesTest {
+
+    // ===================================== Constants ==========================================
+
+    private static final long SEED = 20161018L;
+    private static final int WIDTH_IN_PX = 320;
+    private static final int HEIGHT_IN_PX = 180;
+    private static final int CHECKED_FRAME_INTERVAL = 60;
+
+    // CRC32 of the pixels of frames 0, 60, 120, ... 1140.
+    private static final long[] FRAME_CHECKSUMS = {
+            0x95CE18C3L, 0x9360C6E7L, 0xF9C0A1C2L, 0x1D5748BFL, 0xAE510A2CL,
+            0x2D3610E9L, 0xAFE1B66EL, 0x88382934L, 0x16F0A2E2L, 0x860DFDF2L,
+            0x8D5A45E4L, 0xF392FEB6L, 0x1A01CE16L, 0x5D125946L, 0xA87963FCL,
+            0x7A57C60AL, 0x0F903E94L, 0x2AAD65B8L, 0x7C54D6C2L, 0x7FDA2105L
+    };
+
+
+    // ====================================== Tests =============================================
+
+    @Test
+    public void framesMatchStoredChecksums() {
+        assertArrayEquals(FRAME_CHECKSUMS, renderChecksums(FRAME_CHECKSUMS.length));
+    }
+
+    @Test
+    public void framesDontDependOnExportSpeed() throws InterruptedException {
+        long[] fast = renderChecksums(FRAME_CHECKSUMS.length);
+        long[] slow = new long[fast.length];
+        HeadlessMatch match = new HeadlessMatch(GameTuning.DEFAULT,
+                GameObjects.Scene.DIFFICULTY_MEDIUM, SEED);
+        SoftwareRenderer renderer = new SoftwareRenderer(WIDTH_IN_PX, HEIGHT_IN_PX);
+        RenderCommandBuffer buffer = new RenderCommandBuffer();
+        for (int frame = 0; frame < fast.length * CHECKED_FRAME_INTERVAL; frame++) {
+            if (frame % CHECKED_FRAME_INTERVAL == 0) {
+                slow[frame / CHECKED_FRAME_INTERVAL] = render(match, renderer, buffer);
+            }
+
+            // Often enough that anything timed by the wall clock would show.
+            if (frame % 10 == 0) {
+                Thread.sleep(HeadlessMatch.MILLIS_PER_TICK);
+            }
+            match.tick();
+        }
+        assertArrayEquals(fast, slow);
+    }
+
+    @Test
+    public void sameFrameRendersTheSameEveryTime() {
+        HeadlessMatch match = new HeadlessMatch(GameTuning.DEFAULT,
+                GameObjects.Scene.DIFFICULTY_MEDIUM, SEED);
+        for (int frame = 0; frame < 3 * CHECKED_FRAME_INTERVAL; frame++) {
+            match.tick();
+        }
+        RenderCommandBuffer buffer = new RenderCommandBuffer();
+        long first = render(match, new SoftwareRenderer(WIDTH_IN_PX, HEIGHT_IN_PX), buffer);
+        long second = render(match, new SoftwareRenderer(WIDTH_IN_PX, HEIGHT_IN_PX), buffer);
+        assertEquals(first, second);
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    /**
+     * @return the checksums of every CHECKED_FRAME_INTERVAL-th frame of the seeded replay.
+     */
+    private static long[] renderChecksums(final int count) {
+        HeadlessMatch match = new HeadlessMatch(GameTuning.DEFAULT,
+                GameObjects.Scene.DIFFICULTY_MEDIUM, SEED);
+        SoftwareRenderer renderer = new SoftwareRenderer(WIDTH_IN_PX, HEIGHT_IN_PX);
+        RenderCommandBuffer buffer = new RenderCommandBuffer();
+
+        long[] checksums = new long[count];
+        for (int frame = 0; frame < count * CHECKED_FRAME_INTERVAL; frame++) {
+            if (frame % CHECKED_FRAME_INTERVAL == 0) {
+                checksums[frame / CHECKED_FRAME_INTERVAL] = render(match, renderer, buffer);
+            }
+            match.tick();
+        }
+        return checksums;
+    }
+
+    private static long render(final HeadlessMatch match, final SoftwareRenderer renderer,
+                               final RenderCommandBuffer buffer) {
+        buffer.reset();
+        match.getScene().fillRenderCommandBuffer(buffer, 1f);
+        renderer.beginDrawing();
+        renderer.drawCommandBuffer(buffer);
+        renderer.commitDrawing();
+
+        CRC32 crc = new CRC32();
+        for (int pixel : renderer.getPixels()) {
+            crc.update(pixel >>> 24);
+            crc.update(pixel >>> 16);
+            crc.update(pixel >>> 8);
+            crc.update(pixel);
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,120 @@
+package com.charlesdrews.pongish.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One client's TCP connection to the match server. Only the selector thread reads from and writes
+ * to the socket. Tick threads queue states with queueMessage(), which never blocks on the network:
+ * if a client is too slow to keep up, the states it hasn't room for are dropped, and it just sees
+ * the match jump ahead.
+ */
+class ClientConnection {
+
+    // ===================================== Constants ==========================================
+
+    // Room for a few ticks of states, so a short hiccup doesn't drop any.
+    private static final int OUTBOUND_BUFFER_BYTES = 4 * Protocol.MAX_MESSAGE_BYTES;
+
+
+    // ================================= Member variables =======================================
+
+    final SocketChannel mChannel;
+    final SelectionKey mKey;
+    final ByteBuffer mInbound = ByteBuffer.allocate(2 * Protocol.MAX_MESSAGE_BYTES);
+
+    // Set on the selector thread while the client waits for a match, then once it's in one.
+    Matchmaker.Ticket<ClientConnection> mTicket;
+    Match mMatch;
+    int mPaddle;
+
+    // Guarded by itself. Written by tick threads, and drained to the socket by the selector thread.
+    private final ByteBuffer mOutbound = ByteBuffer.allocate(OUTBOUND_BUFFER_BYTES);
+    private boolean mWritePending = false;
+    private long mDroppedMessages = 0L;
+    private volatile boolean mClosed = false;
+
+
+    // =================================== Constructor ==========================================
+
+    ClientConnection(SocketChannel channel, SelectionKey key) {
+        mChannel = channel;
+        mKey = key;
+    }
+
+
+    // ================================== Package methods =======================================
+
+    /**
+     * Copy a whole message into the outbound buffer, or drop it if there isn't room. Safe to call
+     * from any thread.
+     *
+     * @param message holds the message between its position and limit, which are left as is.
+     * @return true if the selector needs to be told this connection has something to write.
+     */
+    boolean queueMessage(final ByteBuffer message) {
+        if (mClosed) {
+            return false;
+        }
+        synchronized (mOutbound) {
+            if (mOutbound.remaining() < message.remaining()) {
+                mDroppedMessages++;
+                return false;
+            }
+            mOutbound.put(message.duplicate());
+            if (mWritePending) {
+                return false;
+            }
+            mWritePending = true;
+            return true;
+        }
+    }
+
+    /**
+     * Write as much of the outbound buffer as the socket will take. Call on the selector thread
+     * only.
+     */
+    void flush() throws IOException {
+        synchronized (mOutbound) {
+            mOutbound.flip();
+            mChannel.write(mOutbound);
+            boolean finished = !mOutbound.hasRemaining();
+            mOutbound.compact();
+
+            // Have the selector say when there's room for the rest.
+            mWritePending = !finished;
+            if (mKey.isValid()) {
+                mKey.interestOps(finished ? SelectionKey.OP_READ :
+                        SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * @return the number of messages dropped since the last call.
+     */
+    long takeDroppedMessages() {
+        synchronized (mOutbound) {
+            long dropped = mDroppedMessages;
+            mDroppedMessages = 0L;
+            return dropped;
+        }
+    }
+
+    void close() {
+        mClosed = true;
+        mKey.cancel();
+        try {
+            mChannel.close();
+        }
+        catch (IOException e) {
+            // Already gone.
+        }
+    }
+
+    boolean isClosed() {
+        return mClosed;
+    }
+}
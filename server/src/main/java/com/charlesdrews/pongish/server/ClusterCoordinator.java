@@ -0,0 +1,621 @@
+package com.charlesdrews.pongish.server;
+
+import com.charlesdrews.pongish.game.objects.GameObjects;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Spreads matches across several ClusterWorker processes on the same machine, so each worker's
+ * heap and tick threads only carry its share, and a worker can be added, stopped or killed
+ * without ending anyone's match.
+ *
+ * Clients connect to the coordinator exactly as they would to a MatchServer, and are paired the
+ * same way, by a Matchmaker. Each match is placed on a worker by consistent hashing of its id,
+ * see HashRing, and the coordinator relays the players' inputs to it and its states back to
+ * them. Workers report their load every second, and checkpoint each match every
+ * CHECKPOINT_INTERVAL_TICKS.
+ *
+ * When a worker joins, only the matches that now hash to it move: each one's old worker snapshots
+ * it after its next tick and the coordinator restores it on the new one. A worker that's stopped
+ * hands all of its matches off the same way before it goes; one that dies takes its matches'
+ * last checkpoints with it, and they carry on from those elsewhere.
+ *
+ * Usage: ClusterCoordinator [--option=value ...]
+ *   --port        TCP port clients connect to (default 47100)
+ *   --workerPort  TCP port workers connect to (default 47101)
+ *   --workers     number of local worker processes to start (default 0, to start them by hand)
+ *   --workerHeap  maximum heap of each started worker, e.g. 256m (default: the JVM's default)
+ */
+public class ClusterCoordinator implements Matchmaker.Listener<ClientConnection> {
+
+    // ===================================== Constants ==========================================
+
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    // As in MatchServer, so a slow client's states are dropped rather than delivered late.
+    private static final int SOCKET_SEND_BUFFER_BYTES = 8 * Protocol.MAX_STATE_BYTES;
+    private static final long STATUS_INTERVAL_IN_MILLIS = 10_000L;
+
+
+    // ================================= Member variables =======================================
+
+    private final int mClientPort, mWorkerPort;
+
+    private Selector mSelector;
+    private ServerSocketChannel mClientServerChannel, mWorkerServerChannel;
+
+    private final HashRing mRing = new HashRing();
+    private final Map<Integer, WorkerLink> mWorkers = new HashMap<>();
+    private final Map<Integer, RemoteMatch> mMatches = new HashMap<>();
+    private final Matchmaker<ClientConnection> mMatchmaker = new Matchmaker<>();
+    private int mNextMatchId = 0;
+
+    // Client connections with states queued this pass, to flush once it's done.
+    private final List<ClientConnection> mPendingFlushes = new ArrayList<>();
+    private final ByteBuffer mJoinedMessage = ByteBuffer.allocate(Protocol.HEADER_BYTES + 8);
+
+    // Stats, reset each time they're printed.
+    private long mMigrations = 0L, mFailovers = 0L, mRestarts = 0L;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param clientPort is the TCP port clients connect to.
+     * @param workerPort is the TCP port workers connect to.
+     */
+    public ClusterCoordinator(final int clientPort, final int workerPort) {
+        mClientPort = clientPort;
+        mWorkerPort = workerPort;
+    }
+
+
+    // ================================== Main method ===========================================
+
+    public static void main(String[] args) throws IOException {
+        MatchServer.Options options = new MatchServer.Options(args);
+        int port = options.getInt("port", MatchServer.DEFAULT_PORT);
+        int workerPort = options.getInt("workerPort", ClusterProtocol.DEFAULT_PORT);
+        int workers = options.getInt("workers", 0);
+        String workerHeap = options.getString("workerHeap", null);
+
+        ClusterCoordinator coordinator = new ClusterCoordinator(port, workerPort);
+        coordinator.start();
+        System.out.println(String.format(Locale.US, "Listening for clients on port %d and " +
+                "workers on port %d", port, workerPort));
+        for (int i = 0; i < workers; i++) {
+            startLocalWorker(workerPort, i, workerHeap);
+        }
+        coordinator.run();
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Start listening for clients and workers.
+     */
+    public void start() throws IOException {
+        mSelector = Selector.open();
+        mClientServerChannel = listen(mClientPort);
+        mWorkerServerChannel = listen(mWorkerPort);
+    }
+
+    /**
+     * Handle connections and form matches on this thread until it's interrupted, printing a
+     * status line every so often.
+     */
+    public void run() throws IOException {
+        long nextStatusMillis = System.currentTimeMillis() + STATUS_INTERVAL_IN_MILLIS;
+        long tickNanos = Protocol.MILLIS_PER_TICK * 1_000_000L;
+        long nextMatchmakingNanos = System.nanoTime();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long timeoutMillis = Math.min(nextStatusMillis - System.currentTimeMillis(),
+                        (nextMatchmakingNanos - System.nanoTime()) / 1_000_000L);
+                mSelector.select(Math.max(1L, timeoutMillis));
+                handleSelectedKeys();
+
+                long nowNanos = System.nanoTime();
+                if (nowNanos - nextMatchmakingNanos >= 0) {
+                    mMatchmaker.formMatches(nowNanos, this);
+                    nextMatchmakingNanos = nowNanos + tickNanos;
+                }
+                flushPendingConnections();
+                flushWorkers();
+
+                if (System.currentTimeMillis() >= nextStatusMillis) {
+                    printStatus();
+                    nextStatusMillis += STATUS_INTERVAL_IN_MILLIS;
+                }
+            }
+        }
+        finally {
+            mClientServerChannel.close();
+            mWorkerServerChannel.close();
+            mSelector.close();
+        }
+    }
+
+
+    // ============================= Matchmaker.Listener methods ================================
+
+    /**
+     * Start a match for a pair of clients, on the worker the ring gives it to. Called on the
+     * selector thread.
+     */
+    @Override
+    public void onMatch(ClientConnection first, ClientConnection second, long firstWaitedNanos,
+                        long secondWaitedNanos) {
+        RemoteMatch match = new RemoteMatch(mNextMatchId++);
+        first.mTicket = null;
+        second.mTicket = null;
+        match.setPlayer(GameObjects.Scene.LEFT_PADDLE, first);
+        match.setPlayer(GameObjects.Scene.RIGHT_PADDLE, second);
+        sendJoined(first);
+        sendJoined(second);
+        mMatches.put(match.getId(), match);
+        place(match);
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private ServerSocketChannel listen(final int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.configureBlocking(false);
+        channel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        channel.register(mSelector, SelectionKey.OP_ACCEPT);
+        return channel;
+    }
+
+    /**
+     * Start a worker process on the same classpath, which connects back to this coordinator.
+     * Its output goes to this process's, so its pid is printed here, for killing it to test
+     * failover.
+     */
+    private static void startLocalWorker(final int workerPort, final int id,
+                                         final String heap) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator +
+                "java";
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        if (heap != null) {
+            command.add("-Xmx" + heap);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ClusterWorker.class.getName());
+        command.add("--coordinator=127.0.0.1:" + workerPort);
+        command.add("--id=" + id);
+        new ProcessBuilder(command).inheritIO().start();
+    }
+
+    private void handleSelectedKeys() throws IOException {
+        Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+
+            if (key.isAcceptable()) {
+                acceptConnections((ServerSocketChannel) key.channel());
+                continue;
+            }
+            if (key.attachment() instanceof WorkerLink) {
+                WorkerLink worker = (WorkerLink) key.attachment();
+                if (key.isReadable()) {
+                    readWorker(worker);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush(worker);
+                }
+                continue;
+            }
+            ClientConnection connection = (ClientConnection) key.attachment();
+            if (key.isReadable()) {
+                readClient(connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush(connection);
+            }
+        }
+    }
+
+    private void acceptConnections(final ServerSocketChannel serverChannel) throws IOException {
+        boolean workers = serverChannel == mWorkerServerChannel;
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            if (!workers) {
+                channel.socket().setSendBufferSize(SOCKET_SEND_BUFFER_BYTES);
+            }
+            SelectionKey key = channel.register(mSelector, SelectionKey.OP_READ);
+            key.attach(workers ? new WorkerLink(channel, key) :
+                    new ClientConnection(channel, key));
+        }
+    }
+
+    private void flushPendingConnections() {
+        for (ClientConnection connection : mPendingFlushes) {
+            if (!connection.isClosed()) {
+                flush(connection);
+            }
+        }
+        mPendingFlushes.clear();
+    }
+
+    private void flushWorkers() {
+
+        // Copy, since dropping a worker changes the map.
+        for (WorkerLink worker : new ArrayList<>(mWorkers.values())) {
+            if (worker.hasPendingWrites() || worker.isOverflowed()) {
+                flush(worker);
+            }
+        }
+    }
+
+
+    // =============================== Client connection methods ================================
+
+    private void readClient(final ClientConnection connection) {
+        ByteBuffer inbound = connection.mInbound;
+        try {
+            if (connection.mChannel.read(inbound) < 0) {
+                disconnect(connection);
+                return;
+            }
+        }
+        catch (IOException e) {
+            disconnect(connection);
+            return;
+        }
+
+        inbound.flip();
+        int messageBytes;
+        while ((messageBytes = Protocol.getCompleteMessageBytes(inbound)) > 0) {
+            int end = inbound.position() + messageBytes;
+            inbound.getInt();
+            handleClientMessage(connection, inbound.get(), inbound);
+            inbound.position(end);
+        }
+        if (messageBytes < 0) {
+            disconnect(connection);
+            return;
+        }
+        inbound.compact();
+    }
+
+    private void handleClientMessage(final ClientConnection connection, final byte type,
+                                     final ByteBuffer payload) {
+        switch (type) {
+            case Protocol.JOIN:
+                if (connection.mMatch == null && connection.mTicket == null) {
+                    int skill = (payload.remaining() >= 4) ? payload.getInt() :
+                            Matchmaker.DEFAULT_SKILL;
+                    connection.mTicket = mMatchmaker.enqueue(connection, skill,
+                            System.nanoTime());
+                }
+                break;
+
+            case Protocol.INPUT:
+                if (connection.mMatch != null && payload.remaining() >= 4) {
+                    float deltaY = payload.getFloat();
+                    if (Protocol.isValidInput(deltaY)) {
+                        connection.mMatch.addInput(connection.mPaddle, deltaY);
+                    }
+                }
+                break;
+
+            default:
+                // Ignore anything else, e.g. from a newer client.
+                break;
+        }
+    }
+
+    private void sendJoined(final ClientConnection connection) {
+        mJoinedMessage.clear();
+        Protocol.putHeader(mJoinedMessage, Protocol.JOINED, 8);
+        mJoinedMessage.putInt(connection.mMatch.getId());
+        mJoinedMessage.putInt(connection.mPaddle);
+        mJoinedMessage.flip();
+        connection.queueMessage(mJoinedMessage);
+        flush(connection);
+    }
+
+    private void flush(final ClientConnection connection) {
+        try {
+            connection.flush();
+        }
+        catch (IOException e) {
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Close the connection, and end its match, since the other player has no one to play, or
+     * stop it waiting for one.
+     */
+    private void disconnect(final ClientConnection connection) {
+        connection.close();
+        if (connection.mTicket != null) {
+            mMatchmaker.cancel(connection.mTicket);
+            connection.mTicket = null;
+        }
+        Match match = connection.mMatch;
+        if (match != null) {
+            mMatches.remove(match.getId());
+            match.end();
+        }
+    }
+
+
+    // ================================ Worker link methods =====================================
+
+    private void readWorker(final WorkerLink worker) {
+        ByteBuffer inbound = worker.mInbound;
+        try {
+            if (worker.mChannel.read(inbound) < 0) {
+                dropWorker(worker);
+                return;
+            }
+        }
+        catch (IOException e) {
+            dropWorker(worker);
+            return;
+        }
+
+        inbound.flip();
+        int messageBytes;
+        while ((messageBytes = Protocol.getCompleteMessageBytes(inbound,
+                ClusterProtocol.MAX_MESSAGE_BYTES)) > 0) {
+            int end = inbound.position() + messageBytes;
+            inbound.getInt();
+            handleWorkerMessage(worker, inbound.get(), inbound, end);
+            if (worker.isClosed()) {
+                return;
+            }
+            inbound.position(end);
+        }
+        if (messageBytes < 0) {
+            dropWorker(worker);
+            return;
+        }
+        inbound.compact();
+    }
+
+    /**
+     * @param payload holds the message's payload from its position to end.
+     */
+    private void handleWorkerMessage(final WorkerLink worker, final byte type,
+                                     final ByteBuffer payload, final int end) {
+        if (type == ClusterProtocol.HELLO) {
+            if (worker.mId < 0 && end - payload.position() >= 4) {
+                addWorker(worker, payload.getInt());
+            }
+            return;
+        }
+        if (worker.mId < 0) {
+
+            // Nothing else counts until the worker's said who it is.
+            dropWorker(worker);
+            return;
+        }
+
+        switch (type) {
+            case ClusterProtocol.LOAD:
+                if (end - payload.position() >= ClusterProtocol.LOAD_PAYLOAD_BYTES) {
+                    worker.mReportedMatchCount = payload.getInt();
+                    worker.mMaxTickLatencyMicros = payload.getInt();
+                    worker.mSkippedTicks += payload.getInt();
+                    worker.mHeapUsedKb = payload.getInt();
+                }
+                break;
+
+            case ClusterProtocol.LEAVING:
+
+                // Its matches all follow as handoffs, and are placed by the ring without it.
+                worker.mLeaving = true;
+                mRing.removeNode(worker.mId);
+                break;
+
+            case ClusterProtocol.STATE:
+                if (end - payload.position() >= 4) {
+                    relayState(worker, payload.getInt(), payload, end);
+                }
+                break;
+
+            case ClusterProtocol.SNAPSHOT:
+                if (end - payload.position() >= 5) {
+                    int matchId = payload.getInt();
+                    boolean handoff = payload.get() != 0;
+                    onSnapshot(worker, matchId, handoff, payload, end);
+                }
+                break;
+
+            default:
+                // Ignore anything else, e.g. from a newer worker.
+                break;
+        }
+    }
+
+    /**
+     * Add a worker to the ring, and move the matches that now belong to it.
+     */
+    private void addWorker(final WorkerLink worker, final int id) {
+        if (id < 0 || mWorkers.containsKey(id)) {
+            System.out.println(String.format(Locale.US, "Refused worker with id %d", id));
+            worker.close();
+            return;
+        }
+        worker.mId = id;
+        mWorkers.put(id, worker);
+        mRing.addNode(id);
+        System.out.println(String.format(Locale.US, "Worker %d joined, %d in the cluster", id,
+                mRing.getNodeCount()));
+
+        for (RemoteMatch match : mMatches.values()) {
+            if (match.mWorker == null) {
+                place(match);
+            }
+            else if (!match.mMigrating && mRing.getNode(match.getId()) != match.mWorker.mId) {
+                match.mMigrating = true;
+                match.mWorker.sendMigrate(match.getId());
+            }
+        }
+    }
+
+    /**
+     * Start or restore a match on the worker the ring gives it to. With no workers, it waits
+     * until one joins.
+     */
+    private void place(final RemoteMatch match) {
+        WorkerLink worker = mWorkers.get(mRing.getNode(match.getId()));
+        if (worker != null) {
+            match.placeOn(worker);
+        }
+    }
+
+    /**
+     * Pass a match's state on to its players.
+     *
+     * @param state holds the whole STATE message from its position to end.
+     */
+    private void relayState(final WorkerLink worker, final int matchId, final ByteBuffer state,
+                            final int end) {
+        RemoteMatch match = mMatches.get(matchId);
+        if (match == null || match.mWorker != worker) {
+            return;
+        }
+
+        int limit = state.limit();
+        state.limit(end);
+        for (ClientConnection player : match.mPlayers) {
+            if (player != null && player.queueMessage(state)) {
+                mPendingFlushes.add(player);
+            }
+        }
+        state.limit(limit);
+    }
+
+    /**
+     * Keep a match's checkpoint, or, if the worker's handed the match off, restore it on the
+     * worker it now belongs to.
+     *
+     * @param snapshot holds the snapshot from its position to end.
+     */
+    private void onSnapshot(final WorkerLink worker, final int matchId, final boolean handoff,
+                            final ByteBuffer snapshot, final int end) {
+        RemoteMatch match = mMatches.get(matchId);
+        if (match == null || match.mWorker != worker) {
+
+            // Ended while the snapshot was on its way. The worker drops it on the END.
+            return;
+        }
+
+        int bytes = end - snapshot.position();
+        if (bytes > 0 || handoff) {
+
+            // An empty handoff means it was too big to snapshot, so it starts over.
+            match.setSnapshot(snapshot.array(), snapshot.arrayOffset() + snapshot.position(),
+                    bytes);
+        }
+        if (handoff) {
+            match.detach();
+            place(match);
+            mMigrations++;
+        }
+    }
+
+    private void flush(final WorkerLink worker) {
+        if (worker.isOverflowed()) {
+            dropWorker(worker);
+            return;
+        }
+        try {
+            worker.flush();
+        }
+        catch (IOException e) {
+            dropWorker(worker);
+        }
+    }
+
+    /**
+     * Close the link, and carry the worker's matches on elsewhere from their last checkpoints.
+     */
+    private void dropWorker(final WorkerLink worker) {
+        worker.close();
+        if (worker.mId < 0 || mWorkers.get(worker.mId) != worker) {
+            return;
+        }
+        mWorkers.remove(worker.mId);
+        mRing.removeNode(worker.mId);
+        System.out.println(String.format(Locale.US, "Worker %d %s with %,d matches, %d left in " +
+                        "the cluster", worker.mId, worker.mLeaving ? "left" : "failed",
+                worker.mMatchCount, mRing.getNodeCount()));
+
+        for (RemoteMatch match : mMatches.values()) {
+            if (match.mWorker == worker) {
+                if (match.mSnapshotBytes > 0) {
+                    mFailovers++;
+                }
+                else {
+                    mRestarts++;
+                }
+                match.detach();
+                place(match);
+            }
+        }
+    }
+
+    private void printStatus() {
+        int connections = 0;
+        long droppedStates = 0L;
+        for (SelectionKey key : mSelector.keys()) {
+            if (key.isValid() && key.attachment() instanceof ClientConnection) {
+                connections++;
+                droppedStates += ((ClientConnection) key.attachment()).takeDroppedMessages();
+            }
+        }
+        int unplaced = 0;
+        for (RemoteMatch match : mMatches.values()) {
+            if (match.mWorker == null) {
+                unplaced++;
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "%,d matches (%,d waiting for a worker), " +
+                        "%,d players waiting for a match, %,d connections; %,d migrated, " +
+                        "%,d failed over, %,d restarted, %,d states dropped", mMatches.size(),
+                unplaced, mMatchmaker.getWaitingCount(), connections, mMigrations, mFailovers,
+                mRestarts, droppedStates));
+        for (WorkerLink worker : mWorkers.values()) {
+            System.out.println(String.format(Locale.US, "  worker %d: %,d matches (%,d " +
+                            "reported), longest tick %.1f ms after due, %,d ticks skipped, " +
+                            "heap %,d MB%s", worker.mId, worker.mMatchCount,
+                    worker.mReportedMatchCount, worker.mMaxTickLatencyMicros / 1_000d,
+                    worker.mSkippedTicks, worker.mHeapUsedKb / 1_024,
+                    worker.mLeaving ? ", leaving" : ""));
+            worker.mSkippedTicks = 0;
+        }
+        mMigrations = 0L;
+        mFailovers = 0L;
+        mRestarts = 0L;
+    }
+}
@@ -0,0 +1,56 @@
+package com.charlesdrews.pongish.server;
+
+/**
+ * The messages between a ClusterCoordinator and its ClusterWorkers, over TCP. They're framed the
+ * same way as Protocol's: an int length, counting the bytes after it, then a type byte, then the
+ * type's payload, all big endian.
+ *
+ *   HELLO     worker to coordinator, first: the worker's id (int).
+ *   LOAD      worker to coordinator, every second: matches (int), longest tick latency in
+ *             microseconds (int), ticks skipped (int), and heap used in KB (int).
+ *   LEAVING   worker to coordinator, no payload: place nothing more here. Every match follows
+ *             as a handoff SNAPSHOT, then the worker disconnects.
+ *   START     coordinator to worker: match id (int). Start a new match.
+ *   INPUT     coordinator to worker: match id (int), paddle (int), then how far to move the
+ *             paddle, in board units (float).
+ *   END       coordinator to worker: match id (int). Drop the match.
+ *   MIGRATE   coordinator to worker: match id (int). Hand the match off after its next tick.
+ *   RESTORE   coordinator to worker: match id (int), then the match's snapshot, as written by
+ *             ServerMatch.writeSnapshot(). Carry the match on from the snapshot.
+ *   STATE     worker to coordinator, once per match per tick: match id (int), then the whole
+ *             Protocol STATE message for the match's players.
+ *   SNAPSHOT  worker to coordinator: match id (int), handoff (byte, 1 if the worker has dropped
+ *             the match, 0 for a periodic checkpoint), then the snapshot.
+ */
+class ClusterProtocol {
+
+    // ===================================== Constants ==========================================
+
+    static final int DEFAULT_PORT = 47101;
+
+    static final byte HELLO = 11;
+    static final byte LOAD = 12;
+    static final byte LEAVING = 13;
+    static final byte START = 14;
+    static final byte INPUT = 15;
+    static final byte END = 16;
+    static final byte MIGRATE = 17;
+    static final byte RESTORE = 18;
+    static final byte STATE = 19;
+    static final byte SNAPSHOT = 20;
+
+    static final int LOAD_PAYLOAD_BYTES = 16;
+    static final int INPUT_PAYLOAD_BYTES = 12;
+
+    // Workers checkpoint each match this often, so a worker that dies without handing its
+    // matches off only sets them back this far.
+    static final int CHECKPOINT_INTERVAL_TICKS = 60;
+
+    // Room for a snapshot with a few thousand balls, far more than a server match ever has.
+    static final int MAX_MESSAGE_BYTES = 256 * 1024;
+
+
+    // =================================== Constructor ==========================================
+
+    private ClusterProtocol() {}
+}
@@ -0,0 +1,423 @@
+package com.charlesdrews.pongish.server;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One worker process of a match cluster. It steps whichever matches its ClusterCoordinator places
+ * on it, on its own TickShards, and sends each match's state back every tick, along with a
+ * checkpoint of the match every CHECKPOINT_INTERVAL_TICKS.
+ *
+ * The coordinator can ask for any match back, e.g. when a new worker joins and the match now
+ * belongs to it; the match is snapshotted after its next tick and dropped here. Stopping the
+ * process normally, e.g. with kill, hands every match back the same way before it exits, so only
+ * a worker that dies outright sets its matches back to their last checkpoints.
+ *
+ * Usage: ClusterWorker [--option=value ...]
+ *   --coordinator  host:port the coordinator listens for workers on (default 127.0.0.1:47101)
+ *   --id           the worker's id, unique in the cluster (default: the process id)
+ *   --tickThreads  number of tick threads (default 1)
+ */
+public class ClusterWorker implements TickShard.Host {
+
+    // ===================================== Constants ==========================================
+
+    private static final long LOAD_INTERVAL_IN_MILLIS = 1_000L;
+    private static final long LEAVE_TIMEOUT_IN_MILLIS = 2_000L;
+
+    // Starting size of each tick thread's batch of messages; it grows if a tick needs more.
+    private static final int BATCH_BYTES = 64 * 1024;
+
+
+    // ================================= Member variables =======================================
+
+    private final int mId;
+    private final TickShard[] mShards;
+    private final Thread[] mShardThreads;
+    private SocketChannel mChannel;
+
+    // Every match placed here, by id. Added and removed on the reader thread, except that tick
+    // threads remove the matches they hand off.
+    private final Map<Integer, ServerMatch> mMatches = new ConcurrentHashMap<>();
+    private int mNextShard = 0;
+    private volatile boolean mLeaving = false;
+
+    // Each tick thread's messages, written to the coordinator in one go at the end of its tick.
+    private final ThreadLocal<ByteBuffer> mBatches = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(BATCH_BYTES);
+        }
+    };
+
+    // Guards writes to the channel, from the tick threads and the load reporter.
+    private final Object mWriteLock = new Object();
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param id is the worker's id, unique in the cluster.
+     * @param tickThreads is the number of threads to step matches on.
+     */
+    public ClusterWorker(final int id, final int tickThreads) {
+        mId = id;
+
+        long tickNanos = Protocol.MILLIS_PER_TICK * 1_000_000L;
+        long startNanos = System.nanoTime() + tickNanos;
+        mShards = new TickShard[tickThreads];
+        mShardThreads = new Thread[tickThreads];
+        for (int i = 0; i < tickThreads; i++) {
+            mShards[i] = new TickShard(this, startNanos, tickNanos);
+            mShardThreads[i] = new Thread(mShards[i], "TickShard-" + i);
+            mShardThreads[i].setDaemon(true);
+        }
+    }
+
+
+    // ================================== Main method ===========================================
+
+    public static void main(String[] args) throws IOException {
+        MatchServer.Options options = new MatchServer.Options(args);
+        String coordinator = options.getString("coordinator",
+                "127.0.0.1:" + ClusterProtocol.DEFAULT_PORT);
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        int id = options.getInt("id", Integer.parseInt(pid));
+        int tickThreads = options.getInt("tickThreads", 1);
+
+        int colon = coordinator.lastIndexOf(':');
+        final ClusterWorker worker = new ClusterWorker(id, tickThreads);
+        worker.connect(new InetSocketAddress(coordinator.substring(0, colon),
+                Integer.parseInt(coordinator.substring(colon + 1))));
+        System.out.println(String.format(Locale.US, "Worker %d is process %s, connected to %s " +
+                "with %d tick threads", id, pid, coordinator, tickThreads));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                worker.leave();
+            }
+        }, "ClusterWorker-leave"));
+        worker.run();
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Connect to the coordinator, say hello, and start the tick threads.
+     */
+    public void connect(final InetSocketAddress coordinator) throws IOException {
+        mChannel = SocketChannel.open(coordinator);
+        mChannel.socket().setTcpNoDelay(true);
+
+        ByteBuffer hello = ByteBuffer.allocate(Protocol.HEADER_BYTES + 4);
+        Protocol.putHeader(hello, ClusterProtocol.HELLO, 4);
+        hello.putInt(mId);
+        hello.flip();
+        write(hello);
+
+        for (Thread thread : mShardThreads) {
+            thread.start();
+        }
+        Thread loadReporter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reportLoad();
+            }
+        }, "ClusterWorker-load");
+        loadReporter.setDaemon(true);
+        loadReporter.start();
+    }
+
+    /**
+     * Handle the coordinator's messages on this thread until it disconnects.
+     */
+    public void run() {
+        ByteBuffer inbound = ByteBuffer.allocate(2 * ClusterProtocol.MAX_MESSAGE_BYTES);
+        try {
+            while (mChannel.read(inbound) >= 0) {
+                inbound.flip();
+                int messageBytes;
+                while ((messageBytes = Protocol.getCompleteMessageBytes(inbound,
+                        ClusterProtocol.MAX_MESSAGE_BYTES)) > 0) {
+                    int end = inbound.position() + messageBytes;
+                    inbound.getInt();
+                    byte type = inbound.get();
+                    if (end - inbound.position() >= 4) {
+                        handleMessage(type, inbound.getInt(), inbound, end);
+                    }
+                    inbound.position(end);
+                }
+                if (messageBytes < 0) {
+                    break;
+                }
+                inbound.compact();
+            }
+        }
+        catch (IOException e) {
+            // The coordinator's gone, so there's nothing left to do.
+        }
+        if (!mLeaving) {
+            System.out.println(String.format(Locale.US, "Worker %d lost its coordinator", mId));
+            try {
+                mChannel.close();
+            }
+            catch (IOException e) {
+                // Already gone.
+            }
+        }
+    }
+
+
+    // =============================== TickShard.Host methods ===================================
+
+    @Override
+    public void sendState(ServerMatch match, ByteBuffer state) {
+        ByteBuffer batch = reserve(Protocol.HEADER_BYTES + 4 + state.remaining());
+        Protocol.putHeader(batch, ClusterProtocol.STATE, 4 + state.remaining());
+        batch.putInt(match.getId());
+        batch.put(state.duplicate());
+
+        if (match.isHandoffRequested()) {
+            putSnapshot(match, true);
+
+            // Dropped from its shard before the next tick, without closing anything.
+            mMatches.remove(match.getId());
+            match.end();
+        }
+        else if (match.getTick() % ClusterProtocol.CHECKPOINT_INTERVAL_TICKS == 0) {
+            putSnapshot(match, false);
+        }
+    }
+
+    @Override
+    public void onTickFinished() {
+        ByteBuffer batch = mBatches.get();
+        if (batch.position() == 0) {
+            return;
+        }
+        batch.flip();
+        try {
+            write(batch);
+        }
+        catch (IOException e) {
+            // The reader thread finds out the coordinator's gone.
+        }
+        batch.clear();
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    /**
+     * @param payload holds the rest of the message, after the match id, from its position to
+     *                end.
+     */
+    private void handleMessage(final byte type, final int matchId, final ByteBuffer payload,
+                               final int end) {
+        ServerMatch match;
+        switch (type) {
+            case ClusterProtocol.START:
+                addMatch(new ServerMatch(matchId));
+                break;
+
+            case ClusterProtocol.RESTORE:
+                match = new ServerMatch(matchId);
+                if (end > payload.position()) {
+                    try {
+                        match.restoreSnapshot(payload);
+                    }
+                    catch (IllegalArgumentException e) {
+                        System.out.println(String.format(Locale.US, "Restarting match %d: %s",
+                                matchId, e.getMessage()));
+                        match = new ServerMatch(matchId);
+                    }
+                }
+                addMatch(match);
+                break;
+
+            case ClusterProtocol.INPUT:
+                match = mMatches.get(matchId);
+                if (match != null && end - payload.position() >= 8) {
+                    int paddle = payload.getInt();
+                    if (paddle == 0 || paddle == 1) {
+                        match.addInput(paddle, payload.getFloat());
+                    }
+                }
+                break;
+
+            case ClusterProtocol.END:
+                match = mMatches.remove(matchId);
+                if (match != null) {
+                    match.end();
+                }
+                break;
+
+            case ClusterProtocol.MIGRATE:
+                match = mMatches.get(matchId);
+                if (match != null) {
+                    match.requestHandoff();
+                }
+                break;
+
+            default:
+                // Ignore anything else, e.g. from a newer coordinator.
+                break;
+        }
+    }
+
+    private void addMatch(final ServerMatch match) {
+        mMatches.put(match.getId(), match);
+
+        // Placed here after this worker said it was leaving, so it goes straight back.
+        if (mLeaving) {
+            match.requestHandoff();
+        }
+        mShards[mNextShard].addMatch(match);
+        mNextShard = (mNextShard + 1) % mShards.length;
+    }
+
+    /**
+     * Add a SNAPSHOT message to this tick thread's batch. A match too big to snapshot is handed
+     * off empty, to start over.
+     */
+    private void putSnapshot(final ServerMatch match, final boolean handoff) {
+        ByteBuffer batch = reserve(ClusterProtocol.MAX_MESSAGE_BYTES);
+        int start = batch.position();
+        batch.position(start + Protocol.HEADER_BYTES);
+        batch.putInt(match.getId());
+        batch.put((byte) (handoff ? 1 : 0));
+
+        int limit = batch.limit();
+        batch.limit(start + ClusterProtocol.MAX_MESSAGE_BYTES);
+        boolean written = match.writeSnapshot(batch);
+        batch.limit(limit);
+        if (!written && !handoff) {
+            batch.position(start);
+            return;
+        }
+
+        int end = batch.position();
+        batch.position(start);
+        Protocol.putHeader(batch, ClusterProtocol.SNAPSHOT, end - start - Protocol.HEADER_BYTES);
+        batch.position(end);
+    }
+
+    /**
+     * @return this tick thread's batch, grown if need be to fit a message of the given size.
+     */
+    private ByteBuffer reserve(final int messageBytes) {
+        ByteBuffer batch = mBatches.get();
+        if (batch.remaining() < messageBytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(
+                    Math.max(2 * batch.capacity(), batch.position() + messageBytes));
+            batch.flip();
+            bigger.put(batch);
+            mBatches.set(bigger);
+            batch = bigger;
+        }
+        return batch;
+    }
+
+    private void write(final ByteBuffer message) throws IOException {
+        synchronized (mWriteLock) {
+            while (message.hasRemaining()) {
+                mChannel.write(message);
+            }
+        }
+    }
+
+    /**
+     * Send the coordinator a LOAD message every LOAD_INTERVAL_IN_MILLIS, on this thread, until
+     * the connection closes.
+     */
+    private void reportLoad() {
+        ByteBuffer load = ByteBuffer.allocate(
+                Protocol.HEADER_BYTES + ClusterProtocol.LOAD_PAYLOAD_BYTES);
+        Runtime runtime = Runtime.getRuntime();
+        while (mChannel.isOpen()) {
+            try {
+                Thread.sleep(LOAD_INTERVAL_IN_MILLIS);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+
+            int matches = 0;
+            long maxTickLatencyNanos = 0L, skippedTicks = 0L;
+            for (TickShard shard : mShards) {
+                matches += shard.getMatchCount();
+                maxTickLatencyNanos = Math.max(maxTickLatencyNanos,
+                        shard.takeMaxTickLatencyNanos());
+                skippedTicks += shard.takeSkippedTicks();
+            }
+
+            load.clear();
+            Protocol.putHeader(load, ClusterProtocol.LOAD, ClusterProtocol.LOAD_PAYLOAD_BYTES);
+            load.putInt(matches);
+            load.putInt((int) Math.min(Integer.MAX_VALUE, maxTickLatencyNanos / 1_000L));
+            load.putInt((int) Math.min(Integer.MAX_VALUE, skippedTicks));
+            load.putInt((int) ((runtime.totalMemory() - runtime.freeMemory()) / 1_024L));
+            load.flip();
+            try {
+                write(load);
+            }
+            catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Tell the coordinator this worker is going, hand every match back, and wait a little for
+     * the handoffs to be sent before disconnecting.
+     */
+    private void leave() {
+        if (!mChannel.isOpen()) {
+            return;
+        }
+        mLeaving = true;
+        ByteBuffer leaving = ByteBuffer.allocate(Protocol.HEADER_BYTES);
+        Protocol.putHeader(leaving, ClusterProtocol.LEAVING, 0);
+        leaving.flip();
+        try {
+            write(leaving);
+        }
+        catch (IOException e) {
+            return;
+        }
+
+        for (ServerMatch match : mMatches.values()) {
+            match.requestHandoff();
+        }
+        long deadlineMillis = System.currentTimeMillis() + LEAVE_TIMEOUT_IN_MILLIS;
+        while (!mMatches.isEmpty() && System.currentTimeMillis() < deadlineMillis) {
+            try {
+                Thread.sleep(Protocol.MILLIS_PER_TICK);
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        // Let the last tick's batch go out too.
+        try {
+            Thread.sleep(2 * Protocol.MILLIS_PER_TICK);
+            synchronized (mWriteLock) {
+                mChannel.close();
+            }
+        }
+        catch (InterruptedException | IOException e) {
+            // Exiting anyway.
+        }
+        System.out.println(String.format(Locale.US, "Worker %d left, %,d matches not handed off",
+                mId, mMatches.size()));
+    }
+}
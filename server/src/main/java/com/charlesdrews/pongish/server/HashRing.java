@@ -0,0 +1,131 @@
+package com.charlesdrews.pongish.server;
+
+import java.util.Arrays;
+
+/**
+ * Consistent hashing of match ids onto nodes, e.g. the worker processes of a cluster. Each node
+ * owns VIRTUAL_NODES points around a ring of 32 bit hashes, and a match belongs to the node with
+ * the first point at or after the match id's hash. Adding or removing a node only moves the
+ * matches between its points and the ones before them, about 1/n of the matches, rather than
+ * reshuffling them all.
+ *
+ * The points are kept in sorted arrays, rebuilt when the nodes change, so a lookup is a binary
+ * search that doesn't allocate. Not thread safe.
+ */
+class HashRing {
+
+    // ===================================== Constants ==========================================
+
+    // Points per node. More spread matches more evenly, at the cost of a bigger ring.
+    static final int VIRTUAL_NODES = 128;
+
+    // Mixed into the points' keys, so they aren't the same small ints as the keys looked up,
+    // which would give every key to whichever node has its exact hash as a point.
+    private static final int POINT_SALT = 0x5BD1E995;
+
+
+    // ================================= Member variables =======================================
+
+    private int[] mNodes = new int[0];
+    private int[] mPointHashes = new int[0];
+    private int[] mPointNodes = new int[0];
+
+
+    // ================================== Package methods =======================================
+
+    /**
+     * @param node is the node's id, which must be unique and not negative.
+     */
+    void addNode(final int node) {
+        if (containsNode(node)) {
+            return;
+        }
+        int[] nodes = Arrays.copyOf(mNodes, mNodes.length + 1);
+        nodes[mNodes.length] = node;
+        rebuild(nodes);
+    }
+
+    void removeNode(final int node) {
+        if (!containsNode(node)) {
+            return;
+        }
+        int[] nodes = new int[mNodes.length - 1];
+        int i = 0;
+        for (int existing : mNodes) {
+            if (existing != node) {
+                nodes[i++] = existing;
+            }
+        }
+        rebuild(nodes);
+    }
+
+    boolean containsNode(final int node) {
+        for (int existing : mNodes) {
+            if (existing == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getNodeCount() {
+        return mNodes.length;
+    }
+
+    /**
+     * @return the node the key belongs to, or -1 if there are no nodes.
+     */
+    int getNode(final int key) {
+        if (mPointHashes.length == 0) {
+            return -1;
+        }
+        int index = Arrays.binarySearch(mPointHashes, hash(key));
+        if (index < 0) {
+
+            // Not a point itself, so take the next point round the ring.
+            index = -index - 1;
+            if (index == mPointHashes.length) {
+                index = 0;
+            }
+        }
+        return mPointNodes[index];
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private void rebuild(final int[] nodes) {
+        int pointCount = nodes.length * VIRTUAL_NODES;
+        long[] points = new long[pointCount];
+        for (int i = 0; i < nodes.length; i++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+
+                // Sort by hash, then by node, so the order doesn't depend on the order added.
+                long pointHash = hash((nodes[i] * VIRTUAL_NODES + v) ^ POINT_SALT);
+                points[i * VIRTUAL_NODES + v] = (pointHash << 32) | (nodes[i] & 0xFFFFFFFFL);
+            }
+        }
+        Arrays.sort(points);
+
+        mNodes = nodes;
+        mPointHashes = new int[pointCount];
+        mPointNodes = new int[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            mPointHashes[i] = (int) (points[i] >> 32);
+            mPointNodes[i] = (int) points[i];
+        }
+    }
+
+    /**
+     * Scramble the bits of an int, so consecutive ids land all round the ring. This is the
+     * finalizer from MurmurHash3, which maps every int to a different one.
+     */
+    private static int hash(int value) {
+        value ^= value >>> 16;
+        value *= 0x85EBCA6B;
+        value ^= value >>> 13;
+        value *= 0xC2B2AE35;
+        value ^= value >>> 16;
+        return value;
+    }
+}
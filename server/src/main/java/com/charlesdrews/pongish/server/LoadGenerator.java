@@ -0,0 +1,268 @@
+package com.charlesdrews.pongish.server;
+
+import com.charlesdrews.pongish.game.objects.GameObjects;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Connects many bot players to a running MatchServer, from one selector thread, and reports how
+ * well the server keeps up. Each bot joins a match and answers every state with an input moving
+ * its paddle toward the normal ball, so the server sees realistic traffic both ways. Bots join
+ * with skills spread around Matchmaker.DEFAULT_SKILL, so the server's matchmaking has real work.
+ *
+ * Every second it prints the states received and the longest gap any bot saw between two states;
+ * at 60 ticks per second, a gap much over 16 ms means a tick ran late or a state was dropped.
+ *
+ * Usage: LoadGenerator [--option=value ...]
+ *   --host     server address (default 127.0.0.1)
+ *   --port     server port (default 47100)
+ *   --bots     number of bots, two per match (default 2000)
+ *   --seconds  how long to run once every bot has connected (default 30)
+ */
+public class LoadGenerator {
+
+    // ===================================== Constants ==========================================
+
+    // Open this many connections per pass of the selector loop, to avoid flooding the backlog.
+    private static final int CONNECTS_PER_PASS = 100;
+
+    // How far a bot moves its paddle per state, at most, in board units.
+    private static final float MAX_MOVE_PER_STATE = 0.03f;
+
+    private static final long REPORT_INTERVAL_IN_NANOS = 1_000_000_000L;
+
+    // Standard deviation of the bots' skills.
+    private static final int SKILL_SPREAD = 350;
+
+
+    // ================================= Member variables =======================================
+
+    private final InetSocketAddress mAddress;
+    private final Bot[] mBots;
+    private final Selector mSelector;
+    private final ByteBuffer mOutbound = ByteBuffer.allocate(Protocol.HEADER_BYTES + 4);
+    private final Random mRandom = new Random(20161018L);
+
+    // Stats for the current report interval.
+    private long mStatesReceived = 0L;
+    private long mMaxStateGapNanos = 0L;
+    private int mJoinedBots = 0, mDisconnectedBots = 0;
+
+
+    // =================================== Constructor ==========================================
+
+    private LoadGenerator(InetSocketAddress address, int bots) throws IOException {
+        mAddress = address;
+        mBots = new Bot[bots];
+        mSelector = Selector.open();
+    }
+
+
+    // ================================== Main method ===========================================
+
+    public static void main(String[] args) throws IOException {
+        MatchServer.Options options = new MatchServer.Options(args);
+        String host = options.getString("host", "127.0.0.1");
+        int port = options.getInt("port", MatchServer.DEFAULT_PORT);
+        int bots = options.getInt("bots", 2000);
+        int seconds = options.getInt("seconds", 30);
+
+        System.out.println(String.format(Locale.US, "Connecting %,d bots to %s:%d...", bots,
+                host, port));
+        new LoadGenerator(new InetSocketAddress(host, port), bots).run(seconds);
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private void run(final int seconds) throws IOException {
+        int connected = 0;
+        long endNanos = Long.MAX_VALUE;
+        long nextReportNanos = System.nanoTime() + REPORT_INTERVAL_IN_NANOS;
+
+        while (System.nanoTime() < endNanos) {
+            for (int i = 0; i < CONNECTS_PER_PASS && connected < mBots.length; i++) {
+                mBots[connected++] = connect();
+            }
+            if (connected == mBots.length && endNanos == Long.MAX_VALUE) {
+                endNanos = System.nanoTime() + seconds * 1_000_000_000L;
+            }
+
+            mSelector.select(1L);
+            handleSelectedKeys();
+
+            long now = System.nanoTime();
+            if (now >= nextReportNanos) {
+                System.out.println(String.format(Locale.US, "%,d joined, %,d disconnected; " +
+                                "%,d states/s, longest gap between states %.1f ms",
+                        mJoinedBots, mDisconnectedBots, mStatesReceived,
+                        mMaxStateGapNanos / 1_000_000d));
+                mStatesReceived = 0L;
+                mMaxStateGapNanos = 0L;
+                nextReportNanos += REPORT_INTERVAL_IN_NANOS;
+            }
+        }
+
+        for (Bot bot : mBots) {
+            bot.mChannel.close();
+        }
+        mSelector.close();
+    }
+
+    private Bot connect() throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.connect(mAddress);
+        Bot bot = new Bot(channel);
+        channel.register(mSelector, SelectionKey.OP_CONNECT, bot);
+        return bot;
+    }
+
+    private void handleSelectedKeys() {
+        Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Bot bot = (Bot) key.attachment();
+            try {
+                if (key.isValid() && key.isConnectable()) {
+                    bot.mChannel.finishConnect();
+                    key.interestOps(SelectionKey.OP_READ);
+                    join(bot);
+                }
+                else if (key.isValid() && key.isReadable()) {
+                    read(bot);
+                }
+            }
+            catch (IOException e) {
+                disconnect(bot, key);
+            }
+        }
+    }
+
+    /**
+     * Read and handle everything that's arrived, so a bot never falls behind on old states.
+     */
+    private void read(final Bot bot) throws IOException {
+        int bytesRead;
+        do {
+            bytesRead = bot.mChannel.read(bot.mInbound);
+            if (bytesRead < 0) {
+                throw new IOException("Server closed the connection");
+            }
+            handleMessages(bot);
+        } while (bytesRead > 0);
+    }
+
+    private void handleMessages(final Bot bot) throws IOException {
+        ByteBuffer inbound = bot.mInbound;
+        inbound.flip();
+        int messageBytes;
+        while ((messageBytes = Protocol.getCompleteMessageBytes(inbound)) > 0) {
+            int start = inbound.position();
+            byte type = inbound.get(start + 4);
+            if (type == Protocol.JOINED) {
+                bot.mPaddle = inbound.getInt(start + Protocol.HEADER_BYTES + 4);
+                mJoinedBots++;
+            }
+            else if (type == Protocol.STATE) {
+                onState(bot, inbound, start);
+            }
+            inbound.position(start + messageBytes);
+        }
+        if (messageBytes < 0) {
+            throw new IOException("Invalid message from server");
+        }
+        inbound.compact();
+    }
+
+    private void onState(final Bot bot, final ByteBuffer state, final int start)
+            throws IOException {
+        long now = System.nanoTime();
+        if (bot.mLastStateNanos != 0L) {
+            mMaxStateGapNanos = Math.max(mMaxStateGapNanos, now - bot.mLastStateNanos);
+        }
+        bot.mLastStateNanos = now;
+        mStatesReceived++;
+
+        float paddleY = state.getFloat(start + (bot.mPaddle == GameObjects.Scene.LEFT_PADDLE ?
+                Protocol.STATE_LEFT_PADDLE_Y_OFFSET : Protocol.STATE_RIGHT_PADDLE_Y_OFFSET));
+        float ballY = state.getFloat(start + Protocol.STATE_NORMAL_BALL_Y_OFFSET);
+        float move = Math.max(-MAX_MOVE_PER_STATE, Math.min(MAX_MOVE_PER_STATE, ballY - paddleY));
+        send(bot, Protocol.INPUT, move);
+    }
+
+    /**
+     * Ask to join a match, with a random skill.
+     */
+    private void join(final Bot bot) throws IOException {
+        mOutbound.clear();
+        Protocol.putHeader(mOutbound, Protocol.JOIN, 4);
+        mOutbound.putInt((int) Math.round(Matchmaker.DEFAULT_SKILL +
+                mRandom.nextGaussian() * SKILL_SPREAD));
+        mOutbound.flip();
+        write(bot);
+    }
+
+    /**
+     * Send a message with no payload, or with one float if it isn't NaN.
+     */
+    private void send(final Bot bot, final byte type, final float payload) throws IOException {
+        boolean hasPayload = !Float.isNaN(payload);
+        mOutbound.clear();
+        Protocol.putHeader(mOutbound, type, hasPayload ? 4 : 0);
+        if (hasPayload) {
+            mOutbound.putFloat(payload);
+        }
+        mOutbound.flip();
+        write(bot);
+    }
+
+    /**
+     * Write out the message in mOutbound. If the socket's buffer is full, the message is dropped,
+     * like a real client's input would be late; if only part of it fits, the rest is sent before
+     * returning, so the server never sees half a message.
+     */
+    private void write(final Bot bot) throws IOException {
+        if (bot.mChannel.write(mOutbound) > 0) {
+            while (mOutbound.hasRemaining()) {
+                bot.mChannel.write(mOutbound);
+            }
+        }
+    }
+
+    private void disconnect(final Bot bot, final SelectionKey key) {
+        key.cancel();
+        try {
+            bot.mChannel.close();
+        }
+        catch (IOException e) {
+            // Already gone.
+        }
+        mDisconnectedBots++;
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    private static class Bot {
+
+        final SocketChannel mChannel;
+        final ByteBuffer mInbound = ByteBuffer.allocate(2 * Protocol.MAX_MESSAGE_BYTES);
+        int mPaddle;
+        long mLastStateNanos = 0L;
+
+        Bot(SocketChannel channel) {
+            mChannel = channel;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.charlesdrews.pongish.server;
+
+/**
+ * A match as a server's selector thread sees it: two clients, and somewhere to send their inputs,
+ * wherever the match is actually stepped.
+ */
+interface Match {
+
+    int getId();
+
+    /**
+     * Add a client's input, to be applied on the match's next tick.
+     */
+    void addInput(int paddle, float deltaY);
+
+    /**
+     * End the match and disconnect whoever is still playing.
+     */
+    void end();
+}
@@ -0,0 +1,421 @@
+package com.charlesdrews.pongish.server;
+
+import com.charlesdrews.pongish.game.objects.GameObjects;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs matches authoritatively for networked clients: the server steps every PongScene, clients
+ * only send their paddle inputs, and each gets the match's state back every tick.
+ *
+ * One selector thread handles every connection, without blocking. Clients who join wait in a
+ * Matchmaker, which pairs them by skill once a tick, and each match is handed to whichever of a
+ * fixed pool of TickShards has the fewest matches. The shards step their matches on a shared
+ * fixed-rate schedule and queue the states for the selector thread to send. A slow client only
+ * ever loses its own states, so it can't hold up a tick.
+ *
+ * Usage: MatchServer [--option=value ...]
+ *   --port         TCP port to listen on (default 47100)
+ *   --tickThreads  number of tick threads (default: one per core)
+ */
+public class MatchServer implements TickShard.Host, Matchmaker.Listener<ClientConnection> {
+
+    // ===================================== Constants ==========================================
+
+    public static final int DEFAULT_PORT = 47100;
+
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    // Keep the socket's own buffer small, so a slow client's states back up in its connection,
+    // where they're dropped, rather than queue up in the kernel, where they'd only arrive late.
+    private static final int SOCKET_SEND_BUFFER_BYTES = 8 * Protocol.MAX_STATE_BYTES;
+    private static final long STATUS_INTERVAL_IN_MILLIS = 10_000L;
+
+
+    // ================================= Member variables =======================================
+
+    private final int mPort;
+    private final long mTickNanos;
+    private final TickShard[] mShards;
+    private final Thread[] mShardThreads;
+
+    private Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+
+    // Connections tick threads have queued states for, to be flushed on the selector thread.
+    private final Queue<ClientConnection> mPendingFlushes = new ConcurrentLinkedQueue<>();
+
+    private final Matchmaker<ClientConnection> mMatchmaker = new Matchmaker<>();
+
+    // Only touched on the selector thread.
+    private int mNextMatchId = 0;
+    private final ByteBuffer mJoinedMessage = ByteBuffer.allocate(Protocol.HEADER_BYTES + 8);
+
+    // Matchmaking stats, reset each time they're printed.
+    private long mMatchesFormed = 0L, mTotalWaitNanos = 0L, mMaxWaitNanos = 0L;
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param port is the TCP port to listen on.
+     * @param tickThreads is the number of threads to step matches on.
+     */
+    public MatchServer(final int port, final int tickThreads) {
+        mPort = port;
+
+        // Start the schedule a little in the future, so every shard is running before tick 0.
+        mTickNanos = Protocol.MILLIS_PER_TICK * 1_000_000L;
+        long startNanos = System.nanoTime() + mTickNanos;
+        mShards = new TickShard[tickThreads];
+        mShardThreads = new Thread[tickThreads];
+        for (int i = 0; i < tickThreads; i++) {
+            mShards[i] = new TickShard(this, startNanos, mTickNanos);
+            mShardThreads[i] = new Thread(mShards[i], "TickShard-" + i);
+            mShardThreads[i].setDaemon(true);
+        }
+    }
+
+
+    // ================================== Main method ===========================================
+
+    public static void main(String[] args) throws IOException {
+        Options options = new Options(args);
+        int port = options.getInt("port", DEFAULT_PORT);
+        int tickThreads = options.getInt("tickThreads",
+                Runtime.getRuntime().availableProcessors());
+
+        MatchServer server = new MatchServer(port, tickThreads);
+        server.start();
+        System.out.println(String.format(Locale.US, "Listening on port %d with %d tick threads",
+                port, tickThreads));
+        server.run();
+    }
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Start listening, and start the tick threads.
+     */
+    public void start() throws IOException {
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.configureBlocking(false);
+        mServerChannel.bind(new InetSocketAddress(mPort), ACCEPT_BACKLOG);
+        mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+
+        for (Thread thread : mShardThreads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Handle connections and form matches on this thread until it's interrupted, printing a
+     * status line every so often.
+     */
+    public void run() throws IOException {
+        long nextStatusMillis = System.currentTimeMillis() + STATUS_INTERVAL_IN_MILLIS;
+        long nextMatchmakingNanos = System.nanoTime();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long timeoutMillis = Math.min(nextStatusMillis - System.currentTimeMillis(),
+                        (nextMatchmakingNanos - System.nanoTime()) / 1_000_000L);
+                mSelector.select(Math.max(1L, timeoutMillis));
+                flushPendingConnections();
+                handleSelectedKeys();
+
+                long nowNanos = System.nanoTime();
+                if (nowNanos - nextMatchmakingNanos >= 0) {
+                    mMatchmaker.formMatches(nowNanos, this);
+                    nextMatchmakingNanos = nowNanos + mTickNanos;
+                }
+
+                if (System.currentTimeMillis() >= nextStatusMillis) {
+                    printStatus();
+                    nextStatusMillis += STATUS_INTERVAL_IN_MILLIS;
+                }
+            }
+        }
+        finally {
+            for (Thread thread : mShardThreads) {
+                thread.interrupt();
+            }
+            mServerChannel.close();
+            mSelector.close();
+        }
+    }
+
+
+    // ================================== Package methods =======================================
+
+    /**
+     * Have the selector thread write out a connection's queued messages. Safe to call from any
+     * thread; the selector is woken once the tick is finished.
+     */
+    void requestFlush(final ClientConnection connection) {
+        mPendingFlushes.add(connection);
+    }
+
+
+    // =============================== TickShard.Host methods ===================================
+
+    @Override
+    public void sendState(ServerMatch match, ByteBuffer state) {
+        match.sendToPlayers(state, this);
+    }
+
+    @Override
+    public void onTickFinished() {
+
+        // One wakeup for everything this tick queued.
+        if (!mPendingFlushes.isEmpty()) {
+            mSelector.wakeup();
+        }
+    }
+
+
+    // ============================= Matchmaker.Listener methods ================================
+
+    /**
+     * Start a match for a pair of clients, on the shard with the fewest matches. Called on the
+     * selector thread.
+     */
+    @Override
+    public void onMatch(ClientConnection first, ClientConnection second, long firstWaitedNanos,
+                        long secondWaitedNanos) {
+        ServerMatch match = new ServerMatch(mNextMatchId++);
+        first.mTicket = null;
+        second.mTicket = null;
+
+        // Say which paddle is each client's before their first state can be queued.
+        match.setPlayer(GameObjects.Scene.LEFT_PADDLE, first);
+        match.setPlayer(GameObjects.Scene.RIGHT_PADDLE, second);
+        sendJoined(first);
+        sendJoined(second);
+
+        TickShard leastLoaded = mShards[0];
+        for (TickShard shard : mShards) {
+            if (shard.getMatchCount() < leastLoaded.getMatchCount()) {
+                leastLoaded = shard;
+            }
+        }
+        leastLoaded.addMatch(match);
+
+        mMatchesFormed++;
+        mTotalWaitNanos += firstWaitedNanos + secondWaitedNanos;
+        mMaxWaitNanos = Math.max(mMaxWaitNanos,
+                Math.max(firstWaitedNanos, secondWaitedNanos));
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private void flushPendingConnections() {
+        ClientConnection connection;
+        while ((connection = mPendingFlushes.poll()) != null) {
+            if (!connection.isClosed()) {
+                flush(connection);
+            }
+        }
+    }
+
+    private void handleSelectedKeys() throws IOException {
+        Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            if (!key.isValid()) {
+                continue;
+            }
+
+            if (key.isAcceptable()) {
+                acceptConnections();
+                continue;
+            }
+            ClientConnection connection = (ClientConnection) key.attachment();
+            if (key.isReadable()) {
+                read(connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush(connection);
+            }
+        }
+    }
+
+    private void acceptConnections() throws IOException {
+        SocketChannel channel;
+        while ((channel = mServerChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().setSendBufferSize(SOCKET_SEND_BUFFER_BYTES);
+            SelectionKey key = channel.register(mSelector, SelectionKey.OP_READ);
+            key.attach(new ClientConnection(channel, key));
+        }
+    }
+
+    private void read(final ClientConnection connection) {
+        ByteBuffer inbound = connection.mInbound;
+        try {
+            if (connection.mChannel.read(inbound) < 0) {
+                disconnect(connection);
+                return;
+            }
+        }
+        catch (IOException e) {
+            disconnect(connection);
+            return;
+        }
+
+        inbound.flip();
+        int messageBytes;
+        while ((messageBytes = Protocol.getCompleteMessageBytes(inbound)) > 0) {
+            int end = inbound.position() + messageBytes;
+            inbound.getInt();
+            handleMessage(connection, inbound.get(), inbound);
+            inbound.position(end);
+        }
+        if (messageBytes < 0) {
+            disconnect(connection);
+            return;
+        }
+        inbound.compact();
+    }
+
+    private void handleMessage(final ClientConnection connection, final byte type,
+                               final ByteBuffer payload) {
+        switch (type) {
+            case Protocol.JOIN:
+                if (connection.mMatch == null && connection.mTicket == null) {
+                    int skill = (payload.remaining() >= 4) ? payload.getInt() :
+                            Matchmaker.DEFAULT_SKILL;
+                    connection.mTicket = mMatchmaker.enqueue(connection, skill,
+                            System.nanoTime());
+                }
+                break;
+
+            case Protocol.INPUT:
+                if (connection.mMatch != null && payload.remaining() >= 4) {
+                    float deltaY = payload.getFloat();
+                    if (Protocol.isValidInput(deltaY)) {
+                        connection.mMatch.addInput(connection.mPaddle, deltaY);
+                    }
+                }
+                break;
+
+            default:
+                // Ignore anything else, e.g. from a newer client.
+                break;
+        }
+    }
+
+    private void sendJoined(final ClientConnection connection) {
+        mJoinedMessage.clear();
+        Protocol.putHeader(mJoinedMessage, Protocol.JOINED, 8);
+        mJoinedMessage.putInt(connection.mMatch.getId());
+        mJoinedMessage.putInt(connection.mPaddle);
+        mJoinedMessage.flip();
+        connection.queueMessage(mJoinedMessage);
+        flush(connection);
+    }
+
+    private void flush(final ClientConnection connection) {
+        try {
+            connection.flush();
+        }
+        catch (IOException e) {
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Close the connection, and end its match, since the other player has no one to play, or
+     * stop it waiting for one.
+     */
+    private void disconnect(final ClientConnection connection) {
+        connection.close();
+        if (connection.mTicket != null) {
+            mMatchmaker.cancel(connection.mTicket);
+            connection.mTicket = null;
+        }
+        Match match = connection.mMatch;
+        if (match != null) {
+            match.end();
+        }
+    }
+
+    private void printStatus() {
+        int matches = 0;
+        long maxTickLatencyNanos = 0L, skippedTicks = 0L;
+        for (TickShard shard : mShards) {
+            matches += shard.getMatchCount();
+            maxTickLatencyNanos = Math.max(maxTickLatencyNanos, shard.takeMaxTickLatencyNanos());
+            skippedTicks += shard.takeSkippedTicks();
+        }
+
+        int connections = 0;
+        long droppedStates = 0L;
+        for (SelectionKey key : mSelector.keys()) {
+            if (key.isValid() && key.attachment() instanceof ClientConnection) {
+                connections++;
+                droppedStates += ((ClientConnection) key.attachment()).takeDroppedMessages();
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "%,d matches, %,d connections; " +
+                        "longest tick %.1f ms after due, %,d ticks skipped, %,d states dropped",
+                matches, connections, maxTickLatencyNanos / 1_000_000d, skippedTicks,
+                droppedStates));
+        System.out.println(String.format(Locale.US, "%,d waiting for a match, %,d matched; " +
+                        "average wait %.2f s, longest %.2f s", mMatchmaker.getWaitingCount(),
+                2 * mMatchesFormed, mMatchesFormed == 0 ? 0d :
+                        mTotalWaitNanos / (2d * mMatchesFormed) / 1_000_000_000d,
+                mMaxWaitNanos / 1_000_000_000d));
+        mMatchesFormed = 0L;
+        mTotalWaitNanos = 0L;
+        mMaxWaitNanos = 0L;
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    /**
+     * Minimal --name=value argument parsing, shared with the load generator.
+     */
+    static class Options {
+
+        private final Map<String, String> mValues = new HashMap<>();
+
+        Options(String[] args) {
+            for (String arg : args) {
+                if (!arg.startsWith("--") || !arg.contains("=")) {
+                    throw new IllegalArgumentException("Expected --name=value but got " + arg);
+                }
+                int equals = arg.indexOf('=');
+                mValues.put(arg.substring(2, equals), arg.substring(equals + 1));
+            }
+        }
+
+        String getString(String name, String defaultValue) {
+            String value = mValues.get(name);
+            return value == null ? defaultValue : value;
+        }
+
+        int getInt(String name, int defaultValue) {
+            String value = mValues.get(name);
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.charlesdrews.pongish.server;
+
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pairs waiting players of similar skill. Each player waits in the bucket for their skill, and
+ * how far apart two players' skills may be widens the longer the older of them has waited, from
+ * BASE_SKILL_GAP by SKILL_GAP_GROWTH_PER_SECOND up to MAX_SKILL_GAP, so nobody waits forever
+ * for a perfect match.
+ *
+ * Matches are formed in batches, once a tick, by formMatches(): longest waiting players first,
+ * each paired with the closest skill the gap allows. Players can be enqueued and cancelled from
+ * any number of threads meanwhile. Every bucket, and the queue of everyone in waiting order, is
+ * a skip list, so each of those takes O(log n) time, and nothing takes a lock: a ticket's state
+ * decides whether a cancel or a match got it first.
+ */
+class Matchmaker<T> {
+
+    // ===================================== Constants ==========================================
+
+    static final int MIN_SKILL = 0;
+    static final int MAX_SKILL = 3_999;
+    static final int DEFAULT_SKILL = 1_500;
+    static final int SKILL_BUCKET_WIDTH = 100;
+
+    static final int BASE_SKILL_GAP = 50;
+    static final int SKILL_GAP_GROWTH_PER_SECOND = 100;
+    static final int MAX_SKILL_GAP = 1_000;
+
+    private static final int BUCKET_COUNT = (MAX_SKILL - MIN_SKILL) / SKILL_BUCKET_WIDTH + 1;
+
+    // A ticket's states. Only formMatches() moves a ticket out of WAITING other than to cancel
+    // it, and it only holds PAIRING while it claims the ticket's partner.
+    private static final int WAITING = 0;
+    private static final int PAIRING = 1;
+    private static final int MATCHED = 2;
+    private static final int CANCELLED = 3;
+
+    private static final Comparator<Ticket<?>> BY_SKILL = new Comparator<Ticket<?>>() {
+        @Override
+        public int compare(Ticket<?> a, Ticket<?> b) {
+            if (a.mSkill != b.mSkill) {
+                return a.mSkill < b.mSkill ? -1 : 1;
+            }
+            return Long.compare(a.mSequence, b.mSequence);
+        }
+    };
+
+    private static final Comparator<Ticket<?>> BY_WAIT = new Comparator<Ticket<?>>() {
+        @Override
+        public int compare(Ticket<?> a, Ticket<?> b) {
+            if (a.mEnqueuedNanos != b.mEnqueuedNanos) {
+                return a.mEnqueuedNanos - b.mEnqueuedNanos < 0 ? -1 : 1;
+            }
+            return Long.compare(a.mSequence, b.mSequence);
+        }
+    };
+
+
+    // ================================= Member variables =======================================
+
+    private final ConcurrentSkipListSet<Ticket<T>>[] mBuckets;
+    private final ConcurrentSkipListSet<Ticket<T>> mWaiting =
+            new ConcurrentSkipListSet<>(BY_WAIT);
+    private final AtomicLong mNextSequence = new AtomicLong();
+    private final AtomicInteger mWaitingCount = new AtomicInteger();
+
+
+    // =================================== Constructor ==========================================
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Matchmaker() {
+        mBuckets = new ConcurrentSkipListSet[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets[i] = new ConcurrentSkipListSet<>(BY_SKILL);
+        }
+    }
+
+
+    // ================================== Package methods =======================================
+
+    /**
+     * Start a player waiting for a match. Safe to call from any thread.
+     *
+     * @param player is whatever the listener should be given back once the player's matched.
+     * @param skill is the player's skill rating, clamped to MIN_SKILL to MAX_SKILL.
+     * @param nowNanos is the time, from System.nanoTime().
+     * @return the player's ticket, to cancel with.
+     */
+    Ticket<T> enqueue(final T player, final int skill, final long nowNanos) {
+        Ticket<T> ticket = new Ticket<>(player, Math.max(MIN_SKILL, Math.min(MAX_SKILL, skill)),
+                nowNanos, mNextSequence.getAndIncrement());
+        mWaitingCount.incrementAndGet();
+
+        // Only the bucket makes the ticket a possible partner, so add it there last. If it was
+        // matched from the waiting queue in between, it was already removed, so remove it again.
+        mWaiting.add(ticket);
+        ConcurrentSkipListSet<Ticket<T>> bucket = mBuckets[getBucket(ticket.mSkill)];
+        bucket.add(ticket);
+        if (ticket.mState.get() != WAITING) {
+            bucket.remove(ticket);
+        }
+        return ticket;
+    }
+
+    /**
+     * Stop a player waiting, e.g. because they've disconnected. Safe to call from any thread.
+     *
+     * @return false if the player's already been matched, or cancelled.
+     */
+    boolean cancel(final Ticket<T> ticket) {
+        while (true) {
+            int state = ticket.mState.get();
+            if (state == PAIRING) {
+
+                // Only ever held for a moment, while formMatches() claims the ticket's partner.
+                Thread.yield();
+                continue;
+            }
+            if (state != WAITING) {
+                return false;
+            }
+            if (ticket.mState.compareAndSet(WAITING, CANCELLED)) {
+                remove(ticket);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Pair every waiting player who can be, longest waiting first. Call once a tick, from one
+     * thread at a time.
+     *
+     * @param nowNanos is the time, from System.nanoTime().
+     * @param listener is told about each match formed, on this thread.
+     * @return the number of matches formed.
+     */
+    int formMatches(final long nowNanos, final Listener<T> listener) {
+        int matches = 0;
+        for (Ticket<T> ticket : mWaiting) {
+            if (ticket.mEnqueuedNanos - nowNanos > 0) {
+
+                // Everyone from here on was enqueued during this batch.
+                break;
+            }
+            if (ticket.mState.get() != WAITING) {
+                continue;
+            }
+            int gap = getSkillGap(nowNanos - ticket.mEnqueuedNanos);
+            Ticket<T> partner = findPartner(ticket, gap);
+            if (partner == null || !ticket.mState.compareAndSet(WAITING, PAIRING)) {
+                continue;
+            }
+            if (!partner.mState.compareAndSet(WAITING, MATCHED)) {
+
+                // The partner was cancelled since it was found. Try again next tick.
+                ticket.mState.set(WAITING);
+                continue;
+            }
+            ticket.mState.set(MATCHED);
+            remove(ticket);
+            remove(partner);
+            listener.onMatch(ticket.mPlayer, partner.mPlayer, nowNanos - ticket.mEnqueuedNanos,
+                    Math.max(0L, nowNanos - partner.mEnqueuedNanos));
+            matches++;
+        }
+        return matches;
+    }
+
+    int getWaitingCount() {
+        return mWaitingCount.get();
+    }
+
+    /**
+     * @return how far apart two players' skills may be once the older has waited this long.
+     */
+    static int getSkillGap(final long waitedNanos) {
+        long gap = BASE_SKILL_GAP +
+                SKILL_GAP_GROWTH_PER_SECOND * waitedNanos / TimeUnit.SECONDS.toNanos(1);
+        return (int) Math.min(MAX_SKILL_GAP, gap);
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private static int getBucket(final int skill) {
+        return (skill - MIN_SKILL) / SKILL_BUCKET_WIDTH;
+    }
+
+    /**
+     * @return the waiting player closest in skill to the ticket's, no further than the gap, or
+     *         null if there's no one.
+     */
+    private Ticket<T> findPartner(final Ticket<T> ticket, final int gap) {
+        int skill = ticket.mSkill;
+        int firstBucket = getBucket(Math.max(MIN_SKILL, skill - gap));
+        int lastBucket = getBucket(Math.min(MAX_SKILL, skill + gap));
+        int ownBucket = getBucket(skill);
+
+        Ticket<T> best = null;
+        int bestDistance = gap + 1;
+
+        // Work outward from the ticket's own bucket, until no bucket could hold anyone closer.
+        for (int offset = 0; ownBucket - offset >= firstBucket ||
+                ownBucket + offset <= lastBucket; offset++) {
+            int nearestPossible = Math.max(0, (offset - 1) * SKILL_BUCKET_WIDTH);
+            if (nearestPossible >= bestDistance) {
+                break;
+            }
+
+            int below = ownBucket - offset;
+            if (below >= firstBucket) {
+                Ticket<T> candidate = getWaiting(mBuckets[below], ticket, false);
+                if (candidate != null && skill - candidate.mSkill < bestDistance) {
+                    best = candidate;
+                    bestDistance = skill - candidate.mSkill;
+                }
+            }
+            int above = ownBucket + offset;
+            if (above <= lastBucket) {
+                Ticket<T> candidate = getWaiting(mBuckets[above], ticket, true);
+                if (candidate != null && candidate.mSkill - skill < bestDistance) {
+                    best = candidate;
+                    bestDistance = candidate.mSkill - skill;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the waiting ticket in the bucket nearest the given one, in skill, going up or down,
+     *         not counting the given one itself.
+     */
+    private Ticket<T> getWaiting(final ConcurrentSkipListSet<Ticket<T>> bucket,
+                                 final Ticket<T> from, final boolean up) {
+        Ticket<T> candidate = up ? bucket.higher(from) : bucket.lower(from);
+        while (candidate != null && candidate.mState.get() != WAITING) {
+            candidate = up ? bucket.higher(candidate) : bucket.lower(candidate);
+        }
+        return candidate;
+    }
+
+    private void remove(final Ticket<T> ticket) {
+        mBuckets[getBucket(ticket.mSkill)].remove(ticket);
+        mWaiting.remove(ticket);
+        mWaitingCount.decrementAndGet();
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    /**
+     * A player's place in the queue.
+     */
+    static class Ticket<T> {
+
+        final T mPlayer;
+        final int mSkill;
+        final long mEnqueuedNanos;
+        private final long mSequence;
+        private final AtomicInteger mState = new AtomicInteger(WAITING);
+
+        private Ticket(T player, int skill, long enqueuedNanos, long sequence) {
+            mPlayer = player;
+            mSkill = skill;
+            mEnqueuedNanos = enqueuedNanos;
+            mSequence = sequence;
+        }
+    }
+
+    /**
+     * Told about each match formMatches() forms.
+     */
+    interface Listener<T> {
+
+        /**
+         * @param first is the player who'd waited longest.
+         * @param second is their partner.
+         * @param firstWaitedNanos is how long the first player waited.
+         * @param secondWaitedNanos is how long the second player waited.
+         */
+        void onMatch(T first, T second, long firstWaitedNanos, long secondWaitedNanos);
+    }
+}
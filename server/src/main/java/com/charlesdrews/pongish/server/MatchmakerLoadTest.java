@@ -0,0 +1,289 @@
+package com.charlesdrews.pongish.server;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives a Matchmaker in this process as hard as a busy server would, and reports how long
+ * players wait to be matched. Several producer threads enqueue players at a steady total rate,
+ * with skills spread around Matchmaker.DEFAULT_SKILL, and some players give up and cancel after
+ * a random wait. Meanwhile one thread forms matches once a tick, as MatchServer does.
+ *
+ * Every second it prints the operations done and the longest batch; at the end, percentiles of
+ * time to match and the skill gaps matched across. Exits with an error if any player was both
+ * matched and cancelled, or was lost.
+ *
+ * Usage: MatchmakerLoadTest [--option=value ...]
+ *   --rate         players enqueued per second, in total (default 20000)
+ *   --producers    number of threads enqueueing and cancelling (default 4)
+ *   --seconds      how long to enqueue for (default 20)
+ *   --cancel       percent of players who cancel if they wait long enough (default 10)
+ *   --skillSpread  standard deviation of the players' skills (default 350)
+ */
+public class MatchmakerLoadTest {
+
+    // ===================================== Constants ==========================================
+
+    // Players who cancel give up after waiting a random time up to this.
+    private static final long MAX_PATIENCE_IN_NANOS = 5_000_000_000L;
+
+    private static final long REPORT_INTERVAL_IN_NANOS = 1_000_000_000L;
+
+    // Time for the last players enqueued to be matched before the end.
+    private static final long DRAIN_IN_NANOS = 12_000_000_000L;
+
+
+    // ================================= Member variables =======================================
+
+    private final Matchmaker<Player> mMatchmaker = new Matchmaker<>();
+
+    private final AtomicLong mEnqueued = new AtomicLong();
+    private final AtomicLong mCancelled = new AtomicLong();
+    private final AtomicLong mCancelsTooLate = new AtomicLong();
+    private volatile boolean mProducing = true;
+
+    // Only touched on the matchmaking thread.
+    private long[] mWaitNanos = new long[1 << 16];
+    private int mMatchedPlayers = 0;
+    private long mTotalSkillGap = 0L;
+    private int mMaxSkillGap = 0;
+    private int mDoubleMatched = 0;
+
+
+    // ================================== Main method ===========================================
+
+    public static void main(String[] args) throws InterruptedException {
+        MatchServer.Options options = new MatchServer.Options(args);
+        int rate = options.getInt("rate", 20_000);
+        int producers = Math.max(1, options.getInt("producers", 4));
+        int seconds = options.getInt("seconds", 20);
+        int cancelPercent = options.getInt("cancel", 10);
+        int skillSpread = options.getInt("skillSpread", 350);
+
+        System.out.println(String.format(Locale.US, "Enqueueing %,d players/s from %d threads " +
+                "for %d s, %d%% impatient...", rate, producers, seconds, cancelPercent));
+        new MatchmakerLoadTest().run(rate, producers, seconds, cancelPercent, skillSpread);
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private void run(final int rate, final int producers, final int seconds,
+                     final int cancelPercent, final int skillSpread)
+            throws InterruptedException {
+        final long startNanos = System.nanoTime();
+        final long stopProducingNanos = startNanos + seconds * 1_000_000_000L;
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final Producer producer = new Producer(rate / (double) producers, cancelPercent,
+                    skillSpread, i);
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    producer.run(startNanos, stopProducingNanos);
+                }
+            }, "Producer-" + i);
+            threads[i].start();
+        }
+
+        Matchmaker.Listener<Player> listener = new Matchmaker.Listener<Player>() {
+            @Override
+            public void onMatch(Player first, Player second, long firstWaitedNanos,
+                                long secondWaitedNanos) {
+                recordMatch(first, firstWaitedNanos);
+                recordMatch(second, secondWaitedNanos);
+                int skillGap = Math.abs(first.mSkill - second.mSkill);
+                mTotalSkillGap += skillGap;
+                mMaxSkillGap = Math.max(mMaxSkillGap, skillGap);
+            }
+        };
+
+        long tickNanos = Protocol.MILLIS_PER_TICK * 1_000_000L;
+        long endNanos = stopProducingNanos + DRAIN_IN_NANOS;
+        long nextTickNanos = startNanos;
+        long nextReportNanos = startNanos + REPORT_INTERVAL_IN_NANOS;
+        long lastEnqueued = 0L, lastCancelled = 0L;
+        int lastMatched = 0;
+        long maxBatchNanos = 0L;
+        while (true) {
+            long sleepNanos = nextTickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+            }
+            long nowNanos = System.nanoTime();
+            mMatchmaker.formMatches(nowNanos, listener);
+            maxBatchNanos = Math.max(maxBatchNanos, System.nanoTime() - nowNanos);
+            nextTickNanos += tickNanos;
+
+            if (nowNanos >= nextReportNanos) {
+                long enqueued = mEnqueued.get(), cancelled = mCancelled.get();
+                System.out.println(String.format(Locale.US, "%,7d enqueued, %,6d cancelled, " +
+                                "%,7d matched per s; %,6d waiting, longest batch %.2f ms",
+                        enqueued - lastEnqueued, cancelled - lastCancelled,
+                        mMatchedPlayers - lastMatched, mMatchmaker.getWaitingCount(),
+                        maxBatchNanos / 1_000_000d));
+                lastEnqueued = enqueued;
+                lastCancelled = cancelled;
+                lastMatched = mMatchedPlayers;
+                maxBatchNanos = 0L;
+                nextReportNanos += REPORT_INTERVAL_IN_NANOS;
+            }
+
+            if (nowNanos >= stopProducingNanos && mProducing) {
+                mProducing = false;
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            }
+            if (nowNanos >= endNanos || (!mProducing && mMatchmaker.getWaitingCount() < 2)) {
+                break;
+            }
+        }
+
+        if (!report()) {
+            System.exit(1);
+        }
+    }
+
+    private void recordMatch(final Player player, final long waitedNanos) {
+        if (player.mMatched) {
+            mDoubleMatched++;
+        }
+        player.mMatched = true;
+        if (mMatchedPlayers == mWaitNanos.length) {
+            mWaitNanos = Arrays.copyOf(mWaitNanos, 2 * mWaitNanos.length);
+        }
+        mWaitNanos[mMatchedPlayers++] = waitedNanos;
+    }
+
+    /**
+     * Print the totals and time to match percentiles.
+     *
+     * @return true if every player was matched, cancelled or is still waiting, exactly once.
+     */
+    private boolean report() {
+        long enqueued = mEnqueued.get(), cancelled = mCancelled.get();
+        int waiting = mMatchmaker.getWaitingCount();
+        System.out.println(String.format(Locale.US, "%,d enqueued, %,d matched, %,d cancelled " +
+                        "(%,d too late), %,d still waiting", enqueued, mMatchedPlayers, cancelled,
+                mCancelsTooLate.get(), waiting));
+
+        long[] waits = Arrays.copyOf(mWaitNanos, mMatchedPlayers);
+        Arrays.sort(waits);
+        System.out.println(String.format(Locale.US, "Time to match: p50 %.0f ms, p90 %.0f ms, " +
+                        "p99 %.0f ms, p99.9 %.0f ms, max %.0f ms", getPercentileMillis(waits, 50d),
+                getPercentileMillis(waits, 90d), getPercentileMillis(waits, 99d),
+                getPercentileMillis(waits, 99.9d), getPercentileMillis(waits, 100d)));
+        System.out.println(String.format(Locale.US, "Skill gap: average %.1f, max %d",
+                mMatchedPlayers == 0 ? 0d : 2d * mTotalSkillGap / mMatchedPlayers,
+                mMaxSkillGap));
+
+        boolean ok = mDoubleMatched == 0 && enqueued == mMatchedPlayers + cancelled + waiting;
+        if (!ok) {
+            System.out.println(String.format(Locale.US, "Inconsistent: %,d matched twice, %,d " +
+                    "unaccounted for", mDoubleMatched,
+                    enqueued - mMatchedPlayers - cancelled - waiting));
+        }
+        return ok;
+    }
+
+    private static double getPercentileMillis(final long[] sorted, final double percentile) {
+        if (sorted.length == 0) {
+            return 0d;
+        }
+        int index = (int) Math.ceil(percentile / 100d * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1_000_000d;
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    private static class Player {
+
+        final int mSkill;
+        Matchmaker.Ticket<Player> mTicket;
+        long mGiveUpNanos;
+
+        // Written on the matchmaking thread only.
+        boolean mMatched = false;
+
+        Player(int skill) {
+            mSkill = skill;
+        }
+    }
+
+    /**
+     * One thread's share of the players: it enqueues them on schedule, and cancels the impatient
+     * ones when their patience runs out.
+     */
+    private class Producer {
+
+        private final double mPlayersPerSecond;
+        private final int mCancelPercent, mSkillSpread;
+        private final Random mRandom;
+        private final PriorityQueue<Player> mImpatient = new PriorityQueue<>(1024,
+                new Comparator<Player>() {
+                    @Override
+                    public int compare(Player a, Player b) {
+                        return Long.compare(a.mGiveUpNanos, b.mGiveUpNanos);
+                    }
+                });
+
+        Producer(double playersPerSecond, int cancelPercent, int skillSpread, long seed) {
+            mPlayersPerSecond = playersPerSecond;
+            mCancelPercent = cancelPercent;
+            mSkillSpread = skillSpread;
+            mRandom = new Random(20161018L + seed);
+        }
+
+        void run(final long startNanos, final long stopNanos) {
+            long produced = 0L;
+            while (mProducing) {
+                long nowNanos = System.nanoTime();
+                long due = Math.min((long) ((nowNanos - startNanos) * mPlayersPerSecond /
+                        1_000_000_000d), (long) ((stopNanos - startNanos) * mPlayersPerSecond /
+                        1_000_000_000d));
+                for (; produced < due; produced++) {
+                    enqueue(nowNanos);
+                }
+                cancelImpatient(nowNanos);
+
+                try {
+                    Thread.sleep(1L);
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void enqueue(final long nowNanos) {
+            int skill = (int) Math.max(Matchmaker.MIN_SKILL, Math.min(Matchmaker.MAX_SKILL,
+                    Math.round(Matchmaker.DEFAULT_SKILL + mRandom.nextGaussian() * mSkillSpread)));
+            Player player = new Player(skill);
+            player.mTicket = mMatchmaker.enqueue(player, skill, nowNanos);
+            mEnqueued.incrementAndGet();
+            if (mRandom.nextInt(100) < mCancelPercent) {
+                player.mGiveUpNanos = nowNanos +
+                        (long) (mRandom.nextDouble() * MAX_PATIENCE_IN_NANOS);
+                mImpatient.add(player);
+            }
+        }
+
+        private void cancelImpatient(final long nowNanos) {
+            while (!mImpatient.isEmpty() && mImpatient.peek().mGiveUpNanos <= nowNanos) {
+                Player player = mImpatient.poll();
+                if (mMatchmaker.cancel(player.mTicket)) {
+                    mCancelled.incrementAndGet();
+                }
+                else {
+                    mCancelsTooLate.incrementAndGet();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.charlesdrews.pongish.server;
+
+import com.charlesdrews.pongish.game.objects.GameObjects;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The messages between the match server and its clients, over TCP. Every message is an int
+ * length, counting the bytes after it, then a type byte, then the type's payload, all big endian.
+ *
+ *   JOIN    client to server: put me in a match, optionally followed by the player's skill
+ *           rating (int), see Matchmaker. Players of similar skill are paired first.
+ *   JOINED  server to client: match id (int), then the paddle the client controls (int).
+ *   INPUT   client to server: how far to move the paddle, in board units (float). Inputs add
+ *           up until the next tick. Inputs that aren't valid, see isValidInput(), are dropped.
+ *   STATE   server to client, once per tick: tick number (int), then the scene as written by
+ *           GameObjects.Scene.writeSnapshot(), with up to MAX_BALLS_PER_STATE balls.
+ *
+ * Every match is played on a board of GameObjects.Scene.BOARD_WIDTH by BOARD_HEIGHT units,
+ * which clients fit to their screens with a BoardTransform.
+ */
+public class Protocol {
+
+    // ===================================== Constants ==========================================
+
+    public static final byte JOIN = 1;
+    public static final byte JOINED = 2;
+    public static final byte INPUT = 3;
+    public static final byte STATE = 4;
+
+    public static final long MILLIS_PER_TICK = 16L;
+
+    // The normal ball plus a few bonus balls; clients only need to see those in play near them.
+    public static final int MAX_BALLS_PER_STATE = 16;
+
+    public static final int HEADER_BYTES = 5;
+    public static final int MAX_STATE_BYTES = HEADER_BYTES + 4 +
+            GameObjects.Scene.SNAPSHOT_BASE_BYTES +
+            MAX_BALLS_PER_STATE * GameObjects.Scene.SNAPSHOT_BYTES_PER_BALL;
+
+    // The furthest a single INPUT may move a paddle: from one edge of the board to the other.
+    public static final float MAX_INPUT_DELTA_Y = GameObjects.Scene.BOARD_HEIGHT;
+
+    // No message is larger than a state.
+    public static final int MAX_MESSAGE_BYTES = MAX_STATE_BYTES;
+
+    // Offsets into a STATE message, from the start of its header.
+    public static final int STATE_TICK_OFFSET = HEADER_BYTES;
+    public static final int STATE_LEFT_PADDLE_Y_OFFSET = HEADER_BYTES + 4 + 16;
+    public static final int STATE_RIGHT_PADDLE_Y_OFFSET = HEADER_BYTES + 4 + 20;
+    public static final int STATE_NORMAL_BALL_Y_OFFSET = HEADER_BYTES + 4 +
+            GameObjects.Scene.SNAPSHOT_BASE_BYTES + 4;
+
+
+    // =================================== Constructor ==========================================
+
+    private Protocol() {}
+
+
+    // ================================== Public methods ========================================
+
+    /**
+     * Write a message's header. Its payload must follow.
+     *
+     * @param buffer is where to write the header.
+     * @param type is the message type.
+     * @param payloadBytes is the size of the payload.
+     */
+    public static void putHeader(final ByteBuffer buffer, final byte type,
+                                 final int payloadBytes) {
+        buffer.putInt(1 + payloadBytes);
+        buffer.put(type);
+    }
+
+    /**
+     * Inputs come straight from clients, so check them before they reach a match. One NaN or
+     * infinity would otherwise stick to the paddle's position for the rest of the match.
+     *
+     * @param deltaY is how far an INPUT asks to move the paddle.
+     * @return true if it's a finite move of at most MAX_INPUT_DELTA_Y either way.
+     */
+    public static boolean isValidInput(final float deltaY) {
+
+        // NaN fails the comparison too.
+        return Math.abs(deltaY) <= MAX_INPUT_DELTA_Y;
+    }
+
+    /**
+     * @param buffer holds received bytes between its position and limit.
+     * @return the size of the complete message at the buffer's position, header included, 0 if
+     *         the message hasn't all arrived yet, or -1 if it's too large to be valid.
+     */
+    public static int getCompleteMessageBytes(final ByteBuffer buffer) {
+        return getCompleteMessageBytes(buffer, MAX_MESSAGE_BYTES);
+    }
+
+    /**
+     * The same, for messages framed the same way but with a different size limit, e.g. those
+     * in ClusterProtocol.
+     *
+     * @param maxMessageBytes is the size of the largest valid message, header included.
+     */
+    public static int getCompleteMessageBytes(final ByteBuffer buffer,
+                                              final int maxMessageBytes) {
+        if (buffer.remaining() < 4) {
+            return 0;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length < 1 || length > maxMessageBytes - 4) {
+            return -1;
+        }
+        return (buffer.remaining() >= 4 + length) ? 4 + length : 0;
+    }
+}
@@ -0,0 +1,134 @@
+package com.charlesdrews.pongish.server;
+
+import java.util.Arrays;
+
+/**
+ * A ClusterCoordinator's record of one match: its two players, which worker is stepping it, and
+ * its newest snapshot, to carry it on from if that worker goes away. Only the coordinator's
+ * selector thread touches it.
+ *
+ * While the match is between workers, inputs add up here and are passed on once it's restored,
+ * so a move never loses a player's touches.
+ */
+class RemoteMatch implements Match {
+
+    // ================================= Member variables =======================================
+
+    private final int mId;
+    final ClientConnection[] mPlayers = new ClientConnection[2];
+
+    // The worker stepping the match, or null while it has nowhere to go.
+    WorkerLink mWorker;
+
+    // Set when the worker's been told to hand the match off, until the handoff arrives.
+    boolean mMigrating = false;
+
+    // The newest checkpoint or handoff, as written by ServerMatch.writeSnapshot().
+    byte[] mSnapshot = new byte[0];
+    int mSnapshotBytes = 0;
+
+    private final float[] mPendingInputs = new float[2];
+    private boolean mOver = false;
+
+
+    // =================================== Constructor ==========================================
+
+    RemoteMatch(int id) {
+        mId = id;
+    }
+
+
+    // ================================== Match methods =========================================
+
+    @Override
+    public int getId() {
+        return mId;
+    }
+
+    @Override
+    public void addInput(final int paddle, final float deltaY) {
+        if (mWorker != null && !mMigrating) {
+            mWorker.sendInput(mId, paddle, deltaY);
+        }
+        else {
+            mPendingInputs[paddle] += deltaY;
+        }
+    }
+
+    @Override
+    public void end() {
+        if (mOver) {
+            return;
+        }
+        mOver = true;
+        for (ClientConnection player : mPlayers) {
+            if (player != null) {
+                player.close();
+            }
+        }
+        if (mWorker != null) {
+            mWorker.sendEnd(mId);
+            mWorker.mMatchCount--;
+            mWorker = null;
+        }
+    }
+
+
+    // ================================== Package methods =======================================
+
+    void setPlayer(final int paddle, final ClientConnection connection) {
+        mPlayers[paddle] = connection;
+        connection.mMatch = this;
+        connection.mPaddle = paddle;
+    }
+
+    /**
+     * Keep a snapshot from the match's worker, replacing the last one.
+     *
+     * @param source holds the snapshot from offset to offset + bytes.
+     */
+    void setSnapshot(final byte[] source, final int offset, final int bytes) {
+        if (mSnapshot.length < bytes) {
+            mSnapshot = Arrays.copyOf(mSnapshot, Math.max(bytes, 2 * mSnapshot.length));
+        }
+        System.arraycopy(source, offset, mSnapshot, 0, bytes);
+        mSnapshotBytes = bytes;
+    }
+
+    /**
+     * Start or restore the match on a worker, from its newest snapshot if it has one, then pass
+     * on any inputs that arrived while it had nowhere to go.
+     */
+    void placeOn(final WorkerLink worker) {
+        if (mSnapshotBytes > 0) {
+            worker.sendRestore(mId, mSnapshot, mSnapshotBytes);
+        }
+        else {
+            worker.sendStart(mId);
+        }
+        for (int paddle = 0; paddle < mPendingInputs.length; paddle++) {
+            if (mPendingInputs[paddle] != 0f) {
+                worker.sendInput(mId, paddle, mPendingInputs[paddle]);
+                mPendingInputs[paddle] = 0f;
+            }
+        }
+        mWorker = worker;
+        mMigrating = false;
+        worker.mMatchCount++;
+    }
+
+    /**
+     * Forget the match's worker, e.g. once it's handed the match off or gone away.
+     */
+    void detach() {
+        if (mWorker != null) {
+            mWorker.mMatchCount--;
+            mWorker = null;
+        }
+        mMigrating = false;
+    }
+
+    boolean isOver() {
+        return mOver;
+    }
+}
@@ -0,0 +1,176 @@
+package com.charlesdrews.pongish.server;
+
+import com.charlesdrews.pongish.game.objects.GameObjects;
+import com.charlesdrews.pongish.game.objects.HumanPaddleController;
+import com.charlesdrews.pongish.game.objects.PongScene;
+import com.charlesdrews.pongish.game.objects.SceneSnapshot;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One match on the server: a PongScene, which only the server steps, and the two clients playing
+ * it. Clients' inputs arrive on the selector thread and are added up until the match's tick thread
+ * applies them, the same way touches are on a device.
+ *
+ * Points are reset within the tick they're scored on, so there's no countdown between them.
+ *
+ * A match can be snapshotted and carried on from the snapshot elsewhere, e.g. in another worker
+ * process of a cluster; see ClusterWorker.
+ */
+class ServerMatch implements Match {
+
+    // ================================= Member variables =======================================
+
+    private final int mId;
+    private final PongScene mScene;
+    private final HumanPaddleController[] mInputs = {
+            new HumanPaddleController(), new HumanPaddleController() };
+    private final ClientConnection[] mPlayers = new ClientConnection[2];
+    private int mTick = 0;
+    private final SceneSnapshot mSnapshot = new SceneSnapshot();
+
+    // Set when either player leaves, after which the match is dropped from its shard.
+    private volatile boolean mOver = false;
+
+    // Set when the match should be snapshotted and moved elsewhere after its next tick.
+    private volatile boolean mHandoffRequested = false;
+
+
+    // =================================== Constructor ==========================================
+
+    ServerMatch(int id) {
+        mId = id;
+        mScene = new PongScene(GameObjects.Scene.NEITHER_PADDLE);
+        mScene.setPaddleController(GameObjects.Scene.LEFT_PADDLE,
+                mInputs[GameObjects.Scene.LEFT_PADDLE]);
+        mScene.setPaddleController(GameObjects.Scene.RIGHT_PADDLE,
+                mInputs[GameObjects.Scene.RIGHT_PADDLE]);
+    }
+
+
+    // ================================== Match methods =========================================
+
+    @Override
+    public int getId() {
+        return mId;
+    }
+
+    @Override
+    public void addInput(final int paddle, final float deltaY) {
+        mInputs[paddle].addTouchDelta(deltaY);
+    }
+
+    @Override
+    public void end() {
+        mOver = true;
+        for (ClientConnection player : mPlayers) {
+            if (player != null) {
+                player.close();
+            }
+        }
+    }
+
+
+    // ================================== Package methods =======================================
+
+    /**
+     * Seat a client at a paddle. Call on the selector thread, before the match starts ticking.
+     */
+    void setPlayer(final int paddle, final ClientConnection connection) {
+        mPlayers[paddle] = connection;
+        connection.mMatch = this;
+        connection.mPaddle = paddle;
+    }
+
+    /**
+     * Run one tick. Call on the match's tick thread.
+     *
+     * @param scratch is a buffer of at least Protocol.MAX_STATE_BYTES to write the new state
+     *                into, as a whole STATE message from position 0 to its limit.
+     */
+    void tick(final ByteBuffer scratch) {
+        if (mScene.updateGameObjects(Protocol.MILLIS_PER_TICK)) {
+            mScene.resetAfterPointScored();
+        }
+
+        scratch.clear();
+        scratch.position(Protocol.HEADER_BYTES);
+        scratch.putInt(mTick++);
+        mScene.writeSnapshot(scratch, Protocol.MAX_BALLS_PER_STATE);
+        int payloadBytes = scratch.position() - Protocol.HEADER_BYTES;
+        scratch.flip();
+        Protocol.putHeader(scratch, Protocol.STATE, payloadBytes);
+        scratch.position(0);
+    }
+
+    /**
+     * Queue a state written by tick() to both players. Call on the match's tick thread.
+     *
+     * @param state holds the message between its position and limit, which are left as is.
+     * @param server is told about connections that need writing.
+     */
+    void sendToPlayers(final ByteBuffer state, final MatchServer server) {
+        for (ClientConnection player : mPlayers) {
+            if (player != null && player.queueMessage(state)) {
+                server.requestFlush(player);
+            }
+        }
+    }
+
+    /**
+     * Write everything needed to carry on the match, after the tick just run. Call on the
+     * match's tick thread.
+     *
+     * @param buffer is where to write the snapshot, from its position.
+     * @return false, with nothing written, if the buffer doesn't have room.
+     */
+    boolean writeSnapshot(final ByteBuffer buffer) {
+        mScene.saveSnapshot(mSnapshot);
+        if (buffer.remaining() < 4 + mSnapshot.getSerializedBytes()) {
+            return false;
+        }
+        buffer.putInt(mTick);
+        mSnapshot.write(buffer);
+        return true;
+    }
+
+    /**
+     * Carry on from a snapshot written by writeSnapshot(), e.g. in another process. Call before
+     * the match starts ticking.
+     *
+     * @param buffer holds the snapshot from its position, which is moved past it.
+     * @throws IllegalArgumentException if the buffer doesn't hold a valid snapshot.
+     */
+    void restoreSnapshot(final ByteBuffer buffer) {
+        if (buffer.remaining() < 4) {
+            throw new IllegalArgumentException("Snapshot truncated");
+        }
+        int tick = buffer.getInt();
+        mSnapshot.read(buffer);
+        mScene.restoreSnapshot(mSnapshot);
+        mTick = tick;
+    }
+
+    /**
+     * @return the number of ticks run so far. Call on the match's tick thread.
+     */
+    int getTick() {
+        return mTick;
+    }
+
+    /**
+     * Have the match's tick thread snapshot the match after its next tick, so it can be carried
+     * on elsewhere. Safe to call from any thread.
+     */
+    void requestHandoff() {
+        mHandoffRequested = true;
+    }
+
+    boolean isHandoffRequested() {
+        return mHandoffRequested;
+    }
+
+    boolean isOver() {
+        return mOver;
+    }
+}
@@ -0,0 +1,170 @@
+package com.charlesdrews.pongish.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A tick thread and the share of the server's matches it steps. Every shard follows the same
+ * fixed-rate schedule, tick n being due at the server's start time plus n ticks, so all matches
+ * advance together. A shard that runs late catches up by running ticks back to back, up to a
+ * limit; past that it skips the missed ticks rather than fall further behind.
+ */
+class TickShard implements Runnable {
+
+    // ===================================== Constants ==========================================
+
+    private static final int MAX_CATCH_UP_TICKS = 4;
+
+
+    // ================================= Member variables =======================================
+
+    private final Host mHost;
+    private final long mStartNanos, mTickNanos;
+
+    // Only the shard's thread touches the match list; new matches arrive through the queue.
+    private final List<ServerMatch> mMatches = new ArrayList<>();
+    private final Queue<ServerMatch> mNewMatches = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer mScratch = ByteBuffer.allocate(Protocol.MAX_STATE_BYTES);
+
+    // Stats, reset each time they're read.
+    private final AtomicLong mMaxTickLatencyNanos = new AtomicLong();
+    private final AtomicLong mSkippedTicks = new AtomicLong();
+
+    // Matches being stepped or about to be, so a match just added counts toward the shard's load.
+    private final AtomicInteger mMatchCount = new AtomicInteger();
+
+
+    // =================================== Constructor ==========================================
+
+    /**
+     * @param host is sent every match's state after each tick.
+     * @param startNanos is when tick 0 is due, shared by every shard.
+     * @param tickNanos is the time between ticks.
+     */
+    TickShard(Host host, long startNanos, long tickNanos) {
+        mHost = host;
+        mStartNanos = startNanos;
+        mTickNanos = tickNanos;
+    }
+
+
+    // ================================== Package methods =======================================
+
+    /**
+     * Start stepping a match from the next tick. Safe to call from any thread.
+     */
+    void addMatch(final ServerMatch match) {
+        mMatchCount.incrementAndGet();
+        mNewMatches.add(match);
+    }
+
+    /**
+     * @return the number of matches the shard is stepping, including any just added.
+     */
+    int getMatchCount() {
+        return mMatchCount.get();
+    }
+
+    /**
+     * @return the longest time, since the last call, from when a tick was due until the shard
+     *         finished it.
+     */
+    long takeMaxTickLatencyNanos() {
+        return mMaxTickLatencyNanos.getAndSet(0L);
+    }
+
+    /**
+     * @return the number of ticks skipped since the last call, to catch back up.
+     */
+    long takeSkippedTicks() {
+        return mSkippedTicks.getAndSet(0L);
+    }
+
+
+    // ================================= Runnable method ========================================
+
+    @Override
+    public void run() {
+        long tick = 0L;
+        while (!Thread.currentThread().isInterrupted()) {
+            long dueNanos = mStartNanos + tick * mTickNanos;
+            long sleepNanos = dueNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            stepMatches();
+
+            long finishedNanos = System.nanoTime();
+            long latencyNanos = finishedNanos - dueNanos;
+            if (latencyNanos > mMaxTickLatencyNanos.get()) {
+                mMaxTickLatencyNanos.set(latencyNanos);
+            }
+
+            tick++;
+            long ticksBehind = (finishedNanos - mStartNanos) / mTickNanos - tick;
+            if (ticksBehind > MAX_CATCH_UP_TICKS) {
+                mSkippedTicks.addAndGet(ticksBehind);
+                tick += ticksBehind;
+            }
+        }
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private void stepMatches() {
+        ServerMatch newMatch;
+        while ((newMatch = mNewMatches.poll()) != null) {
+            mMatches.add(newMatch);
+        }
+
+        // Drop finished matches by moving the last one into their place.
+        int i = 0;
+        while (i < mMatches.size()) {
+            ServerMatch match = mMatches.get(i);
+            if (match.isOver()) {
+                mMatches.set(i, mMatches.get(mMatches.size() - 1));
+                mMatches.remove(mMatches.size() - 1);
+                mMatchCount.decrementAndGet();
+                continue;
+            }
+            match.tick(mScratch);
+            mHost.sendState(match, mScratch);
+            i++;
+        }
+        mHost.onTickFinished();
+    }
+
+
+    // ================================== Helper classes ========================================
+
+    /**
+     * Where a shard sends its matches' states, e.g. out to the players.
+     */
+    interface Host {
+
+        /**
+         * Send a match's state, just after its tick. Called on the shard's thread.
+         *
+         * @param state holds the STATE message between its position and limit. The buffer is
+         *              reused for the next match, so anything kept must be copied.
+         */
+        void sendState(ServerMatch match, ByteBuffer state);
+
+        /**
+         * Called on the shard's thread after each tick, once every state has been sent.
+         */
+        void onTickFinished();
+    }
+}
@@ -0,0 +1,157 @@
+package com.charlesdrews.pongish.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A ClusterCoordinator's TCP connection to one of its ClusterWorkers, and what the worker last
+ * reported about its load. Only the coordinator's selector thread touches it.
+ *
+ * Unlike a client, a worker can't just miss a message, so if one falls so far behind that its
+ * outbound buffer fills up, the link is marked as overflowed and the coordinator drops the worker
+ * as if it had died.
+ */
+class WorkerLink {
+
+    // ===================================== Constants ==========================================
+
+    private static final int OUTBOUND_BUFFER_BYTES = 8 * ClusterProtocol.MAX_MESSAGE_BYTES;
+
+
+    // ================================= Member variables =======================================
+
+    final SocketChannel mChannel;
+    final SelectionKey mKey;
+    final ByteBuffer mInbound = ByteBuffer.allocate(2 * ClusterProtocol.MAX_MESSAGE_BYTES);
+
+    // Set once the worker says hello. Until then it has no matches.
+    int mId = -1;
+    boolean mLeaving = false;
+
+    // Matches the coordinator has placed here.
+    int mMatchCount = 0;
+
+    // From the worker's last LOAD message.
+    int mReportedMatchCount = 0;
+    int mMaxTickLatencyMicros = 0;
+    int mSkippedTicks = 0;
+    int mHeapUsedKb = 0;
+
+    private final ByteBuffer mOutbound = ByteBuffer.allocate(OUTBOUND_BUFFER_BYTES);
+    private boolean mOverflowed = false;
+    private boolean mClosed = false;
+
+
+    // =================================== Constructor ==========================================
+
+    WorkerLink(SocketChannel channel, SelectionKey key) {
+        mChannel = channel;
+        mKey = key;
+    }
+
+
+    // ================================== Package methods =======================================
+
+    void sendStart(final int matchId) {
+        sendMatchMessage(ClusterProtocol.START, matchId);
+    }
+
+    void sendEnd(final int matchId) {
+        sendMatchMessage(ClusterProtocol.END, matchId);
+    }
+
+    void sendMigrate(final int matchId) {
+        sendMatchMessage(ClusterProtocol.MIGRATE, matchId);
+    }
+
+    void sendInput(final int matchId, final int paddle, final float deltaY) {
+        if (reserve(Protocol.HEADER_BYTES + ClusterProtocol.INPUT_PAYLOAD_BYTES)) {
+            Protocol.putHeader(mOutbound, ClusterProtocol.INPUT,
+                    ClusterProtocol.INPUT_PAYLOAD_BYTES);
+            mOutbound.putInt(matchId);
+            mOutbound.putInt(paddle);
+            mOutbound.putFloat(deltaY);
+        }
+    }
+
+    /**
+     * @param snapshot holds the match's snapshot, as written by ServerMatch.writeSnapshot(), in
+     *                 its first snapshotBytes bytes.
+     */
+    void sendRestore(final int matchId, final byte[] snapshot, final int snapshotBytes) {
+        if (reserve(Protocol.HEADER_BYTES + 4 + snapshotBytes)) {
+            Protocol.putHeader(mOutbound, ClusterProtocol.RESTORE, 4 + snapshotBytes);
+            mOutbound.putInt(matchId);
+            mOutbound.put(snapshot, 0, snapshotBytes);
+        }
+    }
+
+    boolean hasPendingWrites() {
+        return mOutbound.position() > 0;
+    }
+
+    /**
+     * Write as much of the outbound buffer as the socket will take.
+     */
+    void flush() throws IOException {
+        mOutbound.flip();
+        mChannel.write(mOutbound);
+        boolean finished = !mOutbound.hasRemaining();
+        mOutbound.compact();
+
+        // Have the selector say when there's room for the rest.
+        if (mKey.isValid()) {
+            mKey.interestOps(finished ? SelectionKey.OP_READ :
+                    SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * @return true if a message had to be dropped for lack of room, so the worker's view of its
+     *         matches can no longer be trusted.
+     */
+    boolean isOverflowed() {
+        return mOverflowed;
+    }
+
+    void close() {
+        mClosed = true;
+        mKey.cancel();
+        try {
+            mChannel.close();
+        }
+        catch (IOException e) {
+            // Already gone.
+        }
+    }
+
+    boolean isClosed() {
+        return mClosed;
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private void sendMatchMessage(final byte type, final int matchId) {
+        if (reserve(Protocol.HEADER_BYTES + 4)) {
+            Protocol.putHeader(mOutbound, type, 4);
+            mOutbound.putInt(matchId);
+        }
+    }
+
+    /**
+     * @return true if there's room for a message of the given size, header included.
+     */
+    private boolean reserve(final int messageBytes) {
+        if (mClosed || mOverflowed) {
+            return false;
+        }
+        if (mOutbound.remaining() < messageBytes) {
+            mOverflowed = true;
+            return false;
+        }
+        return true;
+    }
+}
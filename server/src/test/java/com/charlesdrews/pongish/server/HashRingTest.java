@@ -0,0 +1,120 @@
+package com.charlesdrews.pongish.server;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks HashRing spreads match ids evenly, and that adding or removing a node only moves about
+ * 1/n of them, all to or from that node.
+ */
+public class HashRingTest {
+
+    // ===================================== Constants ==========================================
+
+    private static final int NODE_COUNT = 8;
+    private static final int KEY_COUNT = 100_000;
+
+    // Furthest any node's share may be from an even split, as a fraction of it.
+    private static final double MAX_IMBALANCE = 0.3;
+
+
+    // ====================================== Tests =============================================
+
+    @Test
+    public void emptyRingHasNoNode() {
+        assertEquals(-1, new HashRing().getNode(42));
+    }
+
+    @Test
+    public void keysSpreadEvenly() {
+        HashRing ring = newRing(NODE_COUNT);
+        int[] counts = new int[NODE_COUNT];
+        for (int key = 0; key < KEY_COUNT; key++) {
+            counts[ring.getNode(key)]++;
+        }
+
+        double even = KEY_COUNT / (double) NODE_COUNT;
+        for (int node = 0; node < NODE_COUNT; node++) {
+            assertTrue("node " + node + " got " + counts[node] + " keys",
+                    Math.abs(counts[node] - even) <= MAX_IMBALANCE * even);
+        }
+    }
+
+    @Test
+    public void addingANodeMovesAboutOneNthToIt() {
+        HashRing ring = newRing(NODE_COUNT);
+        int[] before = getNodes(ring);
+        ring.addNode(NODE_COUNT);
+        int[] after = getNodes(ring);
+
+        int moved = 0;
+        for (int key = 0; key < KEY_COUNT; key++) {
+            if (after[key] != before[key]) {
+                assertEquals(NODE_COUNT, after[key]);
+                moved++;
+            }
+        }
+        assertAboutOneNth(moved, NODE_COUNT + 1);
+    }
+
+    @Test
+    public void removingANodeOnlyMovesItsKeys() {
+        HashRing ring = newRing(NODE_COUNT);
+        int[] before = getNodes(ring);
+        int removed = 3;
+        ring.removeNode(removed);
+        int[] after = getNodes(ring);
+
+        int moved = 0;
+        for (int key = 0; key < KEY_COUNT; key++) {
+            if (after[key] != before[key]) {
+                assertEquals(removed, before[key]);
+                moved++;
+            }
+            else {
+                assertTrue(after[key] != removed);
+            }
+        }
+        assertAboutOneNth(moved, NODE_COUNT);
+    }
+
+    @Test
+    public void orderNodesAreAddedInDoesntMatter() {
+        HashRing forward = newRing(NODE_COUNT);
+        HashRing backward = new HashRing();
+        for (int node = NODE_COUNT - 1; node >= 0; node--) {
+            backward.addNode(node);
+        }
+        for (int key = 0; key < KEY_COUNT; key++) {
+            assertEquals(forward.getNode(key), backward.getNode(key));
+        }
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private static HashRing newRing(final int nodeCount) {
+        HashRing ring = new HashRing();
+        for (int node = 0; node < nodeCount; node++) {
+            ring.addNode(node);
+        }
+        assertEquals(nodeCount, ring.getNodeCount());
+        return ring;
+    }
+
+    private static int[] getNodes(final HashRing ring) {
+        int[] nodes = new int[KEY_COUNT];
+        for (int key = 0; key < KEY_COUNT; key++) {
+            nodes[key] = ring.getNode(key);
+        }
+        return nodes;
+    }
+
+    private static void assertAboutOneNth(final int moved, final int n) {
+        double expected = KEY_COUNT / (double) n;
+        assertTrue(moved + " of " + KEY_COUNT + " keys moved",
+                Math.abs(moved - expected) <= MAX_IMBALANCE * expected);
+    }
+}
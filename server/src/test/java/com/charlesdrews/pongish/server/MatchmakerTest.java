@@ -0,0 +1,181 @@
+package com.charlesdrews.pongish.server;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks Matchmaker widens the skill gap it allows as players wait, picks the closest partner,
+ * and that a cancel racing formMatches() leaves every player either matched or cancelled,
+ * never both.
+ */
+public class MatchmakerTest {
+
+    // ===================================== Constants ==========================================
+
+    private static final long SECOND_IN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int RACE_PLAYERS = 20_000;
+    private static final int RACE_CANCELLERS = 4;
+
+
+    // ================================= Member variables =======================================
+
+    private Matchmaker<Integer> mMatchmaker;
+    private final List<int[]> mMatches = new ArrayList<>();
+    private final Matchmaker.Listener<Integer> mListener = new Matchmaker.Listener<Integer>() {
+        @Override
+        public void onMatch(Integer first, Integer second, long firstWaitedNanos,
+                            long secondWaitedNanos) {
+            mMatches.add(new int[] {first, second});
+        }
+    };
+
+
+    // ====================================== Setup =============================================
+
+    @Before
+    public void setUp() {
+        mMatchmaker = new Matchmaker<>();
+        mMatches.clear();
+    }
+
+
+    // ====================================== Tests =============================================
+
+    @Test
+    public void skillGapWidensWithWaitingUpToTheMax() {
+        assertEquals(Matchmaker.BASE_SKILL_GAP, Matchmaker.getSkillGap(0L));
+        assertEquals(Matchmaker.BASE_SKILL_GAP + Matchmaker.SKILL_GAP_GROWTH_PER_SECOND,
+                Matchmaker.getSkillGap(SECOND_IN_NANOS));
+        assertEquals(Matchmaker.BASE_SKILL_GAP + 3 * Matchmaker.SKILL_GAP_GROWTH_PER_SECOND,
+                Matchmaker.getSkillGap(3 * SECOND_IN_NANOS));
+        assertEquals(Matchmaker.MAX_SKILL_GAP, Matchmaker.getSkillGap(3_600 * SECOND_IN_NANOS));
+    }
+
+    @Test
+    public void distantPlayersAreMatchedOnceTheGapHasWidened() {
+        mMatchmaker.enqueue(1, 1_500, 0L);
+        mMatchmaker.enqueue(2, 1_800, 0L);
+
+        // 300 apart takes BASE_SKILL_GAP + 2.5 s of growth.
+        assertEquals(0, mMatchmaker.formMatches(0L, mListener));
+        assertEquals(0, mMatchmaker.formMatches(2 * SECOND_IN_NANOS, mListener));
+        assertEquals(2, mMatchmaker.getWaitingCount());
+
+        assertEquals(1, mMatchmaker.formMatches(5 * SECOND_IN_NANOS / 2, mListener));
+        assertEquals(0, mMatchmaker.getWaitingCount());
+        assertEquals(1, mMatches.get(0)[0]);
+        assertEquals(2, mMatches.get(0)[1]);
+    }
+
+    @Test
+    public void closestPartnerIsChosen() {
+        mMatchmaker.enqueue(1, 1_500, 0L);
+        mMatchmaker.enqueue(2, 1_720, 1L);
+        mMatchmaker.enqueue(3, 1_390, 2L);
+        mMatchmaker.enqueue(4, 1_560, 3L);
+
+        // Player 1 waited longest, so is paired first, with 4, not 2 or 3.
+        assertEquals(2, mMatchmaker.formMatches(10 * SECOND_IN_NANOS, mListener));
+        assertEquals(1, mMatches.get(0)[0]);
+        assertEquals(4, mMatches.get(0)[1]);
+    }
+
+    @Test
+    public void cancelledPlayersAreNeverMatched() {
+        Matchmaker.Ticket<Integer> ticket = mMatchmaker.enqueue(1, 1_500, 0L);
+        mMatchmaker.enqueue(2, 1_500, 0L);
+        assertTrue(mMatchmaker.cancel(ticket));
+        assertFalse(mMatchmaker.cancel(ticket));
+
+        assertEquals(0, mMatchmaker.formMatches(SECOND_IN_NANOS, mListener));
+        assertEquals(1, mMatchmaker.getWaitingCount());
+    }
+
+    @Test
+    public void matchedPlayersCantBeCancelled() {
+        Matchmaker.Ticket<Integer> first = mMatchmaker.enqueue(1, 1_500, 0L);
+        Matchmaker.Ticket<Integer> second = mMatchmaker.enqueue(2, 1_500, 0L);
+        assertEquals(1, mMatchmaker.formMatches(SECOND_IN_NANOS, mListener));
+        assertFalse(mMatchmaker.cancel(first));
+        assertFalse(mMatchmaker.cancel(second));
+    }
+
+    @Test
+    public void cancelRacingMatchesEndsOneWayOrTheOther() throws InterruptedException {
+
+        // Everyone's the same skill, so anyone can be matched with anyone.
+        @SuppressWarnings("unchecked")
+        final Matchmaker.Ticket<Integer>[] tickets = new Matchmaker.Ticket[RACE_PLAYERS];
+        for (int i = 0; i < RACE_PLAYERS; i++) {
+            tickets[i] = mMatchmaker.enqueue(i, 1_500, 0L);
+        }
+
+        // 0 while waiting, then +1 for each match and +2 for each successful cancel.
+        final AtomicIntegerArray outcomes = new AtomicIntegerArray(RACE_PLAYERS);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] cancellers = new Thread[RACE_CANCELLERS];
+        for (int c = 0; c < RACE_CANCELLERS; c++) {
+            final int first = c;
+            cancellers[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = first; i < RACE_PLAYERS; i += RACE_CANCELLERS) {
+                        if (i % 2 == 0 && mMatchmaker.cancel(tickets[i])) {
+                            outcomes.addAndGet(i, 2);
+                        }
+                    }
+                }
+            });
+            cancellers[c].start();
+        }
+
+        Matchmaker.Listener<Integer> listener = new Matchmaker.Listener<Integer>() {
+            @Override
+            public void onMatch(Integer first, Integer second, long firstWaitedNanos,
+                                long secondWaitedNanos) {
+                outcomes.incrementAndGet(first);
+                outcomes.incrementAndGet(second);
+            }
+        };
+        start.countDown();
+        for (long tick = 1; mMatchmaker.getWaitingCount() > 1; tick++) {
+            mMatchmaker.formMatches(tick, listener);
+        }
+        for (Thread canceller : cancellers) {
+            canceller.join();
+        }
+        mMatchmaker.formMatches(Long.MAX_VALUE / 2, listener);
+
+        int matched = 0, cancelled = 0;
+        for (int i = 0; i < RACE_PLAYERS; i++) {
+            int outcome = outcomes.get(i);
+            assertTrue("player " + i + " ended with outcome " + outcome,
+                    outcome == 1 || outcome == 2 || outcome == 0);
+            if (outcome == 1) {
+                matched++;
+            }
+            else if (outcome == 2) {
+                cancelled++;
+            }
+        }
+        assertEquals(RACE_PLAYERS, matched + cancelled + mMatchmaker.getWaitingCount());
+        assertTrue(mMatchmaker.getWaitingCount() <= 1);
+    }
+}
@@ -0,0 +1,108 @@
+package com.charlesdrews.pongish.server;
+
+import com.charlesdrews.pongish.game.objects.GameObjects;
+import com.charlesdrews.pongish.game.objects.PongScene;
+import com.charlesdrews.pongish.game.objects.SceneSnapshot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks SceneSnapshots survive being written out and read back, as they are when a match moves
+ * between cluster workers, and that a cut-off or corrupt one is turned away whole.
+ */
+public class SceneSnapshotTest {
+
+    // ================================= Member variables =======================================
+
+    private SceneSnapshot mSnapshot;
+
+
+    // ====================================== Setup =============================================
+
+    @Before
+    public void setUp() {
+        PongScene scene = new PongScene(GameObjects.Scene.BOTH_PADDLES);
+        scene.setRandomSeed(20161018L);
+        scene.setChaosModeTargetBallCount(50);
+        for (int i = 0; i < 120; i++) {
+            scene.updateGameObjects(16L);
+        }
+        mSnapshot = new SceneSnapshot();
+        scene.saveSnapshot(mSnapshot);
+    }
+
+
+    // ====================================== Tests =============================================
+
+    @Test
+    public void roundTrip() {
+        ByteBuffer buffer = write(mSnapshot);
+        assertEquals(mSnapshot.getSerializedBytes(), buffer.remaining());
+
+        SceneSnapshot copy = new SceneSnapshot();
+        copy.read(buffer);
+        assertEquals(0, buffer.remaining());
+        assertEquals(mSnapshot.checksum(), copy.checksum());
+        assertEquals(mSnapshot.getSimulationTimeInMillis(), copy.getSimulationTimeInMillis());
+    }
+
+    @Test
+    public void roundTripIntoASnapshotWithMoreBalls() {
+        PongScene small = new PongScene(GameObjects.Scene.BOTH_PADDLES);
+        small.setRandomSeed(1L);
+        SceneSnapshot smallSnapshot = new SceneSnapshot();
+        small.saveSnapshot(smallSnapshot);
+
+        // Reads into arrays that are bigger than needed, as when a worker reuses snapshots.
+        SceneSnapshot copy = new SceneSnapshot();
+        copy.read(write(mSnapshot));
+        copy.read(write(smallSnapshot));
+        assertEquals(smallSnapshot.checksum(), copy.checksum());
+    }
+
+    @Test
+    public void truncatedSnapshotsAreRejected() {
+        ByteBuffer whole = write(mSnapshot);
+        SceneSnapshot target = new SceneSnapshot();
+        target.read(write(mSnapshot));
+        long checksum = target.checksum();
+
+        for (int bytes = 0; bytes < whole.remaining(); bytes += 7) {
+            ByteBuffer truncated = whole.duplicate();
+            truncated.limit(bytes);
+            try {
+                target.read(truncated);
+                fail("read " + bytes + " of " + whole.remaining() + " bytes");
+            }
+            catch (IllegalArgumentException e) {
+                // Expected.
+            }
+
+            // A rejected snapshot mustn't be half read in.
+            assertEquals(checksum, target.checksum());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void snapshotWithNoBallsIsRejected() {
+        ByteBuffer buffer = write(mSnapshot);
+        buffer.putInt(8, 0);
+        new SceneSnapshot().read(buffer);
+    }
+
+
+    // ================================== Helper methods ========================================
+
+    private static ByteBuffer write(final SceneSnapshot snapshot) {
+        ByteBuffer buffer = ByteBuffer.allocate(snapshot.getSerializedBytes());
+        snapshot.write(buffer);
+        buffer.flip();
+        return buffer;
+    }
+}